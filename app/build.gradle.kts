@@ -14,16 +14,46 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        buildConfigField("String", "OMR_BASE_URL", "\"https://tabler-omr.onrender.com\"")
     }
 
     buildTypes {
         release {
-            isMinifyEnabled = false
+            // R8 in full mode (the AGP 8 default, see gradle.properties), rules in proguard-rules.pro
+            isMinifyEnabled = true
+            isShrinkResources = true
             proguardFiles(
                 getDefaultProguardFile("proguard-android-optimize.txt"),
                 "proguard-rules.pro"
             )
         }
+        // Release-like build for :macrobenchmark: profileable, signed with the debug key, talks
+        // to the mock backend the benchmarks start on the device, plus src/benchmark (data seeding)
+        create("benchmark") {
+            initWith(getByName("release"))
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+            buildConfigField("String", "OMR_BASE_URL", "\"http://127.0.0.1:8090\"")
+        }
+        // As "benchmark" but not minified, for :macrobenchmark's BaselineProfileGenerator: the
+        // profile has to name the original classes and methods, R8 rewrites it for release
+        create("nonMinified") {
+            initWith(getByName("release"))
+            isMinifyEnabled = false
+            isShrinkResources = false
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+            buildConfigField("String", "OMR_BASE_URL", "\"http://127.0.0.1:8090\"")
+        }
+    }
+    sourceSets {
+        // Code also compiled by :microbenchmark (which can't depend on an application module)
+        getByName("main").java.srcDir("src/shared/java")
+        getByName("nonMinified") {
+            java.srcDir("src/benchmark/java")
+            res.srcDir("src/benchmark/res")
+            manifest.srcFile("src/benchmark/AndroidManifest.xml")
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
@@ -31,6 +61,7 @@ android {
     }
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
 }
 
@@ -41,8 +72,14 @@ dependencies {
     implementation("androidx.cardview:cardview:1.0.0")
     implementation("androidx.recyclerview:recyclerview:1.3.2")
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
+    implementation("androidx.work:work-runtime:2.10.1")
     implementation(libs.navigation.fragment)
     implementation(libs.navigation.ui)
+    implementation(libs.camera.camera2)
+    implementation(libs.camera.lifecycle)
+    implementation(libs.camera.view)
+    // Installs src/main/baseline-prof.txt on devices that don't get it from Play
+    implementation(libs.profileinstaller)
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
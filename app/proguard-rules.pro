@@ -18,4 +18,30 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# Full mode keeps only what is reachable from code, the manifest and layouts. Everything below is
+# reached by name:
+#
+# Fragments named in res/navigation/nav_graph.xml are created by FragmentFactory through their
+# no-argument constructor.
+-keep class com.example.tabler.** extends androidx.fragment.app.Fragment {
+    public <init>();
+}
+
+# View binding classes are called directly, but keep inflate/bind for tools (Layout Inspector,
+# tests) that find them by name.
+-keep class com.example.tabler.databinding.** {
+    public static *** inflate(...);
+    public static *** bind(android.view.View);
+}
+
+# OkHttp 4 and Okio ship their own consumer rules (META-INF/proguard/okhttp3.pro); these are the
+# optional TLS providers OkHttp probes for at runtime and that the app does not include.
+-dontwarn okhttp3.internal.platform.**
+-dontwarn org.bouncycastle.**
+-dontwarn org.conscrypt.**
+-dontwarn org.openjsse.**
+
+# Readable stack traces in crash reports (retrace with build/outputs/mapping/release/mapping.txt)
+-keepattributes SourceFile,LineNumberTable
+-renamesourcefileattribute SourceFile
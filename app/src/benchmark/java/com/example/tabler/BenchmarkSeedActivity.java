@@ -0,0 +1,96 @@
+package com.example.tabler;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Benchmark builds only: fills the library for :macrobenchmark. Adds {@link #EXTRA_COUNT} items
+ * (default 1000), each with its own generated page so the list decodes real, distinct thumbnails.
+ * Items are not recognized ("Solo immagine"): opening one starts the OMR against the mock backend.
+ * Shows {@link #DONE_TEXT} when finished.
+ */
+public class BenchmarkSeedActivity extends Activity {
+
+    static final String EXTRA_COUNT = "count";
+    static final String DONE_TEXT = "seeded";
+
+    private static final int PAGE_WIDTH = 600;
+    private static final int PAGE_HEIGHT = 848;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        TextView status = new TextView(this);
+        status.setText("seeding");
+        setContentView(status);
+        int count = getIntent().getIntExtra(EXTRA_COUNT, 1000);
+        new Thread(() -> {
+            String text;
+            try {
+                seed(count);
+                text = DONE_TEXT;
+            } catch (IOException e) {
+                text = "failed: " + e.getMessage();
+            }
+            String result = text;
+            runOnUiThread(() -> status.setText(result));
+        }, "benchmark-seed").start();
+    }
+
+    private void seed(int count) throws IOException {
+        SpartitoRepository repository = SpartitoRepository.getInstance(this);
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        File tmp = new File(getCacheDir(), "seed.jpg");
+        for (int i = 0; i < count; i++) {
+            String id = UUID.randomUUID().toString();
+            writePage(tmp, i + 1, random);
+            Uri page = repository.importPageSync(id, Uri.fromFile(tmp));
+            repository.saveSync(new SpartitoItem(id, "Spartito " + (i + 1), page, null, now - i));
+        }
+        tmp.delete();
+    }
+
+    /** A page with five staves and scattered note heads, different for every item. */
+    private static void writePage(File out, int number, Random random) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(PAGE_WIDTH, PAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(32);
+        canvas.drawText("Pagina " + number, 40, 60, paint);
+        paint.setStrokeWidth(2);
+        for (int staff = 0; staff < 5; staff++) {
+            int top = 120 + staff * 140;
+            for (int line = 0; line < 5; line++) {
+                int y = top + line * 14;
+                canvas.drawLine(30, y, PAGE_WIDTH - 30, y, paint);
+            }
+            for (int note = 0; note < 16; note++) {
+                float x = 60 + note * 32 + random.nextInt(8);
+                float y = top + random.nextInt(9) * 7;
+                canvas.drawOval(x, y - 5, x + 12, y + 5, paint);
+                canvas.drawLine(x + 12, y, x + 12, y - 36, paint);
+            }
+        }
+        try (OutputStream os = new FileOutputStream(out)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, os);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.example.tabler;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -10,6 +12,7 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -19,29 +22,38 @@ import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.navigation.NavController;
 import androidx.navigation.Navigation;
+import androidx.navigation.fragment.NavHostFragment;
 
 import com.example.tabler.databinding.FragmentAggiungiSpartitoBinding;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class AggiungiSpartitoFragment extends Fragment {
 
     private FragmentAggiungiSpartitoBinding binding;
-    private Uri cameraPhotoUri;
+    /** Which camera mode to open once the permission is granted. */
+    private boolean pendingBatch;
 
     private final ActivityResultLauncher<String> requestPermissionLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestPermission(), granted -> {
                 if (granted) {
-                    launchCameraInternal();
+                    navigateToCamera(pendingBatch);
                 }
             });
 
-    private final ActivityResultLauncher<Uri> takePictureLauncher =
-            registerForActivityResult(new ActivityResultContracts.TakePicture(), result -> {
-                if (result && cameraPhotoUri != null) {
-                    navigateToAnteprima(cameraPhotoUri.toString());
+    private final ActivityResultLauncher<Intent> pickMultipleLauncher =
+            registerForActivityResult(new ActivityResultContracts.StartActivityForResult(), result -> {
+                if (result.getResultCode() != Activity.RESULT_OK || result.getData() == null) return;
+                Intent data = result.getData();
+                List<Uri> pages = new ArrayList<>();
+                ClipData clip = data.getClipData();
+                if (clip != null) {
+                    for (int i = 0; i < clip.getItemCount(); i++) pages.add(clip.getItemAt(i).getUri());
+                } else if (data.getData() != null) {
+                    pages.add(data.getData());
                 }
+                queuePages(pages);
             });
 
     private final ActivityResultLauncher<Intent> pickFileLauncher =
@@ -60,31 +72,53 @@ public class AggiungiSpartitoFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        binding.btnScattaFoto.setOnClickListener(v -> launchCamera());
+        binding.btnScattaFoto.setOnClickListener(v -> launchCamera(false));
         binding.btnScegliGalleria.setOnClickListener(v -> launchGallery());
+        binding.btnScansioneMultipla.setOnClickListener(v -> launchCamera(true));
+        binding.btnScegliPiuFile.setOnClickListener(v -> launchMultipleGallery());
     }
 
-    private void launchCamera() {
+    private void launchCamera(boolean batch) {
         if (ContextCompat.checkSelfPermission(requireContext(), Manifest.permission.CAMERA)
                 != PackageManager.PERMISSION_GRANTED) {
+            pendingBatch = batch;
             requestPermissionLauncher.launch(Manifest.permission.CAMERA);
             return;
         }
-        launchCameraInternal();
+        navigateToCamera(batch);
     }
 
-    private void launchCameraInternal() {
-        try {
-            File photoFile = File.createTempFile("spartito_", ".jpg", requireContext().getCacheDir());
-            cameraPhotoUri = androidx.core.content.FileProvider.getUriForFile(
-                    requireContext(),
-                    requireContext().getPackageName() + ".fileprovider",
-                    photoFile
-            );
-            takePictureLauncher.launch(cameraPhotoUri);
-        } catch (IOException e) {
-            cameraPhotoUri = null;
-        }
+    /** In-app camera with live page detection; in batch mode it collects pages until "Fine". */
+    private void navigateToCamera(boolean batch) {
+        Bundle args = new Bundle();
+        args.putBoolean("batch", batch);
+        NavController nav = Navigation.findNavController(requireView());
+        nav.navigate(R.id.fotocameraFragment, args);
+    }
+
+    private void launchMultipleGallery() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"image/*", "application/pdf"});
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        pickMultipleLauncher.launch(Intent.createChooser(intent, getString(R.string.scegli_piu_file)));
+    }
+
+    /**
+     * Adds the pages to the library and the background OMR queue, then goes back to the list,
+     * where their state updates as results arrive.
+     */
+    private void queuePages(List<Uri> pages) {
+        if (pages.isEmpty()) return;
+        Context context = requireContext().getApplicationContext();
+        OmrQueue.addPages(context, pages, added -> {
+            Toast.makeText(context, added.isEmpty() ? context.getString(R.string.pagine_in_coda_nessuna)
+                    : context.getString(R.string.pagine_in_coda, added.size()), Toast.LENGTH_SHORT).show();
+            if (isAdded()) {
+                NavHostFragment.findNavController(this).popBackStack(R.id.FirstFragment, false);
+            }
+        });
     }
 
     private void launchGallery() {
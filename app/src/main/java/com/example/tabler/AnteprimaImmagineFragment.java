@@ -5,6 +5,7 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -18,6 +19,7 @@ public class AnteprimaImmagineFragment extends Fragment {
 
     private FragmentAnteprimaImmagineBinding binding;
     private String imageUriString;
+    @Nullable private PerfTracer.Span previewSpan;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -37,9 +39,20 @@ public class AnteprimaImmagineFragment extends Fragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         if (imageUriString != null) {
-            binding.anteprimaImage.setImageURI(Uri.parse(imageUriString));
+            // Decoded in the background, only as much as the screen shows: until the first page is drawn
+            PerfTracer.Span span = PerfTracer.begin("preview_decode");
+            previewSpan = span;
+            binding.anteprimaImage.setUri(Uri.parse(imageUriString), (pages, width, height) -> {
+                span.attr("pages", pages).attr("width", width).attr("height", height).close();
+                previewSpan = null;
+                if (pages == 0 && isAdded()) {
+                    Toast.makeText(requireContext(), R.string.anteprima_non_disponibile, Toast.LENGTH_SHORT).show();
+                }
+            });
         }
         binding.btnRiconosciOmr.setOnClickListener(v -> launchOmr());
+        // While the user looks at the preview: open the connection and wake the backend from sleep
+        SharedHttpClient.getInstance(requireContext()).warmUp(OmrClient.OMR_BASE_URL + "/health");
     }
 
     private void launchOmr() {
@@ -53,6 +66,10 @@ public class AnteprimaImmagineFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (previewSpan != null) {
+            previewSpan.attr("shown", false).close();
+            previewSpan = null;
+        }
         binding = null;
     }
 }
@@ -0,0 +1,237 @@
+package com.example.tabler;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Chooses string and fret for every note of {@link MusicXmlReader.Notes} on an {@link Instrument},
+ * minimizing hand movement. It is a dynamic program (Viterbi) over the slices. The states of a
+ * slice are its playable fingerings: one note per string, fretted notes within
+ * {@link #MAX_SPAN} frets. The local cost favours compact shapes low on the neck; the transition
+ * cost is how far the hand shifts along the neck. Chords that don't fit lose their lowest notes.
+ * <p>
+ * Measures are solved in chunks of {@link #CHUNK_MEASURES}, in parallel. Each chunk starts its
+ * search {@link #OVERLAP_MEASURES} measure early, so its first notes follow from where the
+ * previous chunk's hand would be, and discards that overlap.
+ */
+final class FingeringSolver {
+
+    static final int MAX_SPAN = 4;
+    static final int CHUNK_MEASURES = 16;
+    static final int OVERLAP_MEASURES = 1;
+
+    /** Costs: per fret the hand moves, per fret of stretch in a chord, per fret of hand position. */
+    private static final int MOVE_COST = 3;
+    private static final int SPAN_COST = 2;
+    private static final int POSITION_COST = 1;
+    /** Fingerings kept per slice; a six-note chord rarely has more than a dozen. */
+    private static final int MAX_CANDIDATES = 64;
+    /** Hand position of a fingering with open strings only: the hand is free to be anywhere. */
+    private static final int FREE = -1;
+
+    /** String (0 = highest) and fret of each note; -1 for the notes that couldn't be placed. */
+    static final class Fingering {
+        final byte[] string;
+        final byte[] fret;
+
+        Fingering(int notes) {
+            string = new byte[notes];
+            fret = new byte[notes];
+            Arrays.fill(string, (byte) -1);
+            Arrays.fill(fret, (byte) -1);
+        }
+    }
+
+    private FingeringSolver() {}
+
+    static Fingering solve(MusicXmlReader.Notes notes, Instrument instrument, ExecutorService executor)
+            throws InterruptedIOException {
+        int[] pitch = new int[notes.noteCount];
+        for (int i = 0; i < pitch.length; i++) {
+            pitch[i] = instrument.fold(notes.notePitch[i]);
+        }
+        Fingering result = new Fingering(notes.noteCount);
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < notes.measureCount; from += CHUNK_MEASURES) {
+            int start = from;
+            int end = Math.min(notes.measureCount, from + CHUNK_MEASURES);
+            chunks.add(() -> {
+                new Chunk(notes, pitch, instrument).solve(Math.max(0, start - OVERLAP_MEASURES), start, end, result);
+                return null;
+            });
+        }
+        try {
+            if (chunks.size() == 1) {
+                chunks.get(0).call();
+                return result;
+            }
+            // Chunks write disjoint ranges of result; Future.get() publishes them to this thread
+            for (Future<Void> future : executor.invokeAll(chunks)) {
+                future.get();
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Conversione interrotta");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Search over a range of measures; one per task, its arrays reused slice after slice. */
+    private static final class Chunk {
+        private final MusicXmlReader.Notes notes;
+        private final int[] pitch;
+        private final int[] open;
+        private final int strings;
+        private final int maxFret;
+
+        /** Candidates of all the chunk's slices: string of each note (stride strings), hand, local cost. */
+        private byte[] candString;
+        private int[] candHand = new int[256];
+        private int[] candLocal = new int[256];
+        private int[] cost = new int[256];
+        private int[] back = new int[256];
+        private int candCount;
+        /** First candidate of each slice of the chunk, and notes kept (highest first). */
+        private int[] sliceCand = new int[64];
+        private int[] sliceKept = new int[64];
+
+        /** Enumeration state for the current slice. */
+        private final byte[] assign;
+        private int firstNote;
+        private int kept;
+        private int sliceFirstCand;
+
+        Chunk(MusicXmlReader.Notes notes, int[] pitch, Instrument instrument) {
+            this.notes = notes;
+            this.pitch = pitch;
+            this.open = instrument.openPitch;
+            this.strings = instrument.strings();
+            this.maxFret = instrument.frets;
+            this.assign = new byte[strings];
+            this.candString = new byte[candHand.length * strings];
+        }
+
+        /** Solves measures [warmFrom, to) and writes the notes of [from, to) into {@code out}. */
+        void solve(int warmFrom, int from, int to, Fingering out) {
+            int firstSlice = notes.measureFirstSlice[warmFrom];
+            int outSlice = notes.measureFirstSlice[from];
+            int endSlice = notes.measureFirstSlice[to];
+            int slices = endSlice - firstSlice;
+            if (slices == 0) return;
+            if (sliceCand.length < slices + 1) {
+                sliceCand = new int[slices + 1];
+                sliceKept = new int[slices];
+            }
+
+            for (int i = 0; i < slices; i++) {
+                int slice = firstSlice + i;
+                sliceCand[i] = candCount;
+                sliceFirstCand = candCount;
+                firstNote = notes.sliceFirstNote[slice];
+                // Keep as many notes as can be played, dropping the lowest first
+                kept = Math.min(notes.notes(slice), strings);
+                while (true) {
+                    enumerate(0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE);
+                    if (candCount > sliceCand[i] || kept == 0) break;
+                    kept--;
+                }
+                if (candCount == sliceCand[i]) addCandidate(FREE, 0);
+                sliceKept[i] = kept;
+            }
+            sliceCand[slices] = candCount;
+
+            // Viterbi: cost[c] = local[c] + min over the previous slice's p of cost[p] + move(p, c)
+            for (int c = sliceCand[0]; c < sliceCand[1]; c++) {
+                cost[c] = candLocal[c];
+                back[c] = -1;
+            }
+            for (int i = 1; i < slices; i++) {
+                int prevFrom = sliceCand[i - 1], prevTo = sliceCand[i];
+                for (int c = sliceCand[i]; c < sliceCand[i + 1]; c++) {
+                    int hand = candHand[c];
+                    int best = Integer.MAX_VALUE, bestPrev = prevFrom;
+                    for (int p = prevFrom; p < prevTo; p++) {
+                        int prevHand = candHand[p];
+                        int total = cost[p];
+                        if (hand != FREE && prevHand != FREE) {
+                            total += (hand > prevHand ? hand - prevHand : prevHand - hand) * MOVE_COST;
+                        }
+                        if (total < best) {
+                            best = total;
+                            bestPrev = p;
+                        }
+                    }
+                    cost[c] = best + candLocal[c];
+                    back[c] = bestPrev;
+                }
+            }
+
+            int c = sliceCand[slices - 1];
+            for (int k = c + 1; k < sliceCand[slices]; k++) {
+                if (cost[k] < cost[c]) c = k;
+            }
+            for (int i = slices - 1; i >= 0; i--) {
+                int slice = firstSlice + i;
+                if (slice >= outSlice) {
+                    int note = notes.sliceFirstNote[slice];
+                    for (int n = 0; n < sliceKept[i]; n++) {
+                        int s = candString[c * strings + n];
+                        out.string[note + n] = (byte) s;
+                        out.fret[note + n] = (byte) (pitch[note + n] - open[s]);
+                    }
+                }
+                c = back[c];
+            }
+        }
+
+        /** Places note {@code n} of the slice on every free string that can play it, recursively. */
+        private void enumerate(int n, int used, int minFret, int maxFretUsed) {
+            if (n == kept) {
+                int hand = minFret == Integer.MAX_VALUE ? FREE : minFret;
+                int span = hand == FREE ? 0 : maxFretUsed - minFret;
+                addCandidate(hand, span * SPAN_COST + (hand == FREE ? 0 : hand * POSITION_COST));
+                return;
+            }
+            int p = pitch[firstNote + n];
+            for (int s = 0; s < strings; s++) {
+                if ((used & (1 << s)) != 0) continue;
+                int fret = p - open[s];
+                if (fret < 0 || fret > maxFret) continue;
+                int min = minFret, max = maxFretUsed;
+                if (fret > 0) {
+                    min = Math.min(min, fret);
+                    max = Math.max(max, fret);
+                    if (max - min > MAX_SPAN) continue;
+                }
+                if (candCount - sliceFirstCand >= MAX_CANDIDATES) return;
+                assign[n] = (byte) s;
+                enumerate(n + 1, used | (1 << s), min, max);
+            }
+        }
+
+        private void addCandidate(int hand, int local) {
+            if (candCount == candHand.length) {
+                int size = candCount * 2;
+                candHand = Arrays.copyOf(candHand, size);
+                candLocal = Arrays.copyOf(candLocal, size);
+                cost = Arrays.copyOf(cost, size);
+                back = Arrays.copyOf(back, size);
+                candString = Arrays.copyOf(candString, size * strings);
+            }
+            System.arraycopy(assign, 0, candString, candCount * strings, kept);
+            candHand[candCount] = hand;
+            candLocal[candCount] = local;
+            candCount++;
+        }
+    }
+}
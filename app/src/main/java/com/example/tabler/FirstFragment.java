@@ -2,12 +2,23 @@ package com.example.tabler;
 
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.widget.SearchView;
+import androidx.core.view.MenuProvider;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.Lifecycle;
+import androidx.navigation.fragment.NavHostFragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
 
 import com.example.tabler.databinding.FragmentFirstBinding;
 
@@ -16,9 +27,23 @@ import java.util.List;
 
 public class FirstFragment extends Fragment {
 
+    /** Items loaded per query; the next page is requested when the user scrolls near the end. */
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 15;
+    /** Search results shown, most recently added first; no paging, a longer query narrows them. */
+    private static final int SEARCH_LIMIT = 200;
+
     private FragmentFirstBinding binding;
     private SpartitoAdapter adapter;
     private final List<SpartitoItem> items = new ArrayList<>();
+    private boolean loading;
+    private boolean endReached;
+    /** Bumped on every view creation so callbacks of a previous load are ignored. */
+    private int generation;
+    /** Background OMR work states last seen; upload percentages alone don't reload the list. */
+    private String lastOmrWorkStates;
+    /** Search typed in the toolbar, null when the whole library is listed. */
+    @Nullable private String query;
 
     @Override
     public View onCreateView(
@@ -32,32 +57,166 @@ public class FirstFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        adapter = new SpartitoAdapter();
-        adapter.setItems(items);
-        binding.recyclerSpartiti.setLayoutManager(new LinearLayoutManager(requireContext()));
+        // Kept across view recreation: coming back from a result only rebinds the rows that changed
+        if (adapter == null) {
+            adapter = new SpartitoAdapter();
+        }
+        adapter.setOnItemClickListener(this::openSpartito);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(requireContext());
+        binding.recyclerSpartiti.setLayoutManager(layoutManager);
         binding.recyclerSpartiti.setAdapter(adapter);
-        updateEmptyState(); // show "Nessuno spartito" when list is empty
+        binding.recyclerSpartiti.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= items.size() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+        requireActivity().addMenuProvider(new SearchMenu(), getViewLifecycleOwner(), Lifecycle.State.RESUMED);
+        refresh();
+        // Queued recognitions update item states in the library: reload when one changes state
+        WorkManager.getInstance(requireContext()).getWorkInfosByTagLiveData(OmrQueue.TAG)
+                .observe(getViewLifecycleOwner(), this::onOmrWork);
+    }
+
+    private void onOmrWork(List<WorkInfo> infos) {
+        StringBuilder sb = new StringBuilder();
+        for (WorkInfo info : infos) {
+            // The stage too: the worker saves "in corso" after WorkManager reports it running
+            sb.append(info.getId()).append(':').append(info.getState())
+                    .append(':').append(info.getProgress().getString(OmrWorker.KEY_STAGE)).append(';');
+        }
+        String states = sb.toString();
+        boolean changed = lastOmrWorkStates != null && !states.equals(lastOmrWorkStates);
+        lastOmrWorkStates = states;
+        if (changed) refresh();
+    }
+
+    /**
+     * The library may have changed while we were away (new scores, OMR results): reload as many
+     * items as were loaded, from the top, and let the adapter diff them.
+     */
+    private void refresh() {
+        if (query != null) {
+            search(query);
+            return;
+        }
+        generation++;
+        int requestGeneration = generation;
+        loading = true;
+        int count = Math.max(PAGE_SIZE, items.size());
+        SpartitoRepository.getInstance(requireContext()).loadPage(null, count, page -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+            endReached = page.size() < count;
+            items.clear();
+            items.addAll(page);
+            if (binding == null) return;
+            // First list shown: the end of startup for StartupTimingMetric (time to full display)
+            adapter.submitList(new ArrayList<>(items), () -> {
+                if (isAdded()) requireActivity().reportFullyDrawn();
+            });
+            updateEmptyState();
+            // Once the list is up: index what was recognized before search existed or while it was interrupted
+            SpartitoRepository.getInstance(requireContext()).requestIndexing();
+        });
+    }
+
+    /** Shows the items matching {@code text} (typed so far); an empty text lists the library again. */
+    private void search(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            if (query == null) return;
+            query = null;
+            refresh();
+            return;
+        }
+        query = trimmed;
+        generation++;
+        int requestGeneration = generation;
+        loading = true;
+        SpartitoRepository.getInstance(requireContext()).search(trimmed, SEARCH_LIMIT, results -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+            endReached = true;
+            items.clear();
+            items.addAll(results);
+            if (binding == null) return;
+            adapter.submitList(new ArrayList<>(items));
+            updateEmptyState();
+        });
+    }
+
+    private final class SearchMenu implements MenuProvider {
+        @Override
+        public void onCreateMenu(@NonNull Menu menu, @NonNull MenuInflater menuInflater) {
+            menuInflater.inflate(R.menu.menu_home, menu);
+            MenuItem item = menu.findItem(R.id.action_cerca);
+            SearchView searchView = (SearchView) item.getActionView();
+            searchView.setQueryHint(getString(R.string.cerca_suggerimento));
+            if (query != null) {
+                // Back from a score: the search is still there
+                item.expandActionView();
+                searchView.setQuery(query, false);
+                searchView.clearFocus();
+            }
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String text) {
+                    searchView.clearFocus();
+                    return true;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String text) {
+                    // Search as you type: each query is a few ms on the FTS index
+                    search(text);
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public boolean onMenuItemSelected(@NonNull MenuItem menuItem) {
+            return false;
+        }
+    }
+
+    private void loadNextPage() {
+        if (loading || endReached) return;
+        loading = true;
+        SpartitoItem last = items.isEmpty() ? null : items.get(items.size() - 1);
+        int requestGeneration = generation;
+        SpartitoRepository.getInstance(requireContext()).loadPage(last, PAGE_SIZE, page -> {
+            if (requestGeneration != generation) return;
+            loading = false;
+            endReached = page.size() < PAGE_SIZE;
+            items.addAll(page);
+            if (binding == null) return;
+            adapter.submitList(new ArrayList<>(items));
+            updateEmptyState();
+        });
     }
 
     void updateEmptyState() {
         boolean empty = items.isEmpty();
+        binding.homeEmpty.setText(query != null ? R.string.cerca_nessun_risultato : R.string.home_empty);
         binding.homeEmpty.setVisibility(empty ? View.VISIBLE : View.GONE);
         binding.recyclerSpartiti.setVisibility(empty ? View.GONE : View.VISIBLE);
     }
 
-    /** Call when a new item is added (e.g. from Anteprima/OMR flow) to refresh the list. */
-    public void addSpartitoItem(SpartitoItem item) {
-        items.add(0, item);
-        if (adapter != null) {
-            adapter.addItem(item);
-        }
-        updateEmptyState();
+    /** Opens the score: stored MusicXML if recognized, otherwise starts OMR on its image. */
+    private void openSpartito(SpartitoItem item) {
+        Bundle args = new Bundle();
+        args.putString("spartitoId", item.getId());
+        NavHostFragment.findNavController(this).navigate(R.id.risultatoOmrFragment, args);
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        binding.recyclerSpartiti.setAdapter(null);
         binding = null;
-        adapter = null;
     }
 }
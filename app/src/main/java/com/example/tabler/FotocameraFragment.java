@@ -0,0 +1,295 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Size;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.AspectRatioStrategy;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.core.content.ContextCompat;
+import androidx.fragment.app.Fragment;
+import androidx.navigation.NavOptions;
+import androidx.navigation.fragment.NavHostFragment;
+
+import com.example.tabler.databinding.FragmentFotocameraBinding;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-app camera: every preview frame goes through {@link PageDetector} and the page is captured
+ * by itself once it is found, steady and in focus (or with the shutter button). The capture is
+ * the analyzed frame's Y plane at up to {@link #TARGET_RESOLUTION}, straightened and binarized by
+ * {@link ImagePreprocessor#processLuma}: no JPEG, no system camera round trip.
+ * <p>
+ * With the {@code batch} argument every capture is collected and the user turns the page for the
+ * next one; "Fine" queues them all like the multi-file picker does.
+ */
+public class FotocameraFragment extends Fragment {
+
+    /** 12 MP at 4:3: enough for the staff lines, and what most back cameras stream for analysis. */
+    private static final Size TARGET_RESOLUTION = new Size(4032, 3024);
+    private static final String STATE_PAGES = "pages";
+    /** Shown while a frame is being captured, alongside PageDetector's STATUS_* values. */
+    private static final int STATUS_CAPTURING = -2;
+
+    /** Frames are analyzed one at a time, in order: a single thread shared by every instance. */
+    private static final ExecutorService ANALYSIS_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private FragmentFotocameraBinding binding;
+    private boolean batch;
+    /** Pages captured so far in a multi-page scan. */
+    private ArrayList<String> pages = new ArrayList<>();
+    @Nullable private ImageAnalysis analysis;
+    /** Shutter pressed: the next analyzed frame is captured whatever the detector says. */
+    private volatile boolean captureRequested;
+    /** Set on the analysis thread, shown by {@link #showStatus}. */
+    private volatile int status = -1;
+    private int shownStatus = -1;
+    private final Runnable showStatus = this::showStatus;
+
+    /** Analysis thread state. */
+    private final PageDetector detector = new PageDetector();
+    private final float[] captureQuad = new float[8];
+    /** From the first analyzed frame to the capture: how long framing took, and the analysis cost. */
+    @Nullable private PerfTracer.Span captureSpan;
+    private int frames;
+    private long analysisNanos;
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (getArguments() != null) {
+            batch = getArguments().getBoolean("batch");
+        }
+        if (savedInstanceState != null) {
+            ArrayList<String> saved = savedInstanceState.getStringArrayList(STATE_PAGES);
+            if (saved != null) pages = saved;
+        }
+    }
+
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        binding = FragmentFotocameraBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        binding.btnShutter.setOnClickListener(v -> captureRequested = true);
+        binding.btnFineScansione.setVisibility(batch ? View.VISIBLE : View.GONE);
+        binding.btnFineScansione.setOnClickListener(v -> finishBatch());
+        updateFine();
+        status = PageDetector.STATUS_NO_PAGE;
+        showStatus();
+        startCamera();
+    }
+
+    private void startCamera() {
+        ListenableFuture<ProcessCameraProvider> future = ProcessCameraProvider.getInstance(requireContext());
+        future.addListener(() -> {
+            if (binding == null) return;
+            try {
+                bind(future.get());
+            } catch (Exception e) {
+                Toast.makeText(requireContext(), R.string.fotocamera_non_disponibile, Toast.LENGTH_SHORT).show();
+                NavHostFragment.findNavController(this).popBackStack();
+            }
+        }, ContextCompat.getMainExecutor(requireContext()));
+    }
+
+    private void bind(ProcessCameraProvider provider) {
+        ResolutionSelector previewSelector = new ResolutionSelector.Builder()
+                .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                .build();
+        Preview preview = new Preview.Builder().setResolutionSelector(previewSelector).build();
+        preview.setSurfaceProvider(binding.fotocameraPreview.getSurfaceProvider());
+
+        ResolutionSelector analysisSelector = new ResolutionSelector.Builder()
+                .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                .setResolutionStrategy(new ResolutionStrategy(TARGET_RESOLUTION,
+                        ResolutionStrategy.FALLBACK_RULE_CLOSEST_LOWER_THEN_HIGHER))
+                .build();
+        // Latest frame only: while a frame is analyzed or captured the older ones are dropped
+        analysis = new ImageAnalysis.Builder()
+                .setResolutionSelector(analysisSelector)
+                .setOutputImageFormat(ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888)
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .build();
+        analysis.setAnalyzer(ANALYSIS_EXECUTOR, this::analyze);
+
+        provider.unbindAll();
+        provider.bindToLifecycle(getViewLifecycleOwner(), CameraSelector.DEFAULT_BACK_CAMERA, preview, analysis);
+    }
+
+    /** On the analysis thread. Allocates nothing unless it captures. */
+    private void analyze(@NonNull ImageProxy image) {
+        try {
+            if (captureSpan == null) {
+                captureSpan = PerfTracer.begin("camera_capture");
+                frames = 0;
+                analysisNanos = 0;
+            }
+            long start = SystemClock.elapsedRealtimeNanos();
+            ImageProxy.PlaneProxy luma = image.getPlanes()[0];
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int rotation = image.getImageInfo().getRotationDegrees();
+            boolean found = detector.analyze(luma.getBuffer(), luma.getRowStride(), width, height);
+            analysisNanos += SystemClock.elapsedRealtimeNanos() - start;
+            frames++;
+
+            boolean manual = captureRequested;
+            boolean ready = detector.isReady();
+            binding().fotocameraPagina.publish(detector.quad, found, ready, width, height, rotation);
+            setStatus(manual || ready ? STATUS_CAPTURING : detector.status());
+            if (!manual && !ready) return;
+
+            captureRequested = false;
+            if (found) System.arraycopy(detector.quad, 0, captureQuad, 0, 8);
+            else detector.fullFrame(captureQuad);
+            detector.captured();
+            PerfTracer.Span span = captureSpan;
+            captureSpan = null;
+            span.attr("taken", true).attr("frames", frames).attr("analysis_ms", frames > 0 ? analysisNanos / 1_000_000.0 / frames : 0)
+                    .attr("manual", manual).attr("found", found).attr("batch", batch)
+                    .attr("width", width).attr("height", height).close();
+
+            Context context = requireContext().getApplicationContext();
+            Uri uri;
+            try (PerfTracer.Span process = PerfTracer.begin("capture_process")) {
+                uri = ImagePreprocessor.processLuma(context, luma.getBuffer(), luma.getRowStride(),
+                        width, height, captureQuad, rotation);
+                process.attr("ok", uri != null);
+            }
+            ContextCompat.getMainExecutor(context).execute(() -> onCaptured(uri));
+        } catch (IllegalStateException e) {
+            // Fragment detached while the frame was in flight
+        } finally {
+            image.close();
+        }
+    }
+
+    private FragmentFotocameraBinding binding() {
+        FragmentFotocameraBinding current = binding;
+        if (current == null) throw new IllegalStateException("View destroyed");
+        return current;
+    }
+
+    /** Posts the status to the UI only when it changes. */
+    private void setStatus(int next) {
+        if (next == status) return;
+        status = next;
+        View root = binding().getRoot();
+        root.post(showStatus);
+    }
+
+    private void showStatus() {
+        if (binding == null) return;
+        int current = status;
+        if (current == shownStatus) return;
+        shownStatus = current;
+        int text;
+        switch (current) {
+            case STATUS_CAPTURING:
+                text = R.string.fotocamera_elaborazione;
+                break;
+            case PageDetector.STATUS_MOVING:
+                text = R.string.fotocamera_fermo;
+                break;
+            case PageDetector.STATUS_FOCUSING:
+                text = R.string.fotocamera_fuoco;
+                break;
+            case PageDetector.STATUS_READY:
+                text = R.string.fotocamera_pronta;
+                break;
+            case PageDetector.STATUS_NEXT_PAGE:
+                text = batch ? R.string.fotocamera_prossima : R.string.fotocamera_inquadra;
+                break;
+            default:
+                text = R.string.fotocamera_inquadra;
+        }
+        binding.fotocameraStato.setText(text);
+    }
+
+    private void onCaptured(@Nullable Uri uri) {
+        if (binding == null || !isAdded()) return;
+        if (uri == null) {
+            Toast.makeText(requireContext(), R.string.fotocamera_scatto_fallito, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (batch) {
+            pages.add(uri.toString());
+            updateFine();
+            return;
+        }
+        if (analysis != null) analysis.clearAnalyzer();
+        Bundle args = new Bundle();
+        args.putString("imageUri", uri.toString());
+        // The camera isn't kept on the back stack: back from the preview returns to "Aggiungi"
+        NavOptions options = new NavOptions.Builder().setPopUpTo(R.id.fotocameraFragment, true).build();
+        NavHostFragment.findNavController(this).navigate(R.id.anteprimaImmagineFragment, args, options);
+    }
+
+    private void updateFine() {
+        binding.btnFineScansione.setText(getString(R.string.fotocamera_fine, pages.size()));
+        binding.btnFineScansione.setEnabled(!pages.isEmpty());
+    }
+
+    /** Adds the captured pages to the library and the OMR queue, then goes back to the list. */
+    private void finishBatch() {
+        if (pages.isEmpty()) return;
+        if (analysis != null) analysis.clearAnalyzer();
+        List<Uri> uris = new ArrayList<>();
+        for (String page : pages) uris.add(Uri.parse(page));
+        pages = new ArrayList<>();
+        Context context = requireContext().getApplicationContext();
+        OmrQueue.addPages(context, uris, added -> {
+            Toast.makeText(context, added.isEmpty() ? context.getString(R.string.pagine_in_coda_nessuna)
+                    : context.getString(R.string.pagine_in_coda, added.size()), Toast.LENGTH_SHORT).show();
+            if (isAdded()) {
+                NavHostFragment.findNavController(this).popBackStack(R.id.FirstFragment, false);
+            }
+        });
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putStringArrayList(STATE_PAGES, pages);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (analysis != null) {
+            analysis.clearAnalyzer();
+            analysis = null;
+        }
+        // Queued behind any frame in flight, so the span is never closed twice
+        ANALYSIS_EXECUTOR.execute(() -> {
+            if (captureSpan == null) return;
+            captureSpan.attr("taken", false).attr("frames", frames).close();
+            captureSpan = null;
+        });
+        binding = null;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.tabler;
+
+/**
+ * Fretted instruments the tablature can be written for, in standard tuning. Strings are listed
+ * as tablature draws them: highest first.
+ */
+enum Instrument {
+    GUITAR(new int[]{64, 59, 55, 50, 45, 40}, new String[]{"e", "B", "G", "D", "A", "E"}, 22),
+    BASS(new int[]{43, 38, 33, 28}, new String[]{"G", "D", "A", "E"}, 20);
+
+    /** Guitar and bass are written an octave above how they sound: score pitches are lowered by this. */
+    static final int NOTATION_OFFSET = -12;
+
+    /** MIDI pitch of each open string. */
+    final int[] openPitch;
+    final String[] stringNames;
+    /** Highest fret. */
+    final int frets;
+
+    Instrument(int[] openPitch, String[] stringNames, int frets) {
+        this.openPitch = openPitch;
+        this.stringNames = stringNames;
+        this.frets = frets;
+    }
+
+    int strings() {
+        return openPitch.length;
+    }
+
+    /**
+     * Sounding pitch of a written score pitch on this instrument, moved by octaves into its range
+     * (a piano or vocal line can go beyond the neck at either end).
+     */
+    int fold(int writtenPitch) {
+        int pitch = writtenPitch + NOTATION_OFFSET;
+        int lowest = openPitch[openPitch.length - 1];
+        int highest = openPitch[0] + frets;
+        while (pitch < lowest) pitch += 12;
+        while (pitch > highest) pitch -= 12;
+        return pitch;
+    }
+}
@@ -1,8 +1,12 @@
 package com.example.tabler;
 
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
 
 import android.view.View;
 
@@ -61,10 +65,30 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_esporta_tempi) {
+            exportTimings();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /** Shares the recent stage timings ({@link PerfTracer}) as a JSON file. */
+    private void exportTimings() {
+        PerfTracer.export(this, file -> {
+            if (file == null) {
+                Toast.makeText(this, R.string.esporta_tempi_fallito, Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", file);
+            Intent send = new Intent(Intent.ACTION_SEND)
+                    .setType("application/json")
+                    .putExtra(Intent.EXTRA_STREAM, uri)
+                    .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(send, getString(R.string.action_esporta_tempi)));
+        });
+    }
+
     @Override
     public boolean onSupportNavigateUp() {
         NavController navController = Navigation.findNavController(this, R.id.nav_host_fragment_content_main);
@@ -0,0 +1,269 @@
+package com.example.tabler;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for the notes of a partwise MusicXML score: a pull parser walks the file once,
+ * keeping only the current measure, and stops at the end of the first part. Notes starting
+ * together (chords, voices on the same beat) are grouped into slices and stored in primitive
+ * arrays for {@link FingeringSolver}.
+ * Only the first staff is read: on a piano score that is the right hand. Grace and cue notes are
+ * skipped and tied notes are read once.
+ */
+final class MusicXmlReader {
+
+    /** Time unit of the slices: MusicXML divisions are rescaled to this many ticks per quarter note. */
+    static final int TICKS_PER_QUARTER = 480;
+
+    /** Semitones above C of the steps A to G. */
+    private static final int[] STEP_SEMITONES = {9, 11, 0, 2, 4, 5, 7};
+
+    /** Notes of a score, slice by slice and measure by measure. */
+    static final class Notes {
+        int measureCount;
+        /** First slice of each measure, measureCount + 1 entries. */
+        int[] measureFirstSlice = new int[65];
+        /** Length of each measure, in ticks. */
+        int[] measureTicks = new int[64];
+        int sliceCount;
+        /** Start of each slice from the start of its measure, and its length up to the next one, in ticks. */
+        int[] sliceOnset = new int[256];
+        int[] sliceTicks = new int[256];
+        /** First note of each slice, sliceCount + 1 entries. */
+        int[] sliceFirstNote = new int[257];
+        int noteCount;
+        /** Written MIDI pitch of each note, highest first within a slice. */
+        int[] notePitch = new int[512];
+
+        int slices(int measure) {
+            return measureFirstSlice[measure + 1] - measureFirstSlice[measure];
+        }
+
+        int notes(int slice) {
+            return sliceFirstNote[slice + 1] - sliceFirstNote[slice];
+        }
+
+        private void addNote(int pitch) {
+            if (noteCount == notePitch.length) notePitch = Arrays.copyOf(notePitch, noteCount * 2);
+            notePitch[noteCount++] = pitch;
+        }
+
+        private void addSlice(int onset, int ticks) {
+            if (sliceCount == sliceOnset.length) {
+                sliceOnset = Arrays.copyOf(sliceOnset, sliceCount * 2);
+                sliceTicks = Arrays.copyOf(sliceTicks, sliceCount * 2);
+                sliceFirstNote = Arrays.copyOf(sliceFirstNote, sliceCount * 2 + 1);
+            }
+            sliceOnset[sliceCount] = onset;
+            sliceTicks[sliceCount] = ticks;
+            sliceFirstNote[sliceCount] = noteCount;
+            sliceCount++;
+        }
+
+        private void addMeasure(int firstSlice, int ticks) {
+            if (measureCount == measureTicks.length) {
+                measureTicks = Arrays.copyOf(measureTicks, measureCount * 2);
+                measureFirstSlice = Arrays.copyOf(measureFirstSlice, measureCount * 2 + 1);
+            }
+            measureFirstSlice[measureCount] = firstSlice;
+            measureTicks[measureCount] = ticks;
+            measureCount++;
+        }
+
+        private void finish() {
+            measureFirstSlice[measureCount] = sliceCount;
+            sliceFirstNote[sliceCount] = noteCount;
+        }
+    }
+
+    private final XmlPullParser parser;
+    private final Notes notes = new Notes();
+    private int divisions = 1;
+    /** Current measure: time cursor and end, in ticks, and its notes as (onset << 32 | pitch). */
+    private int position;
+    private int measureEnd;
+    private int lastOnset;
+    private long[] pending = new long[64];
+    private int pendingCount;
+
+    private MusicXmlReader(XmlPullParser parser) {
+        this.parser = parser;
+    }
+
+    static Notes read(InputStream in) throws IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        try {
+            parser.setInput(in, null);
+            return new MusicXmlReader(parser).readScore();
+        } catch (XmlPullParserException e) {
+            throw new IOException("MusicXML non valido: " + e.getMessage(), e);
+        }
+    }
+
+    private Notes readScore() throws IOException, XmlPullParserException {
+        boolean inPart = false;
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if ("score-timewise".equals(name)) {
+                    throw new IOException("MusicXML timewise non supportato");
+                } else if ("part".equals(name)) {
+                    inPart = true;
+                } else if (inPart && "measure".equals(name)) {
+                    readMeasure();
+                }
+            } else if (event == XmlPullParser.END_TAG && inPart && "part".equals(parser.getName())) {
+                // First part only: the rest of the file is never parsed
+                break;
+            }
+        }
+        notes.finish();
+        return notes;
+    }
+
+    private void readMeasure() throws IOException, XmlPullParserException {
+        position = 0;
+        measureEnd = 0;
+        lastOnset = 0;
+        pendingCount = 0;
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && "measure".equals(parser.getName())) break;
+            if (event != XmlPullParser.START_TAG) continue;
+            switch (parser.getName()) {
+                case "divisions":
+                    divisions = Math.max(1, parseInt(parser.nextText(), 1));
+                    break;
+                case "note":
+                    readNote();
+                    break;
+                case "backup":
+                    position = Math.max(0, position - readDuration("backup"));
+                    break;
+                case "forward":
+                    advance(readDuration("forward"));
+                    break;
+                default:
+                    break;
+            }
+        }
+        endMeasure();
+    }
+
+    private void readNote() throws IOException, XmlPullParserException {
+        boolean chord = false, skip = false, tieStop = false;
+        int step = -1, octave = 4, alter = 0, duration = 0, staff = 1;
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && "note".equals(parser.getName())) break;
+            if (event != XmlPullParser.START_TAG) continue;
+            switch (parser.getName()) {
+                case "chord":
+                    chord = true;
+                    break;
+                case "grace":
+                case "cue":
+                case "rest":
+                case "unpitched":
+                    skip = true;
+                    break;
+                case "step":
+                    String s = parser.nextText().trim();
+                    step = s.length() == 1 && s.charAt(0) >= 'A' && s.charAt(0) <= 'G' ? s.charAt(0) - 'A' : -1;
+                    break;
+                case "alter":
+                    try {
+                        alter = (int) Math.round(Double.parseDouble(parser.nextText().trim()));
+                    } catch (NumberFormatException e) {
+                        alter = 0;
+                    }
+                    break;
+                case "octave":
+                    octave = parseInt(parser.nextText(), 4);
+                    break;
+                case "duration":
+                    duration = parseInt(parser.nextText(), 0);
+                    break;
+                case "staff":
+                    staff = parseInt(parser.nextText(), 1);
+                    break;
+                case "tie":
+                    if ("stop".equals(parser.getAttributeValue(null, "type"))) tieStop = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        // Grace notes have no duration; a rest still moves the cursor
+        boolean grace = skip && duration == 0;
+        if (grace) return;
+        int onset = chord ? lastOnset : position;
+        if (!chord) {
+            lastOnset = position;
+            advance(toTicks(duration));
+        }
+        if (skip || tieStop || step < 0 || staff != 1) return;
+        int pitch = (octave + 1) * 12 + STEP_SEMITONES[step] + alter;
+        if (pendingCount == pending.length) pending = Arrays.copyOf(pending, pendingCount * 2);
+        pending[pendingCount++] = ((long) onset << 32) | pitch;
+    }
+
+    private int readDuration(String tag) throws IOException, XmlPullParserException {
+        int duration = 0;
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG && tag.equals(parser.getName())) break;
+            if (event == XmlPullParser.START_TAG && "duration".equals(parser.getName())) {
+                duration = parseInt(parser.nextText(), 0);
+            }
+        }
+        return toTicks(duration);
+    }
+
+    private void advance(int ticks) {
+        position += ticks;
+        if (position > measureEnd) measureEnd = position;
+    }
+
+    /** Groups the measure's notes by onset into slices, highest pitch first, without duplicates. */
+    private void endMeasure() {
+        int firstSlice = notes.sliceCount;
+        Arrays.sort(pending, 0, pendingCount);
+        int i = 0;
+        while (i < pendingCount) {
+            int onset = (int) (pending[i] >>> 32);
+            int end = i;
+            while (end < pendingCount && (int) (pending[end] >>> 32) == onset) end++;
+            int next = end < pendingCount ? (int) (pending[end] >>> 32) : measureEnd;
+            notes.addSlice(onset, Math.max(1, next - onset));
+            int previous = Integer.MIN_VALUE;
+            for (int j = end - 1; j >= i; j--) {
+                int pitch = (int) pending[j];
+                if (pitch != previous) notes.addNote(pitch);
+                previous = pitch;
+            }
+            i = end;
+        }
+        notes.addMeasure(firstSlice, measureEnd);
+    }
+
+    private int toTicks(int duration) {
+        return (int) ((long) duration * TICKS_PER_QUARTER / divisions);
+    }
+
+    private static int parseInt(String text, int fallback) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.GzipSource;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * Calls to the OMR backend job API (/omr/jobs) and formatting of its responses for the result screen.
+ * All methods block: call them from a background thread.
+ */
+class OmrClient {
+
+    /** OMR backend URL (Render), set per build type in app/build.gradle.kts. For local testing use http://10.0.2.2:8080 */
+    static final String OMR_BASE_URL = BuildConfig.OMR_BASE_URL;
+
+    /** Compressed MusicXML (.mxl, a ZIP archive) and plain MusicXML media types. */
+    private static final String MXL_TYPE = "application/vnd.recordare.musicxml";
+    private static final String MUSICXML_TYPE = "application/vnd.recordare.musicxml+xml";
+    /** MusicXML first (sent gzip-encoded, stored as it is), then .mxl, then the JSON of older servers. */
+    private static final String RESULT_ACCEPT = MUSICXML_TYPE + ", " + MXL_TYPE + ";q=0.9, application/json;q=0.5";
+
+    /** Seconds the server may hold a status request open waiting for a change (long-poll). */
+    private static final int POLL_WAIT_SECONDS = 25;
+
+    private static final MediaType JSON_TYPE = MediaType.get("application/json; charset=utf-8");
+    /** Body of a resumable upload chunk, starting at the Upload-Offset header. */
+    private static final MediaType CHUNK_TYPE = MediaType.get("application/offset+octet-stream");
+    /** Chunk size if the server doesn't suggest one. */
+    private static final long DEFAULT_CHUNK_BYTES = 512 * 1024;
+    /**
+     * Dropped chunks resumed right away, from the offset the server acknowledges, within one
+     * upload; after that the error goes to the worker, whose retry resumes the same way.
+     */
+    private static final int MAX_CHUNK_RETRIES = 3;
+
+    /** Backend answered with an error: the message is ready to be shown to the user. */
+    static class OmrException extends Exception {
+        OmrException(String message) {
+            super(message);
+        }
+    }
+
+    /** The server no longer knows the job (restart, or result expired): upload again. */
+    static class JobNotFoundException extends IOException {
+        JobNotFoundException(String jobId) {
+            super("Job " + jobId + " non trovato");
+        }
+    }
+
+    /**
+     * Server full (429: job queue full, 503: out of memory): nothing was queued, try again after
+     * {@code retryAfterSeconds}. {@code queuePosition} is the place the job would have had (0 if unknown).
+     */
+    static class ServerBusyException extends IOException {
+        final int retryAfterSeconds;
+        final int queuePosition;
+
+        ServerBusyException(String message, int retryAfterSeconds, int queuePosition) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.queuePosition = queuePosition;
+        }
+    }
+
+    /** Snapshot of GET /omr/jobs/{id}. */
+    static final class JobStatus {
+        final String jobId;
+        final String status;
+        final String stage;
+        final int version;
+        @Nullable final String error;
+        /** Multi-page PDFs: pages recognized so far and total (0 if not split). */
+        final int pagesDone;
+        final int pagesTotal;
+        /** Place in the server queue while queued (1 = next to start), 0 otherwise. */
+        final int queuePosition;
+
+        JobStatus(String jobId, String status, String stage, int version, @Nullable String error,
+                  int pagesDone, int pagesTotal, int queuePosition) {
+            this.jobId = jobId;
+            this.status = status;
+            this.stage = stage;
+            this.version = version;
+            this.error = error;
+            this.pagesDone = pagesDone;
+            this.pagesTotal = pagesTotal;
+            this.queuePosition = queuePosition;
+        }
+
+        boolean isDone() { return "done".equals(status); }
+        boolean isFailed() { return "failed".equals(status); }
+        boolean isTerminal() { return isDone() || isFailed(); }
+    }
+
+    /**
+     * Finished recognition: text for the result screen and whether the MusicXML streamed into the
+     * draft is a real recognition (to be committed) rather than the placeholder.
+     */
+    static final class OmrResult {
+        final String text;
+        final boolean recognized;
+
+        OmrResult(String text, boolean recognized) {
+            this.text = text;
+            this.recognized = recognized;
+        }
+    }
+
+    /**
+     * Upload session of POST /omr/uploads, or the job the server already has for the same bytes
+     * (cached result, or the same file being recognized): then there is nothing to upload.
+     */
+    private static final class UploadSession {
+        @Nullable final JobStatus job;
+        final String uploadId;
+        final long offset;
+        final long chunkSize;
+
+        UploadSession(@Nullable JobStatus job, String uploadId, long offset, long chunkSize) {
+            this.job = job;
+            this.uploadId = uploadId;
+            this.offset = offset;
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private final Context context;
+    /** Shares the app's connection pool, dispatcher and cache; longer read timeout for long-polls and results. */
+    private final OkHttpClient client;
+    /** Set by {@link #cancelAll()}: a dropped chunk is then not resumed. */
+    private volatile boolean cancelled;
+
+    OmrClient(Context context) {
+        this.context = context.getApplicationContext();
+        this.client = SharedHttpClient.getInstance(context).client().newBuilder()
+                .readTimeout(180, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /** Cancels this client's requests in flight, if any (e.g. when the owner is cleared). */
+    void cancelAll() {
+        cancelled = true;
+        Dispatcher dispatcher = client.dispatcher();
+        for (Call call : dispatcher.runningCalls()) {
+            if (call.request().tag(OmrClient.class) == this) call.cancel();
+        }
+        for (Call call : dispatcher.queuedCalls()) {
+            if (call.request().tag(OmrClient.class) == this) call.cancel();
+        }
+    }
+
+    /** Tagged so that {@link #cancelAll()} leaves other users of the shared client alone. */
+    private Call newCall(Request request) {
+        return client.newCall(request.newBuilder().tag(OmrClient.class, this).build());
+    }
+
+    /**
+     * Uploads the file and starts the job. The SHA-256 and size go first (POST /omr/uploads): if
+     * the server already has those bytes, recognized or in progress, the job comes back at once
+     * and nothing is uploaded. Otherwise the file goes in chunks (PUT /omr/uploads/{id}) from the
+     * offset the server has acknowledged, so a dropped connection, or a retry of the whole work,
+     * resumes where it stopped instead of starting over. Servers without /omr/uploads get the
+     * single multipart POST /omr/jobs. Throws {@link ServerBusyException} if the server turns the
+     * job away for now.
+     */
+    JobStatus submitJob(Uri uri, @Nullable String mimeType,
+                        @Nullable UriRequestBody.ProgressListener listener) throws IOException, OmrException {
+        String filename = "application/pdf".equals(mimeType) ? "spartito.pdf"
+                : "image/png".equals(mimeType) ? "spartito.png" : "spartito.jpg";
+        long size;
+        String sha256;
+        try (PerfTracer.Span span = PerfTracer.begin("upload_hash");
+             BufferedSource source = openSource(uri);
+             HashingSink hashing = HashingSink.sha256(Okio.blackhole())) {
+            size = source.readAll(hashing);
+            sha256 = hashing.hash().hex();
+            span.bytesIn(size);
+        }
+        if (size == 0) {
+            throw new OmrException(getString(R.string.riconoscimento_fallito) + " (impossibile leggere file)");
+        }
+        UploadSession session = openUpload(sha256, size, filename);
+        if (session == null) return submitMultipart(uri, mimeType, filename, listener);
+        int retries = 0;
+        try (PerfTracer.Span span = PerfTracer.begin("upload").attr("resumedAt", session.offset)) {
+            while (session.job == null) {
+                try {
+                    session = putChunk(session, uri, size, listener);
+                } catch (IOException e) {
+                    if (e instanceof ServerBusyException || cancelled || ++retries > MAX_CHUNK_RETRIES) throw e;
+                    // What reached the server before the drop is kept: go on from there
+                    session = openUpload(sha256, size, filename);
+                    if (session == null) throw e;
+                }
+            }
+            span.attr("retries", retries);
+        }
+        return session.job;
+    }
+
+    private BufferedSource openSource(Uri uri) throws IOException {
+        InputStream is = context.getContentResolver().openInputStream(uri);
+        if (is == null) throw new FileNotFoundException("Impossibile aprire " + uri);
+        return Okio.buffer(Okio.source(is));
+    }
+
+    /** POST /omr/uploads: the session (new or to resume), the job if the server has the bytes, null if unsupported. */
+    @Nullable
+    private UploadSession openUpload(String sha256, long size, String filename) throws IOException, OmrException {
+        String json;
+        try {
+            json = new JSONObject().put("sha256", sha256).put("size", size).put("filename", filename).toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        Request request = new Request.Builder()
+                .url(OMR_BASE_URL + "/omr/uploads")
+                .post(RequestBody.create(json, JSON_TYPE))
+                .build();
+        try (Response response = newCall(request).execute()) {
+            String bodyStr = response.body() != null ? response.body().string() : "";
+            throwIfBusy(response, bodyStr);
+            // Older server: no resumable uploads (405 if the path matches another route)
+            if (response.code() == 404 || response.code() == 405) return null;
+            if (!response.isSuccessful()) {
+                throw new OmrException(formatHttpError(response.code(), bodyStr));
+            }
+            return parseUpload(bodyStr, DEFAULT_CHUNK_BYTES);
+        }
+    }
+
+    /** PUT of the chunk at the session's offset: the next session state, or the started job after the last one. */
+    private UploadSession putChunk(UploadSession session, Uri uri, long size,
+                                   @Nullable UriRequestBody.ProgressListener listener) throws IOException, OmrException {
+        long length = Math.max(0, Math.min(session.chunkSize, size - session.offset));
+        RequestBody body = new UriRequestBody(context.getContentResolver(), uri, CHUNK_TYPE,
+                session.offset, length, size, listener);
+        Request request = new Request.Builder()
+                .url(OMR_BASE_URL + "/omr/uploads/" + session.uploadId)
+                .header("Upload-Offset", String.valueOf(session.offset))
+                .put(body)
+                .build();
+        try (Response response = newCall(request).execute()) {
+            String bodyStr = response.body() != null ? response.body().string() : "";
+            throwIfBusy(response, bodyStr);
+            // 409: the server has a different offset (e.g. an earlier chunk arrived after all): go on from it
+            if (!response.isSuccessful() && response.code() != 409) {
+                // 404: session expired; 422: the file changed while uploading. Both start over on the next attempt
+                if (response.code() == 404 || response.code() == 422) {
+                    throw new IOException("HTTP " + response.code() + ": " + bodyStr);
+                }
+                throw new OmrException(formatHttpError(response.code(), bodyStr));
+            }
+            return parseUpload(bodyStr, session.chunkSize);
+        }
+    }
+
+    private UploadSession parseUpload(String json, long chunkSize) throws IOException {
+        try {
+            JSONObject o = new JSONObject(json);
+            if (o.has("jobId")) return new UploadSession(parseStatus(json), "", 0, 0);
+            return new UploadSession(null, o.getString("uploadId"), o.getLong("offset"),
+                    Math.max(1, o.optLong("chunkSize", chunkSize)));
+        } catch (JSONException e) {
+            throw new IOException("Risposta non valida dal server", e);
+        }
+    }
+
+    /** The whole file in one multipart POST /omr/jobs, streamed from the Uri: for servers without /omr/uploads. */
+    private JobStatus submitMultipart(Uri uri, @Nullable String mimeType, String filename,
+                                      @Nullable UriRequestBody.ProgressListener listener) throws IOException, OmrException {
+        MediaType mediaType = (mimeType != null && !mimeType.isEmpty())
+                ? MediaType.parse(mimeType) : MediaType.parse("image/jpeg");
+        UriRequestBody fileBody = new UriRequestBody(context.getContentResolver(), uri, mediaType, listener);
+        RequestBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("image", filename, fileBody)
+                .build();
+        Request request = new Request.Builder()
+                .url(OMR_BASE_URL + "/omr/jobs")
+                .post(body)
+                .build();
+        try (Response response = newCall(request).execute()) {
+            String bodyStr = response.body() != null ? response.body().string() : "";
+            throwIfBusy(response, bodyStr);
+            if (!response.isSuccessful()) {
+                throw new OmrException(formatHttpError(response.code(), bodyStr));
+            }
+            return parseStatus(bodyStr);
+        }
+    }
+
+    /** Long-polls the job status: returns as soon as it differs from {@code version}, or after the wait. */
+    JobStatus pollJob(String jobId, int version) throws IOException, OmrException {
+        Request request = new Request.Builder()
+                .url(OMR_BASE_URL + "/omr/jobs/" + jobId + "?wait=" + POLL_WAIT_SECONDS + "&version=" + version)
+                .build();
+        try (Response response = newCall(request).execute()) {
+            String bodyStr = response.body() != null ? response.body().string() : "";
+            if (response.code() == 404) throw new JobNotFoundException(jobId);
+            if (!response.isSuccessful()) {
+                throw new OmrException(formatHttpError(response.code(), bodyStr));
+            }
+            return parseStatus(bodyStr);
+        }
+    }
+
+    /**
+     * Fetches the result of a finished job into {@code musicXml}; the caller commits it if recognized.
+     * The score is asked for as gzip MusicXML (or .mxl), whose bytes go to disk as they arrive with
+     * no decoding at all; a JSON answer is parsed as it arrives, without holding the MusicXML in memory.
+     */
+    OmrResult fetchResult(String jobId, SpartitoRepository.MusicXmlDraft musicXml) throws IOException, OmrException {
+        Request request = new Request.Builder()
+                .url(OMR_BASE_URL + "/omr/jobs/" + jobId + "/result")
+                .header("Accept", RESULT_ACCEPT)
+                // Set explicitly so that OkHttp hands over the compressed bytes instead of inflating them
+                .header("Accept-Encoding", "gzip")
+                .build();
+        try (Response response = newCall(request).execute()) {
+            if (response.code() == 404) throw new JobNotFoundException(jobId);
+            ResponseBody body = response.body();
+            if (body == null) throw new IOException("Risposta vuota dal server");
+            boolean gzip = "gzip".equalsIgnoreCase(response.header("Content-Encoding"));
+            if (!response.isSuccessful()) {
+                throw new OmrException(formatHttpError(response.code(), decoded(body, gzip).readUtf8()));
+            }
+            MediaType type = body.contentType();
+            String mimeType = type != null ? type.type() + "/" + type.subtype() : "";
+            if (MXL_TYPE.equals(mimeType) || MUSICXML_TYPE.equals(mimeType)) {
+                OutputStream out = MXL_TYPE.equals(mimeType) ? musicXml.mxlOutput()
+                        : gzip ? musicXml.gzipOutput() : musicXml.xmlOutput();
+                try (PerfTracer.Span span = PerfTracer.begin("result_write").attr("type", mimeType)) {
+                    BufferedSink sink = Okio.buffer(Okio.sink(out));
+                    span.bytesIn(sink.writeAll(body.source()));
+                    sink.flush();
+                }
+                return formatResult(resultFromHeaders(response));
+            }
+            OmrResponseParser.Result parsed;
+            try (PerfTracer.Span span = PerfTracer.begin("result_parse");
+                 Reader reader = new InputStreamReader(decoded(body, gzip).inputStream(), StandardCharsets.UTF_8)) {
+                parsed = OmrResponseParser.parse(reader, musicXml.writer());
+                span.attr("musicXmlChars", parsed.musicXmlLength);
+            }
+            return formatResult(parsed);
+        }
+    }
+
+    private static BufferedSource decoded(ResponseBody body, boolean gzip) {
+        return gzip ? Okio.buffer(new GzipSource(body.source())) : body.source();
+    }
+
+    /** Result metadata sent as X-OMR-* headers along with a MusicXML/.mxl body. */
+    private static OmrResponseParser.Result resultFromHeaders(Response response) throws IOException {
+        OmrResponseParser.Result result = new OmrResponseParser.Result();
+        result.hasMusicXml = true;
+        // Unknown; the placeholder is only ever sent as JSON
+        result.musicXmlLength = -1;
+        result.recognized = "true".equals(response.header("X-OMR-Recognized"));
+        result.musicXmlExtracted = "true".equals(response.header("X-OMR-MusicXml-Extracted"));
+        result.cached = "true".equals(response.header("X-OMR-Cached"));
+        String note = response.header("X-OMR-Note");
+        if (note != null) {
+            result.note = URLDecoder.decode(note, StandardCharsets.UTF_8.name());
+        }
+        return result;
+    }
+
+    private JobStatus parseStatus(String json) throws IOException {
+        try {
+            JSONObject o = new JSONObject(json);
+            return new JobStatus(o.getString("jobId"), o.optString("status"), o.optString("stage"),
+                    o.optInt("version"), o.has("error") ? o.optString("error") : null,
+                    o.optInt("pagesDone"), o.optInt("pagesTotal"), o.optInt("queuePosition"));
+        } catch (JSONException e) {
+            throw new IOException("Risposta non valida dal server", e);
+        }
+    }
+
+    /** 429/503: Retry-After header (seconds), else the body's retryAfter, else a minute. */
+    private void throwIfBusy(Response response, String bodyStr) throws ServerBusyException {
+        int code = response.code();
+        if (code != 429 && code != 503) return;
+        JSONObject o = null;
+        try {
+            o = new JSONObject(bodyStr);
+        } catch (JSONException ignored) {
+            // Proxy page without details: defaults below
+        }
+        int retryAfter = 60;
+        String header = response.header("Retry-After");
+        if (header != null) {
+            try {
+                retryAfter = Integer.parseInt(header.trim());
+            } catch (NumberFormatException ignored) {
+                // HTTP-date form: not sent by the backend, keep the default
+            }
+        } else if (o != null) {
+            retryAfter = o.optInt("retryAfter", retryAfter);
+        }
+        int position = o != null ? o.optInt("queuePosition") : 0;
+        String message = o != null ? o.optString("error", "") : "";
+        throw new ServerBusyException(message.isEmpty() ? "HTTP " + code : message, Math.max(1, retryAfter), position);
+    }
+
+    /** Message for the connection error {@code e}. */
+    String formatNetworkError(IOException e) {
+        return getString(R.string.riconoscimento_fallito) + "\n\n" + e.getMessage() +
+                "\n\n(Verifica che il backend OMR sia in esecuzione su " + OMR_BASE_URL + ")";
+    }
+
+    private String formatHttpError(int code, String errorBody) {
+        if (code == 413) {
+            String note = null;
+            try {
+                note = new JSONObject(errorBody).optString("note", null);
+            } catch (JSONException ignored) {
+                // Not JSON (e.g. proxy error page): shown as it is below
+            }
+            if (note != null && !note.isEmpty()) {
+                return getString(R.string.riconoscimento_fallito) + "\n\nFile troppo grande.\n\n" + note;
+            }
+        }
+        return getString(R.string.riconoscimento_fallito) + " (HTTP " + code + ")\n\n" + errorBody;
+    }
+
+    /** Result screen text (without the MusicXML itself) from a parsed /omr response. */
+    private OmrResult formatResult(OmrResponseParser.Result parsed) {
+        if (!parsed.hasMusicXml) {
+            String detail = parsed.error != null ? parsed.error : parsed.note;
+            return new OmrResult(getString(R.string.riconoscimento_fallito)
+                    + (detail != null ? "\n\n" + detail : ""), false);
+        }
+        if (isPlaceholderResponse(parsed)) {
+            String msg = getString(R.string.riconoscimento_fallito) + "\n\n" + getString(R.string.omr_nessun_risultato);
+            if (parsed.note != null && !parsed.note.isEmpty()) {
+                msg += "\n\nDettaglio server: " + parsed.note;
+            }
+            return new OmrResult(msg, false);
+        }
+        String statusLine = "Riconosciuto: " + parsed.recognized + " | MusicXML estratto: " + parsed.musicXmlExtracted;
+        if (parsed.cached) {
+            statusLine += " | " + getString(R.string.omr_da_cache);
+        }
+        return new OmrResult(statusLine + "\n\n" + getString(R.string.riconoscimento_completato), parsed.recognized);
+    }
+
+    private String getString(int resId) {
+        return context.getString(resId);
+    }
+
+    /** True if the backend returned the placeholder (no real OMR result). */
+    private boolean isPlaceholderResponse(OmrResponseParser.Result parsed) {
+        String head = parsed.musicXmlHead;
+        return head.contains("OMR non disponibile")
+                || head.contains("<placeholder/>")
+                || (parsed.musicXmlLength < 100 && head.contains("<?xml"));
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.tabler;
+
+import android.app.Application;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.SavedStateHandle;
+import androidx.work.Data;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * UI state of one OMR recognition: waiting → prepare → upload → queued/running on the server →
+ * done/failed. The recognition itself is an {@link OmrWorker} queued by {@link OmrQueue}, so it
+ * goes on when the user leaves the screen; this ViewModel only follows its progress. The score
+ * is added to the library as soon as it is queued ({@code spartitoId} in the SavedStateHandle);
+ * opening an already recognized score reads it from the library, opening a failed one retries it.
+ */
+public class OmrJobViewModel extends AndroidViewModel {
+
+    public enum Stage { WAITING, PREPARING, UPLOADING, QUEUED, RUNNING, DONE, FAILED }
+
+    /** Immutable UI state. {@code text} is the server stage while running, the result when finished. */
+    public static final class State {
+        public final Stage stage;
+        public final int uploadPercent;
+        @Nullable public final String text;
+        /** Multi-page PDFs: pages recognized so far and total (0 if not split). */
+        public final int pagesDone;
+        public final int pagesTotal;
+        /** WAITING on a busy server: seconds to the next attempt (0 if waiting for a connection). */
+        public final int retryAfterSeconds;
+        /** Place in the server queue (QUEUED, or where a busy server would have put it), 0 if unknown. */
+        public final int queuePosition;
+        /** DONE: the score as tablature for the chosen instrument, null if it couldn't be converted. */
+        @Nullable public final Tablature tablature;
+
+        State(Stage stage, int uploadPercent, @Nullable String text) {
+            this(stage, uploadPercent, text, 0, 0, 0, 0, null);
+        }
+
+        State(@Nullable String text, @Nullable Tablature tablature) {
+            this(Stage.DONE, 100, text, 0, 0, 0, 0, tablature);
+        }
+
+        State(Stage stage, int uploadPercent, @Nullable String text, int pagesDone, int pagesTotal,
+              int retryAfterSeconds, int queuePosition) {
+            this(stage, uploadPercent, text, pagesDone, pagesTotal, retryAfterSeconds, queuePosition, null);
+        }
+
+        private State(Stage stage, int uploadPercent, @Nullable String text, int pagesDone, int pagesTotal,
+                      int retryAfterSeconds, int queuePosition, @Nullable Tablature tablature) {
+            this.stage = stage;
+            this.uploadPercent = uploadPercent;
+            this.text = text;
+            this.pagesDone = pagesDone;
+            this.pagesTotal = pagesTotal;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.queuePosition = queuePosition;
+            this.tablature = tablature;
+        }
+
+        public boolean isFinished() {
+            return stage == Stage.DONE || stage == Stage.FAILED;
+        }
+    }
+
+    private static final String KEY_IMAGE_URI = "imageUri";
+    private static final String KEY_SPARTITO_ID = "spartitoId";
+    private static final String KEY_INSTRUMENT = "instrument";
+    /** MusicXML shown on the result screen ({@link ScoreView} only draws what is visible). */
+    private static final int PREVIEW_MAX_CHARS = 1024 * 1024;
+
+    private final SavedStateHandle savedState;
+    private final SpartitoRepository repository;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final MediatorLiveData<State> state = new MediatorLiveData<>();
+    private volatile boolean cleared;
+    /** Summary shown above the last stored result, kept to redraw it for another instrument. */
+    @Nullable private volatile String storedHeader;
+    private boolean started;
+
+    public OmrJobViewModel(@NonNull Application application, @NonNull SavedStateHandle savedState) {
+        super(application);
+        this.savedState = savedState;
+        this.repository = SpartitoRepository.getInstance(application);
+    }
+
+    public LiveData<State> getState() {
+        return state;
+    }
+
+    /** Queues (or, for a known item, resumes following) the recognition of {@code imageUri}. Idempotent. */
+    public void start(@Nullable String imageUri) {
+        if (started) return;
+        started = true;
+        if (imageUri != null) {
+            savedState.set(KEY_IMAGE_URI, imageUri);
+        }
+        String uri = savedState.get(KEY_IMAGE_URI);
+        String spartitoId = savedState.get(KEY_SPARTITO_ID);
+        if ((uri == null || uri.isEmpty()) && spartitoId == null) {
+            state.setValue(new State(Stage.FAILED, 0,
+                    getApplication().getString(R.string.riconoscimento_fallito) + " (nessuna immagine)"));
+            return;
+        }
+        executor.execute(() -> {
+            SpartitoItem item = spartitoId != null ? repository.getSync(spartitoId) : null;
+            if (item != null && item.getMusicXmlPath() != null) {
+                showStored(item, null);
+                return;
+            }
+            if (item != null) {
+                // KEEP: follows the work if still queued or running, queues it again if it failed
+                OmrQueue.enqueue(getApplication(), item.getId());
+            } else {
+                item = OmrQueue.addPageSync(getApplication(), Uri.parse(uri), 0);
+                if (item == null) {
+                    publish(new State(Stage.FAILED, 0,
+                            getApplication().getString(R.string.riconoscimento_fallito) + " (impossibile leggere file)"));
+                    return;
+                }
+            }
+            String id = item.getId();
+            mainHandler.post(() -> follow(id));
+        });
+    }
+
+    public Instrument getInstrument() {
+        String name = savedState.get(KEY_INSTRUMENT);
+        return name != null ? Instrument.valueOf(name) : Instrument.GUITAR;
+    }
+
+    /** Switches the tablature to {@code instrument}, converting the shown score again if needed. */
+    public void setInstrument(Instrument instrument) {
+        if (instrument == getInstrument()) return;
+        savedState.set(KEY_INSTRUMENT, instrument.name());
+        State current = state.getValue();
+        String spartitoId = savedState.get(KEY_SPARTITO_ID);
+        if (current == null || current.stage != Stage.DONE || spartitoId == null) return;
+        String header = storedHeader;
+        executor.execute(() -> {
+            SpartitoItem item = repository.getSync(spartitoId);
+            if (item != null && item.getMusicXmlPath() != null) showStored(item, header);
+        });
+    }
+
+    private void follow(String spartitoId) {
+        if (cleared) return;
+        savedState.set(KEY_SPARTITO_ID, spartitoId);
+        LiveData<List<WorkInfo>> work = WorkManager.getInstance(getApplication())
+                .getWorkInfosForUniqueWorkLiveData(OmrQueue.workName(spartitoId));
+        state.addSource(work, infos -> onWorkInfo(spartitoId,
+                infos == null || infos.isEmpty() ? null : infos.get(infos.size() - 1)));
+    }
+
+    private void onWorkInfo(String spartitoId, @Nullable WorkInfo info) {
+        if (info == null) return;
+        switch (info.getState()) {
+            case ENQUEUED:
+            case BLOCKED:
+                state.setValue(new State(Stage.WAITING, 0, null));
+                break;
+            case RUNNING:
+                Data p = info.getProgress();
+                String stage = p.getString(OmrWorker.KEY_STAGE);
+                state.setValue(new State(stage != null ? Stage.valueOf(stage) : Stage.PREPARING,
+                        p.getInt(OmrWorker.KEY_UPLOAD_PERCENT, 0), p.getString(OmrWorker.KEY_SERVER_STAGE),
+                        p.getInt(OmrWorker.KEY_PAGES_DONE, 0), p.getInt(OmrWorker.KEY_PAGES_TOTAL, 0),
+                        p.getInt(OmrWorker.KEY_RETRY_AFTER, 0), p.getInt(OmrWorker.KEY_QUEUE_POSITION, 0)));
+                break;
+            default:
+                String text = info.getOutputData().getString(OmrWorker.KEY_TEXT);
+                executor.execute(() -> {
+                    SpartitoItem item = repository.getSync(spartitoId);
+                    if (item != null && item.getMusicXmlPath() != null) {
+                        showStored(item, text);
+                    } else {
+                        String error = text != null ? text : item != null ? item.getOmrErrore() : null;
+                        publish(new State(Stage.FAILED, 0, error != null ? error
+                                : getApplication().getString(R.string.riconoscimento_fallito)));
+                    }
+                });
+        }
+    }
+
+    /**
+     * Recognized score from the library, under {@code header} (the result summary) if given: as
+     * tablature, or as MusicXML if it has no notes to place or can't be converted.
+     */
+    private void showStored(SpartitoItem item, @Nullable String header) {
+        storedHeader = header;
+        String text = header != null ? header : getApplication().getString(R.string.riconoscimento_completato);
+        Tablature tablature = null;
+        try {
+            tablature = TablatureCache.getInstance(getApplication()).get(item, getInstrument());
+        } catch (IOException | RuntimeException e) {
+            // Not a score the reader understands (or interrupted): the MusicXML is still worth showing
+        }
+        if (tablature != null && !tablature.isEmpty()) {
+            publish(new State(text, tablature));
+            return;
+        }
+        try {
+            publish(new State(text + "\n\n" + preview(item.getMusicXmlPath()), null));
+        } catch (IOException e) {
+            publish(new State(Stage.FAILED, 0,
+                    getApplication().getString(R.string.riconoscimento_fallito) + "\n\n" + e.getMessage()));
+        }
+    }
+
+    /** Beginning of the stored MusicXML, marked if cut at {@link #PREVIEW_MAX_CHARS}. */
+    private String preview(String musicXmlPath) throws IOException {
+        String xml;
+        try (PerfTracer.Span span = PerfTracer.begin("result_read")) {
+            xml = repository.readMusicXmlSync(musicXmlPath, PREVIEW_MAX_CHARS + 1);
+            span.attr("chars", xml.length());
+        }
+        if (xml.length() <= PREVIEW_MAX_CHARS) return xml;
+        return xml.substring(0, PREVIEW_MAX_CHARS) + "\n\n" + getApplication().getString(R.string.omr_anteprima_troncata);
+    }
+
+    private void publish(State newState) {
+        if (!cleared) state.postValue(newState);
+    }
+
+    @Override
+    protected void onCleared() {
+        // The recognition is not cancelled: it goes on in the background queue
+        cleared = true;
+        executor.shutdownNow();
+    }
+}
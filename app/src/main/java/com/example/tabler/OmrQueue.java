@@ -0,0 +1,119 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent OMR queue: each page becomes a library item in state "in coda" and an
+ * {@link OmrWorker} that runs when there is a connection, retried with exponential backoff.
+ * How many run at once is bounded by the WorkManager executor ({@link TablerApplication}).
+ */
+final class OmrQueue {
+
+    /** Tag of every OMR work request, observed by the home list to refresh item states. */
+    static final String TAG = "omr";
+
+    /** Age after which a preprocessed PNG in the cache dir is no longer in use. */
+    private static final long STALE_FILE_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private OmrQueue() {}
+
+    /**
+     * Deletes preprocessed PNGs older than a day from the cache dir: captures never queued and
+     * outputs of a worker killed before it could delete them.
+     */
+    static void deleteStaleFiles(Context context) {
+        Context app = context.getApplicationContext();
+        executor.execute(() -> ImagePreprocessor.deleteStaleOutputs(app, STALE_FILE_MS));
+    }
+
+    /** Unique work name of the recognition of item {@code spartitoId}. */
+    static String workName(String spartitoId) {
+        return "omr-" + spartitoId;
+    }
+
+    /**
+     * Adds one library item per page and queues their recognition; {@code callback} receives
+     * the items created (pages that can't be read are skipped).
+     */
+    @MainThread
+    static void addPages(Context context, List<Uri> pages, SpartitoRepository.Callback<List<SpartitoItem>> callback) {
+        Context app = context.getApplicationContext();
+        executor.execute(() -> {
+            List<SpartitoItem> added = new ArrayList<>();
+            for (int i = 0; i < pages.size(); i++) {
+                SpartitoItem item = addPageSync(app, pages.get(i), pages.size() > 1 ? i + 1 : 0);
+                if (item != null) added.add(item);
+            }
+            mainHandler.post(() -> callback.onResult(added));
+        });
+    }
+
+    /**
+     * Saves a queued library item for {@code page} (copied into app storage) and enqueues it.
+     * {@code number} > 0 is appended to the title of pages scanned in a batch. Returns null if
+     * the page can't be read.
+     */
+    @WorkerThread
+    static SpartitoItem addPageSync(Context context, Uri page, int number) {
+        SpartitoRepository repository = SpartitoRepository.getInstance(context);
+        String id = UUID.randomUUID().toString();
+        Uri stored;
+        try {
+            stored = repository.importPageSync(id, page);
+        } catch (IOException e) {
+            return null;
+        }
+        // An in-app camera capture in the cache dir: the stored copy replaces it
+        ImagePreprocessor.deleteOutput(context, page);
+        long now = System.currentTimeMillis();
+        String titolo = context.getString(R.string.spartito_titolo_default,
+                DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(now)));
+        if (number > 0) {
+            titolo = context.getString(R.string.spartito_titolo_pagina, titolo, number);
+        }
+        // Distinct timestamps keep a batch in scan order (newest first, like the rest of the list)
+        SpartitoItem item = new SpartitoItem(id, titolo, stored, null, now + number, SpartitoItem.OMR_IN_CODA, null, null);
+        repository.saveSync(item);
+        enqueue(context, id);
+        return item;
+    }
+
+    /** Queues the recognition of an existing item; no-op if it is already queued or running. */
+    static void enqueue(Context context, String spartitoId) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(OmrWorker.class)
+                .setInputData(new Data.Builder().putString(OmrWorker.KEY_SPARTITO_ID, spartitoId).build())
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+                .addTag(TAG)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(workName(spartitoId), ExistingWorkPolicy.KEEP, request);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.IOException;
+
+/**
+ * Recognizes one library item in the background: prepare → upload → follow the server job →
+ * store the MusicXML. Enqueued by {@link OmrQueue} with a network constraint and exponential
+ * backoff, so it survives leaving the screen, process death and connection drops. The server
+ * job id is saved on the item, so a retry resumes polling instead of uploading again; a retry of
+ * an interrupted upload goes on from the bytes the server already has (see {@link OmrClient#submitJob}).
+ * Progress is published as {@link Data} for {@link OmrJobViewModel}; the item's state in the
+ * library is what the home list shows.
+ */
+public class OmrWorker extends Worker {
+
+    static final String KEY_SPARTITO_ID = "spartitoId";
+    /** Progress: {@link OmrJobViewModel.Stage} name, upload %, server stage, PDF pages. */
+    static final String KEY_STAGE = "stage";
+    static final String KEY_UPLOAD_PERCENT = "uploadPercent";
+    static final String KEY_SERVER_STAGE = "serverStage";
+    static final String KEY_PAGES_DONE = "pagesDone";
+    static final String KEY_PAGES_TOTAL = "pagesTotal";
+    /** Progress while the server is busy (WAITING) or the job is queued there (QUEUED). */
+    static final String KEY_RETRY_AFTER = "retryAfter";
+    static final String KEY_QUEUE_POSITION = "queuePosition";
+    /** Output: result screen text (without the MusicXML) or error message. */
+    static final String KEY_TEXT = "text";
+
+    /** Network errors are retried with backoff this many times before the item is marked failed. */
+    private static final int MAX_ATTEMPTS = 8;
+    /**
+     * A busy server is waited for inside the run (honouring Retry-After) up to this long, then the
+     * work is rescheduled; busy answers never make the item fail.
+     */
+    private static final long MAX_BUSY_WAIT_MS = 5 * 60 * 1000;
+    /** Work Data is capped at 10 KB: error bodies are cut well below. */
+    private static final int MAX_TEXT_CHARS = 2000;
+
+    private final SpartitoRepository repository;
+    private final OmrClient omrClient;
+    private int lastUploadPercent = -1;
+
+    public OmrWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+        repository = SpartitoRepository.getInstance(context);
+        omrClient = new OmrClient(context);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String id = getInputData().getString(KEY_SPARTITO_ID);
+        // Every span of this run, HTTP calls included, is grouped under the library item
+        try (PerfTracer.FlowScope ignored = PerfTracer.flow(id);
+             PerfTracer.Span span = PerfTracer.begin("omr_worker")) {
+            Result result = recognize(id);
+            span.attr("attempt", getRunAttemptCount()).attr("result", result.getClass().getSimpleName());
+            return result;
+        }
+    }
+
+    private Result recognize(@Nullable String id) {
+        SpartitoItem item = id != null ? repository.getSync(id) : null;
+        if (item == null) return Result.failure();
+        if (item.getMusicXmlPath() != null) return Result.success();
+        if (item.getImageUri() == null) {
+            return fail(item, getApplicationContext().getString(R.string.riconoscimento_fallito) + " (nessuna immagine)");
+        }
+        String jobId = item.getOmrJobId();
+        try {
+            item = item.withOmr(SpartitoItem.OMR_IN_CORSO, jobId, null);
+            repository.saveSync(item);
+            OmrClient.JobStatus status;
+            if (jobId == null) {
+                status = upload(item.getImageUri());
+                jobId = status.jobId;
+                item = item.withOmr(SpartitoItem.OMR_IN_CORSO, jobId, null);
+                repository.saveSync(item);
+            } else {
+                status = omrClient.pollJob(jobId, -1);
+            }
+            try (PerfTracer.Span span = PerfTracer.begin("server_wait").attr("jobId", jobId)) {
+                while (!status.isTerminal() && !isStopped()) {
+                    progress("queued".equals(status.status) ? OmrJobViewModel.Stage.QUEUED : OmrJobViewModel.Stage.RUNNING,
+                            100, status.stage, status.pagesDone, status.pagesTotal, 0, status.queuePosition);
+                    status = omrClient.pollJob(jobId, status.version);
+                }
+                span.attr("status", status.status);
+            }
+            if (isStopped()) return Result.retry();
+            if (status.isFailed()) {
+                return fail(item, getApplicationContext().getString(R.string.riconoscimento_fallito)
+                        + "\n\n" + (status.error != null ? status.error : ""));
+            }
+            try (SpartitoRepository.MusicXmlDraft draft = repository.newMusicXmlDraft(item.getId())) {
+                OmrClient.OmrResult result = omrClient.fetchResult(jobId, draft);
+                if (!result.recognized) return fail(item, result.text);
+                String path = draft.commit();
+                repository.saveSync(item.withMusicXmlPath(path));
+                // Searchable by composer, key... as soon as it shows up as recognized
+                repository.indexSync(item.getId(), path);
+                return Result.success(text(result.text));
+            }
+        } catch (OmrClient.ServerBusyException e) {
+            // Waited long enough in this run: nothing was queued, try later without counting it as an error
+            repository.saveSync(item.withOmr(SpartitoItem.OMR_IN_CODA, null, null));
+            return Result.retry();
+        } catch (OmrClient.JobNotFoundException e) {
+            // Server restarted or result expired: upload again on the next attempt (a cache hit is immediate)
+            repository.saveSync(item.withOmr(SpartitoItem.OMR_IN_CODA, null, null));
+            return retryOrFail(item, e);
+        } catch (OmrClient.OmrException e) {
+            return fail(item, e.getMessage());
+        } catch (IOException e) {
+            if (isStopped()) return Result.retry();
+            repository.saveSync(item.withOmr(SpartitoItem.OMR_IN_CODA, jobId, null));
+            return retryOrFail(item, e);
+        } catch (RuntimeException e) {
+            return fail(item, getApplicationContext().getString(R.string.riconoscimento_fallito) + "\n\n" + e.getMessage());
+        }
+    }
+
+    @Override
+    public void onStopped() {
+        omrClient.cancelAll();
+    }
+
+    private OmrClient.JobStatus upload(Uri uri) throws IOException, OmrClient.OmrException {
+        progress(OmrJobViewModel.Stage.PREPARING, 0, null, 0, 0);
+        String mimeType = getApplicationContext().getContentResolver().getType(uri);
+        // Pages from the in-app camera are already straightened and binarized
+        Uri processed = null;
+        if (ImagePreprocessor.isSupported(mimeType) && !ImagePreprocessor.isProcessed(uri)) {
+            // Binarized PNG at ~300 DPI; keep the original if pre-processing fails
+            try (PerfTracer.Span span = PerfTracer.begin("preprocess")) {
+                processed = ImagePreprocessor.process(getApplicationContext(), uri);
+                span.attr("ok", processed != null);
+            }
+            if (processed != null) {
+                uri = processed;
+                mimeType = "image/png";
+            }
+        }
+        try {
+            long busySince = System.currentTimeMillis();
+            while (true) {
+                progress(OmrJobViewModel.Stage.UPLOADING, 0, null, 0, 0);
+                lastUploadPercent = -1;
+                try {
+                    return omrClient.submitJob(uri, mimeType, this::onUploadProgress);
+                } catch (OmrClient.ServerBusyException e) {
+                    long waitMs = e.retryAfterSeconds * 1000L;
+                    if (System.currentTimeMillis() + waitMs - busySince > MAX_BUSY_WAIT_MS) throw e;
+                    if (!waitBusy(e, waitMs)) throw e;
+                }
+            }
+        } finally {
+            // A retry processes the page again: same bytes, so an interrupted upload still resumes
+            if (processed != null) ImagePreprocessor.deleteOutput(getApplicationContext(), processed);
+        }
+    }
+
+    /** Counts down the server's Retry-After on the progress; false if the work was stopped meanwhile. */
+    private boolean waitBusy(OmrClient.ServerBusyException e, long waitMs) {
+        long until = System.currentTimeMillis() + waitMs;
+        while (!isStopped()) {
+            long left = until - System.currentTimeMillis();
+            if (left <= 0) return true;
+            progress(OmrJobViewModel.Stage.WAITING, 0, null, 0, 0,
+                    (int) ((left + 999) / 1000), e.queuePosition);
+            try {
+                Thread.sleep(Math.min(left, 1000));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Upload progress from the OkHttp thread; published only when the percentage changes. */
+    private void onUploadProgress(long bytesWritten, long contentLength) {
+        if (contentLength <= 0) return;
+        int percent = (int) (bytesWritten * 100 / contentLength);
+        if (percent == lastUploadPercent) return;
+        lastUploadPercent = percent;
+        progress(OmrJobViewModel.Stage.UPLOADING, percent, null, 0, 0);
+    }
+
+    private void progress(OmrJobViewModel.Stage stage, int uploadPercent, String serverStage,
+                          int pagesDone, int pagesTotal) {
+        progress(stage, uploadPercent, serverStage, pagesDone, pagesTotal, 0, 0);
+    }
+
+    private void progress(OmrJobViewModel.Stage stage, int uploadPercent, String serverStage,
+                          int pagesDone, int pagesTotal, int retryAfter, int queuePosition) {
+        setProgressAsync(new Data.Builder()
+                .putString(KEY_STAGE, stage.name())
+                .putInt(KEY_UPLOAD_PERCENT, uploadPercent)
+                .putString(KEY_SERVER_STAGE, serverStage)
+                .putInt(KEY_PAGES_DONE, pagesDone)
+                .putInt(KEY_PAGES_TOTAL, pagesTotal)
+                .putInt(KEY_RETRY_AFTER, retryAfter)
+                .putInt(KEY_QUEUE_POSITION, queuePosition)
+                .build());
+    }
+
+    private Result retryOrFail(SpartitoItem item, IOException e) {
+        if (getRunAttemptCount() + 1 < MAX_ATTEMPTS) return Result.retry();
+        return fail(item, omrClient.formatNetworkError(e));
+    }
+
+    private Result fail(SpartitoItem item, String message) {
+        String text = message.length() > MAX_TEXT_CHARS ? message.substring(0, MAX_TEXT_CHARS) + "…" : message;
+        repository.saveSync(item.withOmr(SpartitoItem.OMR_FALLITO, null, text));
+        return Result.failure(text(text));
+    }
+
+    private static Data text(String text) {
+        return new Data.Builder().putString(KEY_TEXT, text).build();
+    }
+}
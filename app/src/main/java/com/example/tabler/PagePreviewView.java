@@ -0,0 +1,424 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Zoomable preview of a picked photo or PDF, for checking that the staves are legible before
+ * uploading. The pages are stacked vertically; pinch and double tap zoom, drag and fling scroll.
+ * <p>
+ * Nothing is decoded at full resolution. Each visible page is first drawn from a base bitmap at
+ * the fit-to-width scale. Zoomed in, it is overlaid with {@link #TILE_PX} tiles rendered at the
+ * next power-of-two level above the current scale: {@link PageSource} decodes only the tile's
+ * region (BitmapRegionDecoder for images, PdfRenderer for PDFs). Tiles and base bitmaps share an
+ * LRU sized from the heap. Rendering runs on one background thread and skips requests the
+ * viewport has moved away from; the pages next to the visible ones are prepared ahead.
+ */
+public class PagePreviewView extends View {
+
+    /** Called once, when the first page is on screen ({@code pages} > 0) or the file can't be shown (0). */
+    interface OnShownListener {
+        void onShown(int pages, int firstPageWidth, int firstPageHeight);
+    }
+
+    private static final int TILE_PX = 512;
+    /** Zoom beyond fit-to-width, at most (also capped by {@link PageSource#maxScale()}). */
+    private static final float MAX_ZOOM = 8f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+    /** Space between pages, as a fraction of the page width. */
+    private static final float PAGE_GAP = 0.03f;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final LruCache<Long, Bitmap> cache;
+    /** Keys the current frame needs; the decode thread drops requests no longer in it. */
+    private final Set<Long> wanted = ConcurrentHashMap.newKeySet();
+    /** Keys queued or being rendered (main thread only). */
+    private final Set<Long> requested = new HashSet<>();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint pagePaint = new Paint();
+    private final OverScroller scroller;
+    private final GestureDetector gestures;
+    private final ScaleGestureDetector scaleGestures;
+    private final Rect region = new Rect();
+    private final RectF dest = new RectF();
+
+    @Nullable private PageSource source;
+    @Nullable private OnShownListener shownListener;
+    /** Bumped when the source or the fit scale changes: renders for the old one are dropped. */
+    private volatile int generation;
+    /** Page sizes and tops in page units, read once the source is open. */
+    private int[] pageWidth = new int[0];
+    private int[] pageHeight = new int[0];
+    private float[] pageTop = new float[0];
+    private float documentWidth;
+    private float documentHeight;
+    private float maxScale;
+    /** Screen pixels per page unit, and the document point at the view's top left, in screen pixels. */
+    private float scale;
+    private float fitScale;
+    private float offsetX;
+    private float offsetY;
+
+    public PagePreviewView(Context context) {
+        this(context, null);
+    }
+
+    public PagePreviewView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        pagePaint.setColor(Color.WHITE);
+        // 1/8 of the heap, in KB
+        int cacheKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        cache = new LruCache<Long, Bitmap>(cacheKb) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+        scroller = new OverScroller(context);
+        gestures = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float dx, float dy) {
+                moveTo(offsetX + dx, offsetY + dy);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float vx, float vy) {
+                scroller.fling(Math.round(offsetX), Math.round(offsetY), Math.round(-vx), Math.round(-vy),
+                        minOffsetX(), maxOffsetX(), minOffsetY(), maxOffsetY());
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                float target = scale > fitScale * 1.5f ? fitScale : fitScale * DOUBLE_TAP_ZOOM;
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+        });
+        scaleGestures = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    /** Opens {@code uri} in the background and shows its first page fitted to the width. */
+    @MainThread
+    void setUri(Uri uri, @Nullable OnShownListener listener) {
+        closeSource();
+        shownListener = listener;
+        int current = ++generation;
+        Context context = getContext().getApplicationContext();
+        executor.execute(() -> {
+            PageSource opened;
+            try {
+                opened = PageSource.open(context, uri);
+            } catch (IOException | RuntimeException e) {
+                opened = null;
+            }
+            PageSource result = opened;
+            post(() -> {
+                if (current != generation) {
+                    closeOnExecutor(result);
+                } else if (result == null || result.pageCount() == 0) {
+                    closeOnExecutor(result);
+                    notifyShown(0);
+                } else {
+                    setSource(result);
+                }
+            });
+        });
+    }
+
+    private void setSource(PageSource opened) {
+        source = opened;
+        int pages = opened.pageCount();
+        pageWidth = new int[pages];
+        pageHeight = new int[pages];
+        pageTop = new float[pages];
+        documentWidth = 0;
+        for (int i = 0; i < pages; i++) {
+            pageWidth[i] = opened.pageWidth(i);
+            pageHeight[i] = opened.pageHeight(i);
+            documentWidth = Math.max(documentWidth, pageWidth[i]);
+        }
+        float y = 0;
+        for (int i = 0; i < pages; i++) {
+            pageTop[i] = y;
+            y += pageHeight[i] + documentWidth * PAGE_GAP;
+        }
+        documentHeight = y - documentWidth * PAGE_GAP;
+        maxScale = opened.maxScale();
+        fit();
+    }
+
+    /** Whole page width on screen (a single image: the whole page), from the top. */
+    private void fit() {
+        if (source == null || getWidth() == 0) return;
+        fitScale = getWidth() / documentWidth;
+        if (pageTop.length == 1) fitScale = Math.min(fitScale, getHeight() / documentHeight);
+        scale = fitScale;
+        offsetX = minOffsetX();
+        offsetY = 0;
+        generation++;
+        requested.clear();
+        cache.evictAll();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        fit();
+    }
+
+    private void zoomTo(float target, float focusX, float focusY) {
+        float min = fitScale;
+        float max = Math.max(fitScale, Math.min(fitScale * MAX_ZOOM, maxScale * 2));
+        float newScale = Math.max(min, Math.min(max, target));
+        // Keep the document point under the focus where it is
+        float docX = (offsetX + focusX) / scale;
+        float docY = (offsetY + focusY) / scale;
+        scale = newScale;
+        moveTo(docX * scale - focusX, docY * scale - focusY);
+    }
+
+    private void moveTo(float x, float y) {
+        offsetX = Math.max(minOffsetX(), Math.min(maxOffsetX(), x));
+        offsetY = Math.max(minOffsetY(), Math.min(maxOffsetY(), y));
+        invalidate();
+    }
+
+    /** Centered when narrower than the view; the same below for the height. */
+    private int minOffsetX() {
+        float width = documentWidth * scale;
+        return width < getWidth() ? Math.round(-(getWidth() - width) / 2) : 0;
+    }
+
+    private int maxOffsetX() {
+        float width = documentWidth * scale;
+        return width < getWidth() ? minOffsetX() : Math.round(width - getWidth());
+    }
+
+    private int minOffsetY() {
+        float height = documentHeight * scale;
+        return height < getHeight() ? Math.round(-(getHeight() - height) / 2) : 0;
+    }
+
+    private int maxOffsetY() {
+        float height = documentHeight * scale;
+        return height < getHeight() ? minOffsetY() : Math.round(height - getHeight());
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleGestures.onTouchEvent(event);
+        if (!scaleGestures.isInProgress()) handled |= gestures.onTouchEvent(event);
+        // Panning inside a zoomed page must not reach the parent
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN && getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            moveTo(scroller.getCurrX(), scroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        if (source == null) return;
+        wanted.clear();
+        float viewTop = offsetY / scale;
+        float viewBottom = (offsetY + getHeight()) / scale;
+        int firstVisible = -1;
+        int lastVisible = -1;
+        for (int page = 0; page < pageTop.length; page++) {
+            if (pageTop[page] + pageHeight[page] < viewTop || pageTop[page] > viewBottom) continue;
+            if (firstVisible < 0) firstVisible = page;
+            lastVisible = page;
+            drawPage(canvas, page);
+        }
+        // The neighbouring pages' base bitmaps, so scrolling a PDF doesn't show blank pages
+        if (firstVisible > 0) request(baseKey(firstVisible - 1), firstVisible - 1, -1, 0, 0);
+        if (lastVisible >= 0 && lastVisible + 1 < pageTop.length) {
+            request(baseKey(lastVisible + 1), lastVisible + 1, -1, 0, 0);
+        }
+        if (shownListener != null && firstVisible >= 0 && cache.get(baseKey(firstVisible)) != null) {
+            notifyShown(pageTop.length);
+        }
+    }
+
+    private void drawPage(Canvas canvas, int page) {
+        float left = -offsetX;
+        float top = pageTop[page] * scale - offsetY;
+        dest.set(left, top, left + pageWidth[page] * scale, top + pageHeight[page] * scale);
+        canvas.drawRect(dest, pagePaint);
+        long base = baseKey(page);
+        Bitmap baseBitmap = cache.get(base);
+        if (baseBitmap != null) {
+            canvas.drawBitmap(baseBitmap, null, dest, paint);
+        } else {
+            request(base, page, -1, 0, 0);
+        }
+        int level = level();
+        if (level < 0) return;
+
+        // Tiles of this level crossing the view, in page units
+        float levelScale = levelScale(level);
+        float tileUnits = TILE_PX / levelScale;
+        float visibleLeft = Math.max(0, offsetX / scale);
+        float visibleRight = Math.min(pageWidth[page], (offsetX + getWidth()) / scale);
+        float visibleTop = Math.max(0, offsetY / scale - pageTop[page]);
+        float visibleBottom = Math.min(pageHeight[page], (offsetY + getHeight()) / scale - pageTop[page]);
+        for (int ty = (int) (visibleTop / tileUnits); ty * tileUnits < visibleBottom; ty++) {
+            for (int tx = (int) (visibleLeft / tileUnits); tx * tileUnits < visibleRight; tx++) {
+                long key = key(page, level, tx, ty);
+                Bitmap tile = cache.get(key);
+                if (tile == null) {
+                    request(key, page, level, tx, ty);
+                    continue;
+                }
+                tileRegion(page, tileUnits, tx, ty, region);
+                dest.set(left + region.left * scale, top + region.top * scale,
+                        left + region.right * scale, top + region.bottom * scale);
+                canvas.drawBitmap(tile, null, dest, paint);
+            }
+        }
+    }
+
+    /** Detail level for the current zoom: -1 while the base bitmap is sharp enough, then 0, 1, ... */
+    private int level() {
+        if (scale <= fitScale * 1.25f || maxScale <= fitScale * 1.25f) return -1;
+        int level = 0;
+        while (levelScale(level) < scale && levelScale(level) < maxScale) level++;
+        return level;
+    }
+
+    /** Output pixels per page unit of a level: the fit scale times 2^(level + 1), up to the source's maximum. */
+    private float levelScale(int level) {
+        return Math.min(maxScale, fitScale * (2 << level));
+    }
+
+    private void tileRegion(int page, float tileUnits, int tx, int ty, Rect out) {
+        out.set((int) (tx * tileUnits), (int) (ty * tileUnits),
+                (int) Math.min(pageWidth[page], (tx + 1) * tileUnits),
+                (int) Math.min(pageHeight[page], (ty + 1) * tileUnits));
+    }
+
+    private static long baseKey(int page) {
+        return key(page, -1, 0, 0);
+    }
+
+    private static long key(int page, int level, int tx, int ty) {
+        return ((long) page << 40) | ((long) (level + 1) << 32) | ((long) tx << 16) | ty;
+    }
+
+    private void request(long key, int page, int level, int tx, int ty) {
+        wanted.add(key);
+        if (source == null || !requested.add(key)) return;
+        PageSource current = source;
+        int requestGeneration = generation;
+        float renderScale = level < 0 ? fitScale : levelScale(level);
+        Rect tileRegion = new Rect();
+        if (level < 0) {
+            tileRegion.set(0, 0, pageWidth[page], pageHeight[page]);
+        } else {
+            tileRegion(page, TILE_PX / renderScale, tx, ty, tileRegion);
+        }
+        executor.execute(() -> {
+            Bitmap bitmap = null;
+            // Scrolled or zoomed past it while queued: not worth decoding any more
+            if (wanted.contains(key) && requestGeneration == generation) {
+                try (PerfTracer.Span span = PerfTracer.begin(level < 0 ? "preview_page" : "preview_tile")) {
+                    bitmap = current.render(page, tileRegion, renderScale);
+                    span.attr("page", page).attr("level", level)
+                            .attr("bytes", bitmap != null ? bitmap.getByteCount() : 0);
+                } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                    bitmap = null;
+                }
+            }
+            Bitmap result = bitmap;
+            post(() -> {
+                requested.remove(key);
+                if (result == null || requestGeneration != generation) return;
+                cache.put(key, result);
+                invalidate();
+            });
+        });
+    }
+
+    private void notifyShown(int pages) {
+        OnShownListener listener = shownListener;
+        shownListener = null;
+        if (listener != null) {
+            listener.onShown(pages, pages > 0 ? pageWidth[0] : 0, pages > 0 ? pageHeight[0] : 0);
+        }
+    }
+
+    private void closeSource() {
+        generation++;
+        wanted.clear();
+        requested.clear();
+        cache.evictAll();
+        closeOnExecutor(source);
+        source = null;
+    }
+
+    /** Closed after any render already queued for it. */
+    private static void closeOnExecutor(@Nullable PageSource closing) {
+        if (closing == null) return;
+        executor.execute(() -> {
+            try {
+                closing.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        });
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        closeSource();
+    }
+}
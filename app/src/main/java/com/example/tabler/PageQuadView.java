@@ -0,0 +1,116 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Outline of the page {@link PageDetector} found, drawn over the camera preview (a PreviewView in
+ * FIT_CENTER mode with the same 4:3 aspect ratio as the analyzed frames). The analysis thread
+ * publishes each frame's corners with {@link #publish}: nothing is allocated per frame on either
+ * thread.
+ */
+public class PageQuadView extends View {
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    /** Last published frame, guarded by itself. */
+    private final float[] quad = new float[8];
+    private boolean found;
+    private boolean ready;
+    private int frameWidth;
+    private int frameHeight;
+    private int rotation;
+    /** Copy read by onDraw, so the lock isn't held while drawing. */
+    private final float[] drawn = new float[8];
+
+    public PageQuadView(Context context) {
+        this(context, null);
+    }
+
+    public PageQuadView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeWidth(3 * getResources().getDisplayMetrics().density);
+    }
+
+    /**
+     * From the analysis thread: the corners of the page in the frame, clockwise from top-left,
+     * and the rotation (clockwise degrees) that makes the frame upright.
+     */
+    void publish(float[] corners, boolean found, boolean ready, int frameWidth, int frameHeight, int rotation) {
+        synchronized (quad) {
+            System.arraycopy(corners, 0, quad, 0, 8);
+            this.found = found;
+            this.ready = ready;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.rotation = rotation;
+        }
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        int width;
+        int height;
+        int degrees;
+        boolean show;
+        boolean steady;
+        synchronized (quad) {
+            System.arraycopy(quad, 0, drawn, 0, 8);
+            show = found && frameWidth > 0;
+            steady = ready;
+            width = frameWidth;
+            height = frameHeight;
+            degrees = rotation;
+        }
+        if (!show) return;
+        boolean swap = degrees == 90 || degrees == 270;
+        float uprightWidth = swap ? height : width;
+        float uprightHeight = swap ? width : height;
+        float scale = Math.min(getWidth() / uprightWidth, getHeight() / uprightHeight);
+        float left = (getWidth() - uprightWidth * scale) / 2;
+        float top = (getHeight() - uprightHeight * scale) / 2;
+        path.rewind();
+        for (int i = 0; i < 4; i++) {
+            float x = drawn[i * 2];
+            float y = drawn[i * 2 + 1];
+            float ux;
+            float uy;
+            switch (degrees) {
+                case 90:
+                    ux = height - y;
+                    uy = x;
+                    break;
+                case 180:
+                    ux = width - x;
+                    uy = height - y;
+                    break;
+                case 270:
+                    ux = y;
+                    uy = width - x;
+                    break;
+                default:
+                    ux = x;
+                    uy = y;
+            }
+            float vx = left + ux * scale;
+            float vy = top + uy * scale;
+            if (i == 0) path.moveTo(vx, vy);
+            else path.lineTo(vx, vy);
+        }
+        path.close();
+        paint.setColor(steady ? Color.GREEN : Color.WHITE);
+        canvas.drawPath(path, paint);
+    }
+}
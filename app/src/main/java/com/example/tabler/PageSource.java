@@ -0,0 +1,211 @@
+package com.example.tabler;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.pdf.PdfRenderer;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Pages of a picked file for {@link PagePreviewView}, rendered a region at a time and never at
+ * full resolution unless zoomed in that far. Sizes and regions are in page units (image pixels
+ * after the EXIF rotation, PDF points); {@code scale} is output pixels per unit. Not thread-safe:
+ * one decode thread uses it.
+ */
+interface PageSource extends Closeable {
+
+    int pageCount();
+
+    int pageWidth(int page);
+
+    int pageHeight(int page);
+
+    /** Highest useful scale: more would only enlarge pixels that aren't there. */
+    float maxScale();
+
+    /** {@code region} of {@code page}, at least {@code scale} if the source has the detail. */
+    @Nullable
+    @WorkerThread
+    Bitmap render(int page, Rect region, float scale) throws IOException;
+
+    @WorkerThread
+    static PageSource open(Context context, Uri uri) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        if ("application/pdf".equals(resolver.getType(uri))) {
+            ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+            if (pfd == null) throw new IOException("Impossibile leggere " + uri);
+            return new Pdf(pfd);
+        }
+        return new Image(resolver, uri);
+    }
+
+    /** A photo or image file: one page, decoded through BitmapRegionDecoder with a power-of-two sample. */
+    final class Image implements PageSource {
+        private final BitmapRegionDecoder decoder;
+        private final int rotation;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final Rect sourceRegion = new Rect();
+
+        Image(ContentResolver resolver, Uri uri) throws IOException {
+            rotation = ImagePreprocessor.readRotation(resolver, uri);
+            try (InputStream is = resolver.openInputStream(uri)) {
+                if (is == null) throw new IOException("Impossibile leggere " + uri);
+                decoder = BitmapRegionDecoder.newInstance(is, false);
+            }
+            if (decoder == null) throw new IOException("Formato immagine non supportato");
+            sourceWidth = decoder.getWidth();
+            sourceHeight = decoder.getHeight();
+        }
+
+        @Override
+        public int pageCount() {
+            return 1;
+        }
+
+        @Override
+        public int pageWidth(int page) {
+            return rotation % 180 == 0 ? sourceWidth : sourceHeight;
+        }
+
+        @Override
+        public int pageHeight(int page) {
+            return rotation % 180 == 0 ? sourceHeight : sourceWidth;
+        }
+
+        @Override
+        public float maxScale() {
+            return 1f;
+        }
+
+        @Override
+        public Bitmap render(int page, Rect region, float scale) {
+            toSource(region);
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inSampleSize = 1;
+            while (opts.inSampleSize * 2 * scale <= 1f) opts.inSampleSize *= 2;
+            opts.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = decoder.decodeRegion(sourceRegion, opts);
+            if (bitmap == null || rotation == 0) return bitmap;
+            Matrix m = new Matrix();
+            m.postRotate(rotation);
+            Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), m, true);
+            if (rotated != bitmap) bitmap.recycle();
+            return rotated;
+        }
+
+        /** The rect of the stored (unrotated) image shown as {@code region} after the clockwise rotation. */
+        private void toSource(Rect region) {
+            switch (rotation) {
+                case 90:
+                    sourceRegion.set(region.top, sourceHeight - region.right, region.bottom, sourceHeight - region.left);
+                    break;
+                case 180:
+                    sourceRegion.set(sourceWidth - region.right, sourceHeight - region.bottom,
+                            sourceWidth - region.left, sourceHeight - region.top);
+                    break;
+                case 270:
+                    sourceRegion.set(sourceWidth - region.bottom, region.left, sourceWidth - region.top, region.right);
+                    break;
+                default:
+                    sourceRegion.set(region);
+            }
+        }
+
+        @Override
+        public void close() {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * A PDF: each region rendered by PdfRenderer at the requested scale. PdfRenderer allows one
+     * open page at a time; the last one is kept open, since tiles come page by page.
+     */
+    final class Pdf implements PageSource {
+        private final ParcelFileDescriptor pfd;
+        private final PdfRenderer renderer;
+        private final int[] widths;
+        private final int[] heights;
+        private final Matrix matrix = new Matrix();
+        @Nullable private PdfRenderer.Page open;
+
+        Pdf(ParcelFileDescriptor pfd) throws IOException {
+            this.pfd = pfd;
+            try {
+                renderer = new PdfRenderer(pfd);
+            } catch (IOException | SecurityException e) {
+                pfd.close();
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            }
+            int pages = renderer.getPageCount();
+            widths = new int[pages];
+            heights = new int[pages];
+            for (int i = 0; i < pages; i++) {
+                PdfRenderer.Page page = page(i);
+                widths[i] = page.getWidth();
+                heights[i] = page.getHeight();
+            }
+        }
+
+        private PdfRenderer.Page page(int index) {
+            if (open != null && open.getIndex() == index) return open;
+            if (open != null) open.close();
+            open = renderer.openPage(index);
+            return open;
+        }
+
+        @Override
+        public int pageCount() {
+            return widths.length;
+        }
+
+        @Override
+        public int pageWidth(int page) {
+            return widths[page];
+        }
+
+        @Override
+        public int pageHeight(int page) {
+            return heights[page];
+        }
+
+        @Override
+        public float maxScale() {
+            // 8x a point is 576 dpi: more than any scan behind a PDF score
+            return 8f;
+        }
+
+        @Override
+        public Bitmap render(int page, Rect region, float scale) {
+            int width = Math.max(1, Math.round(region.width() * scale));
+            int height = Math.max(1, Math.round(region.height() * scale));
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.WHITE);
+            matrix.setScale(scale, scale);
+            matrix.postTranslate(-region.left * scale, -region.top * scale);
+            page(page).render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+            return bitmap;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open != null) open.close();
+            renderer.close();
+            pfd.close();
+        }
+    }
+}
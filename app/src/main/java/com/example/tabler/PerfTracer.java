@@ -0,0 +1,398 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InetSocketAddress;
+import java.io.OutputStream;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Client-side timing of the capture → result flow. Each stage is a {@link Span}: an async
+ * {@link Trace} section (visible in Perfetto/systrace, API 29+) and, when it ends, a {@link Record}
+ * in an in-app ring buffer of the last {@link #CAPACITY} stages, also logged under {@link #LOG_TAG}
+ * in debug builds (or with {@code adb shell setprop log.tag.TablerPerf DEBUG}).
+ * Spans carry the bytes sent and received and a flow id (the library item) that groups one page's
+ * stages. HTTP calls are traced by {@link #httpListenerFactory()} with the backend's Server-Timing
+ * header, so network time and server time can be told apart. {@link #export} writes the buffer
+ * as JSON, with the device and network, to compare runs.
+ */
+final class PerfTracer {
+
+    static final String LOG_TAG = "TablerPerf";
+    private static final int CAPACITY = 256;
+    /** Job ids in paths, replaced by "{id}" so that HTTP spans group by endpoint. */
+    private static final Pattern PATH_ID = Pattern.compile("/[0-9a-f]{32}(?=/|$)");
+    private static final Pattern SERVER_TOTAL = Pattern.compile("(?:^|,)\\s*total;dur=([0-9.]+)");
+
+    private static final AtomicInteger cookies = new AtomicInteger();
+    private static final ThreadLocal<String> currentFlow = new ThreadLocal<>();
+    private static final Record[] ring = new Record[CAPACITY];
+    private static int next;
+    private static int size;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    @Nullable private static volatile ConnectivityManager connectivity;
+
+    private PerfTracer() {}
+
+    static void init(Context context) {
+        connectivity = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /** Starts a stage in the flow of the current thread (see {@link #flow}). */
+    static Span begin(String name) {
+        return new Span(name, currentFlow.get());
+    }
+
+    static Span begin(String name, @Nullable String flow) {
+        return new Span(name, flow);
+    }
+
+    /** Spans begun on this thread until {@code close()} belong to {@code flow}. */
+    static FlowScope flow(@Nullable String flow) {
+        String previous = currentFlow.get();
+        currentFlow.set(flow);
+        return () -> currentFlow.set(previous);
+    }
+
+    interface FlowScope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** One stage being timed. Not thread-safe: set its fields from one thread at a time. */
+    static final class Span implements AutoCloseable {
+        final String name;
+        @Nullable final String flow;
+        private final int cookie = cookies.incrementAndGet();
+        private final long startNanos = SystemClock.elapsedRealtimeNanos();
+        private final long startWallMs = System.currentTimeMillis();
+        private long bytesIn;
+        private long bytesOut;
+        @Nullable private String serverTiming;
+        private final Map<String, String> attrs = new LinkedHashMap<>();
+        private boolean ended;
+
+        private Span(String name, @Nullable String flow) {
+            this.name = name;
+            this.flow = flow;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(traceName(), cookie);
+            }
+        }
+
+        Span bytesIn(long bytes) {
+            if (bytes > 0) bytesIn += bytes;
+            return this;
+        }
+
+        Span bytesOut(long bytes) {
+            if (bytes > 0) bytesOut += bytes;
+            return this;
+        }
+
+        Span serverTiming(@Nullable String header) {
+            serverTiming = header;
+            return this;
+        }
+
+        Span attr(String key, @Nullable Object value) {
+            if (value != null) attrs.put(key, String.valueOf(value));
+            return this;
+        }
+
+        /** Ends the span (once; later calls are ignored) and stores its record. */
+        @Override
+        public void close() {
+            if (ended) return;
+            ended = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(traceName(), cookie);
+            }
+            long durationMs = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1_000_000;
+            add(new Record(name, flow, startWallMs, durationMs, Thread.currentThread().getName(),
+                    bytesIn, bytesOut, serverTiming, new LinkedHashMap<>(attrs)));
+        }
+
+        private String traceName() {
+            // Trace section names are capped at 127 chars
+            String traceName = "Tabler:" + name;
+            return traceName.length() > 127 ? traceName.substring(0, 127) : traceName;
+        }
+    }
+
+    /** A finished stage. {@code serverMs} is the "total" of the backend's Server-Timing, -1 if none. */
+    static final class Record {
+        final String name;
+        @Nullable final String flow;
+        final long startWallMs;
+        final long durationMs;
+        final String thread;
+        final long bytesIn;
+        final long bytesOut;
+        @Nullable final String serverTiming;
+        final double serverMs;
+        final Map<String, String> attrs;
+
+        Record(String name, @Nullable String flow, long startWallMs, long durationMs, String thread,
+               long bytesIn, long bytesOut, @Nullable String serverTiming, Map<String, String> attrs) {
+            this.name = name;
+            this.flow = flow;
+            this.startWallMs = startWallMs;
+            this.durationMs = durationMs;
+            this.thread = thread;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.serverTiming = serverTiming;
+            this.serverMs = serverTotalMs(serverTiming);
+            this.attrs = attrs;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject()
+                    .put("name", name)
+                    .put("start", startWallMs)
+                    .put("durationMs", durationMs)
+                    .put("thread", thread);
+            if (flow != null) o.put("flow", flow);
+            if (bytesIn > 0) o.put("bytesIn", bytesIn);
+            if (bytesOut > 0) o.put("bytesOut", bytesOut);
+            if (serverTiming != null) o.put("serverTiming", serverTiming);
+            if (serverMs >= 0) o.put("serverMs", serverMs);
+            if (!attrs.isEmpty()) o.put("attrs", new JSONObject(attrs));
+            return o;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + " " + durationMs + " ms"
+                    + (flow != null ? " flow=" + flow : "")
+                    + (bytesOut > 0 ? " out=" + bytesOut : "")
+                    + (bytesIn > 0 ? " in=" + bytesIn : "")
+                    + (serverMs >= 0 ? " server=" + serverMs + " ms" : "")
+                    + (attrs.isEmpty() ? "" : " " + attrs);
+        }
+    }
+
+    private static double serverTotalMs(@Nullable String serverTiming) {
+        if (serverTiming == null) return -1;
+        Matcher m = SERVER_TOTAL.matcher(serverTiming);
+        if (!m.find()) return -1;
+        try {
+            return Double.parseDouble(m.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void add(Record record) {
+        synchronized (ring) {
+            ring[next] = record;
+            next = (next + 1) % CAPACITY;
+            if (size < CAPACITY) size++;
+        }
+        // Release builds keep the ring buffer and the export, without a log line per span
+        if (BuildConfig.DEBUG || Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, record.toString());
+        }
+    }
+
+    /** Buffered records, oldest first. */
+    static List<Record> snapshot() {
+        synchronized (ring) {
+            List<Record> records = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                records.add(ring[(next - size + i + CAPACITY) % CAPACITY]);
+            }
+            return records;
+        }
+    }
+
+    /** Current transport ("wifi", "cellular", ...) with the estimated bandwidth, or null if unknown. */
+    @Nullable
+    static String networkType() {
+        ConnectivityManager cm = connectivity;
+        if (cm == null) return null;
+        Network network = cm.getActiveNetwork();
+        NetworkCapabilities caps = network != null ? cm.getNetworkCapabilities(network) : null;
+        if (caps == null) return "none";
+        String transport = caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) ? "wifi"
+                : caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) ? "cellular"
+                : caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) ? "ethernet"
+                : caps.hasTransport(NetworkCapabilities.TRANSPORT_VPN) ? "vpn" : "other";
+        return transport + " " + caps.getLinkDownstreamBandwidthKbps() + "/"
+                + caps.getLinkUpstreamBandwidthKbps() + " kbps";
+    }
+
+    interface ExportCallback {
+        /** {@code file} is null if the export failed. */
+        void onExported(@Nullable File file);
+    }
+
+    /** Writes the buffer to {@code cache/perf/tempi-<time>.json} off the main thread. */
+    @MainThread
+    static void export(Context context, ExportCallback callback) {
+        Context app = context.getApplicationContext();
+        List<Record> records = snapshot();
+        executor.execute(() -> {
+            File file = null;
+            try {
+                file = writeExport(app, records);
+            } catch (IOException | JSONException e) {
+                Log.w(LOG_TAG, "Export failed", e);
+            }
+            File exported = file;
+            mainHandler.post(() -> callback.onExported(exported));
+        });
+    }
+
+    private static File writeExport(Context context, List<Record> records) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        for (Record record : records) array.put(record.toJson());
+        JSONObject device = new JSONObject()
+                .put("manufacturer", Build.MANUFACTURER)
+                .put("model", Build.MODEL)
+                .put("sdk", Build.VERSION.SDK_INT)
+                .put("cpuAbi", Build.SUPPORTED_ABIS.length > 0 ? Build.SUPPORTED_ABIS[0] : "")
+                .put("network", networkType());
+        JSONObject root = new JSONObject()
+                .put("app", versionName(context))
+                .put("exportedAt", System.currentTimeMillis())
+                .put("backend", OmrClient.OMR_BASE_URL)
+                .put("device", device)
+                .put("records", array);
+        File dir = new File(context.getCacheDir(), "perf");
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Impossibile creare " + dir);
+        File[] previous = dir.listFiles();
+        if (previous != null) {
+            // Only the latest export is kept: it already holds the whole buffer
+            for (File old : previous) old.delete();
+        }
+        File file = new File(dir, "tempi-" + System.currentTimeMillis() + ".json");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(root.toString(2).getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Nullable
+    private static String versionName(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /** Traces every call of the shared OkHttpClient as an "http" span. */
+    static EventListener.Factory httpListenerFactory() {
+        return call -> new HttpListener(call);
+    }
+
+    /**
+     * One span per call: request and response bytes, connection setup and time to first byte as
+     * attributes, Server-Timing from the response. Sync calls report on the calling thread, so the
+     * span joins that thread's flow.
+     */
+    private static final class HttpListener extends EventListener {
+        private final Span span;
+        private long connectStart = -1;
+        private long requestSent = -1;
+
+        HttpListener(Call call) {
+            String path = PATH_ID.matcher(call.request().url().encodedPath()).replaceAll("/{id}");
+            span = begin("http " + call.request().method() + " " + path);
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy) {
+            connectStart = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy,
+                               @Nullable Protocol protocol) {
+            if (connectStart >= 0) span.attr("connectMs", SystemClock.elapsedRealtime() - connectStart);
+            span.attr("protocol", protocol);
+        }
+
+        @Override
+        public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+            span.bytesOut(request.headers().byteCount());
+            requestSent = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            span.bytesOut(byteCount);
+            requestSent = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+            if (requestSent >= 0) span.attr("ttfbMs", SystemClock.elapsedRealtime() - requestSent);
+            span.bytesIn(response.headers().byteCount())
+                    .serverTiming(response.header("Server-Timing"))
+                    .attr("code", response.code());
+        }
+
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            span.bytesIn(byteCount);
+        }
+
+        @Override
+        public void cacheHit(@NonNull Call call, @NonNull Response response) {
+            span.attr("cache", "hit");
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            span.attr("network", networkType()).close();
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            span.attr("network", networkType()).attr("error", ioe.getClass().getSimpleName()).close();
+        }
+    }
+}
@@ -1,44 +1,28 @@
 package com.example.tabler;
 
-import android.net.Uri;
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.view.MenuProvider;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.example.tabler.databinding.FragmentRisultatoOmrBinding;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import okhttp3.MediaType;
-import okhttp3.MultipartBody;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-
 public class RisultatoOmrFragment extends Fragment {
 
     private FragmentRisultatoOmrBinding binding;
     private String imageUriString;
-
-    /** OMR backend URL (Render). For local testing use http://10.0.2.2:8080 */
-    private static final String OMR_BASE_URL = "https://tabler-omr.onrender.com";
-
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
-    private final OkHttpClient client = new OkHttpClient.Builder()
-            .connectTimeout(60, TimeUnit.SECONDS)
-            .readTimeout(180, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    private OmrJobViewModel viewModel;
+    @Nullable private PerfTracer.Span renderSpan;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -46,6 +30,7 @@ public class RisultatoOmrFragment extends Fragment {
         if (getArguments() != null) {
             imageUriString = getArguments().getString("imageUri");
         }
+        viewModel = new ViewModelProvider(this).get(OmrJobViewModel.class);
     }
 
     @Override
@@ -58,149 +43,106 @@ public class RisultatoOmrFragment extends Fragment {
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         binding.progressOmr.setVisibility(View.VISIBLE);
-        binding.scrollRisultato.setVisibility(View.GONE);
-        binding.risultatoText.setText("");
+        binding.risultatoScore.setVisibility(View.GONE);
 
-        if (imageUriString == null || imageUriString.isEmpty()) {
-            showResult(getString(R.string.riconoscimento_fallito) + " (nessuna immagine)");
-            return;
-        }
-
-        executor.execute(() -> {
-            try {
-                Uri uri = Uri.parse(imageUriString);
-                String mimeType = requireContext().getContentResolver().getType(uri);
-                byte[] imageBytes = readUriToBytes(uri);
-                if (imageBytes == null || imageBytes.length == 0) {
-                    runOnUiThread(() -> showResult(getString(R.string.riconoscimento_fallito) + " (impossibile leggere file)"));
-                    return;
-                }
-                String result = callOmrBackend(imageBytes, mimeType);
-                runOnUiThread(() -> showResult(result));
-            } catch (Exception e) {
-                runOnUiThread(() -> showResult(getString(R.string.riconoscimento_fallito) + "\n\n" + e.getMessage()));
+        requireActivity().addMenuProvider(new MenuProvider() {
+            @Override
+            public void onCreateMenu(@NonNull Menu menu, @NonNull MenuInflater menuInflater) {
+                menuInflater.inflate(R.menu.menu_risultato_omr, menu);
             }
-        });
-    }
 
-    private byte[] readUriToBytes(Uri uri) throws IOException {
-        try (InputStream is = requireContext().getContentResolver().openInputStream(uri)) {
-            if (is == null) return null;
-            java.io.ByteArrayOutputStream buffer = new java.io.ByteArrayOutputStream();
-            byte[] chunk = new byte[8192];
-            int n;
-            while ((n = is.read(chunk)) != -1) {
-                buffer.write(chunk, 0, n);
+            @Override
+            public void onPrepareMenu(@NonNull Menu menu) {
+                OmrJobViewModel.State state = viewModel.getState().getValue();
+                MenuItem item = menu.findItem(R.id.action_strumento);
+                item.setVisible(state != null && state.tablature != null);
+                item.setTitle(viewModel.getInstrument() == Instrument.BASS
+                        ? R.string.action_tablatura_chitarra : R.string.action_tablatura_basso);
             }
-            return buffer.toByteArray();
-        }
-    }
 
-    private String callOmrBackend(byte[] imageBytes, String mimeType) {
-        String filename = "application/pdf".equals(mimeType) ? "spartito.pdf" : "spartito.jpg";
-        MediaType mediaType = (mimeType != null && !mimeType.isEmpty())
-                ? MediaType.parse(mimeType) : MediaType.parse("image/jpeg");
-        RequestBody body = new MultipartBody.Builder()
-                .setType(MultipartBody.FORM)
-                .addFormDataPart("image", filename, RequestBody.create(mediaType, imageBytes))
-                .build();
-        Request request = new Request.Builder()
-                .url(OMR_BASE_URL + "/omr")
-                .post(body)
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                String errorBody = response.body() != null ? response.body().string() : "";
-                if (response.code() == 413 && errorBody.contains("\"note\"")) {
-                    String note = extractJsonNote(errorBody);
-                    if (note != null && !note.isEmpty()) {
-                        return getString(R.string.riconoscimento_fallito) + "\n\nFile troppo grande.\n\n" + note;
-                    }
-                }
-                return getString(R.string.riconoscimento_fallito) + " (HTTP " + response.code() + ")\n\n" + errorBody;
-            }
-            if (response.body() == null) return getString(R.string.riconoscimento_completato);
-            String bodyStr = response.body().string();
-            String originalResponse = bodyStr;
-            if (bodyStr.trim().startsWith("{")) {
-                // JSON: e.g. {"musicXml": "..."} or {"error": "..."}
-                if (bodyStr.contains("\"musicXml\"")) {
-                    boolean recognized = extractJsonBoolean(originalResponse, "recognized");
-                    boolean musicXmlExtracted = extractJsonBoolean(originalResponse, "musicXmlExtracted");
-                    String statusLine = "Riconosciuto: " + recognized + " | MusicXML estratto: " + musicXmlExtracted;
-                    int start = bodyStr.indexOf("\"musicXml\"");
-                    int valueStart = bodyStr.indexOf(":", start) + 1;
-                    int quoteStart = bodyStr.indexOf("\"", valueStart) + 1;
-                    int quoteEnd = bodyStr.indexOf("\"", quoteStart);
-                    if (quoteEnd > quoteStart) {
-                        bodyStr = bodyStr.substring(quoteStart, quoteEnd).replace("\\n", "\n").replace("\\\"", "\"");
-                        if (isPlaceholderResponse(bodyStr)) {
-                            String backendNote = extractJsonNote(originalResponse);
-                            String msg = getString(R.string.riconoscimento_fallito) + "\n\n" + getString(R.string.omr_nessun_risultato);
-                            if (backendNote != null && !backendNote.isEmpty()) {
-                                msg += "\n\nDettaglio server: " + backendNote;
-                            }
-                            return msg;
-                        }
-                        return statusLine + "\n\n" + getString(R.string.riconoscimento_completato) + "\n\n" + bodyStr;
-                    }
-                } else if (bodyStr.contains("\"error\"")) {
-                    return getString(R.string.riconoscimento_fallito) + "\n\n" + bodyStr;
-                }
+            @Override
+            public boolean onMenuItemSelected(@NonNull MenuItem menuItem) {
+                if (menuItem.getItemId() != R.id.action_strumento) return false;
+                viewModel.setInstrument(viewModel.getInstrument() == Instrument.BASS
+                        ? Instrument.GUITAR : Instrument.BASS);
+                return true;
             }
-            return getString(R.string.riconoscimento_completato) + "\n\n" + bodyStr;
-        } catch (IOException e) {
-            return getString(R.string.riconoscimento_fallito) + "\n\n" + e.getMessage() +
-                    "\n\n(Verifica che il backend OMR sia in esecuzione su " + OMR_BASE_URL + ")";
-        }
-    }
-
-    private void runOnUiThread(Runnable r) {
-        if (getActivity() != null) {
-            getActivity().runOnUiThread(r);
-        }
-    }
+        }, getViewLifecycleOwner(), Lifecycle.State.RESUMED);
 
-    /** True if the backend returned the placeholder (no real OMR result). */
-    private boolean isPlaceholderResponse(String bodyStr) {
-        if (bodyStr == null) return true;
-        return bodyStr.contains("OMR non disponibile")
-                || bodyStr.contains("<placeholder/>")
-                || (bodyStr.length() < 100 && bodyStr.contains("<?xml"));
+        // The job runs in the background queue: leaving or recreating the fragment doesn't stop it
+        viewModel.getState().observe(getViewLifecycleOwner(), this::render);
+        viewModel.start(imageUriString);
     }
 
-    /** Extract a boolean field from JSON, e.g. "recognized": true */
-    private boolean extractJsonBoolean(String json, String key) {
-        if (json == null || !json.contains("\"" + key + "\"")) return false;
-        int start = json.indexOf("\"" + key + "\"");
-        int valueStart = json.indexOf(":", start) + 1;
-        if (valueStart <= start) return false;
-        String rest = json.substring(valueStart).trim();
-        return rest.startsWith("true");
+    private void render(OmrJobViewModel.State state) {
+        if (binding == null) return;
+        if (state.isFinished()) {
+            showResult(state);
+            requireActivity().invalidateMenu();
+            return;
+        }
+        binding.progressOmr.setVisibility(View.VISIBLE);
+        binding.risultatoScore.setVisibility(View.GONE);
+        boolean uploading = state.stage == OmrJobViewModel.Stage.UPLOADING && state.uploadPercent < 100;
+        binding.progressUpload.setVisibility(uploading ? View.VISIBLE : View.GONE);
+        binding.progressUpload.setProgress(state.uploadPercent);
+        binding.statoOmr.setVisibility(View.VISIBLE);
+        binding.statoOmr.setText(stageLabel(state));
     }
 
-    /** Extract the "note" field from JSON response, if present (backend explanation when OMR fails). */
-    private String extractJsonNote(String json) {
-        if (json == null || !json.contains("\"note\"")) return null;
-        int start = json.indexOf("\"note\"");
-        int valueStart = json.indexOf(":", start) + 1;
-        int quoteStart = json.indexOf("\"", valueStart) + 1;
-        if (quoteStart <= valueStart) return null;
-        int quoteEnd = json.indexOf("\"", quoteStart);
-        if (quoteEnd <= quoteStart) return null;
-        return json.substring(quoteStart, quoteEnd).replace("\\n", "\n").replace("\\\"", "\"");
+    private String stageLabel(OmrJobViewModel.State state) {
+        switch (state.stage) {
+            case WAITING:
+                if (state.retryAfterSeconds > 0) {
+                    return getString(R.string.omr_fase_server_occupato, state.retryAfterSeconds);
+                }
+                return getString(R.string.omr_fase_in_attesa);
+            case PREPARING:
+                return getString(R.string.omr_fase_preparazione);
+            case UPLOADING:
+                return getString(R.string.omr_fase_caricamento);
+            case QUEUED:
+                if (state.queuePosition > 0) {
+                    return getString(R.string.omr_fase_in_coda_posizione, state.queuePosition);
+                }
+                return getString(R.string.omr_fase_in_coda);
+            default:
+                if ("exporting".equals(state.text)) return getString(R.string.omr_fase_esportazione);
+                if (state.pagesTotal > 0) {
+                    return getString(R.string.omr_fase_pagine, state.pagesDone, state.pagesTotal);
+                }
+                return getString(R.string.omr_fase_riconoscimento);
+        }
     }
 
-    private void showResult(String text) {
+    private void showResult(OmrJobViewModel.State state) {
         if (binding == null) return;
         binding.progressOmr.setVisibility(View.GONE);
-        binding.scrollRisultato.setVisibility(View.VISIBLE);
-        binding.risultatoText.setText(text);
+        binding.progressUpload.setVisibility(View.GONE);
+        binding.statoOmr.setVisibility(View.GONE);
+        binding.risultatoScore.setVisibility(View.VISIBLE);
+        // Laid out and drawn off this call: the span ends when the result is first on screen
+        if (renderSpan != null) renderSpan.close();
+        PerfTracer.Span span = PerfTracer.begin("result_render");
+        renderSpan = span;
+        span.attr("chars", state.text != null ? state.text.length() : 0);
+        if (state.tablature != null) {
+            span.attr("instrument", state.tablature.instrument.name())
+                    .attr("measures", state.tablature.measureCount);
+        }
+        binding.risultatoScore.setContent(state.text, state.tablature, layout -> {
+            span.attr("height", layout.height).close();
+            if (renderSpan == span) renderSpan = null;
+        });
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        if (renderSpan != null) {
+            renderSpan.attr("shown", false).close();
+            renderSpan = null;
+        }
         binding = null;
     }
 }
@@ -0,0 +1,128 @@
+package com.example.tabler;
+
+import android.graphics.Paint;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+/**
+ * Where everything goes in a {@link ScoreView}, computed once off the main thread for a width:
+ * a list of blocks, each a line of text or a tablature system, with its top in pixels. Text is
+ * wrapped at the monospace chars that fit; systems hold whole measures. Blocks only point into the
+ * text and the {@link Tablature}, so drawing a block doesn't need anything laid out beforehand.
+ */
+final class ScoreLayout {
+
+    static final byte TEXT_LINE = 0;
+    static final byte SYSTEM = 1;
+
+    final String text;
+    @Nullable final Tablature tablature;
+    final int width;
+    final int height;
+    final int lineHeight;
+    /** Distance from the top of a line to the text baseline. */
+    final int baseline;
+    final int blockCount;
+    final int[] blockTop;
+    final byte[] blockKind;
+    /** TEXT_LINE: chars [start, end) of the text. SYSTEM: measures [start, end). */
+    final int[] blockStart;
+    final int[] blockEnd;
+
+    private ScoreLayout(String text, @Nullable Tablature tablature, int width, int height, int lineHeight,
+                        int baseline, int blockCount, int[] blockTop, byte[] blockKind, int[] blockStart,
+                        int[] blockEnd) {
+        this.text = text;
+        this.tablature = tablature;
+        this.width = width;
+        this.height = height;
+        this.lineHeight = lineHeight;
+        this.baseline = baseline;
+        this.blockCount = blockCount;
+        this.blockTop = blockTop;
+        this.blockKind = blockKind;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+    }
+
+    /** Lays out {@code text}, then {@code tablature} if any, {@code width} pixels wide in {@code paint} (monospace). */
+    @WorkerThread
+    static ScoreLayout compute(String text, @Nullable Tablature tablature, int width, Paint paint) {
+        Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+        int lineHeight = metrics.descent - metrics.ascent + metrics.leading;
+        int charsPerLine = Math.max(20, (int) (width / paint.measureText("0")));
+        Builder blocks = new Builder(text.length() / charsPerLine + 64);
+
+        int y = 0;
+        int lineStart = 0;
+        int length = text.length();
+        while (lineStart < length) {
+            int newline = text.indexOf('\n', lineStart);
+            int end = newline < 0 ? length : newline;
+            // Long lines wrap at the width; an empty line still takes its height
+            do {
+                int lineEnd = Math.min(end, lineStart + charsPerLine);
+                blocks.add(y, TEXT_LINE, lineStart, lineEnd);
+                y += lineHeight;
+                lineStart = lineEnd;
+            } while (lineStart < end);
+            lineStart = end + 1;
+        }
+        if (tablature != null) {
+            y += lineHeight;
+            // Measure number above the strings, then half a line of space
+            int systemHeight = (tablature.instrument.strings() + 1) * lineHeight + lineHeight / 2;
+            int[] systems = tablature.systems(charsPerLine);
+            for (int i = 0; i + 1 < systems.length; i++) {
+                blocks.add(y, SYSTEM, systems[i], systems[i + 1]);
+                y += systemHeight;
+            }
+        }
+        return new ScoreLayout(text, tablature, width, y, lineHeight, -metrics.ascent, blocks.count,
+                blocks.top, blocks.kind, blocks.start, blocks.end);
+    }
+
+    /** Last block starting at or above {@code y}. */
+    int blockAt(int y) {
+        int i = Arrays.binarySearch(blockTop, 0, blockCount, y);
+        if (i < 0) i = -i - 2;
+        return Math.max(0, i);
+    }
+
+    int blockBottom(int block) {
+        return block + 1 < blockCount ? blockTop[block + 1] : height;
+    }
+
+    private static final class Builder {
+        int count;
+        int[] top;
+        byte[] kind;
+        int[] start;
+        int[] end;
+
+        Builder(int capacity) {
+            top = new int[capacity];
+            kind = new byte[capacity];
+            start = new int[capacity];
+            end = new int[capacity];
+        }
+
+        void add(int y, byte blockKind, int from, int to) {
+            if (count == top.length) {
+                int size = count * 2;
+                top = Arrays.copyOf(top, size);
+                kind = Arrays.copyOf(kind, size);
+                start = Arrays.copyOf(start, size);
+                end = Arrays.copyOf(end, size);
+            }
+            top[count] = y;
+            kind[count] = blockKind;
+            start[count] = from;
+            end[count] = to;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.tabler;
+
+import android.util.Xml;
+
+import androidx.annotation.Nullable;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * What the library search knows about a recognized score: title, composer, key, time signature
+ * and instruments. All of it is in the header and the first measure, so the pull parser stops
+ * there instead of reading the whole file. Key names are in Italian and English ("Sol maggiore
+ * G major") so that both can be searched.
+ */
+final class ScoreMetadata {
+
+    /** Tonic of the major key with -7..10 fifths (minor keys: fifths + 3). */
+    private static final String[] TONIC_IT = {"Do bemolle", "Sol bemolle", "Re bemolle", "La bemolle",
+            "Mi bemolle", "Si bemolle", "Fa", "Do", "Sol", "Re", "La", "Mi", "Si", "Fa diesis", "Do diesis",
+            "Sol diesis", "Re diesis", "La diesis"};
+    private static final String[] TONIC_EN = {"Cb", "Gb", "Db", "Ab", "Eb", "Bb", "F", "C", "G", "D", "A", "E",
+            "B", "F#", "C#", "G#", "D#", "A#"};
+
+    @Nullable final String title;
+    @Nullable final String composer;
+    @Nullable final String key;
+    @Nullable final String time;
+    @Nullable final String instruments;
+
+    private ScoreMetadata(@Nullable String title, @Nullable String composer, @Nullable String key,
+                          @Nullable String time, @Nullable String instruments) {
+        this.title = title;
+        this.composer = composer;
+        this.key = key;
+        this.time = time;
+        this.instruments = instruments;
+    }
+
+    static ScoreMetadata read(InputStream in) throws IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        try {
+            parser.setInput(in, null);
+            return read(parser);
+        } catch (XmlPullParserException e) {
+            throw new IOException("MusicXML non valido: " + e.getMessage(), e);
+        }
+    }
+
+    private static ScoreMetadata read(XmlPullParser parser) throws IOException, XmlPullParserException {
+        StringBuilder title = new StringBuilder();
+        Set<String> composers = new LinkedHashSet<>();
+        Set<String> instruments = new LinkedHashSet<>();
+        String fifths = null;
+        String mode = null;
+        String beats = null;
+        String beatType = null;
+        boolean senzaMisura = false;
+        int event;
+        while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.END_TAG) {
+                // Key and time are set at the start of the first measure: nothing else to read
+                if ("measure".equals(parser.getName())) break;
+                continue;
+            }
+            if (event != XmlPullParser.START_TAG) continue;
+            switch (parser.getName()) {
+                case "work-title":
+                case "movement-title":
+                    append(title, " - ", parser.nextText());
+                    break;
+                case "creator":
+                    boolean composer = "composer".equals(parser.getAttributeValue(null, "type"));
+                    String name = parser.nextText().trim();
+                    if (composer && !name.isEmpty()) composers.add(name);
+                    break;
+                case "part-name":
+                case "instrument-name":
+                    String instrument = parser.nextText().trim();
+                    // Audiveris names unnamed parts "P1", "P2"...
+                    if (!instrument.isEmpty() && !instrument.matches("P\\d+")) instruments.add(instrument);
+                    break;
+                case "fifths":
+                    if (fifths == null) fifths = parser.nextText().trim();
+                    break;
+                case "mode":
+                    if (mode == null) mode = parser.nextText().trim();
+                    break;
+                case "beats":
+                    if (beats == null) beats = parser.nextText().trim();
+                    break;
+                case "beat-type":
+                    if (beatType == null) beatType = parser.nextText().trim();
+                    break;
+                case "senza-misura":
+                    senzaMisura = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        String time = beats != null && beatType != null ? beats + "/" + beatType
+                : senzaMisura ? "senza misura" : null;
+        return new ScoreMetadata(title.length() > 0 ? title.toString() : null, join(composers),
+                keyName(fifths, mode), time, join(instruments));
+    }
+
+    @Nullable
+    private static String keyName(@Nullable String fifths, @Nullable String mode) {
+        if (fifths == null) return null;
+        int f;
+        try {
+            f = Integer.parseInt(fifths);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        boolean minor = "minor".equals(mode);
+        int tonic = f + 7 + (minor ? 3 : 0);
+        if (f < -7 || f > 7 || tonic >= TONIC_IT.length) return null;
+        return TONIC_IT[tonic] + (minor ? " minore " : " maggiore ") + TONIC_EN[tonic] + (minor ? " minor" : " major");
+    }
+
+    private static void append(StringBuilder sb, String separator, String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) return;
+        if (sb.length() > 0) sb.append(separator);
+        sb.append(trimmed);
+    }
+
+    @Nullable
+    private static String join(Set<String> values) {
+        if (values.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) append(sb, ", ", value);
+        return sb.toString();
+    }
+}
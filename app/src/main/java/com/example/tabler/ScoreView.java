@@ -0,0 +1,348 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.OverScroller;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scrolling view of a recognition result: text (summary, or MusicXML when there is no tablature)
+ * followed by the tablature. Replaces a TextView, whose layout of a few hundred KB of text took
+ * seconds on the main thread and held it all in memory.
+ * <p>
+ * The {@link ScoreLayout} is computed on a background thread. Drawing goes through horizontal
+ * tiles: bitmaps {@link #TILE_HEIGHT_DP} high, each rendered from the few blocks it crosses. Only
+ * the visible tiles and the ones just above and below (rendered ahead in the background) are
+ * kept, in an LRU of a few screens, and evicted bitmaps are reused for the next tiles.
+ */
+public class ScoreView extends View {
+
+    /** Called once the content passed to {@link #setContent} is first on screen. */
+    interface OnShownListener {
+        void onShown(ScoreLayout layout);
+    }
+
+    private static final int TILE_HEIGHT_DP = 256;
+    private static final float TEXT_SIZE_SP = 12;
+    /** Spare bitmaps kept for the next tiles. */
+    private static final int MAX_SPARE = 2;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final int tileHeight;
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final TileRenderer renderer;
+    /** Only used on {@link #executor}. */
+    private final TileRenderer backgroundRenderer;
+    private final LruCache<Integer, Bitmap> tiles;
+    private final ArrayDeque<Bitmap> spare = new ArrayDeque<>();
+    private final Set<Integer> prefetching = new HashSet<>();
+    private final OverScroller scroller;
+    private final GestureDetector gestures;
+
+    private String text = "";
+    @Nullable private Tablature tablature;
+    @Nullable private ScoreLayout layout;
+    @Nullable private OnShownListener shownListener;
+    /** Bumped by every new layout, so that stale background work is dropped. */
+    private int generation;
+    private boolean resetScroll;
+
+    public ScoreView(Context context) {
+        this(context, null);
+    }
+
+    public ScoreView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        tileHeight = Math.round(TILE_HEIGHT_DP * getResources().getDisplayMetrics().density);
+        paint.setTypeface(Typeface.MONOSPACE);
+        paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        paint.setColor(textColor(context));
+        renderer = new TileRenderer(paint);
+        backgroundRenderer = new TileRenderer(paint);
+        tiles = new LruCache<Integer, Bitmap>(8) {
+            @Override
+            protected void entryRemoved(boolean evicted, Integer key, Bitmap oldValue, Bitmap newValue) {
+                recycle(oldValue);
+            }
+        };
+        scroller = new OverScroller(context);
+        gestures = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                scroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float dx, float dy) {
+                scrollBy(0, Math.round(dy));
+                return true;
+            }
+
+            @Override
+            public boolean onFling(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float vx, float vy) {
+                scroller.fling(0, getScrollY(), 0, Math.round(-vy), 0, 0, 0, maxScrollY());
+                postInvalidateOnAnimation();
+                return true;
+            }
+        });
+    }
+
+    private static int textColor(Context context) {
+        TypedArray a = context.obtainStyledAttributes(new int[]{android.R.attr.textColorPrimary});
+        try {
+            ColorStateList colors = a.getColorStateList(0);
+            return colors != null ? colors.getDefaultColor() : Color.BLACK;
+        } finally {
+            a.recycle();
+        }
+    }
+
+    /** Shows {@code text} followed by {@code tablature}, from the top, once laid out in the background. */
+    @MainThread
+    void setContent(@Nullable String text, @Nullable Tablature tablature, @Nullable OnShownListener listener) {
+        this.text = text != null ? text : "";
+        this.tablature = tablature;
+        this.shownListener = listener;
+        resetScroll = true;
+        computeLayout();
+    }
+
+    private void computeLayout() {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) return; // onSizeChanged will ask again
+        int current = ++generation;
+        String text = this.text;
+        Tablature tablature = this.tablature;
+        Paint layoutPaint = new Paint(paint);
+        executor.execute(() -> {
+            ScoreLayout result;
+            try (PerfTracer.Span span = PerfTracer.begin("score_layout")) {
+                result = ScoreLayout.compute(text, tablature, width, layoutPaint);
+                span.attr("blocks", result.blockCount).attr("height", result.height);
+            }
+            post(() -> {
+                if (current == generation) apply(result);
+            });
+        });
+    }
+
+    private void apply(ScoreLayout newLayout) {
+        layout = newLayout;
+        tiles.evictAll();
+        if (resetScroll) {
+            resetScroll = false;
+            scroller.forceFinished(true);
+            scrollTo(0, 0);
+        } else {
+            scrollTo(0, getScrollY());
+        }
+        awakenScrollBars();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // Visible tiles, one more above and below, and as many again for scrolling back
+        int perScreen = (h + tileHeight - 1) / tileHeight + 1;
+        int tileKb = Math.max(1, w * tileHeight * 4 / 1024);
+        int heapTiles = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8 / tileKb);
+        tiles.resize(Math.max(perScreen + 2, Math.min(heapTiles, perScreen * 3)));
+        if (w != oldw) {
+            tiles.evictAll();
+            spare.clear();
+            if (layout != null || !text.isEmpty() || tablature != null) computeLayout();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestures.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(0, scroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    public void scrollTo(int x, int y) {
+        super.scrollTo(0, Math.max(0, Math.min(y, maxScrollY())));
+        awakenScrollBars();
+    }
+
+    private int maxScrollY() {
+        if (layout == null) return 0;
+        return Math.max(0, layout.height + getPaddingTop() + getPaddingBottom() - getHeight());
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        return layout != null ? layout.height + getPaddingTop() + getPaddingBottom() : getHeight();
+    }
+
+    @Override
+    protected int computeVerticalScrollOffset() {
+        return getScrollY();
+    }
+
+    @Override
+    protected int computeVerticalScrollExtent() {
+        return getHeight();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        ScoreLayout layout = this.layout;
+        if (layout == null) return;
+        if (shownListener != null) {
+            OnShownListener listener = shownListener;
+            shownListener = null;
+            listener.onShown(layout);
+        }
+        if (layout.height == 0) return;
+        int top = Math.max(0, getScrollY() - getPaddingTop());
+        int bottom = Math.min(layout.height, getScrollY() + getHeight() - getPaddingTop());
+        int first = top / tileHeight;
+        int last = Math.max(first, (bottom - 1) / tileHeight);
+        for (int i = first; i <= last; i++) {
+            Bitmap tile = tiles.get(i);
+            if (tile == null) {
+                tile = obtainBitmap(layout.width);
+                renderer.render(layout, i, tileHeight, tile);
+                tiles.put(i, tile);
+            }
+            canvas.drawBitmap(tile, getPaddingLeft(), getPaddingTop() + i * tileHeight, null);
+        }
+        prefetch(layout, first - 1);
+        prefetch(layout, last + 1);
+    }
+
+    /** Renders tile {@code index} in the background, if it exists and isn't cached or on its way. */
+    private void prefetch(ScoreLayout layout, int index) {
+        if (index < 0 || index * tileHeight >= layout.height) return;
+        if (tiles.get(index) != null || !prefetching.add(index)) return;
+        Bitmap bitmap = obtainBitmap(layout.width);
+        int current = generation;
+        executor.execute(() -> {
+            backgroundRenderer.render(layout, index, tileHeight, bitmap);
+            post(() -> {
+                prefetching.remove(index);
+                if (current == generation && tiles.get(index) == null) {
+                    tiles.put(index, bitmap);
+                } else {
+                    recycle(bitmap);
+                }
+            });
+        });
+    }
+
+    private Bitmap obtainBitmap(int width) {
+        Bitmap bitmap = spare.poll();
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == tileHeight) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, tileHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    private void recycle(Bitmap bitmap) {
+        // Dropped tiles may still be in the last frame's display list: reused only for a later frame
+        if (spare.size() < MAX_SPARE) spare.add(bitmap);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        generation++;
+        prefetching.clear();
+        tiles.evictAll();
+        spare.clear();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Tiles were dropped when detached; stale background work has been skipped
+        if (layout != null) invalidate();
+    }
+
+    /** Draws the blocks crossing one tile; reuses its canvas and buffers, one instance per thread. */
+    private static final class TileRenderer {
+        private final Paint paint;
+        private final Canvas canvas = new Canvas();
+        private final StringBuilder number = new StringBuilder();
+        private StringBuilder[] rows = new StringBuilder[0];
+
+        TileRenderer(Paint paint) {
+            this.paint = new Paint(paint);
+        }
+
+        @WorkerThread
+        void render(ScoreLayout layout, int index, int tileHeight, Bitmap bitmap) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            if (layout.blockCount == 0) return;
+            int tileTop = index * tileHeight;
+            int tileBottom = tileTop + tileHeight;
+            canvas.setBitmap(bitmap);
+            canvas.save();
+            canvas.translate(0, -tileTop);
+            for (int b = layout.blockAt(tileTop); b < layout.blockCount && layout.blockTop[b] < tileBottom; b++) {
+                if (layout.blockBottom(b) <= tileTop) continue;
+                int y = layout.blockTop[b] + layout.baseline;
+                if (layout.blockKind[b] == ScoreLayout.TEXT_LINE) {
+                    canvas.drawText(layout.text, layout.blockStart[b], layout.blockEnd[b], 0, y, paint);
+                } else {
+                    drawSystem(layout, layout.blockStart[b], layout.blockEnd[b], y);
+                }
+            }
+            canvas.restore();
+            canvas.setBitmap(null);
+        }
+
+        private void drawSystem(ScoreLayout layout, int from, int to, int y) {
+            Tablature tablature = layout.tablature;
+            int strings = tablature.instrument.strings();
+            if (rows.length < strings) {
+                rows = new StringBuilder[strings];
+                for (int s = 0; s < strings; s++) rows[s] = new StringBuilder();
+            }
+            for (int s = 0; s < strings; s++) rows[s].setLength(0);
+            number.setLength(0);
+            number.append(from + 1);
+            canvas.drawText(number, 0, number.length(), 0, y, paint);
+            tablature.appendSystem(from, to, rows);
+            for (int s = 0; s < strings; s++) {
+                y += layout.lineHeight;
+                canvas.drawText(rows[s], 0, rows[s].length(), 0, y, paint);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The app's single OkHttpClient: one connection pool (DNS/TCP/TLS paid once per host and reused,
+ * multiplexed over HTTP/2 when the server supports it), one bounded dispatcher and one disk
+ * response cache. Callers needing other timeouts derive a client with {@code newBuilder()},
+ * which keeps sharing all three. Every call is timed by {@link PerfTracer}.
+ */
+final class SharedHttpClient {
+
+    private static final long CACHE_BYTES = 10L * 1024 * 1024;
+    /**
+     * Only de-duplicates repeated openings of the preview screen. It has to stay well below the
+     * pool's 5 min keep-alive: a warm-up skipped after the idle connection was evicted would leave
+     * the next request paying the handshakes again (Render's ~15 min sleep is longer still).
+     */
+    private static final long WARM_UP_INTERVAL_MS = 60_000;
+
+    private static volatile SharedHttpClient instance;
+
+    private final OkHttpClient client;
+    private long lastWarmUp = -WARM_UP_INTERVAL_MS;
+
+    private SharedHttpClient(Context context) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(8);
+        dispatcher.setMaxRequestsPerHost(4);
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), "http"), CACHE_BYTES))
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .eventListenerFactory(PerfTracer.httpListenerFactory())
+                .build();
+    }
+
+    static SharedHttpClient getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SharedHttpClient.class) {
+                if (instance == null) {
+                    instance = new SharedHttpClient(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    OkHttpClient client() {
+        return client;
+    }
+
+    /**
+     * Fire-and-forget GET of {@code url} (a cheap endpoint such as /health): opens the connection
+     * into the pool and wakes a sleeping backend, so that the real request that follows skips the
+     * handshakes and the cold start. Calls closer than {@link #WARM_UP_INTERVAL_MS} are ignored.
+     */
+    synchronized void warmUp(String url) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastWarmUp < WARM_UP_INTERVAL_MS) return;
+        lastWarmUp = now;
+        Request request = new Request.Builder()
+                .url(url)
+                .cacheControl(CacheControl.FORCE_NETWORK)
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                // Only a hint: the real request reports its own errors
+                synchronized (SharedHttpClient.this) {
+                    lastWarmUp = -WARM_UP_INTERVAL_MS;
+                }
+            }
+        });
+    }
+}
@@ -1,73 +1,143 @@
 package com.example.tabler;
 
-import android.net.Uri;
 import android.view.LayoutInflater;
-import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.ObjectsCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.tabler.databinding.ItemSpartitoBinding;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class SpartitoAdapter extends RecyclerView.Adapter<SpartitoAdapter.ViewHolder> {
+/**
+ * Home list adapter. Lists are diffed on a background thread (AsyncListDiffer): only changed rows
+ * are rebound, and a status-only change ("Solo immagine" → "OMR completato") rebinds just the text.
+ */
+public class SpartitoAdapter extends ListAdapter<SpartitoItem, SpartitoAdapter.ViewHolder> {
 
-    private final List<SpartitoItem> items = new ArrayList<>();
+    public interface OnItemClickListener {
+        void onItemClick(SpartitoItem item);
+    }
+
+    /** Partial bind payload: only {@link SpartitoItem#getStato()} changed. */
+    private static final Object PAYLOAD_STATO = new Object();
+
+    private static final DiffUtil.ItemCallback<SpartitoItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<SpartitoItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull SpartitoItem oldItem, @NonNull SpartitoItem newItem) {
+            return oldItem.getId().equals(newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull SpartitoItem oldItem, @NonNull SpartitoItem newItem) {
+            return sameExceptStato(oldItem, newItem)
+                    && oldItem.getStato().equals(newItem.getStato());
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(@NonNull SpartitoItem oldItem, @NonNull SpartitoItem newItem) {
+            return sameExceptStato(oldItem, newItem) ? PAYLOAD_STATO : null;
+        }
+
+        private boolean sameExceptStato(SpartitoItem a, SpartitoItem b) {
+            return ObjectsCompat.equals(a.getTitolo(), b.getTitolo())
+                    && ObjectsCompat.equals(a.getImageUri(), b.getImageUri());
+        }
+    };
+
+    /** String ids mapped to stable longs for RecyclerView (no hash collisions). */
+    private final Map<String, Long> stableIds = new HashMap<>();
+    private OnItemClickListener onItemClickListener;
+
+    public SpartitoAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        this.onItemClickListener = listener;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String id = getItem(position).getId();
+        Long stable = stableIds.get(id);
+        if (stable == null) {
+            stable = (long) stableIds.size();
+            stableIds.put(id, stable);
+        }
+        return stable;
+    }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         ItemSpartitoBinding binding = ItemSpartitoBinding.inflate(
                 LayoutInflater.from(parent.getContext()), parent, false);
-        return new ViewHolder(binding);
+        ViewHolder holder = new ViewHolder(binding);
+        binding.getRoot().setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (onItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                onItemClickListener.onItemClick(getItem(position));
+            }
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        SpartitoItem item = items.get(position);
+        SpartitoItem item = getItem(position);
         holder.titolo.setText(item.getTitolo());
         holder.stato.setText(item.getStato());
-        Uri uri = item.getImageUri();
-        if (uri != null) {
-            holder.thumbnail.setImageURI(uri);
-        } else {
-            holder.thumbnail.setImageResource(android.R.drawable.ic_menu_gallery);
-        }
+        // Decoded off the main thread at the view size, cached by item id
+        ThumbnailLoader.getInstance(holder.itemView.getContext())
+                .load(item, holder.thumbnail, holder.thumbnailSizePx);
     }
 
     @Override
-    public int getItemCount() {
-        return items.size();
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && allStato(payloads)) {
+            holder.stato.setText(getItem(position).getStato());
+            return;
+        }
+        onBindViewHolder(holder, position);
     }
 
-    public void setItems(List<SpartitoItem> newItems) {
-        items.clear();
-        if (newItems != null) {
-            items.addAll(newItems);
+    private static boolean allStato(List<Object> payloads) {
+        for (Object p : payloads) {
+            if (p != PAYLOAD_STATO) return false;
         }
-        notifyDataSetChanged();
+        return true;
     }
 
-    public void addItem(SpartitoItem item) {
-        items.add(0, item);
-        notifyItemInserted(0);
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        super.onViewRecycled(holder);
+        ThumbnailLoader.getInstance(holder.itemView.getContext()).cancel(holder.thumbnail);
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
         final ImageView thumbnail;
         final TextView titolo;
         final TextView stato;
+        final int thumbnailSizePx;
 
         ViewHolder(ItemSpartitoBinding binding) {
             super(binding.getRoot());
             thumbnail = binding.itemThumbnail;
             titolo = binding.itemTitolo;
             stato = binding.itemStato;
+            thumbnailSizePx = binding.getRoot().getResources().getDimensionPixelSize(R.dimen.item_thumbnail_size);
         }
     }
 }
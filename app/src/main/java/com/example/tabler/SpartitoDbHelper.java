@@ -0,0 +1,111 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * SQLite schema of the score library. MusicXML is not stored here: {@code music_xml_path}
+ * points to a gzip file in the app's files dir (see {@link SpartitoRepository}).
+ * <p>
+ * Search (v3): metadata read from the MusicXML sits in the item row, and {@link #TABLE_FTS} is an
+ * FTS4 index over it (external content, docid = the item's rowid) kept in sync by triggers.
+ * Rows are never replaced, only updated, so that the rowid stays the same.
+ */
+class SpartitoDbHelper extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "tabler.db";
+    private static final int DB_VERSION = 3;
+
+    static final String TABLE_SPARTITI = "spartiti";
+    static final String COL_ID = "id";
+    static final String COL_TITOLO = "titolo";
+    static final String COL_IMAGE_URI = "image_uri";
+    static final String COL_MUSIC_XML_PATH = "music_xml_path";
+    static final String COL_DATA_TIMESTAMP = "data_timestamp";
+    /** Background OMR queue (v2): state, server job id to resume polling, last error. */
+    static final String COL_OMR_STATO = "omr_stato";
+    static final String COL_OMR_JOB_ID = "omr_job_id";
+    static final String COL_OMR_ERRORE = "omr_errore";
+    /** Search metadata (v3), and the MusicXML it was read from: the item is indexed when it matches. */
+    static final String COL_TITOLO_OPERA = "titolo_opera";
+    static final String COL_COMPOSITORE = "compositore";
+    static final String COL_TONALITA = "tonalita";
+    static final String COL_METRICA = "metrica";
+    static final String COL_STRUMENTI = "strumenti";
+    static final String COL_INDICIZZATO_PATH = "indicizzato_path";
+
+    static final String TABLE_FTS = "spartiti_fts";
+    private static final String FTS_COLUMNS = COL_TITOLO + ", " + COL_TITOLO_OPERA + ", " + COL_COMPOSITORE
+            + ", " + COL_TONALITA + ", " + COL_METRICA + ", " + COL_STRUMENTI;
+
+    SpartitoDbHelper(Context context) {
+        super(context.getApplicationContext(), DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SPARTITI + " ("
+                + COL_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COL_TITOLO + " TEXT NOT NULL, "
+                + COL_IMAGE_URI + " TEXT, "
+                + COL_MUSIC_XML_PATH + " TEXT, "
+                + COL_DATA_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_OMR_STATO + " TEXT, "
+                + COL_OMR_JOB_ID + " TEXT, "
+                + COL_OMR_ERRORE + " TEXT, "
+                + COL_TITOLO_OPERA + " TEXT, "
+                + COL_COMPOSITORE + " TEXT, "
+                + COL_TONALITA + " TEXT, "
+                + COL_METRICA + " TEXT, "
+                + COL_STRUMENTI + " TEXT, "
+                + COL_INDICIZZATO_PATH + " TEXT)");
+        // Home list: newest first, keyset pagination on (data_timestamp, id)
+        db.execSQL("CREATE INDEX idx_spartiti_data ON " + TABLE_SPARTITI
+                + " (" + COL_DATA_TIMESTAMP + " DESC, " + COL_ID + " DESC)");
+        createSearchIndex(db);
+    }
+
+    /**
+     * Accent- and case-insensitive tokens (unicode61), with prefix indexes for search as you type.
+     * The triggers are the usual ones for an external content table: old row out before, new row in after.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FTS + " USING fts4(content=\"" + TABLE_SPARTITI + "\", "
+                + FTS_COLUMNS + ", tokenize=unicode61, prefix=\"2,3\")");
+        String delete = "DELETE FROM " + TABLE_FTS + " WHERE docid = old.rowid;";
+        String insert = "INSERT INTO " + TABLE_FTS + " (docid, " + FTS_COLUMNS + ") VALUES (new.rowid, new."
+                + FTS_COLUMNS.replace(", ", ", new.") + ");";
+        String columns = " OF " + FTS_COLUMNS;
+        db.execSQL("CREATE TRIGGER spartiti_fts_bu BEFORE UPDATE" + columns + " ON " + TABLE_SPARTITI
+                + " BEGIN " + delete + " END");
+        db.execSQL("CREATE TRIGGER spartiti_fts_bd BEFORE DELETE ON " + TABLE_SPARTITI + " BEGIN " + delete + " END");
+        db.execSQL("CREATE TRIGGER spartiti_fts_au AFTER UPDATE" + columns + " ON " + TABLE_SPARTITI
+                + " BEGIN " + insert + " END");
+        db.execSQL("CREATE TRIGGER spartiti_fts_ai AFTER INSERT ON " + TABLE_SPARTITI + " BEGIN " + insert + " END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_SPARTITI + " ADD COLUMN " + COL_OMR_STATO + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_SPARTITI + " ADD COLUMN " + COL_OMR_JOB_ID + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_SPARTITI + " ADD COLUMN " + COL_OMR_ERRORE + " TEXT");
+        }
+        if (oldVersion < 3) {
+            for (String column : new String[]{COL_TITOLO_OPERA, COL_COMPOSITORE, COL_TONALITA, COL_METRICA,
+                    COL_STRUMENTI, COL_INDICIZZATO_PATH}) {
+                db.execSQL("ALTER TABLE " + TABLE_SPARTITI + " ADD COLUMN " + column + " TEXT");
+            }
+            createSearchIndex(db);
+            // Titles are searchable right away; the MusicXML of recognized items is read in the background
+            db.execSQL("INSERT INTO " + TABLE_FTS + " (" + TABLE_FTS + ") VALUES ('rebuild')");
+        }
+    }
+}
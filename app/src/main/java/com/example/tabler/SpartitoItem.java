@@ -3,21 +3,38 @@ package com.example.tabler;
 import android.net.Uri;
 
 /**
- * Model for a sheet music / tablature item (in-memory for now).
+ * Model for a sheet music / tablature item, persisted by {@link SpartitoRepository}.
  */
 public class SpartitoItem {
+
+    /** Background OMR states ({@link OmrWorker}); null when not queued. */
+    public static final String OMR_IN_CODA = "in_coda";
+    public static final String OMR_IN_CORSO = "in_corso";
+    public static final String OMR_FALLITO = "fallito";
+
     private final String id;
     private final String titolo;
     private final Uri imageUri;
     private final String musicXmlPath; // optional, null if OMR not done yet
     private final long dataTimestamp;
+    private final String omrStato; // OMR_* or null
+    private final String omrJobId; // server job being followed, null if none
+    private final String omrErrore; // message of the last failure
 
     public SpartitoItem(String id, String titolo, Uri imageUri, String musicXmlPath, long dataTimestamp) {
+        this(id, titolo, imageUri, musicXmlPath, dataTimestamp, null, null, null);
+    }
+
+    public SpartitoItem(String id, String titolo, Uri imageUri, String musicXmlPath, long dataTimestamp,
+                        String omrStato, String omrJobId, String omrErrore) {
         this.id = id;
         this.titolo = titolo;
         this.imageUri = imageUri;
         this.musicXmlPath = musicXmlPath;
         this.dataTimestamp = dataTimestamp;
+        this.omrStato = omrStato;
+        this.omrJobId = omrJobId;
+        this.omrErrore = omrErrore;
     }
 
     public String getId() { return id; }
@@ -25,9 +42,26 @@ public class SpartitoItem {
     public Uri getImageUri() { return imageUri; }
     public String getMusicXmlPath() { return musicXmlPath; }
     public long getDataTimestamp() { return dataTimestamp; }
+    public String getOmrStato() { return omrStato; }
+    public String getOmrJobId() { return omrJobId; }
+    public String getOmrErrore() { return omrErrore; }
+
+    /** Same item with the MusicXML stored at {@code path}: OMR is over. */
+    public SpartitoItem withMusicXmlPath(String path) {
+        return new SpartitoItem(id, titolo, imageUri, path, dataTimestamp, null, null, null);
+    }
+
+    /** Same item with another background OMR state. */
+    public SpartitoItem withOmr(String stato, String jobId, String errore) {
+        return new SpartitoItem(id, titolo, imageUri, musicXmlPath, dataTimestamp, stato, jobId, errore);
+    }
 
-    /** "Solo immagine" if no MusicXML, "OMR completato" otherwise. */
+    /** List status: "OMR completato" if there is MusicXML, else the queue state or "Solo immagine". */
     public String getStato() {
-        return musicXmlPath != null && !musicXmlPath.isEmpty() ? "OMR completato" : "Solo immagine";
+        if (musicXmlPath != null && !musicXmlPath.isEmpty()) return "OMR completato";
+        if (OMR_IN_CODA.equals(omrStato)) return "In coda per l'OMR";
+        if (OMR_IN_CORSO.equals(omrStato)) return "Riconoscimento in corso";
+        if (OMR_FALLITO.equals(omrStato)) return "OMR non riuscito";
+        return "Solo immagine";
     }
 }
@@ -0,0 +1,478 @@
+package com.example.tabler;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.FileProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * On-device score library: item metadata in SQLite ({@link SpartitoDbHelper}), MusicXML as gzip
+ * or .mxl files under {@code files/musicxml/}. The async methods run on a single DB thread and
+ * deliver results on the main thread; the {@code *Sync} ones are for callers already off the UI thread.
+ * <p>
+ * Search: recognized items are indexed with the metadata of their MusicXML ({@link ScoreMetadata})
+ * when the OMR saves them, and by a background catch-up pass ({@link #requestIndexing()}) for
+ * the ones recognized before the index existed or whose indexing was interrupted.
+ */
+public final class SpartitoRepository {
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static final String GZIP_SUFFIX = ".xml.gz";
+    private static final String MXL_SUFFIX = ".mxl";
+    /** Items read per catch-up query; each one is committed on its own. */
+    private static final int INDEX_BATCH = 50;
+    private static final Pattern ROOTFILE_PATH = Pattern.compile("<rootfile\\s[^>]*full-path=[\"']([^\"']+)[\"']");
+
+    private static volatile SpartitoRepository instance;
+
+    private final Context context;
+    private final SpartitoDbHelper dbHelper;
+    private final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+    /** Catch-up indexing: its own thread, so that reading MusicXML never delays list queries. */
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "spartiti-index");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicBoolean indexingRequested = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private SpartitoRepository(Context context) {
+        this.context = context.getApplicationContext();
+        this.dbHelper = new SpartitoDbHelper(this.context);
+    }
+
+    public static SpartitoRepository getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SpartitoRepository.class) {
+                if (instance == null) {
+                    instance = new SpartitoRepository(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Loads up to {@code limit} items older than {@code after} (null = first page), newest first.
+     * Keyset pagination: cost does not grow with the page number.
+     */
+    @MainThread
+    public void loadPage(@Nullable SpartitoItem after, int limit, Callback<List<SpartitoItem>> callback) {
+        dbExecutor.execute(() -> {
+            List<SpartitoItem> page = loadPageSync(after, limit);
+            mainHandler.post(() -> callback.onResult(page));
+        });
+    }
+
+    @WorkerThread
+    List<SpartitoItem> loadPageSync(@Nullable SpartitoItem after, int limit) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String selection = null;
+        String[] args = null;
+        if (after != null) {
+            selection = SpartitoDbHelper.COL_DATA_TIMESTAMP + " < ? OR ("
+                    + SpartitoDbHelper.COL_DATA_TIMESTAMP + " = ? AND " + SpartitoDbHelper.COL_ID + " < ?)";
+            String ts = String.valueOf(after.getDataTimestamp());
+            args = new String[]{ts, ts, after.getId()};
+        }
+        List<SpartitoItem> items = new ArrayList<>();
+        try (Cursor c = db.query(SpartitoDbHelper.TABLE_SPARTITI, null, selection, args, null, null,
+                SpartitoDbHelper.COL_DATA_TIMESTAMP + " DESC, " + SpartitoDbHelper.COL_ID + " DESC",
+                String.valueOf(limit))) {
+            while (c.moveToNext()) {
+                items.add(fromCursor(c));
+            }
+        }
+        return items;
+    }
+
+    @Nullable
+    @WorkerThread
+    SpartitoItem getSync(String id) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try (Cursor c = db.query(SpartitoDbHelper.TABLE_SPARTITI, null, SpartitoDbHelper.COL_ID + " = ?",
+                new String[]{id}, null, null, null)) {
+            return c.moveToFirst() ? fromCursor(c) : null;
+        }
+    }
+
+    /**
+     * Inserts or updates the item. Never a REPLACE: that would give the row a new rowid (the
+     * search index's docid) and drop its search metadata, which this doesn't write.
+     */
+    @WorkerThread
+    void saveSync(SpartitoItem item) {
+        ContentValues values = new ContentValues();
+        values.put(SpartitoDbHelper.COL_ID, item.getId());
+        values.put(SpartitoDbHelper.COL_TITOLO, item.getTitolo());
+        values.put(SpartitoDbHelper.COL_IMAGE_URI, item.getImageUri() != null ? item.getImageUri().toString() : null);
+        values.put(SpartitoDbHelper.COL_MUSIC_XML_PATH, item.getMusicXmlPath());
+        values.put(SpartitoDbHelper.COL_DATA_TIMESTAMP, item.getDataTimestamp());
+        values.put(SpartitoDbHelper.COL_OMR_STATO, item.getOmrStato());
+        values.put(SpartitoDbHelper.COL_OMR_JOB_ID, item.getOmrJobId());
+        values.put(SpartitoDbHelper.COL_OMR_ERRORE, item.getOmrErrore());
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int updated = db.update(SpartitoDbHelper.TABLE_SPARTITI, values, SpartitoDbHelper.COL_ID + " = ?",
+                    new String[]{item.getId()});
+            if (updated == 0) db.insertOrThrow(SpartitoDbHelper.TABLE_SPARTITI, null, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Items matching {@code query} as the user types it: every word must start a word of the title,
+     * composer, key, time signature or instruments (accents and case ignored). Most recently added
+     * first: the FTS index returns them in docid order, so the query stops after {@code limit}.
+     */
+    @MainThread
+    public void search(String query, int limit, Callback<List<SpartitoItem>> callback) {
+        dbExecutor.execute(() -> {
+            List<SpartitoItem> items = searchSync(query, limit);
+            mainHandler.post(() -> callback.onResult(items));
+        });
+    }
+
+    @WorkerThread
+    List<SpartitoItem> searchSync(String query, int limit) {
+        List<SpartitoItem> items = new ArrayList<>();
+        String match = matchExpression(query);
+        if (match == null) return items;
+        try (PerfTracer.Span span = PerfTracer.begin("library_search");
+             Cursor c = dbHelper.getReadableDatabase().rawQuery("SELECT s.* FROM "
+                     + SpartitoDbHelper.TABLE_FTS + " f JOIN " + SpartitoDbHelper.TABLE_SPARTITI
+                     + " s ON s.rowid = f.docid WHERE " + SpartitoDbHelper.TABLE_FTS + " MATCH ?"
+                     + " ORDER BY f.docid DESC LIMIT " + limit, new String[]{match})) {
+            while (c.moveToNext()) {
+                items.add(fromCursor(c));
+            }
+            span.attr("words", match.split(" ").length).attr("results", items.size());
+        }
+        return items;
+    }
+
+    /**
+     * FTS query for what the user typed: its words as prefixes, all required ({@code "sol* 3* 4*"}).
+     * Only letters and digits are kept, so nothing typed can be read as FTS syntax. Null if empty.
+     */
+    @Nullable
+    static String matchExpression(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(word).append('*');
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * Reads the search metadata of a recognized item from its MusicXML and stores it. A file that
+     * can't be read is still marked as indexed (with its title only), so it isn't retried forever.
+     */
+    @WorkerThread
+    void indexSync(String id, String musicXmlPath) {
+        ScoreMetadata metadata = null;
+        try (PerfTracer.Span span = PerfTracer.begin("library_index", id);
+             InputStream in = openMusicXml(musicXmlPath)) {
+            metadata = ScoreMetadata.read(in);
+            span.attr("composer", metadata.composer != null).attr("key", metadata.key != null);
+        } catch (IOException | RuntimeException e) {
+            // Indexed without metadata
+        }
+        ContentValues values = new ContentValues();
+        values.put(SpartitoDbHelper.COL_TITOLO_OPERA, metadata != null ? metadata.title : null);
+        values.put(SpartitoDbHelper.COL_COMPOSITORE, metadata != null ? metadata.composer : null);
+        values.put(SpartitoDbHelper.COL_TONALITA, metadata != null ? metadata.key : null);
+        values.put(SpartitoDbHelper.COL_METRICA, metadata != null ? metadata.time : null);
+        values.put(SpartitoDbHelper.COL_STRUMENTI, metadata != null ? metadata.instruments : null);
+        values.put(SpartitoDbHelper.COL_INDICIZZATO_PATH, musicXmlPath);
+        // Unless the item was recognized again meanwhile: that file gets its own pass
+        dbHelper.getWritableDatabase().update(SpartitoDbHelper.TABLE_SPARTITI, values,
+                SpartitoDbHelper.COL_ID + " = ? AND " + SpartitoDbHelper.COL_MUSIC_XML_PATH + " = ?",
+                new String[]{id, musicXmlPath});
+    }
+
+    /** Indexes, in the background, every recognized item not indexed yet. Requests made while it runs are merged. */
+    public void requestIndexing() {
+        if (!indexingRequested.compareAndSet(false, true)) return;
+        indexExecutor.execute(() -> {
+            indexingRequested.set(false);
+            String[] columns = {SpartitoDbHelper.COL_ID, SpartitoDbHelper.COL_MUSIC_XML_PATH};
+            String pending = SpartitoDbHelper.COL_MUSIC_XML_PATH + " IS NOT NULL AND ("
+                    + SpartitoDbHelper.COL_INDICIZZATO_PATH + " IS NULL OR "
+                    + SpartitoDbHelper.COL_INDICIZZATO_PATH + " != " + SpartitoDbHelper.COL_MUSIC_XML_PATH + ")";
+            while (true) {
+                List<String[]> batch = new ArrayList<>();
+                try (Cursor c = dbHelper.getReadableDatabase().query(SpartitoDbHelper.TABLE_SPARTITI, columns,
+                        pending, null, null, null, null, String.valueOf(INDEX_BATCH))) {
+                    while (c.moveToNext()) batch.add(new String[]{c.getString(0), c.getString(1)});
+                }
+                if (batch.isEmpty()) return;
+                for (String[] item : batch) indexSync(item[0], item[1]);
+            }
+        });
+    }
+
+    /**
+     * MusicXML being written for an item, into a temporary file: it replaces the stored one only
+     * on {@link #commit()}; closing an uncommitted draft deletes it. Exactly one of the outputs is
+     * used, depending on the form the score arrives in.
+     */
+    static final class MusicXmlDraft implements Closeable {
+        private final File dir;
+        private final String id;
+        @Nullable private File target;
+        @Nullable private File tmp;
+        @Nullable private OutputStream out;
+        @Nullable private Writer writer;
+        private boolean committed;
+
+        private MusicXmlDraft(File dir, String id) {
+            this.dir = dir;
+            this.id = id;
+        }
+
+        /** MusicXML text, gzip-compressed as it is written. */
+        Writer writer() throws IOException {
+            if (writer == null) {
+                writer = new BufferedWriter(new OutputStreamWriter(xmlOutput(), StandardCharsets.UTF_8), 8192);
+            }
+            return writer;
+        }
+
+        /** Uncompressed MusicXML bytes, gzip-compressed as they are written. */
+        OutputStream xmlOutput() throws IOException {
+            return open(GZIP_SUFFIX, true);
+        }
+
+        /** MusicXML bytes that are already gzip-compressed, stored as they are. */
+        OutputStream gzipOutput() throws IOException {
+            return open(GZIP_SUFFIX, false);
+        }
+
+        /** A compressed MusicXML archive (.mxl), stored as it is and unpacked only when read. */
+        OutputStream mxlOutput() throws IOException {
+            return open(MXL_SUFFIX, false);
+        }
+
+        private OutputStream open(String suffix, boolean compress) throws IOException {
+            if (out != null) throw new IllegalStateException("Draft already open");
+            target = new File(dir, id + suffix);
+            tmp = new File(dir, id + suffix + ".tmp");
+            OutputStream file = new BufferedOutputStream(new FileOutputStream(tmp), 8192);
+            out = compress ? new GZIPOutputStream(file, 8192) : file;
+            return out;
+        }
+
+        /** Finishes the file and moves it into place; returns its path. */
+        String commit() throws IOException {
+            if (out == null) throw new IOException("Nessun MusicXML ricevuto");
+            if (writer != null) writer.close(); else out.close();
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Impossibile salvare " + target);
+            }
+            committed = true;
+            // An earlier recognition of the same item may have been stored in the other form
+            for (String suffix : new String[]{GZIP_SUFFIX, MXL_SUFFIX}) {
+                File other = new File(dir, id + suffix);
+                if (!other.equals(target)) other.delete();
+            }
+            return target.getAbsolutePath();
+        }
+
+        @Override
+        public void close() {
+            if (committed || out == null) return;
+            try {
+                if (writer != null) writer.close(); else out.close();
+            } catch (IOException ignored) {
+                // The draft is discarded anyway
+            }
+            tmp.delete();
+        }
+    }
+
+    /** Starts writing the MusicXML of item {@code id}; the caller streams into it and commits. */
+    @WorkerThread
+    MusicXmlDraft newMusicXmlDraft(String id) {
+        return new MusicXmlDraft(musicXmlDir(), id);
+    }
+
+    /** Decompressing stream over a stored MusicXML file (.xml.gz, or .mxl unpacked on the fly). */
+    @WorkerThread
+    InputStream openMusicXml(String path) throws IOException {
+        if (path.endsWith(MXL_SUFFIX)) {
+            return openMxlRootFile(path);
+        }
+        return new GZIPInputStream(new FileInputStream(path), 8192);
+    }
+
+    /**
+     * Stream over the score inside an .mxl archive: the rootfile named by META-INF/container.xml,
+     * or the first .xml entry outside META-INF. Closing it closes the archive.
+     */
+    private static InputStream openMxlRootFile(String path) throws IOException {
+        ZipFile zip = new ZipFile(path);
+        try {
+            ZipEntry entry = null;
+            ZipEntry container = zip.getEntry("META-INF/container.xml");
+            if (container != null) {
+                String rootPath = readRootFilePath(zip.getInputStream(container));
+                if (rootPath != null) entry = zip.getEntry(rootPath);
+            }
+            if (entry == null) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry e = entries.nextElement();
+                    if (!e.isDirectory() && e.getName().endsWith(".xml") && !e.getName().startsWith("META-INF/")) {
+                        entry = e;
+                        break;
+                    }
+                }
+            }
+            if (entry == null) throw new IOException("MusicXML non trovato in " + path);
+            return new FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    @Nullable
+    private static String readRootFilePath(InputStream container) throws IOException {
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(container, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = r.readLine()) != null) sb.append(line).append('\n');
+            Matcher m = ROOTFILE_PATH.matcher(sb);
+            return m.find() ? m.group(1) : null;
+        }
+    }
+
+    /** The first {@code maxChars} chars of a stored MusicXML file (all of it if shorter). */
+    @WorkerThread
+    String readMusicXmlSync(String path, int maxChars) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(openMusicXml(path), StandardCharsets.UTF_8))) {
+            char[] buf = new char[8192];
+            int n;
+            while (sb.length() < maxChars
+                    && (n = r.read(buf, 0, Math.min(buf.length, maxChars - sb.length()))) != -1) {
+                sb.append(buf, 0, n);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies the page at {@code source} into {@code files/pagine/} and returns its FileProvider Uri.
+     * Queued pages are uploaded later, when the camera temp file may be gone and a gallery
+     * Uri grant has expired; the copy also keeps the thumbnail available.
+     */
+    @WorkerThread
+    Uri importPageSync(String id, Uri source) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        File dir = new File(context.getFilesDir(), "pagine");
+        if (!dir.exists()) dir.mkdirs();
+        File file = new File(dir, pageFileName(id, resolver.getType(source), ImagePreprocessor.isProcessed(source)));
+        try (InputStream in = resolver.openInputStream(source);
+             OutputStream out = new FileOutputStream(file)) {
+            if (in == null) throw new IOException("Impossibile leggere " + source);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        } catch (IOException | SecurityException e) {
+            file.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        return FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", file);
+    }
+
+    /**
+     * Name of the stored copy of page {@code id}. Pages the in-app camera already binarized keep
+     * the preprocessor's name pattern, so that OmrWorker doesn't process them a second time.
+     */
+    static String pageFileName(String id, @Nullable String mimeType, boolean processed) {
+        if (processed) return ImagePreprocessor.processedName(id);
+        String ext = "application/pdf".equals(mimeType) ? ".pdf"
+                : "image/png".equals(mimeType) ? ".png" : ".jpg";
+        return id + ext;
+    }
+
+    private File musicXmlDir() {
+        File dir = new File(context.getFilesDir(), "musicxml");
+        if (!dir.exists()) dir.mkdirs();
+        return dir;
+    }
+
+    private static SpartitoItem fromCursor(Cursor c) {
+        String uri = c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_IMAGE_URI));
+        return new SpartitoItem(
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_ID)),
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_TITOLO)),
+                uri != null ? Uri.parse(uri) : null,
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_MUSIC_XML_PATH)),
+                c.getLong(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_DATA_TIMESTAMP)),
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_OMR_STATO)),
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_OMR_JOB_ID)),
+                c.getString(c.getColumnIndexOrThrow(SpartitoDbHelper.COL_OMR_ERRORE)));
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.tabler;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MusicXML to tablature: {@link MusicXmlReader} reads the notes in one streaming pass, then
+ * {@link FingeringSolver} places them on the neck, chunks of measures in parallel on a pool
+ * sized to the CPUs.
+ */
+final class TabConverter {
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+                Thread thread = new Thread(r, "tab-fingering");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private TabConverter() {}
+
+    @WorkerThread
+    static Tablature convert(InputStream musicXml, Instrument instrument) throws IOException {
+        MusicXmlReader.Notes notes;
+        try (PerfTracer.Span span = PerfTracer.begin("tab_parse")) {
+            notes = MusicXmlReader.read(musicXml);
+            span.attr("measures", notes.measureCount).attr("notes", notes.noteCount);
+        }
+        try (PerfTracer.Span span = PerfTracer.begin("tab_fingering")) {
+            span.attr("instrument", instrument.name());
+            return Tablature.of(notes, FingeringSolver.solve(notes, instrument, POOL), instrument);
+        }
+    }
+}
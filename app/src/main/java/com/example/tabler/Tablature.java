@@ -0,0 +1,152 @@
+package com.example.tabler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A score as tablature: columns (the slices of {@link MusicXmlReader.Notes}) grouped in measures,
+ * each with the fret played on every string or -1. Kept as primitive arrays, also on disk
+ * ({@link #writeTo}), so that {@link TablatureCache} can reload it without converting again.
+ */
+final class Tablature {
+
+    final Instrument instrument;
+    final int measureCount;
+    /** First column of each measure, measureCount + 1 entries. */
+    final int[] measureFirstColumn;
+    /** Length of each column up to the next one, in {@link MusicXmlReader#TICKS_PER_QUARTER} ticks. */
+    final int[] columnTicks;
+    /** Fret of each string in each column (column * strings + string), -1 if the string is not played. */
+    final byte[] frets;
+
+    private Tablature(Instrument instrument, int measureCount, int[] measureFirstColumn, int[] columnTicks,
+                      byte[] frets) {
+        this.instrument = instrument;
+        this.measureCount = measureCount;
+        this.measureFirstColumn = measureFirstColumn;
+        this.columnTicks = columnTicks;
+        this.frets = frets;
+    }
+
+    static Tablature of(MusicXmlReader.Notes notes, FingeringSolver.Fingering fingering, Instrument instrument) {
+        int strings = instrument.strings();
+        byte[] frets = new byte[notes.sliceCount * strings];
+        Arrays.fill(frets, (byte) -1);
+        for (int slice = 0; slice < notes.sliceCount; slice++) {
+            for (int n = notes.sliceFirstNote[slice]; n < notes.sliceFirstNote[slice + 1]; n++) {
+                int string = fingering.string[n];
+                if (string >= 0) frets[slice * strings + string] = fingering.fret[n];
+            }
+        }
+        return new Tablature(instrument, notes.measureCount,
+                Arrays.copyOf(notes.measureFirstSlice, notes.measureCount + 1),
+                Arrays.copyOf(notes.sliceTicks, notes.sliceCount), frets);
+    }
+
+    int columnCount() {
+        return columnTicks.length;
+    }
+
+    int fret(int column, int string) {
+        return frets[column * instrument.strings() + string];
+    }
+
+    boolean isEmpty() {
+        return columnTicks.length == 0;
+    }
+
+    /**
+     * Splits the measures into systems of whole measures at most {@code maxChars} wide (a measure
+     * wider than that gets a system of its own). Returns the first measure of each system, then
+     * {@link #measureCount}.
+     */
+    int[] systems(int maxChars) {
+        int[] starts = new int[measureCount + 1];
+        int count = 0;
+        int width = 0;
+        for (int m = 0; m < measureCount; m++) {
+            int measure = measureWidth(m);
+            if (count == 0 || width + measure > maxChars) {
+                starts[count++] = m;
+                width = 2;
+            }
+            width += measure;
+        }
+        starts[count++] = measureCount;
+        return Arrays.copyOf(starts, count);
+    }
+
+    /** Appends measures [from, to) to {@code rows} (one per string), with the string names in front. */
+    void appendSystem(int from, int to, StringBuilder[] rows) {
+        int strings = instrument.strings();
+        for (int s = 0; s < strings; s++) rows[s].append(instrument.stringNames[s]).append('|');
+        for (int m = from; m < to; m++) {
+            for (int column = measureFirstColumn[m]; column < measureFirstColumn[m + 1]; column++) {
+                int columnWidth = columnWidth(column);
+                for (int s = 0; s < strings; s++) {
+                    int fret = fret(column, s);
+                    int used = 0;
+                    rows[s].append('-');
+                    if (fret >= 0) {
+                        rows[s].append(fret);
+                        used = fret >= 10 ? 2 : 1;
+                    }
+                    for (int i = 1 + used; i < columnWidth; i++) rows[s].append('-');
+                }
+            }
+            if (measureFirstColumn[m] == measureFirstColumn[m + 1]) {
+                for (int s = 0; s < strings; s++) rows[s].append("----");
+            }
+            for (int s = 0; s < strings; s++) rows[s].append("-|");
+        }
+    }
+
+    /** Chars of a measure in {@link #appendSystem}: its columns, the empty-measure filler and "-|". */
+    private int measureWidth(int measure) {
+        int width = 2;
+        if (measureFirstColumn[measure] == measureFirstColumn[measure + 1]) return width + 4;
+        for (int column = measureFirstColumn[measure]; column < measureFirstColumn[measure + 1]; column++) {
+            width += columnWidth(column);
+        }
+        return width;
+    }
+
+    /** "-" plus the widest fret, plus a dash for a quarter note or longer, so rhythm shows a little. */
+    private int columnWidth(int column) {
+        int digits = 0;
+        for (int s = 0; s < instrument.strings(); s++) {
+            int fret = fret(column, s);
+            if (fret >= 0) digits = Math.max(digits, fret >= 10 ? 2 : 1);
+        }
+        return 1 + digits + (columnTicks[column] >= MusicXmlReader.TICKS_PER_QUARTER ? 2 : 1);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(instrument.name());
+        out.writeInt(measureCount);
+        for (int first : measureFirstColumn) out.writeInt(first);
+        out.writeInt(columnTicks.length);
+        for (int ticks : columnTicks) out.writeInt(ticks);
+        out.write(frets);
+    }
+
+    static Tablature readFrom(DataInputStream in) throws IOException {
+        Instrument instrument;
+        try {
+            instrument = Instrument.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Strumento sconosciuto", e);
+        }
+        int measureCount = in.readInt();
+        int[] measureFirstColumn = new int[measureCount + 1];
+        for (int i = 0; i <= measureCount; i++) measureFirstColumn[i] = in.readInt();
+        int columns = in.readInt();
+        int[] columnTicks = new int[columns];
+        for (int i = 0; i < columns; i++) columnTicks[i] = in.readInt();
+        byte[] frets = new byte[columns * instrument.strings()];
+        in.readFully(frets);
+        return new Tablature(instrument, measureCount, measureFirstColumn, columnTicks, frets);
+    }
+}
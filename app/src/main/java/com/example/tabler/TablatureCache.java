@@ -0,0 +1,109 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tablatures of the library's scores, converted once per item and instrument. They are kept in
+ * cache/tablature and the last few in memory. Each entry is stamped with the MusicXML file's
+ * path, size and date, so a new recognition of the item invalidates it.
+ */
+final class TablatureCache {
+
+    /** Bump when the conversion changes, to drop what older versions stored. */
+    private static final int FORMAT_VERSION = 1;
+    private static final int MEMORY_ENTRIES = 4;
+
+    private static volatile TablatureCache instance;
+
+    private final File dir;
+    private final SpartitoRepository repository;
+    private final LruCache<String, Entry> memory = new LruCache<>(MEMORY_ENTRIES);
+
+    private static final class Entry {
+        final String stamp;
+        final Tablature tablature;
+
+        Entry(String stamp, Tablature tablature) {
+            this.stamp = stamp;
+            this.tablature = tablature;
+        }
+    }
+
+    private TablatureCache(Context context) {
+        Context app = context.getApplicationContext();
+        this.dir = new File(app.getCacheDir(), "tablature");
+        this.repository = SpartitoRepository.getInstance(app);
+    }
+
+    static TablatureCache getInstance(Context context) {
+        if (instance == null) {
+            synchronized (TablatureCache.class) {
+                if (instance == null) {
+                    instance = new TablatureCache(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Tablature of a recognized item: from memory, from disk, or converted from its MusicXML. */
+    @WorkerThread
+    Tablature get(SpartitoItem item, Instrument instrument) throws IOException {
+        String path = item.getMusicXmlPath();
+        File source = new File(path);
+        String stamp = FORMAT_VERSION + "|" + path + "|" + source.length() + "|" + source.lastModified();
+        String key = item.getId() + "-" + instrument.name();
+
+        Entry entry = memory.get(key);
+        if (entry != null && entry.stamp.equals(stamp)) return entry.tablature;
+
+        File file = new File(dir, key + ".tab");
+        Tablature tablature = read(file, stamp);
+        if (tablature == null) {
+            try (InputStream in = new BufferedInputStream(repository.openMusicXml(path), 16 * 1024)) {
+                tablature = TabConverter.convert(in, instrument);
+            }
+            write(file, stamp, tablature);
+        }
+        memory.put(key, new Entry(stamp, tablature));
+        return tablature;
+    }
+
+    private static Tablature read(File file, String stamp) {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!stamp.equals(in.readUTF())) return null;
+            return Tablature.readFrom(in);
+        } catch (IOException e) {
+            // Damaged or from another version: convert again
+            return null;
+        }
+    }
+
+    private void write(File file, String stamp, Tablature tablature) {
+        // A failed write only costs a conversion next time
+        dir.mkdirs();
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeUTF(stamp);
+            tablature.writeTo(out);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.tabler;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+import androidx.work.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the WorkManager configuration (on-demand initialization, the default initializer is
+ * removed in the manifest). Its executor runs every Worker of the app, not only OMR: today
+ * {@link OmrWorker} is the only one, so queued pages run at most {@link #WORKER_THREADS} at a time.
+ */
+public class TablerApplication extends Application implements Configuration.Provider {
+
+    /**
+     * Two pages in flight: one page's preprocessing and upload overlap the other's wait on the
+     * server, and uploads don't compete for bandwidth. The backend recognizes one page at a time
+     * by default (one Audiveris worker in 512 MB), so the second page waits in its queue, where
+     * the app shows the position. A new kind of Worker shares these threads and needs its own limit.
+     */
+    private static final int WORKER_THREADS = 2;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        PerfTracer.init(this);
+        OmrQueue.deleteStaleFiles(this);
+    }
+
+    @NonNull
+    @Override
+    public Configuration getWorkManagerConfiguration() {
+        return new Configuration.Builder()
+                .setExecutor(Executors.newFixedThreadPool(WORKER_THREADS))
+                .build();
+    }
+}
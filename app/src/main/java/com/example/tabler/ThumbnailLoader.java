@@ -0,0 +1,198 @@
+package com.example.tabler;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.pdf.PdfRenderer;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads list thumbnails off the main thread, decoded at the view size (never the full image).
+ * Two cache levels, both keyed by {@link SpartitoItem#getId()}: an LRU of bitmaps sized from
+ * the heap and JPEG files in {@code cache/thumbnails/}, which also keep thumbnails of gallery
+ * images whose Uri permission has expired. Loads for recycled views are cancelled.
+ */
+final class ThumbnailLoader {
+
+    private static volatile ThumbnailLoader instance;
+
+    private final Context context;
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /** Load in flight for each view (main thread only). */
+    private final Map<ImageView, Future<?>> pending = new WeakHashMap<>();
+
+    private ThumbnailLoader(Context context) {
+        this.context = context.getApplicationContext();
+        this.diskDir = new File(this.context.getCacheDir(), "thumbnails");
+        // 1/8 of the heap, in KB
+        int cacheKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        this.memoryCache = new LruCache<String, Bitmap>(cacheKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    static ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            synchronized (ThumbnailLoader.class) {
+                if (instance == null) {
+                    instance = new ThumbnailLoader(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Shows the thumbnail of {@code item} in {@code view}, {@code sizePx} square (center crop). */
+    @MainThread
+    void load(SpartitoItem item, ImageView view, int sizePx) {
+        cancel(view);
+        String key = item.getId();
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageResource(android.R.drawable.ic_menu_gallery);
+        Uri uri = item.getImageUri();
+        Future<?>[] self = new Future<?>[1];
+        self[0] = executor.submit(() -> {
+            Bitmap bitmap = loadFromDisk(key);
+            if (bitmap == null && uri != null && !Thread.currentThread().isInterrupted()) {
+                bitmap = decode(uri, sizePx);
+                if (bitmap != null) saveToDisk(key, bitmap);
+            }
+            if (bitmap == null) return;
+            memoryCache.put(key, bitmap);
+            Bitmap result = bitmap;
+            mainHandler.post(() -> {
+                if (pending.get(view) == self[0]) {
+                    pending.remove(view);
+                    view.setImageBitmap(result);
+                }
+            });
+        });
+        pending.put(view, self[0]);
+    }
+
+    /** Cancels the load bound to {@code view}, e.g. when its ViewHolder is recycled. */
+    @MainThread
+    void cancel(ImageView view) {
+        Future<?> future = pending.remove(view);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    @Nullable
+    @WorkerThread
+    private Bitmap loadFromDisk(String key) {
+        File file = new File(diskDir, key + ".jpg");
+        return file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null;
+    }
+
+    @WorkerThread
+    private void saveToDisk(String key, Bitmap bitmap) {
+        if (!diskDir.exists() && !diskDir.mkdirs()) return;
+        File file = new File(diskDir, key + ".jpg");
+        File tmp = new File(diskDir, key + ".tmp");
+        try (OutputStream os = new FileOutputStream(tmp)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 85, os);
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+
+    @Nullable
+    @WorkerThread
+    private Bitmap decode(Uri uri, int sizePx) {
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            if ("application/pdf".equals(resolver.getType(uri))) {
+                return renderPdfFirstPage(resolver, uri, sizePx);
+            }
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            try (InputStream is = resolver.openInputStream(uri)) {
+                if (is == null) return null;
+                BitmapFactory.decodeStream(is, null, opts);
+            }
+            if (opts.outWidth <= 0 || opts.outHeight <= 0) return null;
+            // Center crop: the shorter edge must stay >= sizePx after sampling
+            int shortEdge = Math.min(opts.outWidth, opts.outHeight);
+            opts.inSampleSize = ImagePreprocessor.sampleSizeFor(shortEdge, sizePx);
+            opts.inJustDecodeBounds = false;
+            Bitmap sampled;
+            try (InputStream is = resolver.openInputStream(uri)) {
+                if (is == null) return null;
+                sampled = BitmapFactory.decodeStream(is, null, opts);
+            }
+            if (sampled == null) return null;
+            Bitmap thumb = ThumbnailUtils.extractThumbnail(sampled, sizePx, sizePx,
+                    ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+            int rotation = ImagePreprocessor.readRotation(resolver, uri);
+            if (rotation == 0) return thumb;
+            Matrix m = new Matrix();
+            m.postRotate(rotation);
+            Bitmap rotated = Bitmap.createBitmap(thumb, 0, 0, thumb.getWidth(), thumb.getHeight(), m, true);
+            if (rotated != thumb) thumb.recycle();
+            return rotated;
+        } catch (IOException | SecurityException | OutOfMemoryError e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    @WorkerThread
+    private static Bitmap renderPdfFirstPage(ContentResolver resolver, Uri uri, int sizePx) throws IOException {
+        try (ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r")) {
+            if (pfd == null) return null;
+            try (PdfRenderer renderer = new PdfRenderer(pfd)) {
+                if (renderer.getPageCount() == 0) return null;
+                try (PdfRenderer.Page page = renderer.openPage(0)) {
+                    // Page width scaled to the thumbnail; the top of the page is what identifies a score
+                    float scale = sizePx / (float) page.getWidth();
+                    int height = Math.max(sizePx, Math.round(page.getHeight() * scale));
+                    Bitmap bitmap = Bitmap.createBitmap(sizePx, height, Bitmap.Config.ARGB_8888);
+                    bitmap.eraseColor(Color.WHITE);
+                    page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                    if (height == sizePx) return bitmap;
+                    Bitmap top = Bitmap.createBitmap(bitmap, 0, 0, sizePx, sizePx);
+                    if (top != bitmap) bitmap.recycle();
+                    return top;
+                }
+            }
+        }
+    }
+}
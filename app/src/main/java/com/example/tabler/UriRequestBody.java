@@ -0,0 +1,126 @@
+package com.example.tabler;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * RequestBody that streams a content Uri straight into the socket with Okio,
+ * so the file is never copied into a byte[] (large PDFs / camera JPEGs).
+ * It can also send only a range of the file: one chunk of a resumable upload.
+ */
+class UriRequestBody extends RequestBody {
+
+    /** Called on the uploading thread every time a segment has been written. */
+    interface ProgressListener {
+        void onProgress(long bytesWritten, long contentLength);
+    }
+
+    private static final long SEGMENT_SIZE = 8192;
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final MediaType mediaType;
+    private final boolean range;
+    private final long offset;
+    private final long contentLength;
+    /** Size of the whole file, for progress: larger than contentLength for a range. */
+    private final long totalLength;
+    private final ProgressListener listener;
+
+    UriRequestBody(ContentResolver resolver, Uri uri, @Nullable MediaType mediaType,
+                   @Nullable ProgressListener listener) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.mediaType = mediaType;
+        this.range = false;
+        this.offset = 0;
+        this.contentLength = queryContentLength(resolver, uri);
+        this.totalLength = contentLength;
+        this.listener = listener;
+    }
+
+    /** Bytes {@code offset} to {@code offset + length} of a {@code totalLength}-byte file; progress counts the whole file. */
+    UriRequestBody(ContentResolver resolver, Uri uri, @Nullable MediaType mediaType,
+                   long offset, long length, long totalLength, @Nullable ProgressListener listener) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.mediaType = mediaType;
+        this.range = true;
+        this.offset = offset;
+        this.contentLength = length;
+        this.totalLength = totalLength;
+        this.listener = listener;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    /** Size reported by the ContentResolver, or -1 (chunked upload) if unknown. */
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        // Re-opened on every call: OkHttp may replay the body after a connection failure.
+        InputStream is = resolver.openInputStream(uri);
+        if (is == null) throw new FileNotFoundException("Impossibile aprire " + uri);
+        try (BufferedSource source = Okio.buffer(Okio.source(is))) {
+            source.skip(offset);
+            Buffer buffer = sink.getBuffer();
+            // A range stops at its end; the whole file (maybe of unknown length) at EOF
+            long remaining = range ? contentLength : Long.MAX_VALUE;
+            long written = 0;
+            long read;
+            while (remaining > 0 && (read = source.read(buffer, Math.min(SEGMENT_SIZE, remaining))) != -1) {
+                written += read;
+                remaining -= read;
+                sink.emitCompleteSegments();
+                if (listener != null) {
+                    listener.onProgress(offset + written, totalLength);
+                }
+            }
+        }
+    }
+
+    /** Size of the file behind the Uri (OpenableColumns.SIZE, then file descriptor), or -1. */
+    static long queryContentLength(ContentResolver resolver, Uri uri) {
+        try (Cursor cursor = resolver.query(uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                long size = cursor.getLong(0);
+                if (size >= 0) return size;
+            }
+        } catch (RuntimeException ignored) {
+            // Some providers don't support query(); fall back to the descriptor.
+        }
+        try (AssetFileDescriptor afd = resolver.openAssetFileDescriptor(uri, "r")) {
+            if (afd != null && afd.getLength() != AssetFileDescriptor.UNKNOWN_LENGTH) {
+                return afd.getLength();
+            }
+        } catch (IOException | RuntimeException ignored) {
+            // Unknown length: the body is sent chunked.
+        }
+        return -1;
+    }
+}
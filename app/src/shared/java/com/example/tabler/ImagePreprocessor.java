@@ -0,0 +1,441 @@
+package com.example.tabler;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.FileProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Prepares a camera/gallery image for OMR before upload: sampled decode of the page region only,
+ * grayscale, adaptive threshold (staff lines stay connected under uneven lighting) and PNG re-encode
+ * at about 300 DPI for an A4 page, which is what Audiveris works best with. Frames of the in-app
+ * camera skip the decode: the page is cut out of their luminance plane directly
+ * ({@link #processLuma}). Must run off the UI thread. PDFs are not touched.
+ */
+final class ImagePreprocessor {
+
+    /** Long edge of an A4 page at 300 DPI. Larger inputs are scaled down, smaller ones left as they are. */
+    static final int TARGET_LONG_EDGE = 3508;
+    /** Long edge of the probe decode used to find the page. */
+    private static final int PROBE_LONG_EDGE = 512;
+    /** Pixels darker than (100 - THRESHOLD_PERCENT)% of the local mean become black. */
+    private static final int THRESHOLD_PERCENT = 15;
+    /** Name prefix of the PNGs written here. */
+    private static final String OUTPUT_PREFIX = "omr_";
+
+    private ImagePreprocessor() {}
+
+    static boolean isSupported(@Nullable String mimeType) {
+        return mimeType != null && mimeType.startsWith("image/");
+    }
+
+    /**
+     * True for a PNG written by this class, or a copy of one stored under {@link #processedName}:
+     * already binarized, nothing left to do before upload.
+     */
+    static boolean isProcessed(Uri uri) {
+        return isProcessedName(uri.getLastPathSegment());
+    }
+
+    static boolean isProcessedName(@Nullable String name) {
+        return name != null && name.startsWith(OUTPUT_PREFIX) && name.endsWith(".png");
+    }
+
+    /** File name for a stored copy of a processed page, so that {@link #isProcessed} still holds. */
+    static String processedName(String id) {
+        return OUTPUT_PREFIX + id + ".png";
+    }
+
+    /**
+     * Deletes a PNG written here once it has been uploaded or copied. Only files in the cache
+     * dir are touched: stored copies named by {@link #processedName} live in files/pagine/.
+     */
+    static void deleteOutput(Context context, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        String name = uri.getLastPathSegment();
+        if (!(context.getPackageName() + ".fileprovider").equals(uri.getAuthority())
+                || segments.size() != 2 || !"cache".equals(segments.get(0)) || !isProcessedName(name)) {
+            return;
+        }
+        new File(context.getCacheDir(), name).delete();
+    }
+
+    /**
+     * Deletes outputs older than {@code maxAgeMs} left behind by captures that were never queued
+     * or by a process killed between writing and uploading.
+     */
+    @WorkerThread
+    static void deleteStaleOutputs(Context context, long maxAgeMs) {
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        File[] outputs = context.getCacheDir().listFiles((dir, name) -> isProcessedName(name));
+        if (outputs == null) return;
+        for (File f : outputs) {
+            if (f.lastModified() < cutoff) f.delete();
+        }
+    }
+
+    /**
+     * Writes the binarized page to a PNG in the cache dir and returns its FileProvider Uri,
+     * or null if the image can't be processed (the caller then uploads the original). The caller
+     * deletes it when done ({@link #deleteOutput}).
+     */
+    @Nullable
+    @WorkerThread
+    static Uri process(Context context, Uri source) {
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream is = resolver.openInputStream(source)) {
+                if (is == null) return null;
+                BitmapFactory.decodeStream(is, null, bounds);
+            }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+            int rotation = readRotation(resolver, source);
+
+            Rect page = findPage(resolver, source, bounds.outWidth, bounds.outHeight);
+            byte[] gray;
+            int width;
+            int height;
+            Bitmap decoded = decodeRegion(resolver, source, page);
+            if (decoded == null) return null;
+            try {
+                width = decoded.getWidth();
+                height = decoded.getHeight();
+                gray = toGray(decoded);
+            } finally {
+                decoded.recycle();
+            }
+
+            return writeBinarized(context, gray, width, height, rotation);
+        } catch (IOException | OutOfMemoryError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same output as {@link #process} from a camera frame's luminance plane (the Y plane of a
+     * YUV_420_888 image, {@code rowStride} bytes per row): the page quadrilateral {@code quad}
+     * (see {@link PageDetector#quad}) is straightened into a rectangle, then binarized and
+     * rotated by {@code rotation}. No JPEG encode and decode in between.
+     */
+    @Nullable
+    @WorkerThread
+    static Uri processLuma(Context context, ByteBuffer luma, int rowStride, int width, int height,
+                           float[] quad, int rotation) {
+        try {
+            int[] size = new int[2];
+            byte[] gray = rectify(luma, rowStride, width, height, quad, size);
+            return writeBinarized(context, gray, size[0], size[1], rotation);
+        } catch (IOException | OutOfMemoryError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Uri writeBinarized(Context context, byte[] gray, int width, int height, int rotation)
+            throws IOException {
+        File out = File.createTempFile(OUTPUT_PREFIX, ".png", context.getCacheDir());
+        Bitmap binary = binarize(gray, width, height, rotation);
+        try (OutputStream os = new FileOutputStream(out)) {
+            binary.compress(Bitmap.CompressFormat.PNG, 100, os);
+        } finally {
+            binary.recycle();
+        }
+        return FileProvider.getUriForFile(context, context.getPackageName() + ".fileprovider", out);
+    }
+
+    /**
+     * Perspective correction: the quadrilateral (top-left, top-right, bottom-right, bottom-left)
+     * mapped onto a rectangle as wide and tall as its longer opposite sides, scaled down to
+     * TARGET_LONG_EDGE, with bilinear sampling. The square-to-quad homography is evaluated
+     * incrementally along each row. {@code size} receives the width and height.
+     */
+    static byte[] rectify(ByteBuffer luma, int rowStride, int width, int height, float[] quad, int[] size) {
+        float w = Math.max(distance(quad, 0, 1), distance(quad, 3, 2));
+        float h = Math.max(distance(quad, 0, 3), distance(quad, 1, 2));
+        float scale = Math.min(1f, TARGET_LONG_EDGE / Math.max(1f, Math.max(w, h)));
+        int outWidth = Math.max(1, Math.round(w * scale));
+        int outHeight = Math.max(1, Math.round(h * scale));
+
+        // (u, v) in the unit square → (x, y) = ((a u + b v + c) / den, (d u + e v + f) / den), den = g u + k v + 1
+        float x0 = quad[0], y0 = quad[1], x1 = quad[2], y1 = quad[3];
+        float x2 = quad[4], y2 = quad[5], x3 = quad[6], y3 = quad[7];
+        float sx = x0 - x1 + x2 - x3;
+        float sy = y0 - y1 + y2 - y3;
+        float a, b, c = x0, d, e, f = y0, g = 0, k = 0;
+        if (sx == 0 && sy == 0) {
+            a = x1 - x0;
+            b = x2 - x1;
+            d = y1 - y0;
+            e = y2 - y1;
+        } else {
+            float dx1 = x1 - x2, dx2 = x3 - x2, dy1 = y1 - y2, dy2 = y3 - y2;
+            float den = dx1 * dy2 - dx2 * dy1;
+            g = (sx * dy2 - sy * dx2) / den;
+            k = (dx1 * sy - dy1 * sx) / den;
+            a = x1 - x0 + g * x1;
+            b = x3 - x0 + k * x3;
+            d = y1 - y0 + g * y1;
+            e = y3 - y0 + k * y3;
+        }
+
+        byte[] gray = new byte[outWidth * outHeight];
+        float du = 1f / outWidth;
+        float maxX = width - 1.001f;
+        float maxY = height - 1.001f;
+        for (int j = 0; j < outHeight; j++) {
+            float v = (j + 0.5f) / outHeight;
+            float u = 0.5f * du;
+            float nx = a * u + b * v + c;
+            float ny = d * u + e * v + f;
+            float nw = g * u + k * v + 1;
+            int out = j * outWidth;
+            for (int i = 0; i < outWidth; i++) {
+                // Pixel centres are at +0.5
+                float x = Math.max(0, Math.min(maxX, nx / nw - 0.5f));
+                float y = Math.max(0, Math.min(maxY, ny / nw - 0.5f));
+                int xi = (int) x;
+                int yi = (int) y;
+                float fx = x - xi;
+                float fy = y - yi;
+                int p = yi * rowStride + xi;
+                float top = (luma.get(p) & 0xFF) * (1 - fx) + (luma.get(p + 1) & 0xFF) * fx;
+                float bottom = (luma.get(p + rowStride) & 0xFF) * (1 - fx) + (luma.get(p + rowStride + 1) & 0xFF) * fx;
+                gray[out + i] = (byte) (top + (bottom - top) * fy + 0.5f);
+                nx += a * du;
+                ny += d * du;
+                nw += g * du;
+            }
+        }
+        size[0] = outWidth;
+        size[1] = outHeight;
+        return gray;
+    }
+
+    private static float distance(float[] quad, int i, int j) {
+        float dx = quad[i * 2] - quad[j * 2];
+        float dy = quad[i * 2 + 1] - quad[j * 2 + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /** Clockwise rotation from the EXIF orientation tag, 0 if absent. */
+    static int readRotation(ContentResolver resolver, Uri source) {
+        try (InputStream is = resolver.openInputStream(source)) {
+            if (is == null) return 0;
+            int orientation = new ExifInterface(is).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90: return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180: return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270: return 270;
+                default: return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Bounding box (in source pixels) of the rows/columns that are mostly brighter than the
+     * average: the sheet of paper against a darker background. Falls back to the whole image.
+     */
+    private static Rect findPage(ContentResolver resolver, Uri source, int srcWidth, int srcHeight)
+            throws IOException {
+        Rect full = new Rect(0, 0, srcWidth, srcHeight);
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSizeFor(Math.max(srcWidth, srcHeight), PROBE_LONG_EDGE);
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap probe;
+        try (InputStream is = resolver.openInputStream(source)) {
+            if (is == null) return full;
+            probe = BitmapFactory.decodeStream(is, null, opts);
+        }
+        if (probe == null) return full;
+        int w = probe.getWidth();
+        int h = probe.getHeight();
+        byte[] gray = toGray(probe);
+        probe.recycle();
+
+        long total = 0;
+        for (byte g : gray) total += g & 0xFF;
+        int mean = (int) (total / gray.length);
+        int[] brightInRow = new int[h];
+        int[] brightInCol = new int[w];
+        for (int y = 0; y < h; y++) {
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                if ((gray[row + x] & 0xFF) > mean) {
+                    brightInRow[y]++;
+                    brightInCol[x]++;
+                }
+            }
+        }
+        int top = firstAbove(brightInRow, w / 2, true);
+        int bottom = firstAbove(brightInRow, w / 2, false);
+        int left = firstAbove(brightInCol, h / 2, true);
+        int right = firstAbove(brightInCol, h / 2, false);
+        if (top < 0 || left < 0 || (bottom - top) * (right - left) < w * h / 4) {
+            return full;
+        }
+        float sx = srcWidth / (float) w;
+        float sy = srcHeight / (float) h;
+        Rect page = new Rect((int) (left * sx), (int) (top * sy),
+                (int) ((right + 1) * sx), (int) ((bottom + 1) * sy));
+        return page.intersect(full) ? page : full;
+    }
+
+    private static int firstAbove(int[] counts, int min, boolean fromStart) {
+        for (int i = 0; i < counts.length; i++) {
+            int idx = fromStart ? i : counts.length - 1 - i;
+            if (counts[idx] > min) return idx;
+        }
+        return -1;
+    }
+
+    /** Decodes only the page rect, sampled and then scaled so the long edge is at most TARGET_LONG_EDGE. */
+    @Nullable
+    private static Bitmap decodeRegion(ContentResolver resolver, Uri source, Rect page) throws IOException {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inSampleSize = sampleSizeFor(Math.max(page.width(), page.height()), TARGET_LONG_EDGE);
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap;
+        try (InputStream is = resolver.openInputStream(source)) {
+            if (is == null) return null;
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(is, false);
+            try {
+                bitmap = decoder.decodeRegion(page, opts);
+            } finally {
+                decoder.recycle();
+            }
+        }
+        if (bitmap == null) return null;
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longEdge > TARGET_LONG_EDGE) {
+            float scale = TARGET_LONG_EDGE / (float) longEdge;
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.round(bitmap.getWidth() * scale), Math.round(bitmap.getHeight() * scale), true);
+            if (scaled != bitmap) bitmap.recycle();
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    /** Largest power of two that keeps the sampled long edge at or above target. */
+    static int sampleSizeFor(int longEdge, int target) {
+        int sample = 1;
+        while (longEdge / (sample * 2) >= target) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /** Luma (BT.601, integer) of every pixel, read one row at a time. */
+    private static byte[] toGray(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        byte[] gray = new byte[w * h];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            bitmap.getPixels(row, 0, w, 0, y, w, 1);
+            int offset = y * w;
+            for (int x = 0; x < w; x++) {
+                int c = row[x];
+                int r = (c >> 16) & 0xFF;
+                int g = (c >> 8) & 0xFF;
+                int b = c & 0xFF;
+                gray[offset + x] = (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+            }
+        }
+        return gray;
+    }
+
+    /**
+     * Bradley-Roth adaptive threshold. The window sum is kept as per-column sums over a sliding
+     * band of rows plus a running sum along the row, so no integral image is allocated.
+     * Rows are written into the output already rotated by the EXIF angle.
+     */
+    private static Bitmap binarize(byte[] gray, int w, int h, int rotation) {
+        int radius = Math.max(7, Math.min(w, h) / 80);
+        boolean swap = rotation == 90 || rotation == 270;
+        Bitmap out = Bitmap.createBitmap(swap ? h : w, swap ? w : h, Bitmap.Config.RGB_565);
+        int[] colSum = new int[w];
+        int[] line = new int[w];
+        for (int y = 0; y <= Math.min(radius, h - 1); y++) {
+            addRow(colSum, gray, y, w, 1);
+        }
+        for (int y = 0; y < h; y++) {
+            if (y > 0) {
+                if (y + radius < h) addRow(colSum, gray, y + radius, w, 1);
+                if (y - radius - 1 >= 0) addRow(colSum, gray, y - radius - 1, w, -1);
+            }
+            int rows = Math.min(h - 1, y + radius) - Math.max(0, y - radius) + 1;
+            long windowSum = 0;
+            for (int x = 0; x <= Math.min(radius, w - 1); x++) windowSum += colSum[x];
+            int offset = y * w;
+            for (int x = 0; x < w; x++) {
+                if (x > 0) {
+                    if (x + radius < w) windowSum += colSum[x + radius];
+                    if (x - radius - 1 >= 0) windowSum -= colSum[x - radius - 1];
+                }
+                int cols = Math.min(w - 1, x + radius) - Math.max(0, x - radius) + 1;
+                long count = (long) rows * cols;
+                int value = gray[offset + x] & 0xFF;
+                boolean black = value * count * 100 <= windowSum * (100 - THRESHOLD_PERCENT);
+                line[x] = black ? 0xFF000000 : 0xFFFFFFFF;
+            }
+            writeRotated(out, line, y, w, h, rotation);
+        }
+        return out;
+    }
+
+    private static void addRow(int[] colSum, byte[] gray, int y, int w, int sign) {
+        int offset = y * w;
+        for (int x = 0; x < w; x++) {
+            colSum[x] += sign * (gray[offset + x] & 0xFF);
+        }
+    }
+
+    private static void writeRotated(Bitmap out, int[] line, int y, int w, int h, int rotation) {
+        switch (rotation) {
+            case 90:
+                // Source row y becomes output column (h - 1 - y), top to bottom.
+                out.setPixels(line, 0, 1, h - 1 - y, 0, 1, w);
+                break;
+            case 180:
+                reverse(line);
+                out.setPixels(line, 0, w, 0, h - 1 - y, w, 1);
+                break;
+            case 270:
+                // Source row y becomes output column y, bottom to top.
+                reverse(line);
+                out.setPixels(line, 0, 1, y, 0, 1, w);
+                break;
+            default:
+                out.setPixels(line, 0, w, 0, y, w, 1);
+        }
+    }
+
+    private static void reverse(int[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.tabler;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streaming parser for the JSON object returned by /omr (and /omr/jobs/{id}/result).
+ * The "musicXml" value, which can be megabytes, is decoded straight into a Writer and never
+ * held in memory; the other top-level fields are small and kept in {@link Result}.
+ * Handles every JSON escape, including {@code \\uXXXX} and surrogate pairs.
+ */
+final class OmrResponseParser {
+
+    /** Characters of musicXml kept in {@link Result#musicXmlHead}, enough to spot the placeholder. */
+    private static final int HEAD_LENGTH = 256;
+
+    static final class Result {
+        boolean hasMusicXml;
+        long musicXmlLength;
+        String musicXmlHead = "";
+        boolean recognized;
+        boolean musicXmlExtracted;
+        boolean cached;
+        @Nullable String note;
+        @Nullable String error;
+    }
+
+    private final Reader in;
+    private int peeked = -2;
+
+    private OmrResponseParser(Reader in) {
+        this.in = in;
+    }
+
+    /** Parses one response object from {@code in}, writing the musicXml value to {@code musicXmlOut}. */
+    static Result parse(Reader in, Writer musicXmlOut) throws IOException {
+        return new OmrResponseParser(in).parseObject(musicXmlOut);
+    }
+
+    private Result parseObject(Writer musicXmlOut) throws IOException {
+        Result result = new Result();
+        expect('{');
+        if (peekNonSpace() == '}') {
+            read();
+            return result;
+        }
+        while (true) {
+            String key = readString();
+            expect(':');
+            switch (key) {
+                case "musicXml":
+                    if (peekNonSpace() == '"') {
+                        StringBuilder head = new StringBuilder(HEAD_LENGTH);
+                        result.hasMusicXml = true;
+                        result.musicXmlLength = readStringTo(musicXmlOut, head, HEAD_LENGTH);
+                        result.musicXmlHead = head.toString();
+                    } else {
+                        skipValue();
+                    }
+                    break;
+                case "recognized":
+                    result.recognized = readBoolean();
+                    break;
+                case "musicXmlExtracted":
+                    result.musicXmlExtracted = readBoolean();
+                    break;
+                case "cached":
+                    result.cached = readBoolean();
+                    break;
+                case "note":
+                    result.note = readOptionalString();
+                    break;
+                case "error":
+                    result.error = readOptionalString();
+                    break;
+                default:
+                    skipValue();
+            }
+            int c = readNonSpace();
+            if (c == '}') return result;
+            if (c != ',') throw syntaxError("',' o '}'", c);
+        }
+    }
+
+    private boolean readBoolean() throws IOException {
+        int c = peekNonSpace();
+        if (c == 't' || c == 'f') {
+            return "true".equals(readLiteral());
+        }
+        skipValue();
+        return false;
+    }
+
+    @Nullable
+    private String readOptionalString() throws IOException {
+        if (peekNonSpace() == '"') {
+            return readString();
+        }
+        skipValue();
+        return null;
+    }
+
+    private String readString() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        readStringTo(null, sb, Integer.MAX_VALUE);
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a JSON string into {@code out} (if not null), copying the first {@code headMax}
+     * chars into {@code head}. Returns the decoded length.
+     */
+    private long readStringTo(@Nullable Writer out, StringBuilder head, int headMax) throws IOException {
+        expect('"');
+        long length = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) throw new IOException("JSON troncato");
+            if (c == '"') return length;
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case '"': case '\\': case '/': break;
+                    case 'n': c = '\n'; break;
+                    case 't': c = '\t'; break;
+                    case 'r': c = '\r'; break;
+                    case 'b': c = '\b'; break;
+                    case 'f': c = '\f'; break;
+                    case 'u': c = readHex4(); break;
+                    default: throw syntaxError("escape", c);
+                }
+            }
+            // Surrogate pairs arrive as two \\u escapes and are written one char at a time
+            if (out != null) out.write(c);
+            if (head.length() < headMax) head.append((char) c);
+            length++;
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = read();
+            int digit = Character.digit(c, 16);
+            if (c == -1 || digit < 0) throw syntaxError("cifra esadecimale", c);
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private String readLiteral() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = peek();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) break;
+            sb.append((char) read());
+        }
+        return sb.toString();
+    }
+
+    /** Skips any value: string, number, literal, or nested object/array. */
+    private void skipValue() throws IOException {
+        int c = peekNonSpace();
+        if (c == '"') {
+            readStringTo(null, new StringBuilder(), 0);
+        } else if (c == '{' || c == '[') {
+            read();
+            int close = c == '{' ? '}' : ']';
+            if (peekNonSpace() == close) {
+                read();
+                return;
+            }
+            while (true) {
+                if (close == '}') {
+                    readStringTo(null, new StringBuilder(), 0);
+                    expect(':');
+                }
+                skipValue();
+                int next = readNonSpace();
+                if (next == close) return;
+                if (next != ',') throw syntaxError("','", next);
+            }
+        } else {
+            readLiteral();
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = readNonSpace();
+        if (c != expected) throw syntaxError("'" + expected + "'", c);
+    }
+
+    private int peekNonSpace() throws IOException {
+        while (Character.isWhitespace(peek())) read();
+        return peek();
+    }
+
+    private int readNonSpace() throws IOException {
+        peekNonSpace();
+        return read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) peeked = in.read();
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    private static IOException syntaxError(String expected, int found) {
+        return new IOException("Risposta JSON non valida: atteso " + expected
+                + (found == -1 ? ", fine del testo" : ", trovato '" + (char) found + "'"));
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.tabler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Live check of camera frames for the capture screen: where the page is and whether its staff
+ * lines are sharp, on the luminance (Y) plane exactly as the camera delivers it.
+ * <p>
+ * The frame is averaged down to a grid of at most {@link #GRID} cells on the long edge. The page
+ * is the bright region (Otsu threshold) around the middle of the frame, and its corners are the
+ * extremes of x + y and x - y over that region. Sharpness is the mean squared vertical gradient
+ * inside the page on the full frame, relative to the page's brightness so that the exposure doesn't
+ * matter: staff lines are horizontal, so they are what this measures.
+ * <p>
+ * All buffers are allocated up front, and {@link #analyze} allocates nothing. Use one instance
+ * per analysis thread.
+ */
+final class PageDetector {
+
+    /** Long edge of the analysis grid. */
+    static final int GRID = 160;
+    /** Frames in a row with the corners within STEADY_TOLERANCE before auto-capture. */
+    static final int STEADY_FRAMES = 8;
+
+    /** What the user has to do next: find the page, hold still, wait for focus, or turn the page. */
+    static final int STATUS_NO_PAGE = 0;
+    static final int STATUS_MOVING = 1;
+    static final int STATUS_FOCUSING = 2;
+    static final int STATUS_READY = 3;
+    static final int STATUS_NEXT_PAGE = 4;
+
+    /** Smallest page worth capturing, as a fraction of the frame. */
+    private static final float MIN_AREA = 0.2f;
+    /** The bright region must fill this much of its quadrilateral: a page, not a lamp or a window. */
+    private static final float MIN_FILL = 0.7f;
+    /** Corner movement, as a fraction of the frame diagonal, still counted as steady. */
+    private static final float STEADY_TOLERANCE = 0.015f;
+    /** After a capture the page must go away or move this much before the next one (multi-page scan). */
+    private static final float REARM_DISTANCE = 0.15f;
+    /**
+     * Below this the page is out of focus whatever the peak: a sharp score is around 0.1, a few
+     * pixels of blur bring it under 0.01. The peak below tells when the autofocus has settled.
+     */
+    private static final float MIN_SHARPNESS = 0.005f;
+    /** Capture once sharpness is at least this fraction of the best seen while steady (autofocus settled). */
+    private static final float PEAK_FRACTION = 0.9f;
+    /** Rows and columns sampled for the sharpness, at most. */
+    private static final int SHARPNESS_SAMPLES = 256;
+
+    private final int[] cells = new int[GRID * GRID];
+    private final boolean[] filled = new boolean[GRID * GRID];
+    private final int[] stack = new int[GRID * GRID];
+    private final int[] histogram = new int[256];
+    private int gridWidth;
+    private int gridHeight;
+    private int step;
+
+    /** Corners in frame pixels: top-left, top-right, bottom-right, bottom-left of the unrotated frame. */
+    final float[] quad = new float[8];
+    private final float[] lastQuad = new float[8];
+    private final float[] capturedQuad = new float[8];
+    boolean found;
+    float sharpness;
+    int frameWidth;
+    int frameHeight;
+    private boolean lastFound;
+    private int steadyFrames;
+    private float peakSharpness;
+    private boolean armed = true;
+
+    /** Analyzes one frame; true if a page was found (then {@link #quad} holds its corners). */
+    boolean analyze(ByteBuffer luma, int rowStride, int width, int height) {
+        frameWidth = width;
+        frameHeight = height;
+        downsample(luma, rowStride, width, height);
+        found = findPage();
+        sharpness = found ? measureSharpness(luma, rowStride) : 0;
+        track();
+        return found;
+    }
+
+    int status() {
+        if (!armed) return STATUS_NEXT_PAGE;
+        if (!found) return STATUS_NO_PAGE;
+        if (steadyFrames < STEADY_FRAMES) return STATUS_MOVING;
+        if (sharpness < MIN_SHARPNESS || sharpness < PEAK_FRACTION * peakSharpness) return STATUS_FOCUSING;
+        return STATUS_READY;
+    }
+
+    /** Found, steady and in focus: time to capture. */
+    boolean isReady() {
+        return status() == STATUS_READY;
+    }
+
+    /** A frame was captured: no auto-capture until the page changes. */
+    void captured() {
+        armed = false;
+        System.arraycopy(quad, 0, capturedQuad, 0, 8);
+        steadyFrames = 0;
+        peakSharpness = 0;
+    }
+
+    /** Corners of the whole frame, for a manual capture with no page found. */
+    void fullFrame(float[] out) {
+        out[0] = 0;
+        out[1] = 0;
+        out[2] = frameWidth;
+        out[3] = 0;
+        out[4] = frameWidth;
+        out[5] = frameHeight;
+        out[6] = 0;
+        out[7] = frameHeight;
+    }
+
+    /** Each cell is the mean of four samples: cheap, and enough to smooth out print and noise. */
+    private void downsample(ByteBuffer luma, int rowStride, int width, int height) {
+        step = Math.max(1, (Math.max(width, height) + GRID - 1) / GRID);
+        gridWidth = Math.min(GRID, width / step);
+        gridHeight = Math.min(GRID, height / step);
+        int a = step / 4;
+        int b = step * 3 / 4;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row0 = (gy * step + a) * rowStride;
+            int row1 = (gy * step + b) * rowStride;
+            int out = gy * gridWidth;
+            for (int gx = 0; gx < gridWidth; gx++) {
+                int x0 = gx * step + a;
+                int x1 = gx * step + b;
+                cells[out + gx] = ((luma.get(row0 + x0) & 0xFF) + (luma.get(row0 + x1) & 0xFF)
+                        + (luma.get(row1 + x0) & 0xFF) + (luma.get(row1 + x1) & 0xFF)) >> 2;
+            }
+        }
+    }
+
+    private boolean findPage() {
+        int count = gridWidth * gridHeight;
+        if (count == 0) return false;
+        int threshold = otsu(count);
+        int seed = brightSeed(threshold);
+        if (seed < 0) return false;
+
+        // Flood fill (4-connected) of the bright region from the seed, tracking the corner extremes
+        for (int i = 0; i < count; i++) filled[i] = false;
+        int minSum = Integer.MAX_VALUE, maxSum = Integer.MIN_VALUE;
+        int minDiff = Integer.MAX_VALUE, maxDiff = Integer.MIN_VALUE;
+        int tl = seed, br = seed, tr = seed, bl = seed;
+        int area = 0;
+        int top = 0;
+        stack[top++] = seed;
+        filled[seed] = true;
+        while (top > 0) {
+            int cell = stack[--top];
+            int x = cell % gridWidth;
+            int y = cell / gridWidth;
+            area++;
+            int sum = x + y;
+            int diff = x - y;
+            if (sum < minSum) { minSum = sum; tl = cell; }
+            if (sum > maxSum) { maxSum = sum; br = cell; }
+            if (diff > maxDiff) { maxDiff = diff; tr = cell; }
+            if (diff < minDiff) { minDiff = diff; bl = cell; }
+            if (x > 0) top = push(cell - 1, threshold, top);
+            if (x < gridWidth - 1) top = push(cell + 1, threshold, top);
+            if (y > 0) top = push(cell - gridWidth, threshold, top);
+            if (y < gridHeight - 1) top = push(cell + gridWidth, threshold, top);
+        }
+
+        // Outer corner of each corner cell, in frame pixels
+        setCorner(0, tl, 0, 0);
+        setCorner(1, tr, 1, 0);
+        setCorner(2, br, 1, 1);
+        setCorner(3, bl, 0, 1);
+        float quadArea = quadArea() / ((float) step * step);
+        return quadArea >= MIN_AREA * count && area >= MIN_FILL * quadArea && isConvex();
+    }
+
+    private int push(int cell, int threshold, int top) {
+        if (!filled[cell] && cells[cell] > threshold) {
+            filled[cell] = true;
+            stack[top++] = cell;
+        }
+        return top;
+    }
+
+    /** Bright cell nearest to the middle of the frame, within its middle third; -1 if none. */
+    private int brightSeed(int threshold) {
+        int cx = gridWidth / 2;
+        int cy = gridHeight / 2;
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int y = gridHeight / 3; y < gridHeight * 2 / 3; y++) {
+            for (int x = gridWidth / 3; x < gridWidth * 2 / 3; x++) {
+                int cell = y * gridWidth + x;
+                if (cells[cell] <= threshold) continue;
+                int distance = (x - cx) * (x - cx) + (y - cy) * (y - cy);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = cell;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Threshold between paper and background maximizing the between-class variance. */
+    private int otsu(int count) {
+        for (int i = 0; i < 256; i++) histogram[i] = 0;
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            histogram[cells[i]]++;
+            total += cells[i];
+        }
+        long sumBelow = 0;
+        int below = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++) {
+            below += histogram[t];
+            if (below == 0) continue;
+            int above = count - below;
+            if (above == 0) break;
+            sumBelow += (long) t * histogram[t];
+            double meanBelow = sumBelow / (double) below;
+            double meanAbove = (total - sumBelow) / (double) above;
+            double variance = (double) below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    private void setCorner(int corner, int cell, int right, int bottom) {
+        quad[corner * 2] = Math.min(frameWidth, (cell % gridWidth + right) * step);
+        quad[corner * 2 + 1] = Math.min(frameHeight, (cell / gridWidth + bottom) * step);
+    }
+
+    /** Shoelace formula, in frame pixels². */
+    private float quadArea() {
+        float twice = 0;
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            twice += quad[i * 2] * quad[j * 2 + 1] - quad[j * 2] * quad[i * 2 + 1];
+        }
+        return Math.abs(twice) / 2;
+    }
+
+    private boolean isConvex() {
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            int k = (i + 2) % 4;
+            float cross = (quad[j * 2] - quad[i * 2]) * (quad[k * 2 + 1] - quad[j * 2 + 1])
+                    - (quad[j * 2 + 1] - quad[i * 2 + 1]) * (quad[k * 2] - quad[j * 2]);
+            // Clockwise on screen (y down): every turn has a positive cross product
+            if (cross <= 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Mean squared vertical gradient (two rows apart) over the middle of the page, divided by the
+     * squared mean brightness so that it doesn't change with the exposure.
+     */
+    private float measureSharpness(ByteBuffer luma, int rowStride) {
+        float left = Math.max(quad[0], quad[6]);
+        float right = Math.min(quad[2], quad[4]);
+        float top = Math.max(quad[1], quad[3]);
+        float bottom = Math.min(quad[5], quad[7]);
+        // Away from the edges of the sheet, which are gradients of their own
+        float insetX = (right - left) * 0.15f;
+        float insetY = (bottom - top) * 0.15f;
+        int x0 = (int) (left + insetX);
+        int x1 = (int) (right - insetX);
+        int y0 = Math.max(1, (int) (top + insetY));
+        int y1 = Math.min(frameHeight - 1, (int) (bottom - insetY));
+        if (x1 <= x0 || y1 <= y0) return 0;
+        int rowStep = Math.max(1, (y1 - y0) / SHARPNESS_SAMPLES);
+        int colStep = Math.max(1, (x1 - x0) / SHARPNESS_SAMPLES);
+        long gradient = 0;
+        long sum = 0;
+        int n = 0;
+        for (int y = y0; y < y1; y += rowStep) {
+            int row = y * rowStride;
+            for (int x = x0; x < x1; x += colStep) {
+                int value = luma.get(row + x) & 0xFF;
+                int g = (luma.get(row + rowStride + x) & 0xFF) - (luma.get(row - rowStride + x) & 0xFF);
+                gradient += g * g;
+                sum += value;
+                n++;
+            }
+        }
+        if (n == 0) return 0;
+        double mean = sum / (double) n + 1;
+        return (float) (gradient / (double) n / (mean * mean));
+    }
+
+    private void track() {
+        float tolerance = STEADY_TOLERANCE * diagonal();
+        if (found && lastFound && maxCornerDistance(quad, lastQuad) <= tolerance) {
+            steadyFrames++;
+            peakSharpness = Math.max(peakSharpness, sharpness);
+        } else {
+            steadyFrames = found ? 1 : 0;
+            peakSharpness = sharpness;
+        }
+        if (!armed && (!found || maxCornerDistance(quad, capturedQuad) > REARM_DISTANCE * diagonal())) {
+            armed = true;
+        }
+        lastFound = found;
+        System.arraycopy(quad, 0, lastQuad, 0, 8);
+    }
+
+    private float diagonal() {
+        return (float) Math.sqrt((double) frameWidth * frameWidth + (double) frameHeight * frameHeight);
+    }
+
+    private static float maxCornerDistance(float[] a, float[] b) {
+        float max = 0;
+        for (int i = 0; i < 8; i += 2) {
+            float dx = a[i] - b[i];
+            float dy = a[i + 1] - b[i + 1];
+            max = Math.max(max, (float) Math.sqrt(dx * dx + dy * dy));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.tabler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** String and fret choices on the guitar: notes off the neck, stretches, chunk joins and empty measures. */
+public class FingeringSolverTest {
+
+    private static final Instrument GUITAR = Instrument.GUITAR;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    /** Written pitch of a sounding one: the score is an octave above the guitar. */
+    private static int written(int sounding) {
+        return sounding - Instrument.NOTATION_OFFSET;
+    }
+
+    /** Notes as MusicXmlReader stores them: measures of slices of written pitches, highest first. */
+    private static MusicXmlReader.Notes score(int[][]... measures) {
+        MusicXmlReader.Notes notes = new MusicXmlReader.Notes();
+        int slices = 0, count = 0;
+        for (int[][] measure : measures) {
+            slices += measure.length;
+            for (int[] slice : measure) count += slice.length;
+        }
+        notes.measureFirstSlice = new int[measures.length + 1];
+        notes.measureTicks = new int[measures.length];
+        notes.sliceOnset = new int[slices];
+        notes.sliceTicks = new int[slices];
+        notes.sliceFirstNote = new int[slices + 1];
+        notes.notePitch = new int[count];
+        for (int[][] measure : measures) {
+            notes.measureFirstSlice[notes.measureCount] = notes.sliceCount;
+            notes.measureTicks[notes.measureCount++] = MusicXmlReader.TICKS_PER_QUARTER * 4;
+            for (int i = 0; i < measure.length; i++) {
+                notes.sliceOnset[notes.sliceCount] = i * MusicXmlReader.TICKS_PER_QUARTER;
+                notes.sliceTicks[notes.sliceCount] = MusicXmlReader.TICKS_PER_QUARTER;
+                notes.sliceFirstNote[notes.sliceCount++] = notes.noteCount;
+                for (int pitch : measure[i]) notes.notePitch[notes.noteCount++] = pitch;
+            }
+        }
+        notes.measureFirstSlice[notes.measureCount] = notes.sliceCount;
+        notes.sliceFirstNote[notes.sliceCount] = notes.noteCount;
+        return notes;
+    }
+
+    /** A measure of single sounding notes, one per slice. */
+    private static int[][] melody(int... sounding) {
+        int[][] slices = new int[sounding.length][];
+        for (int i = 0; i < sounding.length; i++) slices[i] = new int[]{written(sounding[i])};
+        return slices;
+    }
+
+    private FingeringSolver.Fingering solve(MusicXmlReader.Notes notes) throws InterruptedIOException {
+        return FingeringSolver.solve(notes, GUITAR, executor);
+    }
+
+    /** The note sounds the folded pitch on the string and fret chosen. */
+    private static void assertPlays(int sounding, FingeringSolver.Fingering fingering, int note) {
+        int string = fingering.string[note], fret = fingering.fret[note];
+        assertTrue("note " + note + " not placed", string >= 0);
+        assertTrue("fret " + fret, fret >= 0 && fret <= GUITAR.frets);
+        assertEquals(sounding, GUITAR.openPitch[string] + fret);
+    }
+
+    private static void assertDropped(FingeringSolver.Fingering fingering, int note) {
+        assertEquals(-1, fingering.string[note]);
+        assertEquals(-1, fingering.fret[note]);
+    }
+
+    @Test
+    public void noteAboveTheNeckIsFoldedDown() throws InterruptedIOException {
+        // Two octaves above the 22nd fret of the high e
+        FingeringSolver.Fingering fingering = solve(score(melody(86 + 24)));
+        assertPlays(86, fingering, 0);
+        assertEquals(0, fingering.string[0]);
+    }
+
+    @Test
+    public void highNotesSharingTheOnlyStringDropTheLowest() throws InterruptedIOException {
+        // 86 and 85 are both out of reach of the B string: only one of them can be played
+        FingeringSolver.Fingering fingering = solve(score(new int[][]{{written(86), written(85)}}));
+        assertPlays(86, fingering, 0);
+        assertDropped(fingering, 1);
+    }
+
+    @Test
+    public void chordWiderThanMaxSpanDropsTheLowest() throws InterruptedIOException {
+        // F on the low E (1st fret only) with frets 17-22 above: no hand can hold all three
+        FingeringSolver.Fingering fingering = solve(score(new int[][]{{written(86), written(81), written(41)}}));
+        assertPlays(86, fingering, 0);
+        assertPlays(81, fingering, 1);
+        assertDropped(fingering, 2);
+    }
+
+    @Test
+    public void chordWithinMaxSpanIsKept() throws InterruptedIOException {
+        // Open A major: A, E, A, C#
+        int[] chord = {61, 57, 52, 45};
+        int[] pitches = new int[chord.length];
+        for (int i = 0; i < chord.length; i++) pitches[i] = written(chord[i]);
+        FingeringSolver.Fingering fingering = solve(score(new int[][]{pitches}));
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < chord.length; i++) {
+            assertPlays(chord[i], fingering, i);
+            int fret = fingering.fret[i];
+            if (fret > 0) {
+                min = Math.min(min, fret);
+                max = Math.max(max, fret);
+            }
+        }
+        assertTrue(max - min <= FingeringSolver.MAX_SPAN);
+    }
+
+    @Test
+    public void chunkStartFollowsThePreviousChunksHand() throws InterruptedIOException {
+        // The last measure of the first chunk leaves the hand at the 22nd fret; F4 starts the second
+        int[][][] measures = new int[FingeringSolver.CHUNK_MEASURES + 1][][];
+        for (int i = 0; i < FingeringSolver.CHUNK_MEASURES; i++) measures[i] = melody(86);
+        measures[FingeringSolver.CHUNK_MEASURES] = melody(65);
+        FingeringSolver.Fingering fingering = solve(score(measures));
+        for (int i = 0; i < FingeringSolver.CHUNK_MEASURES; i++) {
+            assertPlays(86, fingering, i);
+        }
+        int first = FingeringSolver.CHUNK_MEASURES;
+        assertPlays(65, fingering, first);
+        // 20th fret on the A string, not the 1st fret a chunk solved on its own would pick
+        assertEquals(4, fingering.string[first]);
+        assertEquals(20, fingering.fret[first]);
+    }
+
+    @Test
+    public void chunkWithoutNotesLeavesTheOthersAlone() throws InterruptedIOException {
+        int[][][] measures = new int[FingeringSolver.CHUNK_MEASURES + 3][][];
+        for (int i = 0; i < measures.length; i++) measures[i] = i == 0 ? melody(65, 67) : melody();
+        FingeringSolver.Fingering fingering = solve(score(measures));
+        assertEquals(2, fingering.string.length);
+        assertPlays(65, fingering, 0);
+        assertPlays(67, fingering, 1);
+    }
+
+    @Test
+    public void emptyMeasureKeepsTheHandWhereItWas() throws InterruptedIOException {
+        FingeringSolver.Fingering fingering = solve(score(melody(86), melody(), melody(65)));
+        assertPlays(86, fingering, 0);
+        assertPlays(65, fingering, 1);
+        assertEquals(20, fingering.fret[1]);
+    }
+
+    @Test
+    public void scoreWithoutNotes() throws InterruptedIOException {
+        assertEquals(0, solve(score(melody(), melody())).string.length);
+        assertEquals(0, solve(score()).string.length);
+    }
+}
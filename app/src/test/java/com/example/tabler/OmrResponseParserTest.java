@@ -0,0 +1,148 @@
+package com.example.tabler;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Output of the streaming /omr response parser: escapes, unknown fields and broken input. */
+public class OmrResponseParserTest {
+
+    private final StringWriter musicXml = new StringWriter();
+
+    private OmrResponseParser.Result parse(String json) throws IOException {
+        return OmrResponseParser.parse(new StringReader(json), musicXml);
+    }
+
+    private void assertInvalid(String json) {
+        try {
+            parse(json);
+            fail("Accepted invalid JSON: " + json);
+        } catch (IOException expected) {
+            // Broken responses surface as an error, never as a partial result
+        }
+    }
+
+    @Test
+    public void plainResponse() throws IOException {
+        OmrResponseParser.Result result = parse(
+                "{\"musicXml\": \"<score-partwise/>\", \"recognized\": true, \"musicXmlExtracted\": true,"
+                        + " \"cached\": false, \"note\": \"ok\"}");
+        assertEquals("<score-partwise/>", musicXml.toString());
+        assertTrue(result.hasMusicXml);
+        assertEquals(17, result.musicXmlLength);
+        assertEquals("<score-partwise/>", result.musicXmlHead);
+        assertTrue(result.recognized);
+        assertTrue(result.musicXmlExtracted);
+        assertFalse(result.cached);
+        assertEquals("ok", result.note);
+        assertNull(result.error);
+    }
+
+    @Test
+    public void unicodeEscapes() throws IOException {
+        OmrResponseParser.Result result = parse(
+                "{\"musicXml\": \"<work-title>Caf\\u00e9 \\u00C8 \\u266d</work-title>\"}");
+        assertEquals("<work-title>Café È ♭</work-title>", musicXml.toString());
+        assertEquals(musicXml.toString(), result.musicXmlHead);
+    }
+
+    @Test
+    public void surrogatePairs() throws IOException {
+        // U+1D11E MUSICAL SYMBOL G CLEF, escaped as a UTF-16 surrogate pair
+        OmrResponseParser.Result result = parse("{\"musicXml\": \"<clef>\\ud834\\udd1e</clef>\", \"note\": \"\\uD83C\\uDFB5\"}");
+        assertEquals("<clef>\uD834\uDD1E</clef>", musicXml.toString());
+        assertEquals("<clef>".length() + 2 + "</clef>".length(), result.musicXmlLength);
+        assertEquals("\uD83C\uDFB5", result.note);
+        assertEquals(0x1F3B5, result.note.codePointAt(0));
+    }
+
+    @Test
+    public void rawNonAsciiPassesThrough() throws IOException {
+        parse("{\"musicXml\": \"<words>Allegro ma non troppo – più mosso</words>\"}");
+        assertEquals("<words>Allegro ma non troppo – più mosso</words>", musicXml.toString());
+    }
+
+    @Test
+    public void escapedQuotesAndBackslashes() throws IOException {
+        OmrResponseParser.Result result = parse(
+                "{\"musicXml\": \"<?xml version=\\\"1.0\\\"?>\\n<path>C:\\\\spartiti\\\\a.xml<\\/path>\\t\\r\\b\\f\","
+                        + " \"note\": \"\\\"citato\\\" \\\\\"}");
+        assertEquals("<?xml version=\"1.0\"?>\n<path>C:\\spartiti\\a.xml</path>\t\r\b\f", musicXml.toString());
+        assertEquals("\"citato\" \\", result.note);
+    }
+
+    @Test
+    public void unknownFieldsBeforeAndAfterMusicXml() throws IOException {
+        OmrResponseParser.Result result = parse("{"
+                + "\"jobId\": \"abc\", \"pages\": 3, \"timings\": {\"audiveris\": 12.5, \"stages\": [1, -2e3, null,"
+                + " {\"nested\": \"a \\\"}\\\" b\"}, [], {}]},"
+                + "\"musicXml\": \"<a/>\","
+                + "\"pagesRecognized\": 2, \"flags\": [true, false], \"extra\": \"\\u007d\","
+                + "\"recognized\": true}");
+        assertEquals("<a/>", musicXml.toString());
+        assertTrue(result.recognized);
+    }
+
+    @Test
+    public void missingOrNullMusicXml() throws IOException {
+        OmrResponseParser.Result result = parse("{\"musicXml\": null, \"recognized\": false, \"error\": \"Audiveris errore\"}");
+        assertFalse(result.hasMusicXml);
+        assertEquals("", musicXml.toString());
+        assertFalse(result.recognized);
+        assertEquals("Audiveris errore", result.error);
+
+        result = parse("{ }");
+        assertFalse(result.hasMusicXml);
+        assertFalse(result.recognized);
+    }
+
+    @Test
+    public void nonStringFieldsOfTheWrongType() throws IOException {
+        OmrResponseParser.Result result = parse("{\"recognized\": \"yes\", \"note\": 42, \"cached\": null}");
+        assertFalse(result.recognized);
+        assertNull(result.note);
+        assertFalse(result.cached);
+    }
+
+    @Test
+    public void headIsCappedButLengthIsComplete() throws IOException {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 1000; i++) xml.append("<measure/>");
+        OmrResponseParser.Result result = parse("{\"musicXml\": \"" + xml + "\"}");
+        assertEquals(xml.toString(), musicXml.toString());
+        assertEquals(xml.length(), result.musicXmlLength);
+        assertEquals(256, result.musicXmlHead.length());
+        assertTrue(xml.toString().startsWith(result.musicXmlHead));
+    }
+
+    @Test
+    public void truncatedInput() {
+        assertInvalid("");
+        assertInvalid("{");
+        assertInvalid("{\"musicXml\": \"<score-part");
+        assertInvalid("{\"musicXml\": \"<a/>\\");
+        assertInvalid("{\"musicXml\": \"\\u00");
+        assertInvalid("{\"musicXml\": \"<a/>\"");
+        assertInvalid("{\"musicXml\": \"<a/>\",");
+        assertInvalid("{\"recognized\": true");
+        assertInvalid("{\"timings\": {\"a\": [1, 2");
+        assertInvalid("{\"timings\": [");
+    }
+
+    @Test
+    public void malformedInput() {
+        assertInvalid("[]");
+        assertInvalid("{\"musicXml\" \"<a/>\"}");
+        assertInvalid("{\"musicXml\": \"\\q\"}");
+        assertInvalid("{\"musicXml\": \"\\u12G4\"}");
+        assertInvalid("{\"a\": 1 \"b\": 2}");
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.tabler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Names of the stored page copies, which tell OmrWorker whether a page still needs preprocessing. */
+public class SpartitoRepositoryTest {
+
+    private static final String ID = "0b8e6c0e-3f7a-4d55-9a43-2f1f3c7d9e10";
+
+    @Test
+    public void cameraCaptureKeepsProcessedMarker() {
+        String stored = SpartitoRepository.pageFileName(ID, "image/png", true);
+        assertEquals("omr_" + ID + ".png", stored);
+        assertTrue(ImagePreprocessor.isProcessedName(stored));
+    }
+
+    @Test
+    public void importedPhotoIsProcessedByWorker() {
+        assertEquals(ID + ".jpg", SpartitoRepository.pageFileName(ID, "image/jpeg", false));
+        assertEquals(ID + ".png", SpartitoRepository.pageFileName(ID, "image/png", false));
+        assertFalse(ImagePreprocessor.isProcessedName(SpartitoRepository.pageFileName(ID, "image/png", false)));
+        assertFalse(ImagePreprocessor.isProcessedName(SpartitoRepository.pageFileName(ID, null, false)));
+    }
+
+    @Test
+    public void pdfKeepsExtension() {
+        String stored = SpartitoRepository.pageFileName(ID, "application/pdf", false);
+        assertEquals(ID + ".pdf", stored);
+        assertFalse(ImagePreprocessor.isProcessedName(stored));
+    }
+
+    @Test
+    public void onlyPreprocessorPngsAreProcessed() {
+        assertTrue(ImagePreprocessor.isProcessedName(ImagePreprocessor.processedName(ID)));
+        assertFalse(ImagePreprocessor.isProcessedName("omr_" + ID + ".jpg"));
+        assertFalse(ImagePreprocessor.isProcessedName("spartito_123.png"));
+        assertFalse(ImagePreprocessor.isProcessedName(null));
+    }
+}
@@ -0,0 +1,266 @@
+"""
+Pool di worker Audiveris persistenti (JVM calde) per omr_server.py.
+
+Ogni worker è un processo `worker/AudiverisWorker` che riceve un job per riga su stdin
+(argomenti CLI separati da TAB) e risponde "@@OMR <exit>\t<errore>" su stdout.
+I worker vengono riciclati dopo AUDIVERIS_WORKER_MAX_JOBS job, se la RSS supera
+AUDIVERIS_WORKER_MAX_RSS_MB, dopo un timeout o se il processo termina da solo.
+"""
+import collections
+import os
+import queue
+import re
+import shlex
+import subprocess
+import threading
+
+from omr_metrics import stage
+
+REPLY_PREFIX = "@@OMR "
+
+
+class WorkerTimeout(Exception):
+    pass
+
+
+class WorkerFailed(Exception):
+    """Il worker ha terminato il job con exit != 0 (o è morto): message = dettaglio per il client."""
+
+    def __init__(self, message: str, exit_code: int | None = None):
+        super().__init__(message)
+        self.exit_code = exit_code
+
+
+def _parse_mb(java_opts: str, flag: str, default: int) -> int:
+    match = re.search(re.escape(flag) + r"(\d+)([kKmMgG]?)", java_opts or "")
+    if not match:
+        return default
+    value, unit = int(match.group(1)), match.group(2).lower()
+    if unit == "g":
+        return value * 1024
+    if unit == "k":
+        return max(1, value // 1024)
+    if unit == "":
+        return max(1, value // (1024 * 1024))
+    return value
+
+
+def worker_memory_mb(java_opts: str) -> int:
+    """Memoria di una JVM Audiveris: heap, metaspace e circa 96 MB di overhead nativo."""
+    return _parse_mb(java_opts, "-Xmx", 256) + _parse_mb(java_opts, "-XX:MaxMetaspaceSize=", 64) + 96
+
+
+def default_pool_size(java_opts: str) -> int:
+    """
+    Quanti worker stanno nel budget di memoria del container (OMR_MEMORY_MB, default 512),
+    senza superare le CPU disponibili (Audiveris è CPU-bound: di più allungherebbe ogni job).
+    """
+    budget = int(os.environ.get("OMR_MEMORY_MB", "512"))
+    reserve = int(os.environ.get("OMR_RESERVED_MB", "160"))  # Python/gunicorn + margine
+    by_memory = (budget - reserve) // worker_memory_mb(java_opts)
+    cpus = len(os.sched_getaffinity(0)) if hasattr(os, "sched_getaffinity") else (os.cpu_count() or 1)
+    return max(1, min(by_memory, cpus))
+
+
+def _rss_mb(pid: int, field: str = "VmRSS:") -> int:
+    """RSS attuale del processo; con field="VmHWM:" il picco raggiunto finora."""
+    try:
+        with open(f"/proc/{pid}/status") as f:
+            for line in f:
+                if line.startswith(field):
+                    return int(line.split()[1]) // 1024
+    except (OSError, ValueError):
+        pass
+    return 0
+
+
+class _Worker:
+    def __init__(self, cmd: list[str], env: dict):
+        self.jobs = 0
+        self.proc = subprocess.Popen(
+            cmd, env=env, stdin=subprocess.PIPE, stdout=subprocess.PIPE, stderr=subprocess.PIPE,
+            text=True, encoding="utf-8", errors="replace", bufsize=1,
+        )
+        self.replies: queue.Queue = queue.Queue()
+        self.stderr_tail = collections.deque(maxlen=20)
+        threading.Thread(target=self._read_stdout, daemon=True).start()
+        threading.Thread(target=self._read_stderr, daemon=True).start()
+
+    def _read_stdout(self):
+        for line in self.proc.stdout:
+            if line.startswith(REPLY_PREFIX):
+                self.replies.put(line[len(REPLY_PREFIX):].rstrip("\n"))
+        self.replies.put(None)  # EOF: processo terminato
+
+    def _read_stderr(self):
+        for line in self.proc.stderr:
+            self.stderr_tail.append(line.rstrip("\n"))
+
+    def alive(self) -> bool:
+        return self.proc.poll() is None
+
+    def wait_ready(self, timeout: float):
+        reply = self.replies.get(timeout=timeout)
+        if reply != "READY":
+            raise WorkerFailed(self.tail() or "Worker Audiveris non avviato.")
+
+    def tail(self, lines: int = 3) -> str:
+        return "\n".join(list(self.stderr_tail)[-lines:]).strip()
+
+    def kill(self):
+        if self.alive():
+            self.proc.kill()
+        try:
+            self.proc.wait(timeout=5)
+        except subprocess.TimeoutExpired:
+            pass
+
+
+class AudiverisPool:
+    def __init__(self, cmd: list[str], env: dict, size: int, max_jobs: int, max_rss_mb: int,
+                 startup_timeout: float = 60):
+        self.cmd = cmd
+        self.env = env
+        self.size = size
+        self.max_jobs = max_jobs
+        self.max_rss_mb = max_rss_mb
+        self.startup_timeout = startup_timeout
+        self._cond = threading.Condition()
+        self._idle: collections.deque[_Worker] = collections.deque()
+        # Worker vivi: liberi, occupati o in avvio. Mai più di `size`: ognuno è una JVM intera
+        self._live = 0
+        self._slots = threading.Semaphore(size)
+        # Picco di RSS dei worker (VmHWM dopo ogni job), per /metrics
+        self.peak_rss_mb = 0
+
+    @property
+    def live(self) -> int:
+        with self._cond:
+            return self._live
+
+    def prewarm(self):
+        """Avvia i worker in background così la prima richiesta non paga l'avvio della JVM."""
+        def start():
+            while self._reserve():
+                try:
+                    worker = self._spawn()
+                except Exception:
+                    self._forget()
+                    return
+                with self._cond:
+                    self._idle.append(worker)
+                    self._cond.notify()
+        threading.Thread(target=start, daemon=True).start()
+
+    def _reserve(self) -> bool:
+        """Prenota un posto per un nuovo worker se il pool non è al completo."""
+        with self._cond:
+            if self._live >= self.size:
+                return False
+            self._live += 1
+            return True
+
+    def _forget(self, worker: _Worker | None = None):
+        """Un worker (o la sua prenotazione) non c'è più: libera il posto per chi aspetta."""
+        if worker is not None:
+            worker.kill()
+        with self._cond:
+            self._live -= 1
+            self._cond.notify()
+
+    def _spawn(self) -> _Worker:
+        worker = _Worker(self.cmd, self.env)
+        try:
+            worker.wait_ready(self.startup_timeout)
+        except (queue.Empty, WorkerFailed):
+            worker.kill()
+            raise WorkerFailed(worker.tail() or "Worker Audiveris non avviato.")
+        return worker
+
+    def _acquire(self) -> _Worker:
+        while True:
+            with self._cond:
+                # Se il pool è al completo si aspetta un worker libero (anche quello che prewarm
+                # sta avviando) invece di avviarne un altro
+                while not self._idle and self._live >= self.size:
+                    self._cond.wait()
+                worker = self._idle.popleft() if self._idle else None
+                if worker is None:
+                    self._live += 1
+            if worker is None:
+                # Nessun worker caldo: la richiesta paga l'avvio della JVM
+                try:
+                    with stage("jvm_start"):
+                        return self._spawn()
+                except Exception:
+                    self._forget()
+                    raise
+            if worker.alive():
+                return worker
+            self._forget(worker)
+
+    def _release(self, worker: _Worker):
+        self.peak_rss_mb = max(self.peak_rss_mb, _rss_mb(worker.proc.pid, "VmHWM:"))
+        recycle = (not worker.alive()
+                   or worker.jobs >= self.max_jobs
+                   or (self.max_rss_mb and _rss_mb(worker.proc.pid) > self.max_rss_mb))
+        if recycle:
+            self._forget(worker)
+        else:
+            with self._cond:
+                self._idle.append(worker)
+                self._cond.notify()
+
+    def run(self, args: list[str], timeout: float):
+        """
+        Esegue un job Audiveris su un worker caldo. Solleva FileNotFoundError se il comando
+        non esiste, WorkerTimeout dopo `timeout` secondi, WorkerFailed se il job fallisce
+        (il worker viene scartato e il prossimo job parte su una JVM nuova).
+        Restituisce le ultime righe di stderr del worker.
+        """
+        with self._slots:
+            worker = self._acquire()
+            try:
+                worker.proc.stdin.write("\t".join(args) + "\n")
+                worker.proc.stdin.flush()
+                try:
+                    reply = worker.replies.get(timeout=timeout)
+                except queue.Empty:
+                    worker.kill()
+                    raise WorkerTimeout()
+                worker.jobs += 1
+                if reply is None:
+                    # Audiveris ha chiuso la JVM (System.exit): l'esito dipende dal codice di uscita
+                    code = worker.proc.wait()
+                    if code != 0:
+                        raise WorkerFailed(worker.tail(5) or f"exit {code}", code)
+                    return worker.tail()
+                exit_code, _, error = reply.partition("\t")
+                if exit_code != "0":
+                    code = int(exit_code) if exit_code.lstrip("-").isdigit() else None
+                    raise WorkerFailed(error or worker.tail(5) or f"exit {exit_code}", code)
+                return worker.tail()
+            except WorkerFailed:
+                # Dopo un job fallito la JVM non viene riusata: lo stato di Audiveris potrebbe essere sporco
+                worker.kill()
+                raise
+            except BrokenPipeError:
+                worker.kill()
+                raise WorkerFailed(worker.tail(5) or "Worker Audiveris terminato.")
+            finally:
+                self._release(worker)
+
+
+def pool_from_env(java_opts: str) -> AudiverisPool | None:
+    """Pool configurato da AUDIVERIS_WORKER_CMD; None se non impostato (un processo per richiesta)."""
+    cmd = os.environ.get("AUDIVERIS_WORKER_CMD", "").strip()
+    if not cmd:
+        return None
+    size = int(os.environ.get("AUDIVERIS_POOL_SIZE", "0")) or default_pool_size(java_opts)
+    return AudiverisPool(
+        shlex.split(cmd),
+        env={**os.environ, "JAVA_TOOL_OPTIONS": java_opts},
+        size=size,
+        max_jobs=int(os.environ.get("AUDIVERIS_WORKER_MAX_JOBS", "50")),
+        max_rss_mb=int(os.environ.get("AUDIVERIS_WORKER_MAX_RSS_MB", "0")) or (_parse_mb(java_opts, "-Xmx", 256) * 2),
+    )
@@ -0,0 +1,161 @@
+#!/usr/bin/env python3
+"""
+Finto Audiveris per i test di carico: stessa riga di comando e stesso protocollo del pool,
+risultato MusicXML sintetico dopo un ritardo e con un'occupazione di memoria configurabili.
+
+    AUDIVERIS_CMD=loadtest/audiveris_stub.py                          (un processo per richiesta)
+    AUDIVERIS_WORKER_CMD="python3 loadtest/audiveris_stub.py --worker" (pool di worker)
+
+Deterministico: ritardo, dimensione dell'output ed eventuale errore dipendono solo dai byte
+dell'input, così due run con gli stessi upload fanno lo stesso lavoro.
+
+Variabili d'ambiente:
+- STUB_DELAY_MS: durata di un riconoscimento (default 2000).
+- STUB_JITTER_MS: variazione massima, ± sul ritardo, derivata dall'input (default 500).
+- STUB_CPU: 1 = il ritardo è calcolo (come Audiveris, CPU-bound), 0 = sleep (default 1).
+- STUB_STARTUP_MS: avvio del processo, come quello della JVM (default 1500; col pool una volta
+  sola, prima di READY).
+- STUB_MEMORY_MB: memoria occupata durante il riconoscimento; il worker la trattiene tra un job
+  e l'altro, come l'heap di una JVM (default 200).
+- STUB_OUTPUT_KB: dimensione del MusicXML prodotto (default 100).
+- STUB_FORMAT: mxl o xml (default mxl).
+- STUB_FAIL_PERCENT: percentuale di input su cui fallisce con exit 1 (default 0).
+"""
+import hashlib
+import os
+import sys
+import time
+import zipfile
+
+REPLY_PREFIX = "@@OMR "
+PAGE_SIZE = 4096
+
+# Memoria trattenuta dal worker tra un job e l'altro
+_retained = bytearray()
+
+
+def _env_int(name: str, default: int) -> int:
+    return int(os.environ.get(name, str(default)))
+
+
+def _digest(path: str) -> bytes:
+    h = hashlib.sha256()
+    with open(path, "rb") as f:
+        for chunk in iter(lambda: f.read(1 << 20), b""):
+            h.update(chunk)
+    return h.digest()
+
+
+def _busy(seconds: float, cpu: bool):
+    if not cpu:
+        time.sleep(seconds)
+        return
+    end = time.perf_counter() + seconds
+    x = 0
+    while time.perf_counter() < end:
+        for i in range(10_000):
+            x = (x * 31 + i) & 0xFFFFFFFF
+
+
+def _occupy(mb: int, worker: bool) -> bytearray:
+    """Alloca e tocca mb MB (ogni pagina scritta, così conta nella RSS)."""
+    global _retained
+    size = mb * 1024 * 1024
+    if worker and len(_retained) >= size:
+        return _retained
+    block = bytearray(size)
+    for offset in range(0, size, PAGE_SIZE):
+        block[offset] = 1
+    if worker:
+        _retained = block
+    return block
+
+
+def _score(size_kb: int, seed: int) -> str:
+    steps = "CDEFGAB"
+    measures = []
+    length = 0
+    number = 1
+    while length < size_kb * 1024:
+        notes = "".join(
+            f"<note><pitch><step>{steps[(seed + number + n) % 7]}</step><octave>4</octave></pitch>"
+            f"<duration>1</duration><type>quarter</type></note>"
+            for n in range(4))
+        measure = f'<measure number="{number}">{notes}</measure>\n'
+        measures.append(measure)
+        length += len(measure)
+        number += 1
+    return ('<?xml version="1.0" encoding="UTF-8"?>\n'
+            '<score-partwise version="4.0"><part-list><score-part id="P1"><part-name>Stub</part-name>'
+            '</score-part></part-list>\n<part id="P1">\n'
+            + "".join(measures) + "</part></score-partwise>\n")
+
+
+def _write_output(output_dir: str, base: str, xml: str, fmt: str):
+    os.makedirs(output_dir, exist_ok=True)
+    if fmt == "xml":
+        with open(os.path.join(output_dir, base + ".xml"), "w", encoding="utf-8") as f:
+            f.write(xml)
+        return
+    with zipfile.ZipFile(os.path.join(output_dir, base + ".mxl"), "w", zipfile.ZIP_DEFLATED) as z:
+        z.writestr("META-INF/container.xml",
+                   '<?xml version="1.0" encoding="UTF-8"?><container><rootfiles>'
+                   f'<rootfile full-path="{base}.xml"/></rootfiles></container>')
+        z.writestr(base + ".xml", xml)
+
+
+def recognize(args: list[str], worker: bool = False) -> tuple[int, str]:
+    """Esegue un "riconoscimento" con gli argomenti CLI di Audiveris; restituisce (exit, errore)."""
+    if "-output" not in args or len(args) < 2:
+        return 2, "uso: -batch -transcribe -export -output <dir> <input>"
+    output_dir = args[args.index("-output") + 1]
+    input_path = args[-1]
+    if not os.path.isfile(input_path):
+        return 1, f"input non trovato: {input_path}"
+
+    digest = _digest(input_path)
+    seed = int.from_bytes(digest[:4], "big")
+    delay_ms = _env_int("STUB_DELAY_MS", 2000)
+    jitter_ms = _env_int("STUB_JITTER_MS", 500)
+    if jitter_ms > 0:
+        delay_ms += seed % (2 * jitter_ms + 1) - jitter_ms
+    block = _occupy(_env_int("STUB_MEMORY_MB", 200), worker)
+    _busy(max(0, delay_ms) / 1000, os.environ.get("STUB_CPU", "1") != "0")
+    del block
+
+    if digest[4] * 100 < _env_int("STUB_FAIL_PERCENT", 0) * 256:
+        return 1, "errore simulato dallo stub"
+    base = os.path.splitext(os.path.basename(input_path))[0]
+    _write_output(output_dir, base, _score(_env_int("STUB_OUTPUT_KB", 100), seed),
+                  os.environ.get("STUB_FORMAT", "mxl"))
+    return 0, ""
+
+
+def serve_worker():
+    """Protocollo di worker/AudiverisWorker.java: un job per riga (argomenti separati da TAB)."""
+    _busy(_env_int("STUB_STARTUP_MS", 1500) / 1000, cpu=False)
+    print(REPLY_PREFIX + "READY", flush=True)
+    for line in sys.stdin:
+        line = line.rstrip("\n")
+        if not line:
+            continue
+        try:
+            code, error = recognize(line.split("\t"), worker=True)
+        except Exception as e:
+            code, error = 1, str(e)
+        print(f"{REPLY_PREFIX}{code}\t{error}".replace("\n", " "), flush=True)
+
+
+def main() -> int:
+    if sys.argv[1:2] == ["--worker"]:
+        serve_worker()
+        return 0
+    _busy(_env_int("STUB_STARTUP_MS", 1500) / 1000, cpu=False)
+    code, error = recognize(sys.argv[1:])
+    if error:
+        print(error, file=sys.stderr)
+    return code
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,284 @@
+#!/usr/bin/env python3
+"""
+Test di carico per omr_server.py: upload concorrenti misti JPEG/PDF su /omr (o /omr/jobs),
+con throughput, latenze p50/p90/p99, esiti e memoria del server. Solo libreria standard.
+
+    python3 loadtest/loadtest.py --url http://127.0.0.1:18080 --concurrency 8 --requests 100 \\
+        --server-pid <pid di gunicorn> --json risultati.json
+
+Gli upload sono generati (JPEG casuali, PDF multi-pagina validi) e tutti diversi, tranne la
+frazione --repeat che ripete upload già inviati per misurare la cache. Con lo stesso --seed
+due run inviano gli stessi byte nello stesso ordine.
+"""
+import argparse
+import json
+import os
+import random
+import threading
+import time
+import urllib.error
+import urllib.request
+import uuid
+from concurrent.futures import ThreadPoolExecutor
+
+
+# --- upload sintetici -------------------------------------------------------------------------
+
+def make_jpeg(rng: random.Random, size_kb: int) -> bytes:
+    """SOI/APP0 JFIF, dati casuali, EOI: il server non decodifica l'immagine, lo stub nemmeno."""
+    header = bytes.fromhex("ffd8ffe000104a46494600010100000100010000")
+    body = rng.randbytes(max(0, size_kb * 1024 - len(header) - 2)).replace(b"\xff", b"\xfe")
+    return header + body + b"\xff\xd9"
+
+
+def make_pdf(rng: random.Random, pages: int, size_kb: int) -> bytes:
+    """PDF valido (divisibile da pypdf) con `pages` pagine, ognuna con un contenuto diverso."""
+    filler = max(0, size_kb * 1024 // pages - 64)
+    objects = ["<< /Type /Catalog /Pages 2 0 R >>",
+               "<< /Type /Pages /Kids [" + " ".join(f"{3 + 2 * i} 0 R" for i in range(pages))
+               + f"] /Count {pages} >>"]
+    for i in range(pages):
+        noise = rng.randbytes(filler // 2).hex()
+        stream = f"% {noise}\n0 0 0 rg {10 + i} 10 200 20 re f\n"
+        objects.append(f"<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] /Contents {4 + 2 * i} 0 R >>")
+        objects.append(f"<< /Length {len(stream)} >>\nstream\n{stream}endstream")
+    out = bytearray(b"%PDF-1.4\n")
+    offsets = []
+    for number, obj in enumerate(objects, start=1):
+        offsets.append(len(out))
+        out += f"{number} 0 obj\n{obj}\nendobj\n".encode("ascii")
+    xref = len(out)
+    out += f"xref\n0 {len(objects) + 1}\n0000000000 65535 f \n".encode("ascii")
+    for offset in offsets:
+        out += f"{offset:010d} 00000 n \n".encode("ascii")
+    out += f"trailer\n<< /Size {len(objects) + 1} /Root 1 0 R >>\nstartxref\n{xref}\n%%EOF\n".encode("ascii")
+    return bytes(out)
+
+
+def build_uploads(args) -> list[tuple[str, bytes]]:
+    rng = random.Random(args.seed)
+    uploads = []
+    for i in range(args.requests):
+        if uploads and rng.random() < args.repeat:
+            uploads.append(rng.choice(uploads))
+        elif rng.random() < args.pdf_ratio:
+            uploads.append((f"scan-{i}.pdf", make_pdf(rng, args.pdf_pages, args.pdf_kb)))
+        else:
+            uploads.append((f"foto-{i}.jpg", make_jpeg(rng, args.jpeg_kb)))
+    return uploads
+
+
+def multipart(filename: str, data: bytes) -> tuple[bytes, str]:
+    boundary = uuid.uuid4().hex
+    mime = "application/pdf" if filename.endswith(".pdf") else "image/jpeg"
+    head = (f"--{boundary}\r\nContent-Disposition: form-data; name=\"image\"; filename=\"{filename}\"\r\n"
+            f"Content-Type: {mime}\r\n\r\n").encode("utf-8")
+    return head + data + f"\r\n--{boundary}--\r\n".encode("ascii"), f"multipart/form-data; boundary={boundary}"
+
+
+# --- richieste ---------------------------------------------------------------------------------
+
+def server_timing(header: str | None) -> dict[str, float]:
+    """"queue;dur=12.0, audiveris;dur=2000.1" -> {"queue": 12.0, "audiveris": 2000.1} (ms)."""
+    stages = {}
+    for part in (header or "").split(","):
+        name, _, params = part.strip().partition(";")
+        if params.startswith("dur="):
+            try:
+                stages[name] = float(params[4:])
+            except ValueError:
+                pass
+    return stages
+
+
+def _request(url: str, data: bytes | None = None, content_type: str | None = None, timeout: float = 600):
+    req = urllib.request.Request(url, data=data, method="POST" if data is not None else "GET")
+    if content_type:
+        req.add_header("Content-Type", content_type)
+    try:
+        with urllib.request.urlopen(req, timeout=timeout) as response:
+            return response.status, response.read(), response.headers
+    except urllib.error.HTTPError as e:
+        return e.code, e.read(), e.headers
+
+
+def run_one(base: str, endpoint: str, upload: tuple[str, bytes]) -> dict:
+    body, content_type = multipart(*upload)
+    start = time.perf_counter()
+    try:
+        if endpoint == "omr":
+            status, data, headers = _request(base + "/omr", body, content_type)
+        else:
+            status, data, headers = _request(base + "/omr/jobs", body, content_type)
+            if status in (200, 202):
+                job = json.loads(data)
+                while job["status"] not in ("done", "failed"):
+                    status, data, headers = _request(
+                        f"{base}/omr/jobs/{job['jobId']}?wait=30&version={job['version']}")
+                    if status != 200:
+                        break
+                    job = json.loads(data)
+                if job.get("status") == "done":
+                    status, data, headers = _request(f"{base}/omr/jobs/{job['jobId']}/result")
+                elif job.get("status") == "failed":
+                    status = 500
+    except (OSError, ValueError) as e:
+        return {"status": "error", "error": str(e), "latency": time.perf_counter() - start}
+    result = {"status": status, "latency": time.perf_counter() - start,
+              "stages": server_timing(headers.get("Server-Timing"))}
+    if status == 200:
+        try:
+            payload = json.loads(data)
+            result["recognized"] = bool(payload.get("recognized"))
+            result["cached"] = bool(payload.get("cached"))
+        except ValueError:
+            result["recognized"] = headers.get("X-OMR-Recognized") == "true"
+            result["cached"] = headers.get("X-OMR-Cached") == "true"
+    return result
+
+
+# --- memoria del server ------------------------------------------------------------------------
+
+def _children(pid: int) -> list[int]:
+    children = []
+    for entry in os.listdir("/proc"):
+        if not entry.isdigit():
+            continue
+        try:
+            with open(f"/proc/{entry}/stat") as f:
+                fields = f.read().rsplit(")", 1)[1].split()
+            if int(fields[1]) == pid:
+                children.append(int(entry))
+        except (OSError, IndexError, ValueError):
+            continue
+    return children
+
+
+def tree_rss_mb(pid: int) -> float:
+    """RSS del processo e di tutti i discendenti (worker gunicorn, Audiveris o stub)."""
+    total_kb = 0
+    pending = [pid]
+    while pending:
+        current = pending.pop()
+        try:
+            with open(f"/proc/{current}/status") as f:
+                for line in f:
+                    if line.startswith("VmRSS:"):
+                        total_kb += int(line.split()[1])
+                        break
+        except OSError:
+            continue
+        pending.extend(_children(current))
+    return total_kb / 1024
+
+
+class MemorySampler(threading.Thread):
+    def __init__(self, pid: int, interval: float = 0.2):
+        super().__init__(daemon=True)
+        self.pid = pid
+        self.interval = interval
+        self.samples: list[float] = []
+        self._done = threading.Event()
+
+    def run(self):
+        while not self._done.is_set():
+            self.samples.append(tree_rss_mb(self.pid))
+            self._done.wait(self.interval)
+
+    def stop(self):
+        self._done.set()
+        self.join()
+
+
+# --- report ------------------------------------------------------------------------------------
+
+def percentile(values: list[float], p: float) -> float:
+    """Nearest-rank."""
+    if not values:
+        return 0.0
+    ordered = sorted(values)
+    rank = max(1, -(-len(ordered) * p // 100))
+    return ordered[int(rank) - 1]
+
+
+def summarize(args, results: list[dict], elapsed: float, memory: list[float]) -> dict:
+    ok = [r for r in results if r["status"] == 200]
+    latencies = [r["latency"] * 1000 for r in ok]
+    statuses: dict[str, int] = {}
+    for r in results:
+        statuses[str(r["status"])] = statuses.get(str(r["status"]), 0) + 1
+    stage_means = {}
+    for name in sorted({name for r in ok for name in r["stages"]}):
+        values = [r["stages"][name] for r in ok if name in r["stages"]]
+        stage_means[name] = sum(values) / len(values)
+    return {
+        "label": args.label,
+        "endpoint": args.endpoint,
+        "concurrency": args.concurrency,
+        "requests": len(results),
+        "elapsedSeconds": round(elapsed, 3),
+        "throughputPerSecond": round(len(ok) / elapsed, 3) if elapsed else 0,
+        "statuses": statuses,
+        "recognized": sum(1 for r in ok if r.get("recognized")),
+        "cached": sum(1 for r in ok if r.get("cached")),
+        "latencyMs": {"p50": round(percentile(latencies, 50), 1), "p90": round(percentile(latencies, 90), 1),
+                      "p99": round(percentile(latencies, 99), 1), "max": round(max(latencies, default=0), 1)},
+        "serverTimingMeanMs": {k: round(v, 1) for k, v in stage_means.items()},
+        "serverRssMb": ({"peak": round(max(memory), 1), "mean": round(sum(memory) / len(memory), 1)}
+                        if memory else None),
+    }
+
+
+def print_report(summary: dict):
+    lat = summary["latencyMs"]
+    print(f"[{summary['label']}] {summary['requests']} richieste su /{summary['endpoint']}, "
+          f"concorrenza {summary['concurrency']}, {summary['elapsedSeconds']} s")
+    print(f"  throughput: {summary['throughputPerSecond']} riconoscimenti/s")
+    print(f"  latenza (200): p50 {lat['p50']} ms, p90 {lat['p90']} ms, p99 {lat['p99']} ms, max {lat['max']} ms")
+    print(f"  esiti: {summary['statuses']}, riconosciuti {summary['recognized']}, da cache {summary['cached']}")
+    if summary["serverTimingMeanMs"]:
+        stages = ", ".join(f"{k} {v}" for k, v in summary["serverTimingMeanMs"].items())
+        print(f"  fasi (media Server-Timing, ms): {stages}")
+    if summary["serverRssMb"]:
+        print(f"  RSS server: picco {summary['serverRssMb']['peak']} MB, media {summary['serverRssMb']['mean']} MB")
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.strip().splitlines()[0])
+    parser.add_argument("--url", default="http://127.0.0.1:18080")
+    parser.add_argument("--endpoint", choices=("omr", "jobs"), default="omr",
+                        help="omr = /omr sincrono, jobs = /omr/jobs + long-poll + /result come l'app")
+    parser.add_argument("--concurrency", type=int, default=8)
+    parser.add_argument("--requests", type=int, default=100)
+    parser.add_argument("--pdf-ratio", type=float, default=0.25, help="frazione di upload PDF (default 0.25)")
+    parser.add_argument("--pdf-pages", type=int, default=3)
+    parser.add_argument("--pdf-kb", type=int, default=600)
+    parser.add_argument("--jpeg-kb", type=int, default=400)
+    parser.add_argument("--repeat", type=float, default=0.0, help="frazione di upload ripetuti (cache)")
+    parser.add_argument("--seed", type=int, default=1)
+    parser.add_argument("--server-pid", type=int, help="PID del master gunicorn, per la memoria")
+    parser.add_argument("--label", default="run")
+    parser.add_argument("--json", help="aggiunge il riepilogo (una riga JSON) a questo file")
+    args = parser.parse_args()
+
+    base = args.url.rstrip("/")
+    uploads = build_uploads(args)
+    sampler = MemorySampler(args.server_pid) if args.server_pid else None
+    if sampler:
+        sampler.start()
+    start = time.perf_counter()
+    with ThreadPoolExecutor(max_workers=args.concurrency) as executor:
+        results = list(executor.map(lambda upload: run_one(base, args.endpoint, upload), uploads))
+    elapsed = time.perf_counter() - start
+    if sampler:
+        sampler.stop()
+
+    summary = summarize(args, results, elapsed, sampler.samples if sampler else [])
+    print_report(summary)
+    if args.json:
+        with open(args.json, "a", encoding="utf-8") as f:
+            f.write(json.dumps(summary) + "\n")
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,57 @@
+#!/usr/bin/env bash
+# Confronta modelli di worker gunicorn, pool Audiveris e cache con lo stub al posto di Audiveris.
+# Uso (dalla cartella backend, con flask, pypdf e gunicorn installati):
+#   loadtest/run_matrix.sh [risultati.jsonl]
+# Parametri del carico e dello stub dalle variabili d'ambiente (vedi "Test di carico" nel README).
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+OUT="${1:-loadtest-$(date +%Y%m%d-%H%M%S).jsonl}"
+PORT="${PORT:-18080}"
+REQUESTS="${REQUESTS:-100}"
+CONCURRENCY="${CONCURRENCY:-8}"
+STUB="$PWD/loadtest/audiveris_stub.py"
+
+# Stub al posto di Audiveris; memoria e CPU dichiarate al server come quelle della macchina
+export AUDIVERIS_CMD="$STUB"
+export OMR_MEMORY_MB="${OMR_MEMORY_MB:-4096}"
+export AUDIVERIS_POOL_SIZE="${AUDIVERIS_POOL_SIZE:-$(nproc)}"
+
+run() {
+    local label="$1" gunicorn_args="$2" pool="$3" cache_mb="$4" repeat="$5"
+    local cache_dir
+    cache_dir="$(mktemp -d)"
+    if [[ "$pool" == 1 ]]; then
+        export AUDIVERIS_WORKER_CMD="python3 $STUB --worker"
+    else
+        unset AUDIVERIS_WORKER_CMD
+    fi
+    OMR_CACHE_MAX_MB="$cache_mb" OMR_CACHE_DIR="$cache_dir" \
+        gunicorn $gunicorn_args -b "127.0.0.1:$PORT" --timeout 600 omr_server:app >"$cache_dir/gunicorn.log" 2>&1 &
+    local pid=$!
+    for _ in $(seq 1 100); do
+        curl -sf "http://127.0.0.1:$PORT/health" >/dev/null && break
+        sleep 0.2
+    done
+    # Col pool i worker si scaldano in background: non misurare il loro avvio
+    sleep "${WARMUP_SECONDS:-3}"
+    python3 loadtest/loadtest.py --url "http://127.0.0.1:$PORT" --requests "$REQUESTS" \
+        --concurrency "$CONCURRENCY" --repeat "$repeat" --server-pid "$pid" --label "$label" \
+        --endpoint "${ENDPOINT:-omr}" --json "$OUT"
+    kill "$pid"
+    wait "$pid" 2>/dev/null || true
+    rm -rf "$cache_dir"
+}
+
+#   etichetta                 argomenti gunicorn                       pool cache ripetuti
+run "sync"                    "-w 1"                                   0    0     0
+run "threads"                 "-w 1 --threads 8"                       0    0     0
+run "threads+pool"            "-w 1 --threads 8"                       1    0     0
+run "threads+pool+cache"      "-w 1 --threads 8"                       1    64    "${REPEAT:-0.3}"
+if python3 -c "import gevent" 2>/dev/null; then
+    run "gevent+pool"         "-w 1 -k gevent --worker-connections 100" 1    0     0
+else
+    echo "gevent non installato: salto il worker asincrono" >&2
+fi
+
+echo "Risultati in $OUT"
@@ -0,0 +1,51 @@
+"""
+Controllo di ammissione dei job OMR.
+
+Quanti job girano insieme è deciso dal budget di memoria e dalle CPU (default_pool_size);
+quanti possono aspettare in coda da OMR_QUEUE_MAX (default OMR_QUEUE_PER_WORKER per worker).
+Oltre la coda il server risponde subito 429; se la memoria libera del container non basta per
+un altro job risponde 503. In entrambi i casi con Retry-After e posizione in coda.
+"""
+import os
+
+
+def available_memory_mb() -> int | None:
+    """Memoria ancora disponibile per il container (cgroup v2, v1, poi /proc/meminfo); None se ignota."""
+    for limit_path, usage_path in (
+        ("/sys/fs/cgroup/memory.max", "/sys/fs/cgroup/memory.current"),
+        ("/sys/fs/cgroup/memory/memory.limit_in_bytes", "/sys/fs/cgroup/memory/memory.usage_in_bytes"),
+    ):
+        try:
+            with open(limit_path) as f:
+                limit = f.read().strip()
+            with open(usage_path) as f:
+                usage = int(f.read().strip())
+        except (OSError, ValueError):
+            continue
+        # "max" (v2) o un valore enorme (v1) = nessun limite: vale la memoria dell'host
+        if limit != "max" and int(limit) < 1 << 50:
+            return max(0, (int(limit) - usage) // (1024 * 1024))
+        break
+    try:
+        with open("/proc/meminfo") as f:
+            for line in f:
+                if line.startswith("MemAvailable:"):
+                    return int(line.split()[1]) // 1024
+    except (OSError, ValueError):
+        pass
+    return None
+
+
+def queue_max_from_env(workers: int) -> int:
+    """Job in attesa accettati oltre a quelli in esecuzione."""
+    if os.environ.get("OMR_QUEUE_MAX"):
+        return max(0, int(os.environ["OMR_QUEUE_MAX"]))
+    return workers * int(os.environ.get("OMR_QUEUE_PER_WORKER", "4"))
+
+
+def job_memory_mb(worker_mb: int, pooled: bool) -> int:
+    """
+    Memoria in più che un job fa usare: una JVM Audiveris intera se ne parte una per job,
+    solo upload e risultati se i worker del pool sono già in memoria.
+    """
+    return int(os.environ.get("OMR_JOB_MEMORY_MB", "32" if pooled else str(worker_mb)))
@@ -0,0 +1,111 @@
+"""
+Cache su disco dei risultati OMR, indirizzata per contenuto.
+
+La chiave deriva dallo SHA-256 dei byte caricati più versione e opzioni di Audiveris; il valore è
+la risposta JSON di /omr. Dimensione limitata (OMR_CACHE_MAX_MB), eviction LRU basata su mtime.
+"""
+import hashlib
+import json
+import os
+import tempfile
+import threading
+from pathlib import Path
+
+CHUNK_SIZE = 1024 * 1024
+
+
+def cache_key(content_sha256: str, salt: str = "") -> str:
+    """Chiave di cache dallo SHA-256 dei byte: il client che lo conosce già non deve caricarli."""
+    return hashlib.sha256(f"{content_sha256}|{salt}".encode("utf-8")).hexdigest()
+
+
+def file_sha256(path: str) -> str:
+    digest = hashlib.sha256()
+    with open(path, "rb") as f:
+        while chunk := f.read(CHUNK_SIZE):
+            digest.update(chunk)
+    return digest.hexdigest()
+
+
+def save_and_hash(stream, path: str, salt: str = "") -> str:
+    """Salva lo stream su `path` calcolando intanto l'hash (una sola lettura, niente buffer in RAM)."""
+    digest = hashlib.sha256()
+    with open(path, "wb") as out:
+        while True:
+            chunk = stream.read(CHUNK_SIZE)
+            if not chunk:
+                break
+            digest.update(chunk)
+            out.write(chunk)
+    return cache_key(digest.hexdigest(), salt)
+
+
+class OmrCache:
+    def __init__(self, directory: str, max_bytes: int):
+        self.dir = Path(directory)
+        self.dir.mkdir(parents=True, exist_ok=True)
+        self.max_bytes = max_bytes
+        self._lock = threading.Lock()
+        self._size = sum(p.stat().st_size for p in self.dir.glob("*.json"))
+
+    @property
+    def size_bytes(self) -> int:
+        """Spazio occupato dai risultati in cache (per /metrics)."""
+        return self._size
+
+    def _path(self, key: str) -> Path:
+        return self.dir / (key + ".json")
+
+    def get(self, key: str) -> dict | None:
+        path = self._path(key)
+        try:
+            with open(path, encoding="utf-8") as f:
+                result = json.load(f)
+            os.utime(path)  # LRU: aggiorna l'ultimo accesso
+            return result
+        except (OSError, ValueError):
+            return None
+
+    def put(self, key: str, result: dict):
+        data = json.dumps(result).encode("utf-8")
+        if len(data) > self.max_bytes:
+            return
+        fd, tmp = tempfile.mkstemp(dir=self.dir, suffix=".tmp")
+        with os.fdopen(fd, "wb") as f:
+            f.write(data)
+        path = self._path(key)
+        with self._lock:
+            old = path.stat().st_size if path.exists() else 0
+            os.replace(tmp, path)
+            self._size += len(data) - old
+            if self._size > self.max_bytes:
+                self._evict()
+
+    def _evict(self):
+        """Rimuove i risultati usati meno di recente finché la cache torna sotto il limite."""
+        entries = []
+        for p in self.dir.glob("*.json"):
+            try:
+                st = p.stat()
+                entries.append((st.st_mtime, st.st_size, p))
+            except OSError:
+                continue
+        entries.sort()
+        self._size = sum(size for _, size, _ in entries)
+        for _, size, p in entries:
+            if self._size <= self.max_bytes:
+                break
+            try:
+                p.unlink()
+                self._size -= size
+            except OSError:
+                pass
+
+
+def cache_from_env() -> OmrCache | None:
+    """Cache in OMR_CACHE_DIR (default: temp di sistema), OMR_CACHE_MAX_MB=0 la disattiva."""
+    max_mb = int(os.environ.get("OMR_CACHE_MAX_MB", "64"))
+    if max_mb <= 0:
+        return None
+    directory = os.environ.get("OMR_CACHE_DIR") or os.path.join(tempfile.gettempdir(), "omr-cache")
+    return OmrCache(directory, max_mb * 1024 * 1024)
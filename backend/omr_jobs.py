@@ -0,0 +1,291 @@
+"""
+Job OMR asincroni: POST /omr/jobs restituisce subito un id, il riconoscimento gira in background
+e il client segue lo stato con GET /omr/jobs/<id> (anche long-poll con ?wait=) o con lo stream SSE.
+La coda è limitata: oltre max_queued job in attesa submit() rifiuta con QueueFull.
+I risultati (MusicXML, anche per pagina) stanno su disco in results_dir, non nella memoria del
+processo: il job tiene solo il percorso e li rilegge quando il client li chiede.
+"""
+import json
+import math
+import os
+import tempfile
+import threading
+import time
+import uuid
+from pathlib import Path
+from concurrent.futures import ThreadPoolExecutor
+
+from omr_metrics import JOB_DURATION, Timings, collecting, observe_stage
+
+# Stati terminali: il client smette di interrogare
+DONE = "done"
+FAILED = "failed"
+# I job conclusi restano consultabili (anche dopo che l'app è stata chiusa) per JOB_TTL secondi
+JOB_TTL = 3600
+# Stima iniziale della durata di un job, poi media mobile delle durate reali
+INITIAL_JOB_SECONDS = 60.0
+
+
+class QueueFull(Exception):
+    """Coda piena: il client riprova dopo retry_after secondi; position = posto che avrebbe avuto."""
+
+    def __init__(self, retry_after: int, position: int):
+        super().__init__(f"Coda piena ({position - 1} job in attesa)")
+        self.retry_after = retry_after
+        self.position = position
+
+
+class Job:
+    def __init__(self):
+        self.id = uuid.uuid4().hex
+        # Chiave di cache dei byte riconosciuti: un upload identico si aggancia a questo job
+        self.key: str | None = None
+        self.status = "queued"
+        self.stage = "queued"
+        # Risultato su disco (JobStore.result) e se è un riconoscimento riuscito (per find)
+        self.result_path: str | None = None
+        self.recognized = False
+        self.error: str | None = None
+        # PDF multi-pagina: pagine già riconosciute (indice da 1) e file del loro risultato
+        self.pages_total = 0
+        self.pages: dict[int, str] = {}
+        # Posizione nella coda (1 = il prossimo a partire), 0 quando non è in coda
+        self.position = 0
+        self.version = 0
+        self.created = self.updated = time.time()
+        # Durate per fase (attesa in coda, Audiveris, ...) per l'header Server-Timing del risultato
+        self.timings = Timings()
+
+    def to_dict(self) -> dict:
+        data = {"jobId": self.id, "status": self.status, "stage": self.stage, "version": self.version}
+        if self.position:
+            data["queuePosition"] = self.position
+        if self.error:
+            data["error"] = self.error
+        if self.pages_total:
+            data["pagesTotal"] = self.pages_total
+            data["pagesDone"] = len(self.pages)
+        return data
+
+
+class JobProgress:
+    """Passato al lavoro del job per pubblicare fase e pagine completate."""
+
+    def __init__(self, store: "JobStore", job: Job):
+        self._store = store
+        self._job = job
+
+    def stage(self, stage: str):
+        self._store._update(self._job, stage=stage)
+
+    def pages(self, total: int):
+        self._store._update(self._job, pages_total=total)
+
+    def page_done(self, index: int, result: dict):
+        path = self._store._write(f"{self._job.id}-p{index}", result)
+        with self._store._cond:
+            self._job.pages[index] = path
+        self._store._update(self._job)
+
+
+class JobStore:
+    def __init__(self, workers: int, max_queued: int, results_dir: str | None = None):
+        self._jobs: dict[str, Job] = {}
+        self._by_key: dict[str, Job] = {}
+        self._cond = threading.Condition()
+        self._executor = ThreadPoolExecutor(max_workers=workers, thread_name_prefix="omr-job")
+        self.workers = workers
+        self.max_queued = max_queued
+        # Job accettati e non ancora partiti, in ordine di arrivo
+        self._queued: list[Job] = []
+        self._running = 0
+        self._avg_seconds = INITIAL_JOB_SECONDS
+        # File dei risultati, per id del job: condivisibile tra processi gunicorn (gli id sono unici)
+        self.results_dir = Path(results_dir or tempfile.mkdtemp(prefix="omr-results-"))
+        self.results_dir.mkdir(parents=True, exist_ok=True)
+        self._purge_orphans()
+
+    def submit(self, work, key: str | None = None) -> Job:
+        """
+        `work(progress)` gira in background e restituisce il dict della risposta /omr.
+        Solleva QueueFull se ci sono già max_queued job in attesa di un worker libero.
+        """
+        job = Job()
+        job.key = key
+        with self._cond:
+            self._purge()
+            if self._full():
+                position = self._waiting() + 1
+                raise QueueFull(self._retry_after(position), position)
+            self._add(job)
+            self._queued.append(job)
+            job.position = len(self._queued)
+        self._executor.submit(self._run, job, work)
+        return job
+
+    def load(self) -> dict:
+        """Job in esecuzione e in attesa, per /health e per il controllo di ammissione."""
+        with self._cond:
+            return {"running": self._running, "queued": self._waiting(),
+                    "workers": self.workers, "maxQueued": self.max_queued}
+
+    def full(self) -> bool:
+        """True se un nuovo job non troverebbe né un worker libero né posto in coda."""
+        with self._cond:
+            return self._full()
+
+    def retry_after(self) -> int:
+        """Secondi dopo cui un nuovo job avrebbe probabilmente posto."""
+        with self._cond:
+            return self._retry_after(self._waiting() + 1)
+
+    def _full(self) -> bool:
+        return self._running + len(self._queued) >= self.workers + self.max_queued
+
+    def _waiting(self) -> int:
+        # _queued contiene anche i job appena accodati che un worker libero sta per prendere:
+        # aspettano davvero solo quelli oltre i worker liberi
+        return max(0, self._running + len(self._queued) - self.workers)
+
+    def _retry_after(self, position: int) -> int:
+        # Il job in posizione n parte quando ne sono finiti circa n (su `workers` in parallelo)
+        waves = math.ceil(position / self.workers)
+        return int(min(600, max(5, waves * self._avg_seconds)))
+
+    def completed(self, result: dict, key: str | None = None) -> Job:
+        """Job già concluso (es. risultato in cache): stesso formato per il client."""
+        job = Job()
+        job.key = key
+        job.status = job.stage = DONE
+        self._set_result(job, result)
+        with self._cond:
+            self._purge()
+            self._add(job)
+        return job
+
+    def find(self, key: str) -> Job | None:
+        """
+        Job per gli stessi byte in coda, in corso o concluso con un riconoscimento: un secondo
+        upload identico lo segue invece di rilanciare Audiveris. None se fallito o non riconosciuto.
+        """
+        with self._cond:
+            job = self._by_key.get(key)
+            if job is None or job.status == FAILED:
+                return None
+            if job.status == DONE and not job.recognized:
+                return None
+            return job
+
+    def result(self, job: Job) -> dict | None:
+        """Risultato del job concluso, letto da disco; None se non c'è (o non c'è più)."""
+        return self._read(job.result_path)
+
+    def page(self, job: Job, index: int) -> dict | None:
+        """Risultato della pagina `index` di un PDF, None se non ancora riconosciuta."""
+        with self._cond:
+            path = job.pages.get(index)
+        return self._read(path)
+
+    def _set_result(self, job: Job, result: dict):
+        job.result_path = self._write(job.id, result)
+        job.recognized = bool(result.get("recognized"))
+
+    def _write(self, name: str, result: dict) -> str:
+        path = self.results_dir / (name + ".json")
+        fd, tmp = tempfile.mkstemp(dir=self.results_dir, suffix=".tmp")
+        with os.fdopen(fd, "w", encoding="utf-8") as f:
+            json.dump(result, f)
+        os.replace(tmp, path)
+        return str(path)
+
+    @staticmethod
+    def _read(path: str | None) -> dict | None:
+        if path is None:
+            return None
+        try:
+            with open(path, encoding="utf-8") as f:
+                return json.load(f)
+        except (OSError, ValueError):
+            return None
+
+    def _add(self, job: Job):
+        self._jobs[job.id] = job
+        if job.key is not None:
+            self._by_key[job.key] = job
+
+    def _run(self, job: Job, work):
+        with self._cond:
+            self._queued.remove(job)
+            self._running += 1
+            # Chi è ancora in coda avanza di un posto (e i client in long-poll lo vedono)
+            for position, queued in enumerate(self._queued, start=1):
+                queued.position = position
+                queued.version += 1
+            job.position = 0
+        self._update(job, status="running", stage="running")
+        started = time.time()
+        with collecting(job.timings):
+            observe_stage("queue", started - job.created)
+            try:
+                result = work(JobProgress(self, job))
+                # Su disco prima di DONE: chi vede il job concluso trova anche il risultato
+                self._set_result(job, result)
+                self._update(job, status=DONE, stage=DONE)
+            except Exception as e:
+                self._update(job, status=FAILED, stage=FAILED, error=f"Errore: {e!s}")
+            finally:
+                elapsed = time.time() - started
+                JOB_DURATION.observe(elapsed, status=job.status)
+                with self._cond:
+                    self._running -= 1
+                    self._avg_seconds = 0.8 * self._avg_seconds + 0.2 * elapsed
+
+    def _update(self, job: Job, **fields):
+        with self._cond:
+            for name, value in fields.items():
+                setattr(job, name, value)
+            job.version += 1
+            job.updated = time.time()
+            self._cond.notify_all()
+
+    def get(self, job_id: str) -> Job | None:
+        with self._cond:
+            return self._jobs.get(job_id)
+
+    def pages(self, job: Job) -> list[int]:
+        """Pagine già riconosciute, in ordine (il dict del job cambia mentre le pagine finiscono)."""
+        with self._cond:
+            return sorted(job.pages)
+
+    def wait(self, job: Job, version: int, timeout: float) -> Job:
+        """Attende fino a `timeout` secondi che il job cambi rispetto a `version` (long-poll / SSE)."""
+        deadline = time.time() + timeout
+        with self._cond:
+            while job.version == version and job.status not in (DONE, FAILED):
+                remaining = deadline - time.time()
+                if remaining <= 0:
+                    break
+                self._cond.wait(remaining)
+        return job
+
+    def _purge(self):
+        now = time.time()
+        expired = [jid for jid, j in self._jobs.items()
+                   if j.status in (DONE, FAILED) and now - j.updated > JOB_TTL]
+        for jid in expired:
+            job = self._jobs.pop(jid)
+            if job.key is not None and self._by_key.get(job.key) is job:
+                del self._by_key[job.key]
+            for path in [job.result_path, *job.pages.values()]:
+                if path is not None:
+                    Path(path).unlink(missing_ok=True)
+
+    def _purge_orphans(self):
+        """Risultati di processi precedenti (riavvio, altro worker gunicorn) ormai scaduti."""
+        cutoff = time.time() - JOB_TTL
+        for path in self.results_dir.glob("*.json"):
+            try:
+                if path.stat().st_mtime < cutoff:
+                    path.unlink()
+            except OSError:
+                pass
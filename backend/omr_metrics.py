@@ -0,0 +1,245 @@
+"""
+Metriche in formato testo Prometheus (GET /metrics) e tempi per fase (header Server-Timing).
+
+Le fasi si misurano con `with stage("nome"):` ovunque nel codice: la durata va nell'istogramma
+omr_stage_duration_seconds e si somma ai Timings della richiesta o del job in corso (ContextVar),
+da cui omr_server.py compone l'header Server-Timing. Niente dipendenze esterne; i valori sono
+per processo (gunicorn -w 1 nel Dockerfile).
+"""
+import math
+import resource
+import threading
+import time
+from contextlib import contextmanager
+from contextvars import ContextVar
+
+# Da pochi ms (cache, serializzazione) a minuti (Audiveris su un PDF)
+DURATION_BUCKETS = (0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300)
+
+
+def _format_labels(names: tuple, values: tuple) -> str:
+    if not names:
+        return ""
+    pairs = []
+    for name, value in zip(names, values):
+        escaped = str(value).replace("\\", "\\\\").replace("\n", "\\n").replace('"', '\\"')
+        pairs.append(f'{name}="{escaped}"')
+    return "{" + ",".join(pairs) + "}"
+
+
+def _format_value(value: float) -> str:
+    if math.isinf(value):
+        return "+Inf" if value > 0 else "-Inf"
+    return repr(float(value)) if value != int(value) else str(int(value))
+
+
+class _Metric:
+    kind = ""
+
+    def __init__(self, name: str, help_text: str, labels: tuple = ()):
+        self.name = name
+        self.help = help_text
+        self.labels = labels
+        self._lock = threading.Lock()
+
+    def _key(self, labels: dict) -> tuple:
+        return tuple(str(labels.get(name, "")) for name in self.labels)
+
+    def render(self) -> list[str]:
+        return [f"# HELP {self.name} {self.help}", f"# TYPE {self.name} {self.kind}", *self._samples()]
+
+    def _samples(self) -> list[str]:
+        raise NotImplementedError
+
+
+class Counter(_Metric):
+    kind = "counter"
+
+    def __init__(self, name: str, help_text: str, labels: tuple = ()):
+        super().__init__(name, help_text, labels)
+        self._values: dict[tuple, float] = {}
+
+    def inc(self, amount: float = 1, **labels):
+        key = self._key(labels)
+        with self._lock:
+            self._values[key] = self._values.get(key, 0) + amount
+
+    def value(self, **labels) -> float:
+        with self._lock:
+            return self._values.get(self._key(labels), 0)
+
+    def _samples(self) -> list[str]:
+        with self._lock:
+            items = sorted(self._values.items())
+        return [f"{self.name}{_format_labels(self.labels, k)} {_format_value(v)}" for k, v in items]
+
+
+class Histogram(_Metric):
+    kind = "histogram"
+
+    def __init__(self, name: str, help_text: str, labels: tuple = (), buckets: tuple = DURATION_BUCKETS):
+        super().__init__(name, help_text, labels)
+        self.buckets = tuple(sorted(buckets))
+        # Per etichette: conteggi per bucket (non cumulativi), somma, totale
+        self._values: dict[tuple, list] = {}
+
+    def observe(self, value: float, **labels):
+        key = self._key(labels)
+        index = next((i for i, bound in enumerate(self.buckets) if value <= bound), len(self.buckets))
+        with self._lock:
+            entry = self._values.setdefault(key, [[0] * (len(self.buckets) + 1), 0.0, 0])
+            entry[0][index] += 1
+            entry[1] += value
+            entry[2] += 1
+
+    def _samples(self) -> list[str]:
+        with self._lock:
+            items = sorted((k, (list(v[0]), v[1], v[2])) for k, v in self._values.items())
+        lines = []
+        for key, (counts, total, count) in items:
+            cumulative = 0
+            for bound, n in zip((*self.buckets, math.inf), counts):
+                cumulative += n
+                labels = _format_labels((*self.labels, "le"), (*key, _format_value(bound)))
+                lines.append(f"{self.name}_bucket{labels} {cumulative}")
+            labels = _format_labels(self.labels, key)
+            lines.append(f"{self.name}_sum{labels} {_format_value(total)}")
+            lines.append(f"{self.name}_count{labels} {count}")
+        return lines
+
+
+class Gauge(_Metric):
+    """Valore letto al momento dello scrape da `read()` (numero, o None per non esporlo)."""
+    kind = "gauge"
+
+    def __init__(self, name: str, help_text: str, read):
+        super().__init__(name, help_text)
+        self._read = read
+
+    def _samples(self) -> list[str]:
+        try:
+            value = self._read()
+        except Exception:
+            value = None
+        return [] if value is None else [f"{self.name} {_format_value(value)}"]
+
+
+class Registry:
+    def __init__(self):
+        self._metrics: list[_Metric] = []
+
+    def add(self, metric):
+        self._metrics.append(metric)
+        return metric
+
+    def gauge(self, name: str, help_text: str, read) -> Gauge:
+        return self.add(Gauge(name, help_text, read))
+
+    def render(self) -> str:
+        lines = []
+        for metric in self._metrics:
+            lines.extend(metric.render())
+        return "\n".join(lines) + "\n"
+
+
+REGISTRY = Registry()
+
+HTTP_REQUESTS = REGISTRY.add(Counter(
+    "omr_http_requests_total", "Richieste HTTP per endpoint, metodo e stato.", ("method", "endpoint", "status")))
+HTTP_DURATION = REGISTRY.add(Histogram(
+    "omr_http_request_duration_seconds", "Durata delle richieste HTTP (fino agli header per gli stream SSE).",
+    ("method", "endpoint")))
+STAGE_DURATION = REGISTRY.add(Histogram(
+    "omr_stage_duration_seconds", "Durata delle fasi di richieste e job (upload, audiveris, extract, ...).",
+    ("stage",)))
+JOB_DURATION = REGISTRY.add(Histogram(
+    "omr_job_duration_seconds", "Durata dei job OMR dalla partenza alla fine, per esito.", ("status",)))
+AUDIVERIS_RUNS = REGISTRY.add(Counter(
+    "omr_audiveris_runs_total", "Esecuzioni di Audiveris per esito e codice di uscita.", ("outcome", "exit_code")))
+CACHE_LOOKUPS = REGISTRY.add(Counter(
+    "omr_cache_lookups_total", "Ricerche nella cache dei risultati (hit o miss).", ("result",)))
+ADMISSION_REJECTED = REGISTRY.add(Counter(
+    "omr_admission_rejected_total", "Richieste rifiutate dal controllo di ammissione (429 o 503).", ("status",)))
+
+
+def cache_hit_ratio() -> float | None:
+    hits = CACHE_LOOKUPS.value(result="hit")
+    total = hits + CACHE_LOOKUPS.value(result="miss")
+    return hits / total if total else None
+
+
+def children_peak_rss_bytes() -> int:
+    """RSS massima raggiunta dai processi figli già terminati (Audiveris, worker riciclati)."""
+    return resource.getrusage(resource.RUSAGE_CHILDREN).ru_maxrss * 1024  # Linux: kB
+
+
+REGISTRY.gauge("omr_cache_hit_ratio", "Frazione delle ricerche in cache andate a segno.", cache_hit_ratio)
+
+
+class Timings:
+    """Durate per fase di una richiesta o di un job; fasi ripetute (pagine di un PDF) si sommano."""
+
+    def __init__(self):
+        self._lock = threading.Lock()
+        self._stages: dict[str, float] = {}
+
+    def add(self, name: str, seconds: float):
+        with self._lock:
+            self._stages[name] = self._stages.get(name, 0.0) + seconds
+
+    def merge(self, other: "Timings"):
+        for name, seconds in other.items():
+            self.add(name, seconds)
+
+    def items(self) -> list[tuple[str, float]]:
+        with self._lock:
+            return list(self._stages.items())
+
+    def server_timing(self, total: float | None = None) -> str:
+        """Valore dell'header Server-Timing, durate in millisecondi."""
+        parts = [f"{name};dur={seconds * 1000:.1f}" for name, seconds in self.items()]
+        if total is not None:
+            parts.append(f"total;dur={total * 1000:.1f}")
+        return ", ".join(parts)
+
+
+_current: ContextVar[Timings | None] = ContextVar("omr_timings", default=None)
+
+
+def current() -> Timings | None:
+    return _current.get()
+
+
+def bind(timings: Timings):
+    """Come collecting(), per chi apre e chiude in punti diversi (before/teardown_request)."""
+    return _current.set(timings)
+
+
+def unbind(token):
+    _current.reset(token)
+
+
+@contextmanager
+def collecting(timings: Timings):
+    """Le fasi misurate dentro il blocco (in questo thread/contesto) si sommano a `timings`."""
+    token = _current.set(timings)
+    try:
+        yield timings
+    finally:
+        _current.reset(token)
+
+
+def observe_stage(name: str, seconds: float):
+    STAGE_DURATION.observe(seconds, stage=name)
+    timings = _current.get()
+    if timings is not None:
+        timings.add(name, seconds)
+
+
+@contextmanager
+def stage(name: str):
+    start = time.perf_counter()
+    try:
+        yield
+    finally:
+        observe_stage(name, time.perf_counter() - start)
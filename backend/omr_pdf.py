@@ -0,0 +1,121 @@
+"""
+PDF multi-pagina: divisione in PDF da una pagina (riconosciuti in parallelo) e unione
+dei MusicXML delle singole pagine in un'unica partitura, nell'ordine delle pagine.
+"""
+import os
+import xml.etree.ElementTree as ET
+
+try:
+    from pypdf import PdfReader, PdfWriter
+except ImportError:  # senza pypdf il PDF va ad Audiveris intero, come prima
+    PdfReader = PdfWriter = None
+
+XML_HEADER = ('<?xml version="1.0" encoding="UTF-8" standalone="no"?>\n'
+              '<!DOCTYPE score-partwise PUBLIC "-//Recordare//DTD MusicXML 4.0 Partwise//EN" '
+              '"http://www.musicxml.org/dtds/partwise.dtd">\n')
+
+
+def split_pdf(pdf_path: str, out_dir: str) -> list[str]:
+    """Scrive una pagina per file (page-001.pdf, ...) e restituisce i percorsi; [] se non divisibile."""
+    if PdfReader is None:
+        return []
+    try:
+        reader = PdfReader(pdf_path)
+        if len(reader.pages) < 2:
+            return []
+        paths = []
+        for i, page in enumerate(reader.pages, start=1):
+            writer = PdfWriter()
+            writer.add_page(page)
+            path = os.path.join(out_dir, f"page-{i:03d}.pdf")
+            with open(path, "wb") as f:
+                writer.write(f)
+            paths.append(path)
+        return paths
+    except Exception:
+        return []
+
+
+def merge_music_xml(pages: list[str]) -> tuple[str | None, list[int]]:
+    """
+    Unisce partiture score-partwise: le misure di ogni parte vengono accodate alla parte
+    corrispondente (per posizione) e rinumerate. Tutte le parti restano con lo stesso numero
+    di misure: dove una pagina ha meno parti, quelle mancanti ricevono misure vuote; dove ne ha
+    di più, le parti nuove vengono aggiunte e riempite di misure vuote per le pagine precedenti.
+    Restituisce (MusicXML o None se nessuna pagina è valida, posizioni 1-based in `pages` delle
+    pagine con un numero di parti diverso dalla prima).
+    """
+    merged = None
+    merged_parts = []
+    measures = 0
+    mismatched = []
+    for number, text in enumerate(pages, start=1):
+        try:
+            root = ET.fromstring(text.encode("utf-8"))
+        except ET.ParseError:
+            continue
+        if root.tag != "score-partwise":
+            continue
+        parts = root.findall("part")
+        if merged is None:
+            merged = root
+            merged_parts = parts
+            # Anche le parti della prima pagina finiscono tutte alla stessa misura
+            measures = max((len(p.findall("measure")) for p in parts), default=0)
+            for part in parts:
+                _pad(part, len(part.findall("measure")), measures)
+            continue
+        if len(parts) != len(merged_parts):
+            mismatched.append(number)
+        for part in parts[len(merged_parts):]:
+            merged_parts.append(_add_part(merged, root, part, measures))
+        page_measures = max((len(p.findall("measure")) for p in parts), default=0)
+        for i, merged_part in enumerate(merged_parts):
+            page_part = parts[i].findall("measure") if i < len(parts) else []
+            for offset, measure in enumerate(page_part, start=1):
+                measure.set("number", str(measures + offset))
+                merged_part.append(measure)
+            _pad(merged_part, measures + len(page_part), measures + page_measures)
+            if page_measures:
+                _new_page(merged_part.findall("measure")[measures])
+        measures += page_measures
+    if merged is None:
+        return None, mismatched
+    return XML_HEADER + ET.tostring(merged, encoding="unicode"), mismatched
+
+
+def _pad(part: ET.Element, have: int, want: int):
+    """Accoda misure vuote (nessun contenuto è valido per il DTD) fino alla misura `want`."""
+    for number in range(have + 1, want + 1):
+        ET.SubElement(part, "measure", number=str(number))
+
+
+def _new_page(measure: ET.Element):
+    # Ogni pagina della partitura riparte da una nuova pagina
+    print_el = measure.find("print")
+    if print_el is None:
+        print_el = ET.Element("print")
+        measure.insert(0, print_el)
+    print_el.set("new-page", "yes")
+
+
+def _add_part(merged: ET.Element, page: ET.Element, part: ET.Element, measures: int) -> ET.Element:
+    """Aggiunge alla partitura una parte che la prima pagina non aveva, vuota fino alla misura `measures`."""
+    ids = {p.get("id") for p in merged.findall("part")}
+    n = len(ids) + 1
+    while f"P{n}" in ids:
+        n += 1
+    new_id = f"P{n}"
+    score_part = next((sp for sp in page.iter("score-part") if sp.get("id") == part.get("id")), None)
+    if score_part is None:
+        score_part = ET.Element("score-part")
+        ET.SubElement(score_part, "part-name")
+    score_part.set("id", new_id)
+    part_list = merged.find("part-list")
+    if part_list is None:
+        part_list = ET.Element("part-list")
+        merged.insert(list(merged).index(merged.find("part")), part_list)
+    part_list.append(score_part)
+    new_part = ET.SubElement(merged, "part", id=new_id)
+    _pad(new_part, 0, measures)
+    return new_part
@@ -3,17 +3,34 @@ OMR Backend: accepts image upload and runs Audiveris (if available) to produce M
 Run: python omr_server.py
 Then from the app use http://10.0.2.2:8080 (emulator) or http://<your-pc-ip>:8080 (device).
 """
+import contextvars
+import gzip
+import io
 import json
 import os
 import re
+import shutil
 import subprocess
 import tempfile
+import threading
+import time
 import zipfile
+from concurrent.futures import ThreadPoolExecutor
 from pathlib import Path
+from urllib.parse import quote
 
-from flask import Flask, request, jsonify
+from flask import Flask, Response, g, request, jsonify
 from werkzeug.exceptions import RequestEntityTooLarge
 
+from audiveris_pool import WorkerFailed, WorkerTimeout, default_pool_size, pool_from_env, worker_memory_mb
+from omr_admission import available_memory_mb, job_memory_mb, queue_max_from_env
+from omr_cache import cache_from_env, cache_key, save_and_hash
+from omr_jobs import DONE, FAILED, JOB_TTL, JobStore, QueueFull
+from omr_metrics import (ADMISSION_REJECTED, AUDIVERIS_RUNS, CACHE_LOOKUPS, HTTP_DURATION, HTTP_REQUESTS,
+                         REGISTRY, Timings, bind, children_peak_rss_bytes, current, stage, unbind)
+from omr_pdf import merge_music_xml, split_pdf
+from omr_uploads import SHA256_RE, OffsetMismatch, uploads_from_env
+
 app = Flask(__name__)
 
 # Limite upload 4 MB per evitare di superare la RAM del server (es. Render free tier)
@@ -24,6 +41,47 @@ app.config["MAX_CONTENT_LENGTH"] = MAX_UPLOAD_BYTES
 AUDIVERIS_CMD = os.environ.get("AUDIVERIS_CMD", "audiveris")
 # Heap JVM per Audiveris (override da env se serve, altrimenti limite sicuro per 512MB RAM)
 JAVA_OPTS = os.environ.get("JAVA_TOOL_OPTIONS", "-Xmx192m -XX:+UseSerialGC -XX:MaxMetaspaceSize=64m")
+AUDIVERIS_TIMEOUT = 120
+# Pool di JVM Audiveris calde (se AUDIVERIS_WORKER_CMD è impostato), altrimenti un processo per richiesta
+AUDIVERIS_POOL = pool_from_env(JAVA_OPTS)
+if AUDIVERIS_POOL is not None:
+    AUDIVERIS_POOL.prewarm()
+# Audiveris in parallelo (pagine di un PDF, job diversi): limitato dal budget di memoria
+AUDIVERIS_PARALLELISM = AUDIVERIS_POOL.size if AUDIVERIS_POOL is not None else default_pool_size(JAVA_OPTS)
+AUDIVERIS_SLOTS = threading.BoundedSemaphore(AUDIVERIS_PARALLELISM)
+AUDIVERIS_ARGS = ["-batch", "-transcribe", "-export"]
+AUDIVERIS_VERSION = os.environ.get("AUDIVERIS_VERSION", "")
+# Risultati già calcolati per gli stessi byte (retry, stesso PDF da più dispositivi)
+OMR_CACHE = cache_from_env()
+# Upload a blocchi di /omr/uploads, riprendibili dopo una caduta della connessione
+UPLOADS = uploads_from_env()
+# Job (anche quelli di /omr): tanti in parallelo quanti i worker Audiveris, coda limitata
+JOBS = JobStore(workers=AUDIVERIS_PARALLELISM, max_queued=queue_max_from_env(AUDIVERIS_PARALLELISM),
+                results_dir=os.environ.get("OMR_RESULTS_DIR") or None)
+# Memoria libera richiesta per accettare un job (503 sotto questa soglia)
+JOB_MEMORY_MB = job_memory_mb(worker_memory_mb(JAVA_OPTS), pooled=AUDIVERIS_POOL is not None)
+
+# Metriche lette allo scrape di /metrics (contatori e istogrammi sono in omr_metrics.py)
+REGISTRY.gauge("omr_jobs_running", "Job OMR in esecuzione.", lambda: JOBS.load()["running"])
+REGISTRY.gauge("omr_jobs_queued", "Job OMR in attesa in coda.", lambda: JOBS.load()["queued"])
+REGISTRY.gauge("omr_jobs_workers", "Job OMR eseguibili in parallelo.", lambda: JOBS.workers)
+REGISTRY.gauge("omr_jobs_queue_max", "Job in attesa oltre i quali si risponde 429.", lambda: JOBS.max_queued)
+REGISTRY.gauge("omr_cache_bytes", "Spazio occupato dalla cache dei risultati.",
+               lambda: OMR_CACHE.size_bytes if OMR_CACHE is not None else None)
+REGISTRY.gauge("omr_memory_available_bytes", "Memoria ancora disponibile per il container.",
+               lambda: (available_memory_mb() or 0) * 1024 * 1024 or None)
+REGISTRY.gauge("omr_audiveris_peak_rss_bytes", "RSS massima di un processo Audiveris (figli terminati e worker).",
+               lambda: max(children_peak_rss_bytes(),
+                           (AUDIVERIS_POOL.peak_rss_mb if AUDIVERIS_POOL is not None else 0) * 1024 * 1024))
+
+# Formati del risultato negoziabili con Accept (oltre al JSON)
+MXL_MIMETYPE = "application/vnd.recordare.musicxml"
+MUSICXML_MIMETYPE = "application/vnd.recordare.musicxml+xml"
+MXL_CONTAINER = (
+    '<?xml version="1.0" encoding="UTF-8"?>\n'
+    '<container><rootfiles><rootfile full-path="score.xml" '
+    'media-type="application/vnd.recordare.musicxml+xml"/></rootfiles></container>\n'
+)
 
 
 def _extract_xml_from_mxl(mxl_path: str) -> str | None:
@@ -79,42 +137,63 @@ def _find_music_xml(output_dir: str, base: str) -> str | None:
     return None
 
 
-def run_audiveris(image_path: str, output_dir: str):
-    # Returns (path to MusicXML or None, error note for client)
-    """Run Audiveris CLI on image; return (path to MusicXML or None, error note for client)."""
+def _run_audiveris_cli(args: list[str]) -> str:
+    """Audiveris in un processo nuovo (una JVM per job); restituisce lo stderr."""
     env = {**os.environ, "JAVA_TOOL_OPTIONS": JAVA_OPTS}
-    stderr_out = ""
-    try:
+    with AUDIVERIS_SLOTS:
         result = subprocess.run(
-            [
-                AUDIVERIS_CMD,
-                "-batch",
-                "-transcribe",
-                "-export",
-                "-output", output_dir,
-                image_path,
-            ],
+            [AUDIVERIS_CMD, *args],
             env=env,
             check=True,
             capture_output=True,
-            timeout=120,
+            timeout=AUDIVERIS_TIMEOUT,
             text=True,
         )
-        stderr_out = (result.stderr or "").strip()
+    return (result.stderr or "").strip()
+
+
+def run_audiveris(image_path: str, output_dir: str):
+    # Returns (path to MusicXML or None, error note for client)
+    """Run Audiveris CLI on image; return (path to MusicXML or None, error note for client)."""
+    args = [*AUDIVERIS_ARGS, "-output", output_dir, image_path]
+    stderr_out = ""
+    try:
+        # Senza pool la fase comprende anche l'avvio della JVM
+        with stage("audiveris"):
+            if AUDIVERIS_POOL is not None:
+                try:
+                    stderr_out = AUDIVERIS_POOL.run(args, timeout=AUDIVERIS_TIMEOUT)
+                except WorkerFailed as e:
+                    # Il pool ha già scartato il worker. Se a fallire è la JVM riusata (stato lasciato
+                    # da un job precedente) e non l'immagine, lo stesso job in un processo nuovo riesce
+                    AUDIVERIS_RUNS.inc(outcome="worker_failed", exit_code="" if e.exit_code is None else e.exit_code)
+                    stderr_out = _run_audiveris_cli(args)
+            else:
+                stderr_out = _run_audiveris_cli(args)
     except FileNotFoundError:
+        AUDIVERIS_RUNS.inc(outcome="not_found")
         return None, "Audiveris non trovato (comando non in PATH)."
-    except subprocess.TimeoutExpired:
-        return None, "Audiveris in timeout dopo 120 secondi."
+    except (subprocess.TimeoutExpired, WorkerTimeout):
+        AUDIVERIS_RUNS.inc(outcome="timeout")
+        return None, f"Audiveris in timeout dopo {AUDIVERIS_TIMEOUT} secondi."
     except subprocess.CalledProcessError as e:
+        AUDIVERIS_RUNS.inc(outcome="error", exit_code=e.returncode)
         err = (e.stderr or e.stdout or str(e))[:500]
         return None, f"Audiveris errore: {err}"
+    except WorkerFailed as e:
+        AUDIVERIS_RUNS.inc(outcome="error", exit_code="" if e.exit_code is None else e.exit_code)
+        return None, f"Audiveris errore: {str(e)[:500]}"
     except Exception as e:
+        AUDIVERIS_RUNS.inc(outcome="exception")
         return None, f"Errore: {e!s}"
 
     base = Path(image_path).stem
-    music_xml_path = _find_music_xml(output_dir, base)
+    with stage("find_xml"):
+        music_xml_path = _find_music_xml(output_dir, base)
     if music_xml_path:
+        AUDIVERIS_RUNS.inc(outcome="ok", exit_code=0)
         return music_xml_path, ""
+    AUDIVERIS_RUNS.inc(outcome="no_output", exit_code=0)
     # Nessun file: messaggio utile, eventualmente con ultime righe di stderr
     note = "Audiveris non ha prodotto file MusicXML."
     if stderr_out:
@@ -124,41 +203,472 @@ def run_audiveris(image_path: str, output_dir: str):
     return None, note
 
 
+def _uploaded_file():
+    """Restituisce (file, None) o (None, risposta di errore) per il campo multipart 'image'."""
+    # request.files legge e scompone tutto il body multipart: è il tempo di ricezione dell'upload
+    with stage("upload"):
+        files = request.files
+    if "image" not in files:
+        return None, (jsonify({"error": "Missing 'image' file"}), 400)
+    file = files["image"]
+    if file.filename == "":
+        return None, (jsonify({"error": "No file selected"}), 400)
+    return file, None
+
+
+def _save_upload(file, tmp: str):
+    """Salva l'upload in tmp; restituisce (percorso, chiave di cache)."""
+    ext = _upload_ext(file.filename)
+    image_path = os.path.join(tmp, "input" + ext)
+    with stage("save"):
+        cache_key = save_and_hash(file.stream, image_path, salt=_cache_salt(ext))
+    return image_path, cache_key
+
+
+def _upload_ext(filename: str | None) -> str:
+    # Preserve extension (PDF, JPG, PNG) so Audiveris gets the right format
+    ext = os.path.splitext(filename or "")[1] or ".png"
+    if ext.lower() not in (".pdf", ".jpg", ".jpeg", ".png"):
+        ext = ".png"
+    return ext
+
+
+def _cached_result(cache_key: str) -> dict | None:
+    if OMR_CACHE is None:
+        return None
+    with stage("cache"):
+        cached = OMR_CACHE.get(cache_key)
+    CACHE_LOOKUPS.inc(result="hit" if cached is not None else "miss")
+    return {**cached, "cached": True} if cached is not None else None
+
+
+def _recognize(image_path: str, output_dir: str, cache_key: str, progress=None) -> dict:
+    if image_path.lower().endswith(".pdf"):
+        pages_dir = os.path.join(output_dir, "pages")
+        os.makedirs(pages_dir, exist_ok=True)
+        with stage("pdf_split"):
+            pages = split_pdf(image_path, pages_dir)
+        if pages:
+            return _recognize_pages(pages, output_dir, cache_key, progress)
+    _set_stage(progress, "recognizing")
+    music_xml_path, error_note = run_audiveris(image_path, output_dir)
+    _set_stage(progress, "exporting")
+    result = _build_result(music_xml_path, error_note)
+    if OMR_CACHE is not None and result.get("recognized"):
+        OMR_CACHE.put(cache_key, result)
+    return {**result, "cached": False}
+
+
+def _set_stage(progress, stage: str):
+    if progress is not None:
+        progress.stage(stage)
+
+
+def _recognize_pages(pages: list[str], output_dir: str, cache_key: str, progress=None) -> dict:
+    """PDF multi-pagina: una run Audiveris per pagina, in parallelo, poi unione in ordine di pagina."""
+    if progress is not None:
+        progress.pages(len(pages))
+    _set_stage(progress, "recognizing")
+
+    def recognize_page(index: int, page_path: str) -> dict:
+        # Chiave per pagina: lo stesso PDF ricaricato riusa le pagine già riconosciute
+        page_key = f"{cache_key}-p{index}"
+        result = _cached_result(page_key)
+        if result is None:
+            page_out = os.path.join(output_dir, f"out-{index:03d}")
+            os.makedirs(page_out, exist_ok=True)
+            music_xml_path, error_note = run_audiveris(page_path, page_out)
+            result = _build_result(music_xml_path, error_note)
+            if OMR_CACHE is not None and result.get("recognized"):
+                OMR_CACHE.put(page_key, result)
+            result = {**result, "cached": False}
+        if progress is not None:
+            progress.page_done(index, result)
+        return result
+
+    with ThreadPoolExecutor(max_workers=min(AUDIVERIS_PARALLELISM, len(pages))) as executor:
+        # Contesto copiato per pagina: i tempi delle fasi finiscono nei Timings del job
+        futures = [executor.submit(contextvars.copy_context().run, recognize_page, index, page_path)
+                   for index, page_path in enumerate(pages, start=1)]
+        results = [future.result() for future in futures]
+
+    _set_stage(progress, "exporting")
+    usable = [(i, r["musicXml"]) for i, r in enumerate(results, start=1)
+              if r.get("recognized") and r.get("musicXmlExtracted")]
+    failed = [str(i) for i, r in enumerate(results, start=1) if not r.get("recognized")]
+    with stage("merge"):
+        merged, mismatched = merge_music_xml([xml for _, xml in usable])
+    if merged is None:
+        notes = [r.get("note") for r in results if r.get("note")]
+        return {**_build_result(None, notes[0] if notes else ""), "pages": len(pages), "cached": False}
+    result = {"musicXml": merged, "recognized": True, "musicXmlExtracted": True,
+              "pages": len(pages), "pagesRecognized": len(usable)}
+    notes = []
+    if failed:
+        notes.append("Pagine non riconosciute: " + ", ".join(failed) + ".")
+    if mismatched:
+        # Le parti sono abbinate per posizione: su queste pagine potrebbero essere finite nel rigo sbagliato
+        notes.append("Numero di parti diverso dalla prima pagina nelle pagine: "
+                     + ", ".join(str(usable[i - 1][0]) for i in mismatched) + ".")
+    if notes:
+        result["note"] = " ".join(notes)
+    if not failed and OMR_CACHE is not None:
+        OMR_CACHE.put(cache_key, result)
+    return {**result, "cached": all(r.get("cached") for r in results)}
+
+
+def _busy_response(status: int, message: str, retry_after: int, position: int):
+    """429 (coda piena) o 503 (memoria esaurita): il client riprova dopo Retry-After secondi."""
+    ADMISSION_REJECTED.inc(status=status)
+    body = {"error": message, "retryAfter": retry_after, "queuePosition": position, **JOBS.load()}
+    return jsonify(body), status, {"Retry-After": str(retry_after)}
+
+
+def _admission_error():
+    """Rifiuto immediato, prima ancora di leggere l'upload, se il job non potrebbe entrare."""
+    load = JOBS.load()
+    if JOBS.full():
+        return _busy_response(429, "Troppi riconoscimenti in coda, riprova più tardi.",
+                              JOBS.retry_after(), load["queued"] + 1)
+    free = available_memory_mb()
+    if free is not None and free < JOB_MEMORY_MB and load["running"] > 0:
+        return _busy_response(503, "Server senza memoria libera per un altro riconoscimento, riprova più tardi.",
+                              JOBS.retry_after(), load["queued"] + 1)
+    return None
+
+
+def _submit(work, cache_key: str):
+    """JOBS.submit che trasforma la coda piena (gara con altre richieste) in una risposta 429."""
+    try:
+        return JOBS.submit(work, key=cache_key), None
+    except QueueFull as e:
+        return None, _busy_response(429, "Troppi riconoscimenti in coda, riprova più tardi.",
+                                    e.retry_after, e.position)
+
+
 @app.route("/omr", methods=["POST"])
 def omr():
-    if "image" not in request.files:
-        return jsonify({"error": "Missing 'image' file"}), 400
-    file = request.files["image"]
-    if file.filename == "":
-        return jsonify({"error": "No file selected"}), 400
+    busy = _admission_error()
+    if busy:
+        return busy
+    file, error = _uploaded_file()
+    if error:
+        return error
 
     with tempfile.TemporaryDirectory() as tmp:
-        # Preserve extension (PDF, JPG, PNG) so Audiveris gets the right format
-        ext = os.path.splitext(file.filename or "")[1] or ".png"
-        if ext.lower() not in (".pdf", ".jpg", ".jpeg", ".png"):
-            ext = ".png"
-        image_path = os.path.join(tmp, "input" + ext)
-        file.save(image_path)
-        output_dir = tmp
-        music_xml_path, error_note = run_audiveris(image_path, output_dir)
-
-        if music_xml_path and os.path.exists(music_xml_path):
-            # File riconosciuto da Audiveris
-            if music_xml_path.lower().endswith(".mxl"):
-                music_xml = _extract_xml_from_mxl(music_xml_path)
-                if music_xml:
-                    return jsonify({"musicXml": music_xml, "recognized": True, "musicXmlExtracted": True})
-                # Estrazione fallita: restituisci contenuto grezzo come prima (così l'app mostra "riconosciuto")
-                with open(music_xml_path, "rb") as f:
-                    music_xml = f.read().decode("utf-8", errors="replace")
-                return jsonify({"musicXml": music_xml, "recognized": True, "musicXmlExtracted": False,
-                               "note": "Riconosciuto. Estrazione MusicXML non riuscita - contenuto grezzo .mxl."})
-            else:
-                with open(music_xml_path, encoding="utf-8", errors="replace") as f:
-                    music_xml = f.read()
-                return jsonify({"musicXml": music_xml, "recognized": True, "musicXmlExtracted": True})
-        placeholder = '<?xml version="1.0"?>\n<!-- OMR non disponibile -->\n<placeholder/>'
-        return jsonify({"musicXml": placeholder, "recognized": False, "note": error_note or "Il server non ha prodotto un risultato."})
+        image_path, cache_key = _save_upload(file, tmp)
+        cached = _cached_result(cache_key)
+        if cached is not None:
+            return _result_response(cached)
+        # Passa dalla stessa coda dei job asincroni, così la concorrenza resta limitata
+        job, busy = _submit(lambda progress: _recognize(image_path, tmp, cache_key, progress), cache_key)
+        if busy:
+            return busy
+        while job.status not in (DONE, FAILED):
+            JOBS.wait(job, job.version, 30)
+        current().merge(job.timings)
+        if job.status == FAILED:
+            return jsonify({"error": job.error}), 500
+        result = JOBS.result(job)
+        if result is None:
+            return jsonify({"error": "Risultato non disponibile."}), 500
+        return _result_response(result)
+
+
+@app.route("/omr/jobs", methods=["POST"])
+def submit_omr_job():
+    """Come /omr ma risponde subito (202) con l'id del job; il riconoscimento gira in background."""
+    busy = _admission_error()
+    if busy:
+        return busy
+    file, error = _uploaded_file()
+    if error:
+        return error
+
+    tmp = tempfile.mkdtemp(prefix="omr-job-")
+    try:
+        image_path, cache_key = _save_upload(file, tmp)
+    except Exception:
+        shutil.rmtree(tmp, ignore_errors=True)
+        raise
+    existing = _existing_job(cache_key)
+    if existing is not None:
+        shutil.rmtree(tmp, ignore_errors=True)
+        return jsonify(existing.to_dict())
+    return _start_job(image_path, tmp, cache_key)
+
+
+def _existing_job(cache_key: str):
+    """Job già noto per gli stessi byte: in corso (upload doppio) o concluso, anche solo in cache."""
+    job = JOBS.find(cache_key)
+    if job is not None:
+        return job
+    cached = _cached_result(cache_key)
+    return JOBS.completed(cached, key=cache_key) if cached is not None else None
+
+
+def _start_job(image_path: str, tmp: str, cache_key: str):
+    """Accoda il riconoscimento del file in tmp (che il job elimina alla fine): 202 con l'id del job."""
+
+    def work(progress):
+        try:
+            return _recognize(image_path, tmp, cache_key, progress)
+        finally:
+            shutil.rmtree(tmp, ignore_errors=True)
+
+    job, busy = _submit(work, cache_key)
+    if busy:
+        shutil.rmtree(tmp, ignore_errors=True)
+        return busy
+    return jsonify(job.to_dict()), 202, {"Location": f"/omr/jobs/{job.id}"}
+
+
+@app.route("/omr/uploads", methods=["POST"])
+def create_upload():
+    """
+    Primo passo dell'upload riprendibile: {sha256, size, filename} in JSON. Se gli stessi byte
+    sono già riconosciuti (o in corso) risponde subito col job, senza upload (200). Altrimenti
+    apre la sessione, o riprende quella esistente, con {uploadId, offset, size, chunkSize} (201).
+    """
+    body = request.get_json(silent=True) or {}
+    sha256 = str(body.get("sha256", "")).lower()
+    size = body.get("size")
+    if not SHA256_RE.match(sha256) or not isinstance(size, int) or isinstance(size, bool) or size <= 0:
+        return jsonify({"error": "Servono 'sha256' (esadecimale) e 'size' (byte) del file."}), 400
+    if size > MAX_UPLOAD_BYTES:
+        return handle_too_large(None)
+    ext = _upload_ext(body.get("filename"))
+    upload_id = cache_key(sha256, _cache_salt(ext))
+    existing = _existing_job(upload_id)
+    if existing is not None:
+        return jsonify(existing.to_dict())
+    busy = _admission_error()
+    if busy:
+        return busy
+    offset = UPLOADS.open(upload_id, {"sha256": sha256, "size": size, "ext": ext})
+    if offset >= size:
+        # Tutti i byte arrivati, ma il job non era partito (coda piena o risposta persa)
+        return _finish_upload(upload_id, UPLOADS.meta(upload_id))
+    return (jsonify({"uploadId": upload_id, "offset": offset, "size": size, "chunkSize": UPLOADS.chunk_bytes}),
+            201, {"Location": f"/omr/uploads/{upload_id}"})
+
+
+@app.route("/omr/uploads/<upload_id>", methods=["PUT"])
+def append_upload(upload_id):
+    """
+    Blocco dell'upload: body binario che parte dal byte Upload-Offset. Risponde col nuovo offset
+    ({uploadId, offset, size}) o, all'ultimo byte, col job avviato (202, come /omr/jobs).
+    409 con l'offset corretto se il blocco non parte da lì.
+    """
+    meta = UPLOADS.meta(upload_id)
+    if meta is None:
+        return jsonify({"error": "Upload non trovato."}), 404
+    offset = request.headers.get("Upload-Offset", type=int)
+    if offset is None:
+        return jsonify({"error": "Header 'Upload-Offset' mancante."}), 400
+    try:
+        # request.stream: i byte vanno su disco mentre arrivano, senza parsing multipart
+        with stage("upload"):
+            received = UPLOADS.append(upload_id, offset, request.stream, meta["size"])
+    except OffsetMismatch as e:
+        return jsonify({"error": "Offset non valido.", "uploadId": upload_id, "offset": e.offset,
+                        "size": meta["size"]}), 409
+    except FileNotFoundError:
+        return jsonify({"error": "Upload non trovato."}), 404
+    if received < meta["size"]:
+        return jsonify({"uploadId": upload_id, "offset": received, "size": meta["size"]})
+    return _finish_upload(upload_id, meta)
+
+
+def _finish_upload(upload_id: str, meta: dict):
+    """Upload completo: verifica l'hash dichiarato e avvia il job (o aggancia quello già esistente)."""
+    existing = _existing_job(upload_id)
+    if existing is not None:
+        UPLOADS.discard(upload_id)
+        return jsonify(existing.to_dict())
+    # Prima di spostare il file: con la coda piena la sessione resta completa e si riprova più tardi
+    busy = _admission_error()
+    if busy:
+        return busy
+    tmp = tempfile.mkdtemp(prefix="omr-job-")
+    image_path = os.path.join(tmp, "input" + meta["ext"])
+    try:
+        with stage("save"):
+            ok = UPLOADS.take(upload_id, meta["sha256"], image_path)
+    except FileNotFoundError:
+        # Preso da una richiesta parallela (stesso upload ripetuto): segue quel job
+        shutil.rmtree(tmp, ignore_errors=True)
+        existing = JOBS.find(upload_id)
+        if existing is None:
+            return jsonify({"error": "Upload non trovato."}), 404
+        return jsonify(existing.to_dict())
+    except Exception:
+        shutil.rmtree(tmp, ignore_errors=True)
+        raise
+    if not ok:
+        shutil.rmtree(tmp, ignore_errors=True)
+        return jsonify({"error": "Il file ricevuto non corrisponde all'hash dichiarato: ricaricalo da capo."}), 422
+    return _start_job(image_path, tmp, upload_id)
+
+
+@app.route("/omr/jobs/<job_id>")
+def get_omr_job(job_id):
+    """Stato del job. Con ?wait=<s>&version=<n> attende (max 30 s) un cambiamento rispetto a version."""
+    job = JOBS.get(job_id)
+    if job is None:
+        return jsonify({"error": "Job non trovato."}), 404
+    wait = min(request.args.get("wait", 0, type=float), 30)
+    if wait > 0:
+        JOBS.wait(job, request.args.get("version", job.version, type=int), wait)
+    return jsonify(job.to_dict())
+
+
+@app.route("/omr/jobs/<job_id>/result")
+def get_omr_job_result(job_id):
+    """Risultato del job concluso, nello stesso formato della risposta di /omr."""
+    job = JOBS.get(job_id)
+    if job is None:
+        return jsonify({"error": "Job non trovato."}), 404
+    if job.status != DONE:
+        return jsonify(job.to_dict()), 409
+    result = JOBS.result(job)
+    if result is None:
+        # File del risultato sparito (es. disco ripulito): il client ricarica, la cache risponde
+        return jsonify({"error": "Risultato non più disponibile."}), 404
+    # Server-Timing del risultato: anche le fasi del job (coda, Audiveris, estrazione)
+    current().merge(job.timings)
+    response = _result_response(result)
+    # Il risultato di un job concluso non cambia più: l'app può rileggerlo dalla sua cache HTTP
+    response.headers["Cache-Control"] = f"private, max-age={JOB_TTL}"
+    return response
+
+
+@app.route("/omr/jobs/<job_id>/pages/<int:page>")
+def get_omr_job_page(job_id, page):
+    """Risultato di una singola pagina di un PDF, disponibile appena quella pagina è riconosciuta."""
+    job = JOBS.get(job_id)
+    if job is None:
+        return jsonify({"error": "Job non trovato."}), 404
+    result = JOBS.page(job, page)
+    if result is None:
+        return jsonify(job.to_dict()), 409
+    return jsonify({**result, "page": page})
+
+
+@app.route("/omr/jobs/<job_id>/events")
+def omr_job_events(job_id):
+    """
+    Stream SSE: un evento 'status' a ogni cambio di fase, un evento 'page' per ogni pagina
+    riconosciuta di un PDF, poi 'result' (o 'error') e chiusura.
+    """
+    job = JOBS.get(job_id)
+    if job is None:
+        return jsonify({"error": "Job non trovato."}), 404
+
+    def stream():
+        version = -1
+        sent_pages = set()
+        while True:
+            JOBS.wait(job, version, 15)
+            if job.version == version:
+                yield ": keep-alive\n\n"
+                continue
+            version = job.version
+            yield f"event: status\ndata: {json.dumps(job.to_dict())}\n\n"
+            for page in JOBS.pages(job):
+                if page in sent_pages:
+                    continue
+                sent_pages.add(page)
+                result = JOBS.page(job, page)
+                if result is not None:
+                    yield f"event: page\ndata: {json.dumps({**result, 'page': page})}\n\n"
+            if job.status == DONE:
+                result = JOBS.result(job)
+                if result is None:
+                    yield f"event: error\ndata: {json.dumps({**job.to_dict(), 'error': 'Risultato non più disponibile.'})}\n\n"
+                    return
+                yield f"event: result\ndata: {json.dumps(result)}\n\n"
+                return
+            if job.status == FAILED:
+                yield f"event: error\ndata: {json.dumps(job.to_dict())}\n\n"
+                return
+
+    return Response(stream(), mimetype="text/event-stream",
+                    headers={"Cache-Control": "no-cache", "X-Accel-Buffering": "no"})
+
+
+def _cache_salt(ext: str) -> str:
+    """Parte della chiave di cache oltre ai byte: versione e opzioni di Audiveris, formato input."""
+    return "|".join([AUDIVERIS_VERSION, " ".join(AUDIVERIS_ARGS), ext.lower()])
+
+
+def _result_response(result: dict):
+    """
+    Risposta di /omr e /omr/jobs/<id>/result. Con Accept il client può chiedere il file invece
+    del JSON: MXL_MIMETYPE (.mxl, ZIP) oppure MUSICXML_MIMETYPE (gzip se Accept-Encoding lo
+    consente), con i metadati negli header X-OMR-*. Evita l'escape JSON, che quasi raddoppia
+    il MusicXML, e il trasferimento non compresso. I risultati non riconosciuti sono sempre JSON.
+    """
+    best = request.accept_mimetypes.best_match(["application/json", MUSICXML_MIMETYPE, MXL_MIMETYPE])
+    with stage("serialize"):
+        if best in (None, "application/json") or not (result.get("recognized") and result.get("musicXmlExtracted")):
+            return jsonify(result)
+        music_xml = result["musicXml"].encode("utf-8")
+        headers = {"Vary": "Accept, Accept-Encoding", **_result_headers(result)}
+        if best == MXL_MIMETYPE:
+            return Response(_pack_mxl(music_xml), mimetype=MXL_MIMETYPE, headers=headers)
+        if request.accept_encodings["gzip"]:
+            music_xml = gzip.compress(music_xml, compresslevel=6)
+            headers["Content-Encoding"] = "gzip"
+        return Response(music_xml, mimetype=MUSICXML_MIMETYPE, headers=headers)
+
+
+def _result_headers(result: dict) -> dict:
+    """Campi del JSON di /omr diversi da musicXml, come header (note codificata in URL, UTF-8)."""
+    headers = {
+        "X-OMR-Recognized": "true" if result.get("recognized") else "false",
+        "X-OMR-MusicXml-Extracted": "true" if result.get("musicXmlExtracted") else "false",
+        "X-OMR-Cached": "true" if result.get("cached") else "false",
+    }
+    if "pages" in result:
+        headers["X-OMR-Pages"] = str(result["pages"])
+    if result.get("note"):
+        headers["X-OMR-Note"] = quote(result["note"], safe="")
+    return headers
+
+
+def _pack_mxl(music_xml: bytes) -> bytes:
+    """MusicXML compresso (.mxl): ZIP con META-INF/container.xml che punta a score.xml."""
+    buf = io.BytesIO()
+    with zipfile.ZipFile(buf, "w", zipfile.ZIP_DEFLATED) as z:
+        z.writestr("META-INF/container.xml", MXL_CONTAINER)
+        z.writestr("score.xml", music_xml)
+    return buf.getvalue()
+
+
+def _build_result(music_xml_path: str | None, error_note: str) -> dict:
+    """Risposta JSON di /omr a partire dall'output di run_audiveris."""
+    with stage("extract"):
+        return _read_result(music_xml_path, error_note)
+
+
+def _read_result(music_xml_path: str | None, error_note: str) -> dict:
+    if music_xml_path and os.path.exists(music_xml_path):
+        # File riconosciuto da Audiveris
+        if music_xml_path.lower().endswith(".mxl"):
+            music_xml = _extract_xml_from_mxl(music_xml_path)
+            if music_xml:
+                return {"musicXml": music_xml, "recognized": True, "musicXmlExtracted": True}
+            # Estrazione fallita: restituisci contenuto grezzo come prima (così l'app mostra "riconosciuto")
+            with open(music_xml_path, "rb") as f:
+                music_xml = f.read().decode("utf-8", errors="replace")
+            return {"musicXml": music_xml, "recognized": True, "musicXmlExtracted": False,
+                    "note": "Riconosciuto. Estrazione MusicXML non riuscita - contenuto grezzo .mxl."}
+        with open(music_xml_path, encoding="utf-8", errors="replace") as f:
+            music_xml = f.read()
+        return {"musicXml": music_xml, "recognized": True, "musicXmlExtracted": True}
+    placeholder = '<?xml version="1.0"?>\n<!-- OMR non disponibile -->\n<placeholder/>'
+    return {"musicXml": placeholder, "recognized": False, "note": error_note or "Il server non ha prodotto un risultato."}
 
 
 @app.errorhandler(RequestEntityTooLarge)
@@ -169,9 +679,40 @@ def handle_too_large(e):
     }), 413
 
 
+@app.before_request
+def _start_timing():
+    g.started = time.perf_counter()
+    g.timings_token = bind(Timings())
+
+
+@app.teardown_request
+def _stop_timing(exc):
+    token = g.pop("timings_token", None)
+    if token is not None:
+        unbind(token)
+
+
+@app.after_request
+def _record_request(response):
+    elapsed = time.perf_counter() - g.started
+    endpoint = request.url_rule.rule if request.url_rule is not None else "other"
+    HTTP_REQUESTS.inc(method=request.method, endpoint=endpoint, status=response.status_code)
+    HTTP_DURATION.observe(elapsed, method=request.method, endpoint=endpoint)
+    timings = current()
+    if timings is not None:
+        response.headers["Server-Timing"] = timings.server_timing(total=elapsed)
+    return response
+
+
+@app.route("/metrics")
+def metrics():
+    """Metriche in formato testo Prometheus (per processo)."""
+    return Response(REGISTRY.render(), mimetype="text/plain; version=0.0.4; charset=utf-8")
+
+
 @app.route("/health")
 def health():
-    return jsonify({"status": "ok"})
+    return jsonify({"status": "ok", **JOBS.load()})
 
 
 if __name__ == "__main__":
@@ -0,0 +1,134 @@
+"""
+Upload riprendibili di /omr/uploads.
+
+Il client dichiara prima SHA-256 e dimensione del file, poi invia i byte a blocchi (PUT con
+l'header Upload-Offset) che vengono accodati a un file parziale su disco, senza passare dal
+parsing multipart di Flask. Se la connessione cade, i byte già scritti restano: una nuova POST
+con lo stesso hash riporta l'offset raggiunto e l'upload riparte da lì, anche da un altro
+processo gunicorn (il file parziale è protetto da flock). Le sessioni abbandonate scadono dopo
+UPLOAD_TTL secondi.
+"""
+import fcntl
+import json
+import os
+import re
+import shutil
+import tempfile
+import time
+from pathlib import Path
+
+from omr_cache import CHUNK_SIZE, file_sha256
+
+# Sessioni non completate più vecchie di così vengono eliminate
+UPLOAD_TTL = 3600
+SHA256_RE = re.compile(r"^[0-9a-f]{64}$")
+
+
+class OffsetMismatch(Exception):
+    """Il blocco non parte dall'ultimo byte ricevuto: il client riprende da `offset`."""
+
+    def __init__(self, offset: int):
+        super().__init__(f"Offset atteso: {offset}")
+        self.offset = offset
+
+
+class UploadStore:
+    def __init__(self, directory: str, chunk_bytes: int):
+        self.dir = Path(directory)
+        self.dir.mkdir(parents=True, exist_ok=True)
+        # Dimensione dei blocchi suggerita al client: abbastanza piccola da perdere poco a ogni caduta
+        self.chunk_bytes = chunk_bytes
+
+    def _part(self, upload_id: str) -> Path:
+        return self.dir / (upload_id + ".part")
+
+    def _meta(self, upload_id: str) -> Path:
+        return self.dir / (upload_id + ".json")
+
+    def open(self, upload_id: str, meta: dict) -> int:
+        """Crea la sessione se non esiste ancora; restituisce i byte già ricevuti."""
+        self._purge()
+        meta_path = self._meta(upload_id)
+        if not meta_path.exists():
+            fd, tmp = tempfile.mkstemp(dir=self.dir, suffix=".tmp")
+            with os.fdopen(fd, "w", encoding="utf-8") as f:
+                json.dump(meta, f)
+            os.replace(tmp, meta_path)
+        part = self._part(upload_id)
+        with open(part, "ab") as f:
+            offset = f.tell()
+        # Sessione toccata: non scade mentre il client riprende
+        os.utime(part)
+        return offset
+
+    def meta(self, upload_id: str) -> dict | None:
+        """Hash, dimensione ed estensione dichiarati alla creazione, o None se la sessione non esiste."""
+        if not SHA256_RE.match(upload_id):
+            return None
+        try:
+            with open(self._meta(upload_id), encoding="utf-8") as f:
+                return json.load(f)
+        except (OSError, ValueError):
+            return None
+
+    def append(self, upload_id: str, offset: int, stream, size: int) -> int:
+        """
+        Accoda lo stream al file parziale se `offset` è l'ultimo byte ricevuto (altrimenti
+        OffsetMismatch) e restituisce il nuovo offset. I byte letti prima di un'interruzione
+        della connessione restano scritti.
+        """
+        with open(self._part(upload_id), "r+b") as f:
+            fcntl.flock(f, fcntl.LOCK_EX)
+            current = f.seek(0, os.SEEK_END)
+            if current != offset:
+                raise OffsetMismatch(current)
+            try:
+                while current < size:
+                    chunk = stream.read(min(CHUNK_SIZE, size - current))
+                    if not chunk:
+                        break
+                    f.write(chunk)
+                    current += len(chunk)
+            finally:
+                f.flush()
+            return current
+
+    def take(self, upload_id: str, sha256: str, dest: str) -> bool:
+        """
+        Sposta l'upload completo in `dest` se il contenuto ha l'hash dichiarato; altrimenti
+        elimina la sessione e restituisce False. FileNotFoundError se un'altra richiesta l'ha già preso.
+        """
+        part = self._part(upload_id)
+        with open(part, "rb") as f:
+            fcntl.flock(f, fcntl.LOCK_EX)
+            if not part.exists():
+                raise FileNotFoundError(str(part))
+            ok = file_sha256(str(part)) == sha256
+            if ok:
+                shutil.move(str(part), dest)
+            else:
+                part.unlink(missing_ok=True)
+        self._meta(upload_id).unlink(missing_ok=True)
+        return ok
+
+    def discard(self, upload_id: str):
+        self._part(upload_id).unlink(missing_ok=True)
+        self._meta(upload_id).unlink(missing_ok=True)
+
+    def _purge(self):
+        now = time.time()
+        for path in self.dir.glob("*.json"):
+            part = path.with_suffix(".part")
+            try:
+                updated = part.stat().st_mtime if part.exists() else path.stat().st_mtime
+            except OSError:
+                continue
+            if now - updated > UPLOAD_TTL:
+                self.discard(path.stem)
+
+
+def uploads_from_env() -> UploadStore:
+    """Sessioni in OMR_UPLOAD_DIR (default: temp di sistema), blocchi di OMR_UPLOAD_CHUNK_KB (default 512)."""
+    directory = os.environ.get("OMR_UPLOAD_DIR") or os.path.join(tempfile.gettempdir(), "omr-uploads")
+    chunk_kb = int(os.environ.get("OMR_UPLOAD_CHUNK_KB", "512"))
+    return UploadStore(directory, max(64, chunk_kb) * 1024)
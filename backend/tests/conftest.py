@@ -0,0 +1,6 @@
+"""I test importano i moduli del backend come fa omr_server.py (dalla cartella backend/)."""
+import os
+import sys
+
+BACKEND_DIR = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+sys.path.insert(0, BACKEND_DIR)
@@ -0,0 +1,134 @@
+"""
+AudiverisPool con lo stub di loadtest/ come worker: mai più JVM vive di `size`, nemmeno se una
+richiesta arriva mentre prewarm ne sta avviando una, e più job di fila sullo stesso processo.
+
+Con AUDIVERIS_WORKER_CMD e OMR_SAMPLE_IMAGE impostati (es. nell'immagine Docker) lo stesso
+controllo gira sul worker Audiveris vero: due riconoscimenti di fila sulla stessa JVM.
+"""
+import os
+import sys
+import threading
+import time
+
+import pytest
+
+from audiveris_pool import AudiverisPool, WorkerFailed, pool_from_env
+
+STUB = os.path.join(os.path.dirname(os.path.dirname(os.path.abspath(__file__))), "loadtest", "audiveris_stub.py")
+# Come omr_server.AUDIVERIS_ARGS
+AUDIVERIS_ARGS = ["-batch", "-transcribe", "-export"]
+
+
+def _stub_pool(size: int, startup_ms: int = 0, fail_percent: int = 0) -> AudiverisPool:
+    env = {**os.environ, "STUB_STARTUP_MS": str(startup_ms), "STUB_DELAY_MS": "50", "STUB_JITTER_MS": "0",
+           "STUB_CPU": "0", "STUB_MEMORY_MB": "0", "STUB_OUTPUT_KB": "1", "STUB_FAIL_PERCENT": str(fail_percent)}
+    return AudiverisPool([sys.executable, STUB, "--worker"], env, size=size, max_jobs=50, max_rss_mb=0,
+                         startup_timeout=10)
+
+
+def _job(tmp_path, name: str) -> tuple[list[str], str]:
+    image = tmp_path / (name + ".png")
+    image.write_bytes(name.encode("utf-8") * 64)
+    output = tmp_path / ("out_" + name)
+    return [*AUDIVERIS_ARGS, "-output", str(output), str(image)], str(output / (name + ".mxl"))
+
+
+def _worker_pids(pool: AudiverisPool) -> list[int]:
+    return [worker.proc.pid for worker in pool._idle]
+
+
+def _close(pool: AudiverisPool):
+    for worker in list(pool._idle):
+        worker.kill()
+
+
+def test_request_during_prewarm_waits_for_the_warming_worker(tmp_path):
+    pool = _stub_pool(size=1, startup_ms=700)
+    try:
+        pool.prewarm()
+        time.sleep(0.1)  # prewarm sta avviando l'unico worker
+        args, output = _job(tmp_path, "a")
+        pool.run(args, timeout=10)
+        assert os.path.isfile(output)
+        assert pool.live == 1
+        assert len(_worker_pids(pool)) == 1
+    finally:
+        _close(pool)
+
+
+def test_burst_never_exceeds_size(tmp_path):
+    pool = _stub_pool(size=2, startup_ms=300)
+    try:
+        pool.prewarm()
+        jobs = [_job(tmp_path, f"p{i}") for i in range(6)]
+        threads = [threading.Thread(target=pool.run, args=(args,), kwargs={"timeout": 10}) for args, _ in jobs]
+        for t in threads:
+            t.start()
+        for t in threads:
+            t.join()
+        assert all(os.path.isfile(output) for _, output in jobs)
+        assert pool.live <= 2
+        assert len(_worker_pids(pool)) == pool.live
+    finally:
+        _close(pool)
+
+
+def test_consecutive_jobs_reuse_the_worker(tmp_path):
+    pool = _stub_pool(size=1)
+    try:
+        first, first_output = _job(tmp_path, "uno")
+        pool.run(first, timeout=10)
+        pids = _worker_pids(pool)
+        second, second_output = _job(tmp_path, "due")
+        pool.run(second, timeout=10)
+        assert os.path.isfile(first_output) and os.path.isfile(second_output)
+        assert _worker_pids(pool) == pids
+    finally:
+        _close(pool)
+
+
+def test_failed_job_discards_the_worker(tmp_path):
+    pool = _stub_pool(size=1, fail_percent=100)
+    try:
+        pool.prewarm()
+        args, _ = _job(tmp_path, "rotto")
+        with pytest.raises(WorkerFailed):
+            pool.run(args, timeout=10)
+        # Nessuna JVM riusata dopo un errore: il job successivo (o il fallback) parte da zero
+        assert pool.live == 0
+        assert _worker_pids(pool) == []
+    finally:
+        _close(pool)
+
+
+def test_failed_start_frees_the_slot(tmp_path):
+    pool = AudiverisPool([sys.executable, "-c", "pass"], dict(os.environ), size=1, max_jobs=50, max_rss_mb=0,
+                         startup_timeout=5)
+    args, _ = _job(tmp_path, "x")
+    for _ in range(2):
+        with pytest.raises(Exception):
+            pool.run(args, timeout=5)
+    assert pool.live == 0
+
+
+@pytest.mark.skipif(not (os.environ.get("AUDIVERIS_WORKER_CMD") and os.environ.get("OMR_SAMPLE_IMAGE")),
+                    reason="richiede AUDIVERIS_WORKER_CMD e OMR_SAMPLE_IMAGE (worker Audiveris vero)")
+def test_audiveris_worker_recognizes_twice_in_one_jvm(tmp_path, monkeypatch):
+    # Un solo worker, così il secondo job non può che girare sulla JVM del primo
+    monkeypatch.setenv("AUDIVERIS_POOL_SIZE", "1")
+    pool = pool_from_env(os.environ.get("JAVA_TOOL_OPTIONS", "-Xmx192m -XX:+UseSerialGC -XX:MaxMetaspaceSize=64m"))
+    sample = os.environ["OMR_SAMPLE_IMAGE"]
+    try:
+        pids = None
+        for run in ("primo", "secondo"):
+            output = tmp_path / run
+            pool.run([*AUDIVERIS_ARGS, "-output", str(output), sample], timeout=300)
+            produced = [p for ext in ("*.mxl", "*.xml") for p in output.rglob(ext)]
+            assert produced, f"{run} riconoscimento senza MusicXML"
+            # Se Audiveris chiamasse System.exit il pool avrebbe un processo nuovo a ogni job
+            assert pool.live == 1
+            if pids is None:
+                pids = _worker_pids(pool)
+            assert _worker_pids(pool) == pids, "il worker è stato riavviato tra un job e l'altro"
+    finally:
+        _close(pool)
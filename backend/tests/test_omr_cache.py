@@ -0,0 +1,95 @@
+"""Cache su disco dei risultati: chiavi, hash in streaming ed eviction LRU."""
+import hashlib
+import io
+import json
+import os
+
+from omr_cache import OmrCache, cache_from_env, cache_key, file_sha256, save_and_hash
+
+RESULT = {"musicXml": "<score-partwise/>", "recognized": True}
+
+
+def _entry_size(result: dict) -> int:
+    return len(json.dumps(result).encode("utf-8"))
+
+
+def _age(cache: OmrCache, key: str, seconds_ago: float):
+    path = cache.dir / (key + ".json")
+    t = path.stat().st_mtime - seconds_ago
+    os.utime(path, (t, t))
+
+
+def test_cache_key_depends_on_content_and_salt():
+    sha = hashlib.sha256(b"pagina").hexdigest()
+    assert cache_key(sha, "5.9.0|png") == cache_key(sha, "5.9.0|png")
+    assert cache_key(sha, "5.9.0|png") != cache_key(sha, "5.9.1|png")
+    assert cache_key(sha, "") != cache_key(hashlib.sha256(b"altra").hexdigest(), "")
+
+
+def test_save_and_hash_writes_the_stream_and_matches_file_sha256(tmp_path):
+    data = os.urandom(3 * 1024 * 1024 + 17)  # più blocchi, l'ultimo parziale
+    path = tmp_path / "input.png"
+    key = save_and_hash(io.BytesIO(data), str(path), salt="s")
+    assert path.read_bytes() == data
+    assert file_sha256(str(path)) == hashlib.sha256(data).hexdigest()
+    assert key == cache_key(hashlib.sha256(data).hexdigest(), "s")
+
+
+def test_put_then_get(tmp_path):
+    cache = OmrCache(str(tmp_path), 1024 * 1024)
+    cache.put("k", RESULT)
+    assert cache.get("k") == RESULT
+    assert cache.get("assente") is None
+    assert cache.size_bytes == _entry_size(RESULT)
+
+
+def test_overwrite_keeps_size_accounting(tmp_path):
+    cache = OmrCache(str(tmp_path), 1024 * 1024)
+    cache.put("k", RESULT)
+    bigger = {**RESULT, "note": "x" * 100}
+    cache.put("k", bigger)
+    assert cache.size_bytes == _entry_size(bigger)
+
+
+def test_corrupt_entry_is_a_miss(tmp_path):
+    cache = OmrCache(str(tmp_path), 1024 * 1024)
+    (tmp_path / "rotta.json").write_text("{non json", encoding="utf-8")
+    assert cache.get("rotta") is None
+
+
+def test_result_larger_than_cache_is_not_stored(tmp_path):
+    cache = OmrCache(str(tmp_path), 10)
+    cache.put("k", RESULT)
+    assert cache.get("k") is None
+    assert cache.size_bytes == 0
+
+
+def test_eviction_removes_least_recently_used(tmp_path):
+    size = _entry_size(RESULT)
+    cache = OmrCache(str(tmp_path), 2 * size)
+    cache.put("vecchio", RESULT)
+    cache.put("usato", RESULT)
+    _age(cache, "vecchio", 100)
+    _age(cache, "usato", 200)
+    # Letto di recente: torna il più nuovo, quindi esce "vecchio"
+    assert cache.get("usato") == RESULT
+    cache.put("nuovo", RESULT)
+    assert cache.get("vecchio") is None
+    assert cache.get("usato") == RESULT
+    assert cache.get("nuovo") == RESULT
+    assert cache.size_bytes <= 2 * size
+
+
+def test_size_is_recomputed_from_existing_entries(tmp_path):
+    OmrCache(str(tmp_path), 1024 * 1024).put("k", RESULT)
+    assert OmrCache(str(tmp_path), 1024 * 1024).size_bytes == _entry_size(RESULT)
+
+
+def test_cache_from_env(tmp_path, monkeypatch):
+    monkeypatch.setenv("OMR_CACHE_MAX_MB", "0")
+    assert cache_from_env() is None
+    monkeypatch.setenv("OMR_CACHE_MAX_MB", "2")
+    monkeypatch.setenv("OMR_CACHE_DIR", str(tmp_path / "cache"))
+    cache = cache_from_env()
+    assert cache.max_bytes == 2 * 1024 * 1024
+    assert cache.dir == tmp_path / "cache"
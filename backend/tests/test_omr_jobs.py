@@ -0,0 +1,140 @@
+"""JobStore: risultati su disco invece che in memoria, limite della coda."""
+import os
+import threading
+import time
+
+import pytest
+
+from omr_jobs import DONE, FAILED, JOB_TTL, JobStore, QueueFull
+
+XML = "<score-partwise>" + "<measure/>" * 1000 + "</score-partwise>"
+
+
+def _wait(store: JobStore, job):
+    while job.status not in (DONE, FAILED):
+        store.wait(job, job.version, 5)
+    return job
+
+
+def test_result_is_kept_on_disk_not_on_the_job(tmp_path):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    job = _wait(store, store.submit(lambda progress: {"musicXml": XML, "recognized": True}, key="k"))
+    assert job.status == DONE
+    assert not hasattr(job, "result")
+    assert job.result_path.startswith(str(tmp_path))
+    assert store.result(job) == {"musicXml": XML, "recognized": True}
+    assert store.find("k") is job
+
+
+def test_unrecognized_result_is_not_shared(tmp_path):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    job = _wait(store, store.submit(lambda progress: {"recognized": False, "note": "niente"}, key="k"))
+    assert store.result(job)["note"] == "niente"
+    assert store.find("k") is None
+
+
+def test_completed_job_reads_back_the_cached_result(tmp_path):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    job = store.completed({"musicXml": XML, "recognized": True, "cached": True}, key="k")
+    assert job.status == DONE
+    assert store.result(job)["cached"] is True
+    assert store.find("k") is job
+
+
+def test_pages_are_written_as_they_finish(tmp_path):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    released = threading.Event()
+
+    def work(progress):
+        progress.pages(2)
+        progress.page_done(1, {"musicXml": "<p1/>", "recognized": True})
+        released.wait(5)
+        progress.page_done(2, {"musicXml": "<p2/>", "recognized": True})
+        return {"musicXml": "<p1/><p2/>", "recognized": True}
+
+    job = store.submit(work)
+    while store.pages(job) != [1]:
+        store.wait(job, job.version, 5)
+    assert store.page(job, 1)["musicXml"] == "<p1/>"
+    assert store.page(job, 2) is None
+    released.set()
+    _wait(store, job)
+    assert store.pages(job) == [1, 2]
+    assert store.page(job, 2)["musicXml"] == "<p2/>"
+
+
+def test_failed_job_has_no_result(tmp_path):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+
+    def work(progress):
+        raise RuntimeError("Audiveris")
+
+    job = _wait(store, store.submit(work, key="k"))
+    assert job.status == FAILED
+    assert store.result(job) is None
+    assert store.find("k") is None
+
+
+def test_expired_jobs_delete_their_files(tmp_path, monkeypatch):
+    store = JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    job = store.completed({"musicXml": XML, "recognized": True}, key="k")
+    assert list(tmp_path.glob("*.json"))
+    job.updated = time.time() - JOB_TTL - 1
+    store.completed({"recognized": False})  # purge alla prossima operazione
+    assert store.get(job.id) is None
+    assert store.find("k") is None
+    assert not (tmp_path / (job.id + ".json")).exists()
+
+
+def test_orphaned_results_are_removed_at_startup(tmp_path):
+    orphan = tmp_path / "vecchio.json"
+    recent = tmp_path / "recente.json"
+    orphan.write_text("{}")
+    recent.write_text("{}")
+    old = time.time() - JOB_TTL - 1
+    os.utime(orphan, (old, old))
+    JobStore(workers=1, max_queued=4, results_dir=str(tmp_path))
+    assert not orphan.exists()
+    assert recent.exists()
+
+
+def _blocked(store: JobStore, count: int, released: threading.Event) -> list:
+    """Accoda `count` job che restano in esecuzione finché `released` non è impostato."""
+    return [store.submit(lambda progress: released.wait(5) and {"recognized": False}) for _ in range(count)]
+
+
+def test_idle_worker_takes_a_job_with_no_queue(tmp_path):
+    store = JobStore(workers=1, max_queued=0, results_dir=str(tmp_path))
+    job = _wait(store, store.submit(lambda progress: {"recognized": False}))
+    assert job.status == DONE
+    # Anche subito dopo, a worker di nuovo libero
+    assert _wait(store, store.submit(lambda progress: {"recognized": False})).status == DONE
+
+
+def test_burst_fills_workers_then_queue(tmp_path):
+    store = JobStore(workers=2, max_queued=1, results_dir=str(tmp_path))
+    released = threading.Event()
+    try:
+        # Tutti insieme, prima che i worker prendano i job: ne entrano workers + max_queued
+        jobs = _blocked(store, 3, released)
+        with pytest.raises(QueueFull) as error:
+            store.submit(lambda progress: {"recognized": False})
+        assert error.value.position == 2
+        assert store.load()["queued"] <= 1
+    finally:
+        released.set()
+    for job in jobs:
+        assert _wait(store, job).status == DONE
+    assert store.load() == {"running": 0, "queued": 0, "workers": 2, "maxQueued": 1}
+
+
+def test_busy_workers_with_no_queue_reject(tmp_path):
+    store = JobStore(workers=1, max_queued=0, results_dir=str(tmp_path))
+    released = threading.Event()
+    try:
+        job, = _blocked(store, 1, released)
+        with pytest.raises(QueueFull):
+            store.submit(lambda progress: {"recognized": False})
+    finally:
+        released.set()
+    assert _wait(store, job).status == DONE
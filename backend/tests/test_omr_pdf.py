@@ -0,0 +1,81 @@
+"""Unione dei MusicXML delle pagine di un PDF: misure rinumerate e parti sempre allineate."""
+import xml.etree.ElementTree as ET
+
+from omr_pdf import XML_HEADER, merge_music_xml
+
+
+def _page(*parts: list[str], names: list[str] | None = None) -> str:
+    """Partitura di una pagina: una lista di note (step) per parte, una misura per nota."""
+    ids = [f"P{i}" for i in range(1, len(parts) + 1)]
+    names = names or ids
+    score_parts = "".join(f'<score-part id="{pid}"><part-name>{name}</part-name></score-part>'
+                          for pid, name in zip(ids, names))
+    body = "".join(
+        f'<part id="{pid}">' + "".join(
+            f'<measure number="{n}"><note><pitch><step>{step}</step><octave>4</octave></pitch>'
+            f"<duration>4</duration></note></measure>"
+            for n, step in enumerate(steps, start=1)) + "</part>"
+        for pid, steps in zip(ids, parts))
+    return XML_HEADER + f'<score-partwise version="4.0"><part-list>{score_parts}</part-list>{body}</score-partwise>'
+
+
+def _parse(xml: str) -> ET.Element:
+    return ET.fromstring(xml[len(XML_HEADER):])
+
+
+def _steps(part: ET.Element) -> list[str]:
+    """Nota di ogni misura della parte, "" per le misure vuote."""
+    return [m.findtext("note/pitch/step", "") for m in part.findall("measure")]
+
+
+def _numbers(part: ET.Element) -> list[int]:
+    return [int(m.get("number")) for m in part.findall("measure")]
+
+
+def test_pages_are_appended_in_order_and_renumbered():
+    xml, mismatched = merge_music_xml([_page(["C", "D"], ["E", "F"]), _page(["G"], ["A"])])
+    root = _parse(xml)
+    parts = root.findall("part")
+    assert mismatched == []
+    assert [_steps(p) for p in parts] == [["C", "D", "G"], ["E", "F", "A"]]
+    assert all(_numbers(p) == [1, 2, 3] for p in parts)
+    # La prima misura di ogni pagina successiva va a capo pagina
+    assert parts[0].findall("measure")[2].find("print").get("new-page") == "yes"
+    assert parts[0].findall("measure")[1].find("print") is None
+
+
+def test_page_with_fewer_parts_pads_the_missing_ones():
+    xml, mismatched = merge_music_xml([_page(["C"], ["E"]), _page(["G", "A"]), _page(["B"], ["D"])])
+    parts = _parse(xml).findall("part")
+    assert mismatched == [2]
+    assert _steps(parts[0]) == ["C", "G", "A", "B"]
+    assert _steps(parts[1]) == ["E", "", "", "D"]
+    assert _numbers(parts[1]) == [1, 2, 3, 4]
+
+
+def test_page_with_more_parts_adds_them_instead_of_dropping_notes():
+    xml, mismatched = merge_music_xml([_page(["C", "D"]), _page(["E"], ["F"], names=["Violino", "Viola"])])
+    root = _parse(xml)
+    parts = root.findall("part")
+    assert mismatched == [2]
+    assert [p.get("id") for p in parts] == ["P1", "P2"]
+    assert _steps(parts[0]) == ["C", "D", "E"]
+    assert _steps(parts[1]) == ["", "", "F"]
+    score_parts = root.findall("part-list/score-part")
+    assert [sp.get("id") for sp in score_parts] == ["P1", "P2"]
+    assert score_parts[1].findtext("part-name") == "Viola"
+
+
+def test_parts_of_the_first_page_end_together():
+    xml, _ = merge_music_xml([_page(["C", "D", "E"], ["F"]), _page(["G"], ["A"])])
+    parts = _parse(xml).findall("part")
+    assert _steps(parts[1]) == ["F", "", "", "A"]
+    assert all(_numbers(p) == [1, 2, 3, 4] for p in parts)
+
+
+def test_invalid_pages_are_skipped():
+    xml, mismatched = merge_music_xml(["<non-xml", "<score-timewise/>", _page(["C"]), _page(["D"])])
+    assert mismatched == []
+    assert _steps(_parse(xml).find("part")) == ["C", "D"]
+    assert merge_music_xml(["<non-xml"]) == (None, [])
+    assert merge_music_xml([]) == (None, [])
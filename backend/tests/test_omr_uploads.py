@@ -0,0 +1,203 @@
+"""Upload riprendibili: offset, ripresa dopo una caduta, hash, blocchi concorrenti e scadenza."""
+import hashlib
+import io
+import os
+import threading
+import time
+
+import pytest
+
+import omr_uploads
+from omr_uploads import UPLOAD_TTL, OffsetMismatch, UploadStore, uploads_from_env
+
+DATA = os.urandom(200 * 1024 + 3)
+SHA = hashlib.sha256(DATA).hexdigest()
+META = {"sha256": SHA, "size": len(DATA), "ext": ".png"}
+
+
+class DroppedStream:
+    """Stream che si interrompe dopo `limit` byte, come una connessione caduta a metà PUT."""
+
+    def __init__(self, data: bytes, limit: int):
+        self._data = io.BytesIO(data[:limit])
+
+    def read(self, n: int) -> bytes:
+        chunk = self._data.read(n)
+        if not chunk:
+            raise OSError("connessione chiusa")
+        return chunk
+
+
+class GatedStream:
+    """Stream che si ferma a metà finché `released` non è impostato, tenendo il lock del file."""
+
+    def __init__(self, data: bytes, started: threading.Event, released: threading.Event):
+        self._data = io.BytesIO(data)
+        self._half = len(data) // 2
+        self._started = started
+        self._released = released
+
+    def read(self, n: int) -> bytes:
+        if self._data.tell() == 0:
+            return self._data.read(min(n, self._half))
+        self._started.set()
+        self._released.wait(5)
+        return self._data.read(n)
+
+
+def _store(tmp_path) -> UploadStore:
+    return UploadStore(str(tmp_path / "uploads"), 64 * 1024)
+
+
+def test_open_creates_the_session_and_reports_the_offset(tmp_path):
+    store = _store(tmp_path)
+    assert store.open(SHA, META) == 0
+    assert store.meta(SHA) == META
+    store.append(SHA, 0, io.BytesIO(DATA[:1000]), len(DATA))
+    # Una nuova POST con lo stesso hash riprende da dove era arrivato
+    assert store.open(SHA, {"sha256": SHA, "size": 1, "ext": ".jpg"}) == 1000
+    assert store.meta(SHA) == META
+
+
+def test_meta_of_unknown_or_invalid_ids(tmp_path):
+    store = _store(tmp_path)
+    assert store.meta(SHA) is None
+    assert store.meta("../" + SHA[3:]) is None
+    assert store.meta(SHA.upper()) is None
+
+
+def test_chunks_resume_from_the_offset(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    offset = 0
+    while offset < len(DATA):
+        end = min(len(DATA), offset + store.chunk_bytes)
+        offset = store.append(SHA, offset, io.BytesIO(DATA[offset:end]), end)
+    assert offset == len(DATA)
+    dest = tmp_path / "pagina.png"
+    assert store.take(SHA, SHA, str(dest)) is True
+    assert dest.read_bytes() == DATA
+
+
+def test_wrong_offset_reports_the_current_one(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    store.append(SHA, 0, io.BytesIO(DATA[:500]), len(DATA))
+    for offset in (0, 400, 600):
+        with pytest.raises(OffsetMismatch) as error:
+            store.append(SHA, offset, io.BytesIO(DATA[offset:]), len(DATA))
+        assert error.value.offset == 500
+    assert store.append(SHA, 500, io.BytesIO(DATA[500:]), len(DATA)) == len(DATA)
+
+
+def test_bytes_before_a_dropped_connection_are_kept(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    with pytest.raises(OSError):
+        store.append(SHA, 0, DroppedStream(DATA, 150 * 1024), len(DATA))
+    assert store.open(SHA, META) == 150 * 1024
+    assert store.append(SHA, 150 * 1024, io.BytesIO(DATA[150 * 1024:]), len(DATA)) == len(DATA)
+    dest = tmp_path / "pagina.png"
+    assert store.take(SHA, SHA, str(dest))
+    assert dest.read_bytes() == DATA
+
+
+def test_stream_longer_than_declared_stops_at_size(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    assert store.append(SHA, 0, io.BytesIO(DATA + b"extra"), len(DATA)) == len(DATA)
+    assert store.take(SHA, SHA, str(tmp_path / "pagina.png"))
+
+
+def test_hash_mismatch_discards_the_session(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    corrupted = bytes([DATA[0] ^ 0xFF]) + DATA[1:]
+    store.append(SHA, 0, io.BytesIO(corrupted), len(DATA))
+    dest = tmp_path / "pagina.png"
+    # Il server risponde 422 e il client ricarica da capo
+    assert store.take(SHA, SHA, str(dest)) is False
+    assert not dest.exists()
+    assert store.meta(SHA) is None
+    assert list(store.dir.iterdir()) == []
+    assert store.open(SHA, META) == 0
+
+
+def test_second_take_finds_nothing(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    store.append(SHA, 0, io.BytesIO(DATA), len(DATA))
+    assert store.take(SHA, SHA, str(tmp_path / "a.png"))
+    with pytest.raises(FileNotFoundError):
+        store.take(SHA, SHA, str(tmp_path / "b.png"))
+
+
+def test_concurrent_chunk_at_the_same_offset_is_rejected(tmp_path):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    started, released = threading.Event(), threading.Event()
+    results = {}
+
+    def first():
+        results["first"] = store.append(SHA, 0, GatedStream(DATA, started, released), len(DATA))
+
+    def second():
+        try:
+            results["second"] = store.append(SHA, 0, io.BytesIO(DATA), len(DATA))
+        except OffsetMismatch as e:
+            results["second"] = e
+
+    a = threading.Thread(target=first)
+    a.start()
+    assert started.wait(5)
+    # Il primo blocco tiene il lock a metà scrittura: il secondo aspetta, poi vede l'offset finale
+    b = threading.Thread(target=second)
+    b.start()
+    time.sleep(0.1)
+    assert "second" not in results
+    released.set()
+    a.join(5)
+    b.join(5)
+    assert results["first"] == len(DATA)
+    assert isinstance(results["second"], OffsetMismatch)
+    assert results["second"].offset == len(DATA)
+    dest = tmp_path / "pagina.png"
+    assert store.take(SHA, SHA, str(dest))
+    assert dest.read_bytes() == DATA
+
+
+def test_abandoned_sessions_expire(tmp_path):
+    store = _store(tmp_path)
+    stale = hashlib.sha256(b"vecchio").hexdigest()
+    store.open(stale, {"sha256": stale, "size": 10, "ext": ".png"})
+    store.open(SHA, META)
+    old = time.time() - UPLOAD_TTL - 1
+    os.utime(store.dir / (stale + ".part"), (old, old))
+    store.open(hashlib.sha256(b"nuovo").hexdigest(), META)  # purge alla prossima sessione
+    assert store.meta(stale) is None
+    assert not (store.dir / (stale + ".part")).exists()
+    assert store.meta(SHA) == META
+
+
+def test_resumed_session_does_not_expire(tmp_path, monkeypatch):
+    store = _store(tmp_path)
+    store.open(SHA, META)
+    now = time.time()
+    old = now - UPLOAD_TTL + 60
+    os.utime(store.dir / (SHA + ".part"), (old, old))
+    # La ripresa rinnova la sessione: due minuti dopo non è scaduta, anche se è nata più di un'ora prima
+    store.open(SHA, META)
+    monkeypatch.setattr(omr_uploads.time, "time", lambda: now + 120)
+    store.open(hashlib.sha256(b"nuovo").hexdigest(), META)
+    assert store.meta(SHA) == META
+
+
+def test_uploads_from_env(tmp_path, monkeypatch):
+    monkeypatch.setenv("OMR_UPLOAD_DIR", str(tmp_path / "env"))
+    monkeypatch.setenv("OMR_UPLOAD_CHUNK_KB", "8")
+    store = uploads_from_env()
+    assert store.dir == tmp_path / "env"
+    assert store.dir.is_dir()
+    assert store.chunk_bytes == 64 * 1024  # mai sotto 64 KB
+    monkeypatch.setenv("OMR_UPLOAD_CHUNK_KB", "1024")
+    assert uploads_from_env().chunk_bytes == 1024 * 1024
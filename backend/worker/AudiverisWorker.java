@@ -0,0 +1,51 @@
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Worker Audiveris persistente usato da audiveris_pool.py: la JVM resta calda tra una richiesta
+ * e l'altra (niente avvio JVM, class loading e init OCR per ogni /omr).
+ *
+ * Protocollo su stdin/stdout, una riga per job:
+ *   richiesta: argomenti CLI di Audiveris separati da TAB (es. -batch\t-transcribe\t...)
+ *   risposta:  "@@OMR <exit>\t<errore>" (exit 0 = ok)
+ * All'avvio il worker scrive "@@OMR READY". I log di Audiveris vanno su stderr.
+ * Se Audiveris chiama System.exit il processo termina e il pool lo ricrea: che due job di fila
+ * girino sulla stessa JVM lo verifica tests/test_audiveris_pool.py (vedi il README).
+ */
+public final class AudiverisWorker {
+
+    private static final String PREFIX = "@@OMR ";
+
+    public static void main(String[] ignored) throws Exception {
+        PrintStream protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        System.setOut(System.err);
+
+        String mainClass = System.getProperty("audiveris.main", "org.audiveris.omr.Main");
+        Method audiverisMain = Class.forName(mainClass).getMethod("main", String[].class);
+        protocol.println(PREFIX + "READY");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            int exit = 0;
+            String error = "";
+            try {
+                audiverisMain.invoke(null, (Object) line.split("\t"));
+            } catch (InvocationTargetException e) {
+                exit = 1;
+                error = String.valueOf(e.getCause());
+            } catch (Throwable t) {
+                exit = 1;
+                error = String.valueOf(t);
+            }
+            protocol.println(PREFIX + exit + "\t" + error.replace('\n', ' ').replace('\t', ' '));
+        }
+    }
+}
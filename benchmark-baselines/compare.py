@@ -0,0 +1,62 @@
+#!/usr/bin/env python3
+"""
+Confronta i risultati JSON di Jetpack Benchmark (micro e macro) con una baseline registrata.
+
+    python3 compare.py baseline.json risultati.json [--tolerance 10]
+
+Per ogni benchmark presente in entrambi i file confronta la mediana di ogni metrica (timeNs,
+timeToInitialDisplayMs, sezioni di traccia, ...) e i percentili P50/P90 delle metriche campionate
+(frameDurationCpuMs, frameOverrunMs). Esce con codice 1 se qualcosa peggiora oltre la tolleranza.
+"""
+import argparse
+import json
+import sys
+
+
+def load(path: str) -> dict[str, dict[str, float]]:
+    """{ "Classe.metodo[parametri]": { "metrica.statistica": valore } }"""
+    with open(path, encoding="utf-8") as f:
+        data = json.load(f)
+    results = {}
+    for bench in data.get("benchmarks", []):
+        name = f'{bench["className"].rsplit(".", 1)[-1]}.{bench["name"]}'
+        values = {}
+        for metric, stats in bench.get("metrics", {}).items():
+            if "median" in stats:
+                values[f"{metric}.median"] = stats["median"]
+        for metric, stats in bench.get("sampledMetrics", {}).items():
+            for percentile in ("P50", "P90"):
+                if percentile in stats:
+                    values[f"{metric}.{percentile}"] = stats[percentile]
+        results[name] = values
+    return results
+
+
+def main() -> int:
+    parser = argparse.ArgumentParser(description=__doc__.strip().splitlines()[0])
+    parser.add_argument("baseline")
+    parser.add_argument("current")
+    parser.add_argument("--tolerance", type=float, default=10.0, help="peggioramento ammesso, in %% (default 10)")
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    current = load(args.current)
+    regressions = 0
+    for name in sorted(baseline.keys() & current.keys()):
+        for metric in sorted(baseline[name].keys() & current[name].keys()):
+            before, after = baseline[name][metric], current[name][metric]
+            change = (after - before) / before * 100 if before else 0.0
+            flag = ""
+            # Tutte le metriche sono tempi: più alto è peggio
+            if change > args.tolerance:
+                flag = "  << REGRESSIONE"
+                regressions += 1
+            print(f"{name:60} {metric:40} {before:12.2f} -> {after:12.2f} {change:+7.1f}%{flag}")
+    for name in sorted(baseline.keys() - current.keys()):
+        print(f"{name:60} assente nei risultati")
+    print(f"\n{regressions} regressioni oltre il {args.tolerance:g}%")
+    return 1 if regressions else 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,45 @@
+package com.example.tabler.macrobenchmark;
+
+import android.content.Intent;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.BySelector;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+
+/** Shared by the benchmarks: the app under test, its views and library seeding. */
+final class BenchmarkSupport {
+
+    static final String TARGET_PACKAGE = "com.example.tabler";
+
+    private static final long SEED_TIMEOUT_MS = 5 * 60 * 1000;
+    static final long UI_TIMEOUT_MS = 10_000;
+
+    private BenchmarkSupport() {}
+
+    static BySelector view(String id) {
+        return By.res(TARGET_PACKAGE, id);
+    }
+
+    /**
+     * Clears the app's data and adds {@code count} unrecognized items with generated pages, via
+     * BenchmarkSeedActivity (benchmark build type only).
+     */
+    static void seed(MacrobenchmarkScope scope, int count) {
+        try {
+            scope.getDevice().executeShellCommand("pm clear " + TARGET_PACKAGE);
+        } catch (IOException e) {
+            throw new IllegalStateException("pm clear failed", e);
+        }
+        Intent intent = new Intent()
+                .setClassName(TARGET_PACKAGE, TARGET_PACKAGE + ".BenchmarkSeedActivity")
+                .putExtra("count", count);
+        scope.startActivityAndWait(intent);
+        if (!scope.getDevice().wait(Until.hasObject(By.text("seeded")), SEED_TIMEOUT_MS)) {
+            throw new IllegalStateException("Seeding " + count + " items did not finish");
+        }
+        scope.pressHome();
+    }
+}
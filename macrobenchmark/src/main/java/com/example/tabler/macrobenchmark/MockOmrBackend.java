@@ -0,0 +1,131 @@
+package com.example.tabler.macrobenchmark;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Stand-in for the OMR backend on the device's loopback (the benchmark build of the app points at
+ * it): every upload is recognized at once, so the benchmark measures the app, not Audiveris.
+ * Answers like the real server: resumable upload in chunks, job done on the last one, gzip MusicXML
+ * result with X-OMR-* headers.
+ */
+final class MockOmrBackend implements AutoCloseable {
+
+    static final int PORT = 8090;
+    private static final String JOB_ID = "0123456789abcdef0123456789abcdef";
+    private static final String JOB_DONE =
+            "{\"jobId\":\"" + JOB_ID + "\",\"status\":\"done\",\"stage\":\"done\",\"version\":2}";
+
+    private final MockWebServer server = new MockWebServer();
+    private static final String UPLOAD_ID = "fedcba9876543210fedcba9876543210fedcba9876543210fedcba9876543210";
+    private static final long CHUNK_BYTES = 512 * 1024;
+    private static final Pattern SIZE = Pattern.compile("\"size\"\\s*:\\s*(\\d+)");
+
+    private final Buffer musicXml = gzippedScore(200);
+    /** Size declared by the last POST /omr/uploads: the chunk reaching it starts the job. */
+    private volatile long uploadSize;
+
+    MockOmrBackend() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @NonNull
+            @Override
+            public MockResponse dispatch(@NonNull RecordedRequest request) {
+                String path = request.getPath() != null ? request.getPath() : "";
+                if (path.startsWith("/health")) {
+                    return json("{\"status\":\"ok\"}");
+                }
+                if ("POST".equals(request.getMethod()) && path.equals("/omr/uploads")) {
+                    uploadSize = declaredSize(request.getBody().readUtf8());
+                    return json("{\"uploadId\":\"" + UPLOAD_ID + "\",\"offset\":0,\"size\":" + uploadSize
+                            + ",\"chunkSize\":" + CHUNK_BYTES + "}").setResponseCode(201);
+                }
+                if ("PUT".equals(request.getMethod()) && path.startsWith("/omr/uploads/")) {
+                    String header = request.getHeader("Upload-Offset");
+                    long offset = (header != null ? Long.parseLong(header) : 0) + request.getBodySize();
+                    if (offset < uploadSize) {
+                        return json("{\"uploadId\":\"" + UPLOAD_ID + "\",\"offset\":" + offset
+                                + ",\"size\":" + uploadSize + "}");
+                    }
+                    return json(JOB_DONE).setResponseCode(202);
+                }
+                if ("POST".equals(request.getMethod()) && path.equals("/omr/jobs")) {
+                    return json(JOB_DONE);
+                }
+                if (path.startsWith("/omr/jobs/") && path.contains("/result")) {
+                    return new MockResponse()
+                            .setHeader("Content-Type", "application/vnd.recordare.musicxml+xml")
+                            .setHeader("Content-Encoding", "gzip")
+                            .setHeader("X-OMR-Recognized", "true")
+                            .setHeader("X-OMR-MusicXml-Extracted", "true")
+                            .setHeader("X-OMR-Cached", "false")
+                            .setHeader("Server-Timing", "serialize;dur=0.1, total;dur=0.5")
+                            .setBody(musicXml.clone());
+                }
+                if (path.startsWith("/omr/jobs/")) {
+                    return json(JOB_DONE);
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        server.start(InetAddress.getByName("127.0.0.1"), PORT);
+    }
+
+    private static long declaredSize(String json) {
+        Matcher m = SIZE.matcher(json);
+        return m.find() ? Long.parseLong(m.group(1)) : 0;
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Server-Timing", "total;dur=0.2")
+                .setBody(body);
+    }
+
+    /** A one-part score of {@code measures} measures of quarter notes, gzip-compressed. */
+    private static Buffer gzippedScore(int measures) {
+        StringBuilder xml = new StringBuilder()
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<score-partwise version=\"3.1\"><part-list><score-part id=\"P1\">")
+                .append("<part-name>Music</part-name></score-part></part-list><part id=\"P1\">\n");
+        String[] steps = {"C", "D", "E", "F", "G", "A", "B"};
+        for (int m = 1; m <= measures; m++) {
+            xml.append("<measure number=\"").append(m).append("\">");
+            if (m == 1) {
+                xml.append("<attributes><divisions>1</divisions><time><beats>4</beats><beat-type>4</beat-type>")
+                        .append("</time><clef><sign>G</sign><line>2</line></clef></attributes>");
+            }
+            for (int n = 0; n < 4; n++) {
+                xml.append("<note><pitch><step>").append(steps[(m + n) % steps.length])
+                        .append("</step><octave>4</octave></pitch><duration>1</duration><type>quarter</type></note>");
+            }
+            xml.append("</measure>\n");
+        }
+        xml.append("</part></score-partwise>\n");
+        Buffer buffer = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(buffer))) {
+            sink.writeUtf8(xml.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.shutdown();
+    }
+}
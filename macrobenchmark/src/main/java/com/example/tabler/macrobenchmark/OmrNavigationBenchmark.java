@@ -0,0 +1,80 @@
+package com.example.tabler.macrobenchmark;
+
+import androidx.annotation.OptIn;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.ExperimentalMetricApi;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.Until;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import kotlin.Unit;
+
+/**
+ * Opening an unrecognized score: list → RisultatoOmrFragment → OMR worker (pre-processing,
+ * upload, result download) → result shown, against {@link MockOmrBackend}. Besides frame timing,
+ * reports the app's PerfTracer sections for the worker run and the result rendering.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class OmrNavigationBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final long RESULT_TIMEOUT_MS = 60_000;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private MockOmrBackend backend;
+
+    @Before
+    public void startBackend() throws IOException {
+        backend = new MockOmrBackend();
+    }
+
+    @After
+    public void stopBackend() throws IOException {
+        backend.close();
+    }
+
+    @OptIn(markerClass = ExperimentalMetricApi.class)
+    @Test
+    public void openScoreAndRecognize() {
+        benchmarkRule.measureRepeated(
+                BenchmarkSupport.TARGET_PACKAGE,
+                Arrays.asList(new FrameTimingMetric(),
+                        new TraceSectionMetric("Tabler:omr_worker"),
+                        new TraceSectionMetric("Tabler:result_render")),
+                CompilationMode.DEFAULT,
+                null,
+                ITERATIONS,
+                scope -> {
+                    // A fresh, unrecognized item every time: a recognized one would open from the library
+                    BenchmarkSupport.seed(scope, 1);
+                    scope.startActivityAndWait();
+                    scope.getDevice().wait(Until.hasObject(BenchmarkSupport.view("item_titolo")),
+                            BenchmarkSupport.UI_TIMEOUT_MS);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    device.findObject(BenchmarkSupport.view("item_titolo")).click();
+                    if (!device.wait(Until.hasObject(BenchmarkSupport.view("risultato_score")), RESULT_TIMEOUT_MS)) {
+                        throw new IllegalStateException("No OMR result within " + RESULT_TIMEOUT_MS + " ms");
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+}
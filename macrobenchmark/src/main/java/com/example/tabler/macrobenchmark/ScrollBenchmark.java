@@ -0,0 +1,64 @@
+package com.example.tabler.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/** Frame timing while flinging the home list of 1,000 scores, each with its own thumbnail. */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class ScrollBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int LIBRARY_ITEMS = 1000;
+    private static final int FLINGS = 5;
+    private static boolean seeded;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void scrollLibrary() {
+        benchmarkRule.measureRepeated(
+                BenchmarkSupport.TARGET_PACKAGE,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT,
+                null,
+                ITERATIONS,
+                scope -> {
+                    if (!seeded) {
+                        BenchmarkSupport.seed(scope, LIBRARY_ITEMS);
+                        seeded = true;
+                    }
+                    scope.startActivityAndWait();
+                    scope.getDevice().wait(Until.hasObject(BenchmarkSupport.view("item_titolo")),
+                            BenchmarkSupport.UI_TIMEOUT_MS);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    UiObject2 list = device.findObject(BenchmarkSupport.view("recycler_spartiti"));
+                    // Keep the gesture off the system navigation areas
+                    list.setGestureMargin(device.getDisplayWidth() / 5);
+                    for (int i = 0; i < FLINGS; i++) {
+                        list.fling(Direction.DOWN);
+                    }
+                    device.waitForIdle();
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.tabler.macrobenchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import kotlin.Unit;
+
+/**
+ * Cold and warm start of MainActivity up to the first FirstFragment list (reportFullyDrawn),
+ * without AOT compilation (as after a sideload, before the profile is installed) and compiled with
+ * the app's baseline profile (src/main/baseline-prof.txt, as after a Play install). The two give
+ * the before/after of the profile for time to first frame and to the full list.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+    private static final int LIBRARY_ITEMS = 50;
+    private static boolean seeded;
+
+    @Rule
+    public MacrobenchmarkRule benchmarkRule = new MacrobenchmarkRule();
+
+    private final StartupMode startupMode;
+    private final CompilationMode compilationMode;
+
+    public StartupBenchmark(StartupMode startupMode, CompilationMode compilationMode) {
+        this.startupMode = startupMode;
+        this.compilationMode = compilationMode;
+    }
+
+    @Parameterized.Parameters(name = "{0}-{1}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (StartupMode mode : new StartupMode[]{StartupMode.COLD, StartupMode.WARM}) {
+            parameters.add(new Object[]{mode, new CompilationMode.None()});
+            parameters.add(new Object[]{mode, new CompilationMode.Partial(BaselineProfileMode.Require)});
+        }
+        return parameters;
+    }
+
+    @Test
+    public void startup() {
+        benchmarkRule.measureRepeated(
+                BenchmarkSupport.TARGET_PACKAGE,
+                Collections.singletonList(new StartupTimingMetric()),
+                compilationMode,
+                startupMode,
+                ITERATIONS,
+                scope -> {
+                    if (!seeded) {
+                        BenchmarkSupport.seed(scope, LIBRARY_ITEMS);
+                        seeded = true;
+                    }
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    scope.getDevice().wait(Until.hasObject(BenchmarkSupport.view("item_titolo")),
+                            BenchmarkSupport.UI_TIMEOUT_MS);
+                    return Unit.INSTANCE;
+                });
+    }
+}
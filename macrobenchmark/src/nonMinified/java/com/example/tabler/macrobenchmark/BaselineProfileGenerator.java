@@ -0,0 +1,139 @@
+package com.example.tabler.macrobenchmark;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import kotlin.Unit;
+
+/**
+ * Collects the app's baseline profile: startup to the list, scrolling, then capture → preview →
+ * OMR → result (against {@link MockOmrBackend}) and opening a score from the list. Runs against
+ * the app's non-minified build; the output, BaselineProfileGenerator_generate-baseline-prof.txt,
+ * replaces app/src/main/baseline-prof.txt (see benchmark-baselines/README.md).
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    private static final int LIBRARY_ITEMS = 20;
+    private static final long CAMERA_TIMEOUT_MS = 5_000;
+    private static final long RESULT_TIMEOUT_MS = 60_000;
+    private static boolean seeded;
+
+    @Rule
+    public BaselineProfileRule baselineProfileRule = new BaselineProfileRule();
+
+    private MockOmrBackend backend;
+
+    @Before
+    public void startBackend() throws IOException {
+        backend = new MockOmrBackend();
+    }
+
+    @After
+    public void stopBackend() throws IOException {
+        backend.close();
+    }
+
+    @Test
+    public void generate() {
+        baselineProfileRule.collect(
+                BenchmarkSupport.TARGET_PACKAGE,
+                15,
+                3,
+                null,
+                true,
+                false,
+                // The seeding activity exists in benchmark builds only
+                rule -> !rule.contains("BenchmarkSeedActivity"),
+                scope -> {
+                    if (!seeded) {
+                        BenchmarkSupport.seed(scope, LIBRARY_ITEMS);
+                        grantCamera(scope);
+                        seeded = true;
+                    }
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    UiDevice device = scope.getDevice();
+                    device.wait(Until.hasObject(BenchmarkSupport.view("item_titolo")), BenchmarkSupport.UI_TIMEOUT_MS);
+
+                    scrollLibrary(device);
+                    captureAndRecognize(device);
+                    openFirstScore(device);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private static void grantCamera(MacrobenchmarkScope scope) {
+        try {
+            scope.getDevice().executeShellCommand(
+                    "pm grant " + BenchmarkSupport.TARGET_PACKAGE + " android.permission.CAMERA");
+        } catch (IOException e) {
+            throw new IllegalStateException("pm grant failed", e);
+        }
+    }
+
+    private static void scrollLibrary(UiDevice device) {
+        UiObject2 list = device.findObject(BenchmarkSupport.view("recycler_spartiti"));
+        list.setGestureMargin(device.getDisplayWidth() / 5);
+        list.fling(Direction.DOWN);
+        list.fling(Direction.UP);
+        device.waitForIdle();
+    }
+
+    /**
+     * FAB → "Scatta foto" → in-app camera → preview → OMR. Whatever the camera sees, the shutter
+     * captures the frame (the whole of it if no page is found), so the flow doesn't depend on the
+     * device or the emulator's scene.
+     */
+    private static void captureAndRecognize(UiDevice device) {
+        device.findObject(BenchmarkSupport.view("fab")).click();
+        device.wait(Until.findObject(BenchmarkSupport.view("btn_scatta_foto")), BenchmarkSupport.UI_TIMEOUT_MS)
+                .click();
+        if (takePhoto(device)) {
+            device.findObject(BenchmarkSupport.view("btn_riconosci_omr")).click();
+            device.wait(Until.hasObject(BenchmarkSupport.view("risultato_score")), RESULT_TIMEOUT_MS);
+        }
+        backToList(device);
+    }
+
+    private static boolean takePhoto(UiDevice device) {
+        UiObject2 shutter = device.wait(Until.findObject(BenchmarkSupport.view("btn_shutter")), CAMERA_TIMEOUT_MS);
+        if (shutter == null) return false;
+        shutter.click();
+        return device.wait(Until.hasObject(BenchmarkSupport.view("anteprima_image")), BenchmarkSupport.UI_TIMEOUT_MS);
+    }
+
+    private static void openFirstScore(UiDevice device) {
+        device.findObject(BenchmarkSupport.view("item_titolo")).click();
+        UiObject2 score = device.wait(Until.findObject(BenchmarkSupport.view("risultato_score")), RESULT_TIMEOUT_MS);
+        if (score != null) {
+            // Scrolling renders and prefetches tiles
+            score.fling(Direction.DOWN);
+            device.waitForIdle();
+        }
+        backToList(device);
+    }
+
+    /** Presses back until the home list is shown again. */
+    private static void backToList(UiDevice device) {
+        for (int i = 0; i < 5 && !device.hasObject(BenchmarkSupport.view("recycler_spartiti")); i++) {
+            device.pressBack();
+            device.waitForIdle();
+        }
+    }
+}
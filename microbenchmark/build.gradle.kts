@@ -0,0 +1,37 @@
+plugins {
+    alias(libs.plugins.android.library)
+    alias(libs.plugins.androidx.benchmark)
+}
+
+android {
+    namespace = "com.example.tabler.microbenchmark"
+    compileSdk = 36
+
+    defaultConfig {
+        minSdk = 24
+
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
+    }
+
+    // Benchmarks measure optimized, non-debuggable code
+    testBuildType = "release"
+    buildTypes {
+        release {
+            isMinifyEnabled = false
+        }
+    }
+    sourceSets {
+        // The app code under test (OmrResponseParser, ImagePreprocessor), see app/build.gradle.kts
+        getByName("main").java.srcDir("../app/src/shared/java")
+    }
+    compileOptions {
+        sourceCompatibility = JavaVersion.VERSION_11
+        targetCompatibility = JavaVersion.VERSION_11
+    }
+}
+
+dependencies {
+    implementation(libs.appcompat)
+    androidTestImplementation(libs.ext.junit)
+    androidTestImplementation(libs.benchmark.junit4)
+}
@@ -0,0 +1,99 @@
+package com.example.tabler;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.net.Uri;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Pre-processing of a 12 MP phone photo of a page (reading, page crop, binarization, PNG),
+ * the step the OMR worker runs on every upload.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImagePreprocessorBenchmark {
+
+    private static final int PHOTO_WIDTH = 3000;
+    private static final int PHOTO_HEIGHT = 4000;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Context context = ApplicationProvider.getApplicationContext();
+    private File photo;
+
+    @Before
+    public void writePhoto() throws IOException {
+        photo = new File(context.getCacheDir(), "benchmark_photo.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(PHOTO_WIDTH, PHOTO_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        // A grey table with the white page in the middle, unevenly lit
+        canvas.drawColor(Color.rgb(90, 80, 70));
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.rgb(235, 232, 225));
+        canvas.drawRect(300, 350, PHOTO_WIDTH - 300, PHOTO_HEIGHT - 350, paint);
+        paint.setColor(Color.BLACK);
+        paint.setStrokeWidth(4);
+        for (int staff = 0; staff < 10; staff++) {
+            int top = 600 + staff * 300;
+            for (int line = 0; line < 5; line++) {
+                canvas.drawLine(400, top + line * 24, PHOTO_WIDTH - 400, top + line * 24, paint);
+            }
+            for (int note = 0; note < 24; note++) {
+                float x = 480 + note * 88;
+                float y = top + (note % 9) * 12;
+                canvas.drawOval(x, y - 9, x + 22, y + 9, paint);
+            }
+        }
+        try (OutputStream os = new FileOutputStream(photo)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    @After
+    public void deleteFiles() {
+        photo.delete();
+        deleteOutputs();
+    }
+
+    @Test
+    public void processPhoto() {
+        BenchmarkState state = benchmarkRule.getState();
+        Uri source = Uri.fromFile(photo);
+        while (state.keepRunning()) {
+            assertNotNull(ImagePreprocessor.process(context, source));
+            state.pauseTiming();
+            deleteOutputs();
+            state.resumeTiming();
+        }
+    }
+
+    private void deleteOutputs() {
+        File[] outputs = context.getCacheDir().listFiles((dir, name) -> name.startsWith("omr_"));
+        if (outputs == null) return;
+        for (File f : outputs) {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.tabler;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parsing a JSON /omr response carrying about 1 MB of MusicXML, with the escapes Python's json
+ * module produces (quotes, newlines, {@code \\u00e8}). {@link #jsonObject} is the reference: the
+ * whole-body JSONObject parsing the client did before OmrResponseParser.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OmrResponseParserBenchmark {
+
+    private static final int MEASURES = 2500;
+
+    private static String response;
+    private static long musicXmlLength;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @BeforeClass
+    public static void buildResponse() throws JSONException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<score-partwise version=\"3.1\"><work><work-title>Perchè no</work-title></work>\n");
+        for (int m = 1; m <= MEASURES; m++) {
+            xml.append("<measure number=\"").append(m).append("\">\n");
+            for (int n = 0; n < 4; n++) {
+                xml.append("  <note><pitch><step>E</step><octave>4</octave></pitch>")
+                        .append("<duration>1</duration><type>quarter</type></note>\n");
+            }
+            xml.append("</measure>\n");
+        }
+        xml.append("</score-partwise>\n");
+        musicXmlLength = xml.length();
+        response = new JSONObject()
+                .put("recognized", true)
+                .put("musicXmlExtracted", true)
+                .put("cached", false)
+                .put("musicXml", xml.toString())
+                .toString()
+                .replace("è", "\\u00e8");
+    }
+
+    @Test
+    public void streamingParser() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        Writer sink = new DiscardingWriter();
+        while (state.keepRunning()) {
+            OmrResponseParser.Result result = OmrResponseParser.parse(new StringReader(response), sink);
+            assertEquals(musicXmlLength, result.musicXmlLength);
+        }
+    }
+
+    @Test
+    public void jsonObject() throws JSONException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            String musicXml = new JSONObject(response).getString("musicXml");
+            assertEquals(musicXmlLength, musicXml.length());
+        }
+    }
+
+    /** Stands in for the MusicXML file, so that only parsing is measured. */
+    private static final class DiscardingWriter extends Writer {
+        @Override
+        public void write(int c) {}
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
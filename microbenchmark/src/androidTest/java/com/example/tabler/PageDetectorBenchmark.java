@@ -0,0 +1,74 @@
+package com.example.tabler;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The in-app camera's per-frame work on a 12 MP Y plane: page detection, which runs on every
+ * preview frame, and the perspective correction done once per capture.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageDetectorBenchmark {
+
+    private static final int FRAME_WIDTH = 4032;
+    private static final int FRAME_HEIGHT = 3024;
+    /** Camera planes are usually padded past the width. */
+    private static final int ROW_STRIDE = 4096;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private ByteBuffer frame;
+
+    @Before
+    public void drawFrame() {
+        frame = ByteBuffer.allocateDirect(ROW_STRIDE * FRAME_HEIGHT);
+        // A dark table, the page slightly tilted, staff lines every 24 rows in groups of five
+        for (int y = 0; y < FRAME_HEIGHT; y++) {
+            int shift = (y - FRAME_HEIGHT / 2) / 20;
+            int left = 700 + shift;
+            int right = FRAME_WIDTH - 700 + shift;
+            boolean page = y > 300 && y < FRAME_HEIGHT - 300;
+            boolean staffLine = (y - 500) % 24 < 3 && (y - 500) % 160 < 120;
+            for (int x = 0; x < ROW_STRIDE; x++) {
+                int value = 60;
+                if (page && x >= left && x < right) {
+                    value = staffLine && x > left + 100 && x < right - 100 ? 30 : 225;
+                }
+                frame.put(y * ROW_STRIDE + x, (byte) value);
+            }
+        }
+    }
+
+    @Test
+    public void analyzeFrame() {
+        BenchmarkState state = benchmarkRule.getState();
+        PageDetector detector = new PageDetector();
+        while (state.keepRunning()) {
+            assertTrue(detector.analyze(frame, ROW_STRIDE, FRAME_WIDTH, FRAME_HEIGHT));
+        }
+    }
+
+    @Test
+    public void rectifyPage() {
+        PageDetector detector = new PageDetector();
+        assertTrue(detector.analyze(frame, ROW_STRIDE, FRAME_WIDTH, FRAME_HEIGHT));
+        float[] quad = detector.quad.clone();
+        int[] size = new int[2];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            assertNotNull(ImagePreprocessor.rectify(frame, ROW_STRIDE, FRAME_WIDTH, FRAME_HEIGHT, quad, size));
+        }
+    }
+}
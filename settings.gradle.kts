@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "Tabler"
 include(":app")
+include(":macrobenchmark")
+include(":microbenchmark")
  
\ No newline at end of file